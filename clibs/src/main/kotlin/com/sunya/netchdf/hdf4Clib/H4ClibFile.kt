@@ -22,6 +22,8 @@ import com.sunya.cdm.array.*
 import com.sunya.cdm.layout.IndexFn
 import com.sunya.cdm.layout.IndexND
 import com.sunya.cdm.layout.MaxChunker
+import com.sunya.netchdf.hdf5Clib.NativeScratch
+import com.sunya.netchdf.hdf5Clib.toHeapBuffer
 
 import com.sunya.netchdf.mfhdfClib.ffm.mfhdf_h.*
 import java.lang.foreign.MemoryLayout
@@ -116,7 +118,7 @@ class Hdf4ClibFile(val filename: String) : Netchdf {
 fun <T> readSDdata(sdsStartId: Int, sdindex: Int, datatype: Datatype<T>, wantSection: Section, nbytes: Long): ArrayTyped<T> {
     val rank = wantSection.rank
 
-    MemorySession.openConfined().use { session ->
+    NativeScratch.use { session ->
         val intArray = MemoryLayout.sequenceLayout(rank.toLong(), C_INT)
         val origin_p = session.allocateArray(intArray, rank.toLong())
         val shape_p = session.allocateArray(intArray, rank.toLong())
@@ -132,9 +134,7 @@ fun <T> readSDdata(sdsStartId: Int, sdindex: Int, datatype: Datatype<T>, wantSec
         val sds_id = SDselect(sdsStartId, sdindex)
         try {
             checkErr("SDreaddata", SDreaddata(sds_id, origin_p, stride_p, shape_p, data_p))
-            val raw = data_p.toArray(ValueLayout.JAVA_BYTE)
-            val values = ByteBuffer.wrap(raw)
-            values.order(ByteOrder.nativeOrder())
+            val values = data_p.toHeapBuffer()
             return shapeData(datatype, values, wantSection.shape.toIntArray())
 
         } finally {
@@ -184,7 +184,7 @@ fun <T> readVSdata(fileOpenId: Int, vsInfo: VSInfo, datatype : Datatype<T>, star
 
 fun <T> readGRdata(grStartId: Int, grIdx: Int, datatype: Datatype<T>, wantSection: Section, nbytes: Long): ArrayTyped<T> {
 
-    MemorySession.openConfined().use { session ->
+    NativeScratch.use { session ->
         // flip the shape
         val rank = wantSection.rank
         val flipShape = IntArray(rank) { wantSection.shape[rank - it - 1].toInt() }
@@ -205,9 +205,7 @@ fun <T> readGRdata(grStartId: Int, grIdx: Int, datatype: Datatype<T>, wantSectio
         try {
             // intn GRreadimage(int32 ri_id, int32 start[2], int32 stride[2], int32 edge[2], VOIDP data)
             checkErr("GRreadimage", GRreadimage(grId, origin_p, stride_p, shape_p, data_p))
-            val raw = data_p.toArray(ValueLayout.JAVA_BYTE)
-            val values = ByteBuffer.wrap(raw)
-            values.order(ByteOrder.nativeOrder())
+            val values = data_p.toHeapBuffer()
             return shapeData(datatype, values, wantSection.shape.toIntArray())
             // flip the data back
             //val flipper = IndexFn(wantSection.shape.toIntArray())
@@ -541,7 +541,7 @@ fun checkErr (where : String, ret: Int) {
     }
 }
 
-internal fun <T> readRegularData(session : MemorySession, datasetId : Long, h5ctype : H5CTypeInfo, datatype : Datatype<T>, want : Section) : ArrayTyped<T> {
+internal fun <T> readRegularData(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo, datatype : Datatype<T>, want : Section) : ArrayTyped<T> {
     // int H5Dread ( long dset_id,  long mem_type_id,  long mem_space_id,  long file_space_id,  long plist_id,  Addressable buf) {
     // herr_t H5Dread(hid_t dset_id, hid_t 	mem_type_id, hid_t 	mem_space_id, hid_t file_space_id, hid_t dxpl_id, void *buf)
     //[in]	dset_id	Dataset identifier Identifier of the dataset to read from
@@ -582,7 +582,7 @@ internal fun <T> readRegularData(session : MemorySession, datasetId : Long, h5ct
     return processDataIntoArray(bb, h5ctype.datatype5, datatype, dims, h5ctype.elemSize) as ArrayTyped<T>
 }
 
-internal fun makeSection(session : MemorySession, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : Pair<Long, Long> {
+internal fun makeSection(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : Pair<Long, Long> {
     val datatype = h5ctype.datatype()
     val size = want.totalElements * h5ctype.elemSize.toLong()
     println("readRegularData want=$want nelems=${want.totalElements} $datatype size=$size")
@@ -655,7 +655,7 @@ internal fun <T> processDataIntoArray(bb: ByteBuffer, datatype5 : Datatype5, dat
 }
 
 // Put the variable length members (vlen, string) on the heap
-internal fun processCompoundData(session : MemorySession, sdataArray : ArrayStructureData, bb : ByteBuffer) : ArrayStructureData {
+internal fun processCompoundData(session : SegmentAllocator, sdataArray : ArrayStructureData, bb : ByteBuffer) : ArrayStructureData {
     sdataArray.putStringsOnHeap {  member, moffset ->
         val values = mutableListOf<String>()
         repeat(member.nelems) { idx ->
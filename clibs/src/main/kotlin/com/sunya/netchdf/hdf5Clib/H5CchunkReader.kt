@@ -0,0 +1,111 @@
+package com.sunya.netchdf.hdf5Clib
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayTyped
+import com.sunya.netchdf.hdf5.Datatype5
+import com.sunya.netchdf.hdf5.Filter
+import com.sunya.netchdf.hdf5.FilterType
+import com.sunya.netchdf.hdf5.H5chunkDecoder
+import com.sunya.netchdf.hdf5Clib.ffm.hdf5_h.*
+import java.lang.foreign.MemoryLayout
+import java.lang.foreign.MemorySegment
+import java.lang.foreign.SegmentAllocator
+import java.lang.foreign.ValueLayout
+
+private const val MAX_CLIENT_VALUES = 32
+
+/**
+ * The decoder for a chunked dataset of fixed size numbers, from its creation property list.
+ * Null if the dataset isnt chunked, or uses a filter that the core library cant decode, so it must be read with H5Dread.
+ */
+internal fun makeChunkDecoder(session : SegmentAllocator, datasetId : Long, varname : String, h5ctype : H5CTypeInfo, varShape : LongArray) : H5chunkDecoder? {
+    if (h5ctype.datatype5 != Datatype5.Fixed && h5ctype.datatype5 != Datatype5.Floating) return null
+    if (varShape.isEmpty()) return null
+
+    val plistId = H5Dget_create_plist(datasetId)
+    try {
+        if (H5Pget_layout(plistId) != H5D_CHUNKED()) return null
+
+        // int H5Pget_chunk(hid_t plist_id, int max_ndims, hsize_t dim[])
+        val rank = varShape.size
+        val dims_p = session.allocateArray(C_LONG as MemoryLayout, rank.toLong())
+        val chunkRank = H5Pget_chunk(plistId, rank, dims_p)
+        if (chunkRank != rank) return null
+        val chunkShape = LongArray(rank) { dims_p.getAtIndex(C_LONG, it.toLong()) }
+
+        // H5Z_filter_t H5Pget_filter2(hid_t plist_id, unsigned idx, unsigned int *flags, size_t *cd_nelmts,
+        //      unsigned cd_values[], size_t namelen, char name[], unsigned *filter_config)
+        val filters = mutableListOf<Filter>()
+        val nfilters = H5Pget_nfilters(plistId)
+        repeat(nfilters) { idx ->
+            val flags_p = session.allocate(C_INT)
+            val nelems_p = session.allocate(C_LONG, MAX_CLIENT_VALUES.toLong())
+            val values_p = session.allocateArray(C_INT as MemoryLayout, MAX_CLIENT_VALUES.toLong())
+            val name_p = session.allocate(MAX_NAME)
+            val config_p = session.allocate(C_INT)
+            val filterId = H5Pget_filter2(plistId, idx, flags_p, nelems_p, values_p, MAX_NAME, name_p, config_p)
+            if (filterId < 0) throw RuntimeException("H5Pget_filter2 $varname filter $idx returns $filterId")
+            val nvalues = minOf(nelems_p.get(C_LONG, 0).toInt(), MAX_CLIENT_VALUES)
+            val clientValues = IntArray(nvalues) { values_p.getAtIndex(C_INT, it.toLong()) }
+            filters.add(Filter(FilterType.fromId(filterId), name_p.getUtf8String(0), clientValues, filterId))
+        }
+        if (!H5chunkDecoder.canDecode(filters)) return null
+
+        return H5chunkDecoder(varname, varShape, chunkShape, h5ctype.elemSize, filters, h5ctype.endian)
+    } finally {
+        H5Pclose(plistId)
+    }
+}
+
+/**
+ * Read a chunked dataset by reading the raw chunks with H5Dread_chunk, and decoding them with the core filters on
+ * nthreads threads, instead of letting the C library decode them one at a time inside of H5Dread.
+ * Chunks that arent in the file get the dataset's fill value.
+ */
+internal fun <T> readChunkedData(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo, datatype : Datatype<T>,
+                                 want : Section, decoder : H5chunkDecoder, nthreads : Int) : ArrayTyped<T> {
+    val rank = want.rank.toLong()
+    val fillValue = readFillValue(session, datasetId, h5ctype)
+
+    val coord_p = session.allocateArray(C_LONG as MemoryLayout, rank)
+    val mask_p = session.allocate(C_INT)
+    val addr_p = session.allocate(C_LONG)
+    val size_p = session.allocate(C_LONG)
+    var chunk_p : MemorySegment? = null
+
+    // called only on this thread, the C library and the session arent shared with the decoding threads
+    val bb = decoder.readChunkedData(want, fillValue, nthreads) { offsets ->
+        offsets.forEachIndexed { idx, offset -> coord_p.setAtIndex(C_LONG, idx.toLong(), offset) }
+        // herr_t H5Dget_chunk_info_by_coord(hid_t dset_id, const hsize_t *offset, unsigned *filter_mask, haddr_t *addr, hsize_t *size)
+        checkErr("H5Dget_chunk_info_by_coord", H5Dget_chunk_info_by_coord(datasetId, coord_p, mask_p, addr_p, size_p))
+        val address = addr_p.get(C_LONG, 0)
+        val size = size_p.get(C_LONG, 0)
+        if (address == HADDR_UNDEF() || size == 0L) {
+            null
+        } else {
+            // one native buffer for all the chunks, since each is copied to the heap before the next is read
+            if (chunk_p == null || chunk_p!!.byteSize() < size) {
+                chunk_p = session.allocate(size)
+            }
+            val chunk = chunk_p!!.asSlice(0, size)
+            // herr_t H5Dread_chunk(hid_t dset_id, hid_t dxpl_id, const hsize_t *offset, uint32_t *filters, void *buf)
+            checkErr("H5Dread_chunk", H5Dread_chunk(datasetId, H5P_DEFAULT(), coord_p, mask_p, chunk))
+            H5chunkDecoder.RawChunk(mask_p.get(C_INT, 0), chunk.toHeapBuffer(), address)
+        }
+    }
+
+    return processDataIntoArray(bb, h5ctype.datatype5, datatype, want.shape.toIntArray(), h5ctype.elemSize)
+}
+
+// the fill value in the file's datatype; the library returns zeroes when none was set
+private fun readFillValue(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo) : ByteArray {
+    val plistId = H5Dget_create_plist(datasetId)
+    try {
+        val fill_p = session.allocate(h5ctype.elemSize.toLong())
+        // herr_t H5Pget_fill_value(hid_t plist_id, hid_t type_id, void *value)
+        checkErr("H5Pget_fill_value", H5Pget_fill_value(plistId, h5ctype.type_id, fill_p))
+        return fill_p.toArray(ValueLayout.JAVA_BYTE)
+    } finally {
+        H5Pclose(plistId)
+    }
+}
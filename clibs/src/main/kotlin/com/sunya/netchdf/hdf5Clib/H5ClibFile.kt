@@ -11,13 +11,23 @@ import com.sunya.netchdf.hdf5Clib.ffm.hdf5_h_1.H5Fclose
 import com.sunya.netchdf.hdf5Clib.ffm.hvl_t
 import java.lang.foreign.MemoryAddress
 import java.lang.foreign.MemorySegment
-import java.lang.foreign.MemorySession
+import java.lang.foreign.SegmentAllocator
 import java.lang.foreign.ValueLayout
 
-class Hdf5ClibFile(val filename: String) : Netchdf {
+/**
+ * Reads HDF5 files with the HDF5 C library.
+ * @param readRawChunks read chunked datasets of numbers with H5Dread_chunk, and decode them with the core filters on
+ *   decodeThreads threads, instead of with H5Dread, where the C library decodes them one at a time.
+ * @param decodeThreads the number of threads used to decode the chunks when readRawChunks.
+ */
+class Hdf5ClibFile(val filename: String, val readRawChunks : Boolean = false, val decodeThreads : Int = 1) : Netchdf {
     private val header = H5Cbuilder(filename)
     private val rootGroup: Group = header.rootBuilder.build(null)
 
+    init {
+        require(decodeThreads > 0)
+    }
+
     override fun rootGroup() = rootGroup
     override fun location() = filename
     override fun cdl() = cdl(this)
@@ -39,18 +49,24 @@ class Hdf5ClibFile(val filename: String) : Netchdf {
         }
         val vinfo = v2.spObject as Vinfo5C
         //    internal fun readRegularData(session : MemorySession, datasetId : Long, h5ctype : H5CTypeInfo, dims : IntArray) : ArrayTyped<*>
-        MemorySession.openConfined().use { session ->
+        NativeScratch.use { session ->
             return if (vinfo.h5ctype.isVlenString) {
                 readVlenStrings(session, vinfo.datasetId, vinfo.h5ctype, fillSection) as ArrayTyped<T>
             } else if (vinfo.h5ctype.datatype5 == Datatype5.Vlen) {
                 readVlens(session, vinfo.datasetId, vinfo.h5ctype, fillSection) as ArrayTyped<T>
             } else {
-                readRegularData(session, vinfo.datasetId, vinfo.h5ctype, vinfo.h5ctype.datatype(), fillSection) as ArrayTyped<T>
+                val decoder = if (!readRawChunks) null else
+                    makeChunkDecoder(session, vinfo.datasetId, v2.fullname(), vinfo.h5ctype, v2.shape)
+                if (decoder != null) {
+                    readChunkedData(session, vinfo.datasetId, vinfo.h5ctype, vinfo.h5ctype.datatype(), fillSection, decoder, decodeThreads) as ArrayTyped<T>
+                } else {
+                    readRegularData(session, vinfo.datasetId, vinfo.h5ctype, vinfo.h5ctype.datatype(), fillSection) as ArrayTyped<T>
+                }
             }
         }
     }
 
-    internal fun readVlenStrings(session : MemorySession, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : ArrayString {
+    internal fun readVlenStrings(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : ArrayString {
         val (memSpaceId, fileSpaceId) = makeSection(session, datasetId, h5ctype, want)
         val nelems = want.totalElements
         val strings_p: MemorySegment = session.allocateArray(ValueLayout.ADDRESS, nelems)
@@ -74,7 +90,7 @@ class Hdf5ClibFile(val filename: String) : Netchdf {
         return ArrayString(want.shape.toIntArray(), slist)
     }
 
-    internal fun readVlens(session : MemorySession, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : ArrayVlen<*> {
+    internal fun readVlens(session : SegmentAllocator, datasetId : Long, h5ctype : H5CTypeInfo, want : Section) : ArrayVlen<*> {
         val (memSpaceId, fileSpaceId) = makeSection(session, datasetId, h5ctype, want)
         val nelems = want.totalElements
         val vlen_p: MemorySegment = hvl_t.allocateArray(nelems.toInt(), session)
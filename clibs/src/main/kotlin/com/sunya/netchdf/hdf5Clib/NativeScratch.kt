@@ -0,0 +1,87 @@
+package com.sunya.netchdf.hdf5Clib
+
+import java.lang.foreign.MemorySegment
+import java.lang.foreign.MemorySession
+import java.lang.foreign.SegmentAllocator
+import java.lang.foreign.ValueLayout
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Native memory for the arguments and results of the C library calls, kept by each thread and reused,
+ * so that each read doesnt open a MemorySession, and allocate and free its native memory.
+ *
+ * Inside use(), allocations are sliced off the thread's scratch segment. The ones that dont fit come from a session
+ * that is closed at the end of use(), and the scratch segment is made big enough for next time, up to maxScratchBytes.
+ * The memory is only valid inside use(). A nested use() on the same thread gets its own session.
+ */
+object NativeScratch {
+    const val maxScratchBytes = 64L * 1024 * 1024
+    private const val initialScratchBytes = 64L * 1024
+
+    private val scratch = ThreadLocal.withInitial { Scratch() }
+
+    // inline, like MemorySession.use(), so block can return from the enclosing function
+    inline fun <R> use(block : (SegmentAllocator) -> R) : R {
+        val scratch = acquire() ?: return MemorySession.openConfined().use { session -> block(session) }
+        try {
+            return block(scratch)
+        } finally {
+            release()
+        }
+    }
+
+    /** This thread's scratch allocator, or null if its already in use. */
+    @PublishedApi
+    internal fun acquire() : SegmentAllocator? {
+        val scratch = scratch.get()
+        if (scratch.inUse) return null
+        scratch.inUse = true
+        return scratch
+    }
+
+    @PublishedApi
+    internal fun release() {
+        scratch.get().reset()
+    }
+
+    private class Scratch : SegmentAllocator {
+        var inUse = false
+        // an implicit session is freed when its no longer reachable, that is, after the thread is gone
+        private var segment = MemorySegment.allocateNative(initialScratchBytes, MemorySession.openImplicit())
+        private var used = 0L
+        private var overflowBytes = 0L
+        private var overflow : MemorySession? = null
+
+        // like MemorySession, the memory is zeroed
+        override fun allocate(bytesSize : Long, bytesAlignment : Long) : MemorySegment {
+            val start = (used + bytesAlignment - 1) and (bytesAlignment - 1).inv()
+            if (start + bytesSize <= segment.byteSize()) {
+                used = start + bytesSize
+                return segment.asSlice(start, bytesSize).fill(0)
+            }
+            overflowBytes += bytesSize + bytesAlignment
+            val session = overflow ?: MemorySession.openConfined().also { overflow = it }
+            return MemorySegment.allocateNative(bytesSize, bytesAlignment, session)
+        }
+
+        fun reset() {
+            overflow?.close()
+            overflow = null
+            val wanted = used + overflowBytes
+            if (wanted > segment.byteSize() && wanted <= maxScratchBytes) {
+                segment = MemorySegment.allocateNative(maxOf(wanted, 2 * segment.byteSize()), MemorySession.openImplicit())
+            }
+            used = 0
+            overflowBytes = 0
+            inUse = false
+        }
+    }
+}
+
+/** Bulk copy of the native values into a heap ByteBuffer, in native byte order, which is what the C libraries return. */
+fun MemorySegment.toHeapBuffer() : ByteBuffer {
+    val bb = ByteBuffer.wrap(this.toArray(ValueLayout.JAVA_BYTE))
+    bb.order(ByteOrder.nativeOrder())
+    return bb
+}
@@ -3,7 +3,9 @@ package com.sunya.netchdf.netcdfClib
 import com.sunya.cdm.api.*
 import com.sunya.cdm.array.*
 import com.sunya.cdm.layout.MaxChunker
+import com.sunya.netchdf.hdf5Clib.NativeScratch
 import com.sunya.netchdf.hdf5Clib.ffm.hdf5_h
+import com.sunya.netchdf.hdf5Clib.toHeapBuffer
 import com.sunya.netchdf.netcdfClib.ffm.nc_vlen_t
 import com.sunya.netchdf.netcdfClib.ffm.netcdf_h.*
 import java.lang.foreign.*
@@ -76,11 +78,11 @@ class NClibFile(val filename: String) : Netchdf {
         val datatype = header.convertType(vinfo.typeid)
         val userType = header.userTypes[vinfo.typeid]
 
-        MemorySession.openConfined().use { session ->
+        NativeScratch.use { arena ->
             val longArray = MemoryLayout.sequenceLayout(v2.rank.toLong(), C_LONG)
-            val origin_p = session.allocateArray(longArray, v2.rank.toLong())
-            val shape_p = session.allocateArray(longArray, v2.rank.toLong())
-            val stride_p = session.allocateArray(longArray, v2.rank.toLong())
+            val origin_p = arena.allocateArray(longArray, v2.rank.toLong())
+            val shape_p = arena.allocateArray(longArray, v2.rank.toLong())
+            val stride_p = arena.allocateArray(longArray, v2.rank.toLong())
             for (idx in 0 until wantSection.rank) {
                 val range = wantSection.ranges[idx]
                 origin_p.setAtIndex(hdf5_h.C_LONG, idx.toLong(), range.first)
@@ -93,7 +95,7 @@ class NClibFile(val filename: String) : Netchdf {
                 Datatype.VLEN -> {
                     val basetype = header.convertType(userType!!.baseTypeid)
                     // an array of vlen structs. each vlen has an address and a size
-                    val vlen_p = nc_vlen_t.allocateArray(nelems.toInt(), session)
+                    val vlen_p = nc_vlen_t.allocateArray(nelems.toInt(), arena)
                     checkErr("vlen nc_get_vars", nc_get_vars(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, vlen_p))
 
                     // each vlen pointer is the address of the vlen array of length arraySize
@@ -114,7 +116,7 @@ class NClibFile(val filename: String) : Netchdf {
                     require(datatype.typedef is CompoundTypedef)
 
                     val nbytes = nelems * userType.size // LOOK relation of userType.size to datatype.size ??
-                    val val_p = session.allocate(nbytes)
+                    val val_p = arena.allocate(nbytes)
                     checkErr("compound nc_get_vars", nc_get_vars(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
                     val bb = ByteBuffer.wrap(raw)
@@ -142,13 +144,12 @@ class NClibFile(val filename: String) : Netchdf {
 
                 Datatype.ENUM1, Datatype.ENUM2, Datatype.ENUM4 -> {
                     val nbytes = nelems * datatype.size
-                    val val_p = session.allocate(nbytes)
+                    val val_p = arena.allocate(nbytes)
                     // int 	nc_get_var (int ncid, int varid, void *ip)
                     // 	Read an entire variable in one call.
                     // nc_get_vara (int ncid, int varid, const size_t *startp, const size_t *countp, void *ip)
                     checkErr("enum nc_get_vars", nc_get_vars(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
-                    val values = ByteBuffer.wrap(raw)
+                    val values = val_p.toHeapBuffer()
                     when (datatype) {
                         Datatype.ENUM1 -> return ArrayUByte(shape, datatype as Datatype<UByte>, values) as ArrayTyped<T>
                         Datatype.ENUM2 -> return ArrayUShort(shape, datatype as Datatype<UShort>, values) as ArrayTyped<T>
@@ -158,7 +159,7 @@ class NClibFile(val filename: String) : Netchdf {
                 }
 
                 Datatype.BYTE -> {
-                    val val_p = session.allocate(nelems)
+                    val val_p = arena.allocate(nelems)
                     checkErr("nc_get_vars_schar",
                         nc_get_vars_schar(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
@@ -167,7 +168,7 @@ class NClibFile(val filename: String) : Netchdf {
                 }
 
                 Datatype.UBYTE -> {
-                    val val_p = session.allocate(nelems)
+                    val val_p = arena.allocate(nelems)
                     checkErr("nc_get_vars_uchar",
                         nc_get_vars_uchar(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
@@ -176,7 +177,7 @@ class NClibFile(val filename: String) : Netchdf {
                 }
 
                 Datatype.CHAR -> {
-                    val val_p = session.allocate(nelems)
+                    val val_p = arena.allocate(nelems)
                     checkErr("nc_get_vars_text",
                         nc_get_vars_text(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
@@ -185,108 +186,75 @@ class NClibFile(val filename: String) : Netchdf {
                 }
 
                 Datatype.DOUBLE -> {
-                    // can you allocate DoubleBuffer on heap directly?
-                    val val_p = session.allocateArray(C_DOUBLE, nelems)
+                    val val_p = arena.allocateArray(C_DOUBLE, nelems)
                     checkErr("nc_get_vars_double",
                         nc_get_vars_double(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(8 * nelems.toInt())
-                    val dvalues = values.asDoubleBuffer()
-                    for (i in 0 until nelems) {
-                        dvalues.put(i.toInt(), val_p.getAtIndex(C_DOUBLE, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayDouble(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.FLOAT -> {
-                    val val_p = session.allocateArray(C_FLOAT, nelems)
+                    val val_p = arena.allocateArray(C_FLOAT, nelems)
                     checkErr("nc_get_vars_float",
                         nc_get_vars_float(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(4 * nelems.toInt())
-                    val fvalues = values.asFloatBuffer()
-                    for (i in 0 until nelems) {
-                        fvalues.put(i.toInt(), val_p.getAtIndex(C_FLOAT, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayFloat(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.INT -> {
                     // nc_get_vars_int(int ncid, int varid, const size_t *startp, const size_t *countp, const ptrdiff_t *stridep, int *ip);
-                    val val_p = session.allocateArray(C_INT, nelems)
+                    val val_p = arena.allocateArray(C_INT, nelems)
                     checkErr("nc_get_vars_int",
                         nc_get_vars_int(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(4 * nelems.toInt())
-                    val ivalues = values.asIntBuffer()
-                    for (i in 0 until nelems) {
-                        ivalues.put(i.toInt(), val_p.getAtIndex(C_INT, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayInt(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.UINT -> {
                     // nc_get_vars_int(int ncid, int varid, const size_t *startp, const size_t *countp, const ptrdiff_t *stridep, int *ip);
-                    val val_p = session.allocateArray(C_INT, nelems)
+                    val val_p = arena.allocateArray(C_INT, nelems)
                     checkErr("nc_get_vars_uint",
                         nc_get_vars_uint(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(4 * nelems.toInt())
-                    val ivalues = values.asIntBuffer()
-                    for (i in 0 until nelems) {
-                        ivalues.put(i.toInt(), val_p.getAtIndex(C_INT, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayUInt(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.LONG -> {
                     // nc_get_vars_int(int ncid, int varid, const size_t *startp, const size_t *countp, const ptrdiff_t *stridep, int *ip);
-                    val val_p = session.allocateArray(C_LONG as MemoryLayout, nelems)
+                    val val_p = arena.allocateArray(C_LONG as MemoryLayout, nelems)
                     checkErr("nc_get_vars_long",
                         nc_get_vars_long(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(8 * nelems.toInt())
-                    val lvalues = values.asLongBuffer()
-                    for (i in 0 until nelems) {
-                        lvalues.put(i.toInt(), val_p.getAtIndex(C_LONG, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayLong(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.ULONG -> {
                     // nc_get_vars_int(int ncid, int varid, const size_t *startp, const size_t *countp, const ptrdiff_t *stridep, int *ip);
-                    val val_p = session.allocateArray(C_LONG  as MemoryLayout, nelems)
+                    val val_p = arena.allocateArray(C_LONG  as MemoryLayout, nelems)
                     checkErr("nc_get_vars_ulonglong",
                         nc_get_vars_ulonglong(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(8 * nelems.toInt())
-                    val lvalues = values.asLongBuffer()
-                    for (i in 0 until nelems) {
-                        lvalues.put(i.toInt(), val_p.getAtIndex(C_LONG, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayULong(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.SHORT -> {
-                    val val_p = session.allocateArray(C_SHORT, nelems)
+                    val val_p = arena.allocateArray(C_SHORT, nelems)
                     checkErr("nc_get_vars_short",
                         nc_get_vars_short(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(2 * nelems.toInt())
-                    val svalues = values.asShortBuffer()
-                    for (i in 0 until nelems) {
-                        svalues.put(i.toInt(), val_p.getAtIndex(C_SHORT, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayShort(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.USHORT -> {
-                    val val_p = session.allocateArray(C_SHORT, nelems)
+                    val val_p = arena.allocateArray(C_SHORT, nelems)
                     checkErr("nc_get_vars_ushort",
                         nc_get_vars_ushort(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
-                    val values = ByteBuffer.allocate(2 * nelems.toInt())
-                    val svalues = values.asShortBuffer()
-                    for (i in 0 until nelems) {
-                        svalues.put(i.toInt(), val_p.getAtIndex(C_SHORT, i))
-                    }
+                    val values = val_p.toHeapBuffer()
                     return ArrayUShort(shape, values) as ArrayTyped<T>
                 }
 
                 Datatype.STRING -> {
-                    val val_p = session.allocateArray(ValueLayout.ADDRESS, nelems)
+                    val val_p = arena.allocateArray(ValueLayout.ADDRESS, nelems)
                     checkErr("nc_get_vars_string",
                         nc_get_vars_string(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val values = mutableListOf<String>()
@@ -297,7 +265,7 @@ class NClibFile(val filename: String) : Netchdf {
                 }
 
                 Datatype.OPAQUE -> {
-                    val val_p = session.allocate(nelems * userType!!.size)
+                    val val_p = arena.allocate(nelems * userType!!.size)
                     checkErr("opaque nc_get_var", nc_get_vars(vinfo.g4.grpid, vinfo.varid, origin_p, shape_p, stride_p, val_p))
                     val raw = val_p.toArray(ValueLayout.JAVA_BYTE)
                     val bb = ByteBuffer.wrap(raw)
@@ -0,0 +1,56 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.api.Variable
+import com.sunya.cdm.api.computeSize
+import com.sunya.cdm.util.Stats
+import com.sunya.netchdf.hdf4Clib.Hdf4ClibFile
+import com.sunya.testdata.H4Files
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.Arguments
+import org.junit.jupiter.params.provider.MethodSource
+import java.util.stream.Stream
+import kotlin.system.measureNanoTime
+
+// Time reading all the variables with Hdf4File, which decodes RLE, NBIT, skipping huffman, deflate and szip itself,
+// against the C library on the same files.
+class H4decodeTiming {
+
+    companion object {
+        @JvmStatic
+        fun params(): Stream<Arguments> {
+            return H4Files.params()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            Stats.show()
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("params")
+    fun timeData(filename: String) {
+        Hdf4File(filename).use { myfile ->
+            Hdf4ClibFile(filename).use { cfile ->
+                myfile.rootGroup().allVariables().forEach { myvar ->
+                    val cvar = cfile.rootGroup().allVariables().find { it.fullname() == myvar.fullname() }
+                    if (cvar != null && myvar.nelems > 0) {
+                        timeRead(myvar, filename, "netchdf") { myfile.readArrayData(myvar, null).shape.computeSize() }
+                        timeRead(cvar, filename, "hdf4clib") { cfile.readArrayData(cvar, null).shape.computeSize() }
+                    }
+                }
+            }
+        }
+    }
+
+    private fun timeRead(v: Variable<*>, what: String, reader: String, read: () -> Int) {
+        var nvalues = 0
+        val nanos = measureNanoTime { nvalues = read() }
+        Stats.of(reader, what, "values").accum(nanos, nvalues)
+        if (showDetail) println(" $reader ${v.fullname()} $what took ${nanos / 1000} usecs for $nvalues values")
+    }
+}
+
+private const val showDetail = false
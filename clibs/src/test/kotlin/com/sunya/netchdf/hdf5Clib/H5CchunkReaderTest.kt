@@ -0,0 +1,68 @@
+package com.sunya.netchdf.hdf5Clib
+
+import com.sunya.cdm.api.SectionPartial
+import com.sunya.cdm.util.Stats
+import com.sunya.testdata.testData
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+
+// Compare reading compressed chunked variables with H5Dread, and with H5Dread_chunk and the core filters.
+class H5CchunkReaderTest {
+
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            Stats.clear()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            Stats.show()
+        }
+    }
+
+    @Test
+    fun timeGoes16() {
+        timeRawChunks(testData + "cdmUnitTest/formats/netcdf4/goes16/OR_ABI-L2-CMIPF-M6C13_G16_s20230451800207_e20230451809526_c20230451810015.nc", "CMI")
+    }
+
+    @Test
+    fun timeUpperDeschutes() {
+        timeRawChunks(testData + "cdmUnitTest/formats/netcdf4/UpperDeschutes_t4p10_swemelt.nc", "UpperDeschutes_t4p10_swemelt")
+    }
+
+    fun timeRawChunks(filename : String, varname : String, section : SectionPartial? = null, ntrials : Int = 3) {
+        val shortName = filename.substringAfterLast('/')
+        println("$shortName $varname cores = ${Runtime.getRuntime().availableProcessors()}")
+
+        var expected : Any? = null
+        Hdf5ClibFile(filename).use { h5file ->
+            val v2 = h5file.rootGroup().allVariables().find { it.fullname() == varname } ?: throw RuntimeException("cant find $varname")
+            repeat(ntrials) {
+                val time = measureNanoTime {
+                    expected = h5file.readArrayData(v2, section)
+                }
+                Stats.of("H5Dread", shortName, "read").accum(time, 1)
+            }
+        }
+
+        for (nthreads in listOf(1, 4, 16)) {
+            Hdf5ClibFile(filename, readRawChunks = true, decodeThreads = nthreads).use { h5file ->
+                val v2 = h5file.rootGroup().allVariables().find { it.fullname() == varname }!!
+                repeat(ntrials) {
+                    var data : Any? = null
+                    val time = measureNanoTime {
+                        data = h5file.readArrayData(v2, section)
+                    }
+                    assertEquals(expected, data)
+                    Stats.of("H5Dread_chunk decodeThreads=$nthreads", shortName, "read").accum(time, 1)
+                }
+            }
+        }
+    }
+}
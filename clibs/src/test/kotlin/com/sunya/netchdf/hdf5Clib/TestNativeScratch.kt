@@ -0,0 +1,76 @@
+package com.sunya.netchdf.hdf5Clib
+
+import org.junit.jupiter.api.Test
+import java.lang.foreign.MemorySession
+import java.lang.foreign.ValueLayout
+import java.nio.ByteOrder
+import kotlin.system.measureNanoTime
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.hdf5Clib.NativeScratch] */
+class TestNativeScratch {
+
+    @Test
+    fun testReuse() {
+        val address1 = NativeScratch.use { arena ->
+            val seg = arena.allocateArray(ValueLayout.JAVA_LONG, 10)
+            seg.setAtIndex(ValueLayout.JAVA_LONG, 9, 42L)
+            seg.address().toRawLongValue()
+        }
+        // the same memory next time, zeroed
+        NativeScratch.use { arena ->
+            val seg = arena.allocateArray(ValueLayout.JAVA_LONG, 10)
+            assertEquals(address1, seg.address().toRawLongValue())
+            assertEquals(0L, seg.getAtIndex(ValueLayout.JAVA_LONG, 9))
+        }
+    }
+
+    @Test
+    fun testOverflowAndNested() {
+        val big = 10_000_000L
+        NativeScratch.use { arena ->
+            val small = arena.allocate(100)
+            val large = arena.allocate(big) // doesnt fit
+            large.set(ValueLayout.JAVA_BYTE, big - 1, 1)
+            NativeScratch.use { nested ->
+                val other = nested.allocate(100)
+                assertTrue(other.address().toRawLongValue() != small.address().toRawLongValue())
+            }
+        }
+        // now it fits in the scratch segment
+        NativeScratch.use { arena ->
+            val large = arena.allocate(big)
+            assertEquals(0.toByte(), large.get(ValueLayout.JAVA_BYTE, big - 1))
+        }
+    }
+
+    @Test
+    fun testToHeapBuffer() {
+        val n = 1000
+        NativeScratch.use { arena ->
+            val seg = arena.allocateArray(ValueLayout.JAVA_DOUBLE, n.toLong())
+            repeat(n) { seg.setAtIndex(ValueLayout.JAVA_DOUBLE, it.toLong(), it * 1.5) }
+            val bb = seg.toHeapBuffer()
+            assertEquals(ByteOrder.nativeOrder(), bb.order())
+            assertContentEquals(DoubleArray(n) { it * 1.5 }, DoubleArray(n) { bb.getDouble(8 * it) })
+        }
+    }
+
+    @Test
+    fun timeToHeapBuffer() {
+        val n = 10_000_000L
+        MemorySession.openConfined().use { session ->
+            val seg = session.allocateArray(ValueLayout.JAVA_DOUBLE, n)
+            val perElement = measureNanoTime {
+                val values = java.nio.ByteBuffer.allocate(8 * n.toInt()).asDoubleBuffer()
+                for (i in 0 until n) {
+                    values.put(i.toInt(), seg.getAtIndex(ValueLayout.JAVA_DOUBLE, i))
+                }
+            }
+            val bulk = measureNanoTime { seg.toHeapBuffer() }
+            println("copy $n doubles: per element ${perElement / 1000} usecs, bulk ${bulk / 1000} usecs")
+        }
+    }
+}
@@ -2,24 +2,47 @@ package com.sunya.cdm.api
 
 import com.sunya.cdm.util.makeValidCdmObjectName
 
-class Group(orgName : String,
-            val typedefs : List<Typedef>,
-            val dimensions : List<Dimension>,
-            val attributes : List<Attribute<*>>,
-            variableBuilders : List<Variable.Builder<*>>,
-            groupBuilders : List<Group.Builder>,
-            val parent: Group?
-    ) {
-    val name : String
-    val variables : List<Variable<*>>
-    val groups : List<Group>
-
-    init {
-        name = makeValidCdmObjectName(orgName)
-        variables = variableBuilders.map { it.build(this) }
-        groups = groupBuilders.map { it.build(this) }
+class Group private constructor(orgName : String, val parent: Group?, contents : () -> Contents) {
+
+    constructor(orgName : String,
+                typedefs : List<Typedef>,
+                dimensions : List<Dimension>,
+                attributes : List<Attribute<*>>,
+                variableBuilders : List<Variable.Builder<*>>,
+                groupBuilders : List<Group.Builder>,
+                parent: Group?
+    ) : this(orgName, parent, { Contents(typedefs, dimensions, attributes, variableBuilders, groupBuilders) }) {
+        // eager: make the variables and nested groups now
+        members.value
     }
 
+    val name : String = makeValidCdmObjectName(orgName)
+
+    // The typedefs, dimensions and attributes are made before the variables and nested groups, which look for them.
+    // For a lazy group (see Group.Builder.setContentsLoader), nothing is made until one of them is first used.
+    private val header = lazy { contents() }
+    private val members = lazy { Members(header.value.variableBuilders.map { it.build(this) }, header.value.groupBuilders.map { it.build(this) }) }
+
+    val typedefs : List<Typedef> get() = header.value.typedefs
+    val dimensions : List<Dimension> get() = header.value.dimensions
+    val attributes : List<Attribute<*>> get() = header.value.attributes
+    val variables : List<Variable<*>> get() = members.value.variables
+    val groups : List<Group> get() = members.value.groups
+
+    /** If the contents of this group have been made; always true unless its a lazy group. */
+    val isLoaded : Boolean get() = members.isInitialized()
+
+    // what a Group is made from
+    private class Contents(
+        val typedefs : List<Typedef>,
+        val dimensions : List<Dimension>,
+        val attributes : List<Attribute<*>>,
+        val variableBuilders : List<Variable.Builder<*>>,
+        val groupBuilders : List<Group.Builder>,
+    )
+
+    private class Members(val variables : List<Variable<*>>, val groups : List<Group>)
+
     fun fullname() : String {
         return if (parent == null) "" else "${parent.fullname()}/$name"
     }
@@ -113,6 +136,16 @@ class Group(orgName : String,
         val variables = mutableListOf<Variable.Builder<*>>()
         val groups = mutableListOf<Group.Builder>()
         var parent : Group.Builder? = null
+        private var contentsLoader : ((Group.Builder) -> Unit)? = null
+
+        /**
+         * Make a lazy group: loader adds the group's contents to this builder when the built Group is first used,
+         * rather than before it is built. The loader may add nested lazy groups. It is called at most once.
+         */
+        fun setContentsLoader(loader : (Group.Builder) -> Unit) : Builder {
+            this.contentsLoader = loader
+            return this
+        }
 
         // add if dim name not already added, else RuntimeException.
         fun addDimension(dim: Dimension) : Builder {
@@ -182,6 +215,7 @@ class Group(orgName : String,
         }
 
         fun removeEmptyGroups() : Boolean {
+            if (contentsLoader != null) return false // not loaded yet
             this.groups.removeAll { subgroup -> subgroup.removeEmptyGroups() }
             return (this.groups.isEmpty() && this.variables.isEmpty() && this.attributes.isEmpty()
                     && this.typedefs.isEmpty() && this.dimensions.isEmpty())
@@ -228,7 +262,13 @@ class Group(orgName : String,
             check(!built) { "Group '${this.name}' was already built"}
             built = true
             val useName = makeValidCdmObjectName(name)
-            return Group(useName, typedefs, dimensions, attributes, variables, groups, parent)
+            val loader = contentsLoader ?: return Group(useName, typedefs, dimensions, attributes, variables, groups, parent)
+            return Group(useName, parent) {
+                loader(this)
+                contentsLoader = null
+                Contents(typedefs, dimensions, attributes, variables, groups)
+            }
         }
     }
-}
\ No newline at end of file
+}
+
@@ -17,13 +17,42 @@ interface Netchdf : Closeable {
 
     @Throws(IOException::class, InvalidRangeException::class)
     fun <T> chunkIterator(v2: Variable<T>, section: SectionPartial? = null, maxElements : Int? = null) : Iterator<ArraySection<T>>
+
+    /**
+     * The same chunks as chunkIterator, in the same order, but found without being read.
+     * Each ChunkRead can then be read on any thread, in any order.
+     * By default the chunks are read as they are found, for formats that can only be read serially.
+     */
+    @Throws(IOException::class, InvalidRangeException::class)
+    fun <T> chunkReads(v2: Variable<T>, section: SectionPartial? = null, maxElements : Int? = null) : Iterator<ChunkRead<T>> {
+        return chunkIterator(v2, section, maxElements).asSequence().map { arraySection ->
+            ChunkRead(arraySection.section, arraySection.section.totalElements * v2.datatype.size) { arraySection }
+        }.iterator()
+    }
 }
 
 data class ArraySection<T>(val array : ArrayTyped<T>, val section : Section)
 
-// Experimental
-fun <T> Netchdf.chunkConcurrent(v2: Variable<T>, section: SectionPartial? = null, maxElements : Int? = null, lamda : (ArraySection<T>) -> Unit) {
-    val reader = ReadChunkConcurrent()
-    val chunkIter = this.chunkIterator( v2, section, maxElements)
-    reader.readChunks(20, chunkIter, lamda)
+/**
+ * A chunk of a variable that has been found but not yet read.
+ * @param section the section of the variable that read() returns
+ * @param nbytes approximate size in bytes of the array that read() returns
+ * @param read reads and decodes the chunk. Safe to call from any thread.
+ */
+class ChunkRead<T>(val section : Section, val nbytes : Long, val read : () -> ArraySection<T>)
+
+/**
+ * Read the chunks of a variable in parallel, passing each one to lamda.
+ * @param nthreads the number of chunks to read and decode at the same time
+ * @param maxBytesInFlight the chunks that have been started but not yet passed to lamda are limited to this many bytes
+ * @param ordered if true, lamda is called on one thread with the chunks in chunkIterator order;
+ *   otherwise lamda is called from nthreads threads, in the order the chunks finish, and must be thread safe.
+ */
+fun <T> Netchdf.chunkConcurrent(v2: Variable<T>, section: SectionPartial? = null, maxElements : Int? = null,
+                                nthreads : Int = ReadChunkConcurrent.defaultThreads,
+                                maxBytesInFlight : Long = ReadChunkConcurrent.defaultMaxBytesInFlight,
+                                ordered : Boolean = false,
+                                lamda : (ArraySection<T>) -> Unit) {
+    val reader = ReadChunkConcurrent(nthreads, maxBytesInFlight)
+    reader.readChunks(this.chunkReads(v2, section, maxElements), ordered, lamda)
 }
\ No newline at end of file
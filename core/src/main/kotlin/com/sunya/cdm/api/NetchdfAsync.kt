@@ -0,0 +1,38 @@
+package com.sunya.cdm.api
+
+import com.sunya.cdm.array.ArrayTyped
+import com.sunya.cdm.iosp.ReadChunkConcurrent
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.withContext
+
+/**
+ * Suspending versions of the Netchdf reads.
+ * The file reads are blocking positional reads on a FileChannel, so they are done on netchdfDispatcher,
+ * and the calling coroutine is suspended, not blocked, while they are done.
+ * Many reads on the same file can be in progress at once.
+ */
+
+/** The dispatcher that the suspending reads are done on. Separate from Dispatchers.IO's limit, but shares its threads. */
+@OptIn(ExperimentalCoroutinesApi::class)
+val netchdfDispatcher : CoroutineDispatcher = Dispatchers.IO.limitedParallelism(64)
+
+/** Suspending version of readArrayData. */
+suspend fun <T> Netchdf.readArrayDataAsync(v2: Variable<T>, section: SectionPartial? = null) : ArrayTyped<T> {
+    return withContext(netchdfDispatcher) { readArrayData(v2, section) }
+}
+
+/**
+ * The same chunks as chunkIterator, in the same order, as a cold Flow.
+ * Up to nthreads chunks ahead of the collector are read at the same time, limited to maxBytesInFlight bytes.
+ * The collector is never blocked by file reads. Cancelling the collection cancels the reads.
+ */
+fun <T> Netchdf.chunkFlow(v2: Variable<T>, section: SectionPartial? = null, maxElements : Int? = null,
+                          nthreads : Int = ReadChunkConcurrent.defaultThreads,
+                          maxBytesInFlight : Long = ReadChunkConcurrent.defaultMaxBytesInFlight) : Flow<ArraySection<T>> = flow {
+    val chunkReads = withContext(netchdfDispatcher) { chunkReads(v2, section, maxElements) }
+    ReadChunkConcurrent(nthreads, maxBytesInFlight, netchdfDispatcher).process(chunkReads, true) { emit(it) }
+}
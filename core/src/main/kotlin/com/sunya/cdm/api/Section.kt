@@ -2,7 +2,10 @@ package com.sunya.cdm.api
 
 import java.util.*
 
-/** A filled section of multidimensional array indices, plus the variable shape. */
+/**
+ * A filled section of multidimensional array indices, plus the variable shape.
+ * The ranges may have a stride, so shape is the number of indices in each range.
+ */
 data class Section(val ranges : List<LongProgression>, val varShape : LongArray) {
     val rank = ranges.size
     val shape : LongArray // or IntArray ??
@@ -10,7 +13,7 @@ data class Section(val ranges : List<LongProgression>, val varShape : LongArray)
 
     init {
         ranges.forEach { require(it.last - it.first + 1 < Int.MAX_VALUE) }
-        shape = ranges.map { (it.last - it.first + 1) }.toLongArray()
+        shape = ranges.map { if (it.isEmpty()) 0L else (it.last - it.first) / it.step + 1 }.toLongArray()
         totalElements = shape.computeSize()
         require(totalElements >= 0) // make sure no overflow
     }
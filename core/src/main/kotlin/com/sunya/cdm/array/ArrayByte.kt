@@ -2,19 +2,69 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
 
-class ArrayByte(shape : IntArray, val values : ByteBuffer) : ArrayTyped<Byte>(values, Datatype.BYTE, shape) {
+class ArrayByte internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Byte>(bb, Datatype.BYTE, shape, view) {
+
+    constructor(shape : IntArray, values : ByteBuffer) : this(shape, values, null)
+
+    @PublishedApi
+    internal val backingValues = backing
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getByte() and forEachByte(). */
+    val values : ByteBuffer
+        get() = bb
 
     override fun iterator(): Iterator<Byte> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Byte>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getByte(idx++))
     }
 
-    override fun section(section : Section) : ArrayByte {
-        return ArrayByte(section.shape.toIntArray(), sectionFrom(section))
+    /** The value of the 1D element, without boxing. */
+    fun getByte(elem : Int) : Byte = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getByte(index : IntArray) : Byte = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : ByteArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : ByteArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
     }
 
+    /** All the values in a new ByteArray. */
+    fun toByteArray() : ByteArray = copyInto(ByteArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachByte(action : (Byte) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachByte {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
+    }
+
+    override fun section(section : Section) : ArrayByte {
+        return sectionFrom(section) { shape, bb, view -> ArrayByte(shape, bb, view) }
+    }
 }
\ No newline at end of file
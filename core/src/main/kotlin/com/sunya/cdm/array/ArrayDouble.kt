@@ -2,19 +2,71 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.DoubleBuffer
 
-class ArrayDouble(shape : IntArray, bb : ByteBuffer) : ArrayTyped<Double>(bb, Datatype.DOUBLE, shape) {
-    val values = bb.asDoubleBuffer()
+class ArrayDouble internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Double>(bb, Datatype.DOUBLE, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asDoubleBuffer()
+    private var contiguousValues : DoubleBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getDouble() and forEachDouble(). */
+    val values : DoubleBuffer
+        get() = contiguousValues ?: bb.asDoubleBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<Double> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Double>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getDouble(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getDouble(elem : Int) : Double = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getDouble(index : IntArray) : Double = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : DoubleArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : DoubleArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** All the values in a new DoubleArray. */
+    fun toDoubleArray() : DoubleArray = copyInto(DoubleArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachDouble(action : (Double) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachDouble {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayDouble {
-        return ArrayDouble(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayDouble(shape, bb, view) }
     }
 }
\ No newline at end of file
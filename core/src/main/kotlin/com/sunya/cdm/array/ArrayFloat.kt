@@ -2,20 +2,71 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.FloatBuffer
 
-class ArrayFloat(shape : IntArray, bb : ByteBuffer) : ArrayTyped<Float>(bb, Datatype.FLOAT, shape) {
-    val values = bb.asFloatBuffer()
+class ArrayFloat internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Float>(bb, Datatype.FLOAT, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asFloatBuffer()
+    private var contiguousValues : FloatBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getFloat() and forEachFloat(). */
+    val values : FloatBuffer
+        get() = contiguousValues ?: bb.asFloatBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<Float> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Float>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getFloat(idx++))
     }
 
-    override fun section(section : Section) : ArrayFloat {
-        return ArrayFloat(section.shape.toIntArray(), sectionFrom(section))
+    /** The value of the 1D element, without boxing. */
+    fun getFloat(elem : Int) : Float = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getFloat(index : IntArray) : Float = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : FloatArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : FloatArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
     }
 
+    /** All the values in a new FloatArray. */
+    fun toFloatArray() : FloatArray = copyInto(FloatArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachFloat(action : (Float) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachFloat {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
+    }
+
+    override fun section(section : Section) : ArrayFloat {
+        return sectionFrom(section) { shape, bb, view -> ArrayFloat(shape, bb, view) }
+    }
 }
\ No newline at end of file
@@ -2,19 +2,71 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.IntBuffer
 
-class ArrayInt(shape : IntArray, bb : ByteBuffer) : ArrayTyped<Int>(bb, Datatype.INT, shape) {
-    val values = bb.asIntBuffer()
+class ArrayInt internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Int>(bb, Datatype.INT, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asIntBuffer()
+    private var contiguousValues : IntBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getInt() and forEachInt(). */
+    val values : IntBuffer
+        get() = contiguousValues ?: bb.asIntBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<Int> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Int>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getInt(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getInt(elem : Int) : Int = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getInt(index : IntArray) : Int = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : IntArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : IntArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** All the values in a new IntArray. */
+    fun toIntArray() : IntArray = copyInto(IntArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachInt(action : (Int) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachInt {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayInt {
-        return ArrayInt(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayInt(shape, bb, view) }
     }
 }
\ No newline at end of file
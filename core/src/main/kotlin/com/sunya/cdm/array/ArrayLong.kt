@@ -2,19 +2,71 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.LongBuffer
 
-class ArrayLong(shape : IntArray, bb : ByteBuffer) : ArrayTyped<Long>(bb, Datatype.LONG, shape) {
-    val values = bb.asLongBuffer()
+class ArrayLong internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Long>(bb, Datatype.LONG, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asLongBuffer()
+    private var contiguousValues : LongBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getLong() and forEachLong(). */
+    val values : LongBuffer
+        get() = contiguousValues ?: bb.asLongBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<Long> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Long>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getLong(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getLong(elem : Int) : Long = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getLong(index : IntArray) : Long = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : LongArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : LongArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** All the values in a new LongArray. */
+    fun toLongArray() : LongArray = copyInto(LongArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachLong(action : (Long) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachLong {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayLong {
-        return ArrayLong(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayLong(shape, bb, view) }
     }
 }
\ No newline at end of file
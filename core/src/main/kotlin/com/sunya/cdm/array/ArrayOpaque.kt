@@ -2,18 +2,24 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
-import com.sunya.cdm.api.toLongArray
-import com.sunya.cdm.layout.IndexND
-import com.sunya.cdm.layout.IndexSpace
 import java.nio.ByteBuffer
 
-class ArrayOpaque(shape : IntArray, val values : ByteBuffer, val size : Int)
-        : ArrayTyped<ByteBuffer>(values, Datatype.OPAQUE, shape) {
+class ArrayOpaque internal constructor(shape : IntArray, bb : ByteBuffer, val size : Int, view : StridedView?)
+        : ArrayTyped<ByteBuffer>(bb, Datatype.OPAQUE, shape, view) {
+
+    constructor(shape : IntArray, values : ByteBuffer, size : Int) : this(shape, values, size, null)
+
     init {
-        require(nelems * size <= values.capacity())
+        require(nelems * size <= backing.capacity())
     }
 
+    override val elemSize : Int
+        get() = size
+
+    /** The values in row-major order. If this is a view, they are copied on first use. */
+    val values : ByteBuffer
+        get() = bb
+
     // src element is the 1D index
     fun getElement(srcElem : Int) : ByteBuffer {
         val elem = ByteBuffer.allocate(size)
@@ -34,7 +40,8 @@ class ArrayOpaque(shape : IntArray, val values : ByteBuffer, val size : Int)
 
     // copy the src[srcIdx] element the dstIdx element in dest[dstIdx]
     private fun copyElem(srcIdx : Int, dest : ByteBuffer, dstIdx : Int) {
-        repeat(size) { dest.put(dstIdx * size + it, values.get(srcIdx * size + it)) }
+        val srcElem = if (view == null) srcIdx else view.element(srcIdx)
+        dest.put(dstIdx * size, backing, srcElem * size, size)
     }
 
     override fun showValues(): String {
@@ -47,16 +54,7 @@ class ArrayOpaque(shape : IntArray, val values : ByteBuffer, val size : Int)
     }
 
     override fun section(section : Section) : ArrayOpaque {
-        val sectionNelems = section.totalElements.toInt()
-        val sectionBB = ByteBuffer.allocate(size * sectionNelems)
-
-        val odo = IndexND(IndexSpace(section), this.shape.toLongArray())
-        var dstIdx = 0
-        for (index in odo) {
-            copyElem(odo.element().toInt(), sectionBB, dstIdx)
-            dstIdx++
-        }
-        return ArrayOpaque(section.shape.toIntArray(), sectionBB, size)
+        return sectionFrom(section) { shape, bb, view -> ArrayOpaque(shape, bb, size, view) }
     }
 
 }
\ No newline at end of file
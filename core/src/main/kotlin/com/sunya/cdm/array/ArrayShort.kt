@@ -2,19 +2,71 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.ShortBuffer
 
-class ArrayShort(shape : IntArray, bb : ByteBuffer) : ArrayTyped<Short>(bb, Datatype.SHORT, shape) {
-    val values = bb.asShortBuffer()
+class ArrayShort internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<Short>(bb, Datatype.SHORT, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asShortBuffer()
+    private var contiguousValues : ShortBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getShort() and forEachShort(). */
+    val values : ShortBuffer
+        get() = contiguousValues ?: bb.asShortBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<Short> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<Short>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++])
+        override fun computeNext() = if (idx >= limit) done() else setNext(getShort(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getShort(elem : Int) : Short = backingValues[if (view == null) elem else view.element(elem)]
+
+    /** The value at the nD index, without boxing. */
+    fun getShort(index : IntArray) : Short = backingValues[backingElement(index)]
+
+    /** Copy count values starting at element start into dest starting at destOffset. */
+    fun copyInto(dest : ShortArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : ShortArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** All the values in a new ShortArray. */
+    fun toShortArray() : ShortArray = copyInto(ShortArray(nelems))
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachShort(action : (Short) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx])
+        } else {
+            view.forEachElement { action(backingValues[it]) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachShort {
+                if (!first) append(",")
+                append(it)
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayShort {
-        return ArrayShort(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayShort(shape, bb, view) }
     }
 }
\ No newline at end of file
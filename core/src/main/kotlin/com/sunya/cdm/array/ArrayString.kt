@@ -1,8 +1,6 @@
 package com.sunya.cdm.array
 
 import com.sunya.cdm.api.*
-import com.sunya.cdm.layout.IndexND
-import com.sunya.cdm.layout.IndexSpace
 import java.nio.ByteBuffer
 import java.nio.charset.StandardCharsets
 
@@ -28,12 +26,8 @@ class ArrayString(shape : IntArray, val values : List<String>)
     }
 
     override fun section(section : Section) : ArrayString {
-        val odo = IndexND(IndexSpace(section), this.shape.toLongArray())
-        val sectionList = mutableListOf<String>()
-        for (index in odo) {
-            sectionList.add( values[odo.element().toInt()])
-        }
-        return ArrayString(section.shape.toIntArray(), sectionList)
+        val sectionList = StridedList.section(values, shape, section)
+        return ArrayString(sectionList.view.shape, sectionList)
     }
 }
 
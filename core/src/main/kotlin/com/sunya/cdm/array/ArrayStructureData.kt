@@ -1,43 +1,45 @@
 package com.sunya.cdm.array
 
 import com.sunya.cdm.api.*
-import com.sunya.cdm.layout.Chunker
-import com.sunya.cdm.layout.IndexSpace
 import java.nio.ByteBuffer
 
-// fixed length data in the ByteBuffer, var length data goes on the heap
-class ArrayStructureData(shape : IntArray, bb : ByteBuffer, val recsize : Int, val members : List<StructureMember<*>>)
-        : ArrayTyped<ArrayStructureData.StructureData>(bb, Datatype.COMPOUND, shape) {
+// fixed length data in the ByteBuffer, var length data goes on the heap, which is shared with sections
+class ArrayStructureData internal constructor(shape : IntArray, bb : ByteBuffer, val recsize : Int, val members : List<StructureMember<*>>,
+                                              view : StridedView?, private val heap : MutableMap<Int, Any>)
+        : ArrayTyped<ArrayStructureData.StructureData>(bb, Datatype.COMPOUND, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer, recsize : Int, members : List<StructureMember<*>>)
+            : this(shape, bb, recsize, members, null, mutableMapOf())
 
     init {
-        require(bb.capacity() >= recsize * shape.computeSize())
+        require(backing.capacity() >= recsize * shape.computeSize())
     }
 
-    fun get(idx: Int) = StructureData(bb, recsize * idx, members)
+    override val elemSize : Int
+        get() = recsize
+
+    fun get(idx: Int) = StructureData(backing, recsize * (if (view == null) idx else view.element(idx)), members)
 
     override fun iterator(): Iterator<StructureData> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<StructureData>() {
         private var idx = 0
         override fun computeNext() {
             if (idx >= nelems) done()
-            else setNext(StructureData(bb, recsize * idx, members))
+            else setNext(get(idx))
             idx++
         }
     }
 
-    private val heap = mutableMapOf<Int, Any>()
-    private var heapIndex = 0
     fun putOnHeap(offset: Int, value: Any): Int {
+        val heapIndex = heap.size
         heap[heapIndex] = value
-        bb.putInt(offset, heapIndex)
-        val result = heapIndex
-        heapIndex++
-        return result
+        backing.putInt(offset, heapIndex)
+        return heapIndex
     }
 
     // not a bad ide to start at 1, so that 0 == not set
     fun getFromHeap(offset: Int): Any? {
-        val index = bb.getInt(offset) // youve clobbered the byte buffer. is that ok ??
+        val index = backing.getInt(offset) // youve clobbered the byte buffer. is that ok ??
         return heap[index]
     }
 
@@ -56,19 +58,7 @@ class ArrayStructureData(shape : IntArray, bb : ByteBuffer, val recsize : Int, v
     }
 
     override fun section(section: Section): ArrayStructureData {
-        require( IndexSpace(shape).contains(IndexSpace(section))) {"Variable does not contain requested section"}
-        val sectionNelems = section.totalElements.toInt()
-        if (sectionNelems == nelems)
-            return this
-
-        // copy the requested records
-        val sectionBB = ByteBuffer.allocate(sectionNelems * recsize)
-        val chunker = Chunker(IndexSpace(this.shape), IndexSpace(section))
-        chunker.transfer(bb, recsize, sectionBB)
-        bb.position(0)
-        sectionBB.position(0)
-
-        return ArrayStructureData(section.shape.toIntArray(), sectionBB, recsize, members)
+        return sectionFrom(section) { shape, bb, view -> ArrayStructureData(shape, bb, recsize, members, view, heap) }
     }
 
     inner class StructureData(val bb: ByteBuffer, val offset: Int, val members: List<StructureMember<*>>) {
@@ -1,14 +1,50 @@
 package com.sunya.cdm.array
 
 import com.sunya.cdm.api.*
-import com.sunya.cdm.layout.Chunker
-import com.sunya.cdm.layout.IndexSpace
 import java.nio.ByteBuffer
 
 // here, shape must be integers, since size cant exceed 32 bits
-abstract class ArrayTyped<T>(val bb: ByteBuffer, val datatype: Datatype<T>, val shape: IntArray) : Iterable<T> {
+// a section may be a view of its parent's data, see StridedView.
+abstract class ArrayTyped<T>(bb: ByteBuffer, val datatype: Datatype<T>, val shape: IntArray, val view: StridedView? = null) : Iterable<T> {
     val nelems = shape.computeSize()
 
+    // the data, shared with the parent array if this is a view
+    protected val backing = bb
+    private var contiguous : ByteBuffer? = if (view == null) bb else null
+
+    /** The data in row-major order. If this is a view, the values are copied out of the backing data on first use. */
+    val bb : ByteBuffer
+        get() = contiguous ?: view!!.gather(backing, elemSize).also { contiguous = it }
+
+    // the number of bytes for each element in bb
+    protected open val elemSize : Int
+        get() = datatype.size
+
+    // row-major strides of shape, same as IndexND.strider
+    private val strider = IntArray(shape.size).also {
+        var accumStride = 1
+        for (k in shape.size - 1 downTo 0) {
+            it[k] = accumStride
+            accumStride *= shape[k]
+        }
+    }
+
+    /** Get the 1D element from the nD index into this array. */
+    fun element(index : IntArray) : Int {
+        require(index.size == shape.size) { "index rank ${index.size} != array rank ${shape.size}" }
+        var total = 0
+        for (idx in shape.indices) {
+            if (index[idx] < 0 || index[idx] >= shape[idx]) {
+                throw IndexOutOfBoundsException("index ${index.contentToString()} not in shape ${shape.contentToString()}")
+            }
+            total += strider[idx] * index[idx]
+        }
+        return total
+    }
+
+    // the element of backing at the nD index
+    protected fun backingElement(index : IntArray) : Int = view?.element(index) ?: element(index)
+
     override fun toString(): String {
         return buildString {
             append("class ${this@ArrayTyped::class.java.simpleName} shape=${shape.contentToString()} data=")
@@ -32,21 +68,19 @@ abstract class ArrayTyped<T>(val bb: ByteBuffer, val datatype: Datatype<T>, val
     // create a section of this Array. LOOK not checking section against array shape.
     abstract fun section(section : Section) : ArrayTyped<T>
 
-    // This makes a copy. might do logical sections in the future.
-    protected fun sectionFrom(section : Section) : ByteBuffer {
-        require( IndexSpace(shape).contains(IndexSpace(section))) {"Variable does not contain requested section"}
-        val sectionNelems = section.totalElements.toInt()
-        if (sectionNelems == nelems)
-            return bb
-
-        val dst = ByteBuffer.allocate(sectionNelems * datatype.size)
-        val chunker = Chunker(IndexSpace(this.shape), IndexSpace(section))
-        chunker.transfer(bb, datatype.size, dst)
-
-        bb.position(0)
-        dst.position(0)
-
-        return dst
+    /**
+     * Make a section that shares this array's data. If the section is contiguous, the data is sliced and there's no view,
+     * otherwise the section is a view of the backing data.
+     * @param make construct the section from its shape, data, and view.
+     */
+    protected fun <A : ArrayTyped<T>> sectionFrom(section : Section, make : (IntArray, ByteBuffer, StridedView?) -> A) : A {
+        val sectionView = (view ?: StridedView.of(shape)).section(section)
+        if (!sectionView.isContiguous) {
+            return make(sectionView.shape, backing, sectionView)
+        }
+        val sectionBB = if (sectionView.offset == 0 && sectionView.nelems == nelems) backing
+            else backing.slice(sectionView.offset * elemSize, sectionView.nelems * elemSize).order(backing.order())
+        return make(sectionView.shape, sectionBB, null)
     }
 
     override fun equals(other: Any?): Boolean {
@@ -70,6 +104,9 @@ abstract class ArrayTyped<T>(val bb: ByteBuffer, val datatype: Datatype<T>, val
 
     companion object {
         fun valuesEqual(array1 : ArrayTyped<*>, array2 : ArrayTyped<*>) : Boolean {
+            val primitive = primitiveValuesEqual(array1, array2)
+            if (primitive != null) return primitive
+
             val iter1 = array1.iterator()
             val iter2 = array2.iterator()
             while (iter1.hasNext() && iter2.hasNext()) {
@@ -82,6 +119,38 @@ abstract class ArrayTyped<T>(val bb: ByteBuffer, val datatype: Datatype<T>, val
             return true
         }
 
+        // Compare without boxing when both are the same primitive type, else null.
+        // Floating point compares the bits, as boxed equals does, so NaN == NaN and 0.0 != -0.0.
+        private fun primitiveValuesEqual(array1 : ArrayTyped<*>, array2 : ArrayTyped<*>) : Boolean? {
+            val n = minOf(array1.nelems, array2.nelems)
+            when {
+                array1 is ArrayFloat && array2 is ArrayFloat -> {
+                    for (idx in 0 until n) {
+                        if (array1.getFloat(idx).toRawBits() != array2.getFloat(idx).toRawBits()) {
+                            if (!array1.getFloat(idx).isNaN() || !array2.getFloat(idx).isNaN()) return false
+                        }
+                    }
+                }
+                array1 is ArrayDouble && array2 is ArrayDouble -> {
+                    for (idx in 0 until n) {
+                        if (array1.getDouble(idx).toRawBits() != array2.getDouble(idx).toRawBits()) {
+                            if (!array1.getDouble(idx).isNaN() || !array2.getDouble(idx).isNaN()) return false
+                        }
+                    }
+                }
+                array1 is ArrayByte && array2 is ArrayByte -> for (idx in 0 until n) { if (array1.getByte(idx) != array2.getByte(idx)) return false }
+                array1 is ArrayUByte && array2 is ArrayUByte -> for (idx in 0 until n) { if (array1.getUByte(idx) != array2.getUByte(idx)) return false }
+                array1 is ArrayShort && array2 is ArrayShort -> for (idx in 0 until n) { if (array1.getShort(idx) != array2.getShort(idx)) return false }
+                array1 is ArrayUShort && array2 is ArrayUShort -> for (idx in 0 until n) { if (array1.getUShort(idx) != array2.getUShort(idx)) return false }
+                array1 is ArrayInt && array2 is ArrayInt -> for (idx in 0 until n) { if (array1.getInt(idx) != array2.getInt(idx)) return false }
+                array1 is ArrayUInt && array2 is ArrayUInt -> for (idx in 0 until n) { if (array1.getUInt(idx) != array2.getUInt(idx)) return false }
+                array1 is ArrayLong && array2 is ArrayLong -> for (idx in 0 until n) { if (array1.getLong(idx) != array2.getLong(idx)) return false }
+                array1 is ArrayULong && array2 is ArrayULong -> for (idx in 0 until n) { if (array1.getULong(idx) != array2.getULong(idx)) return false }
+                else -> return null
+            }
+            return true
+        }
+
         fun countDiff(array1 : ArrayTyped<*>, array2 : ArrayTyped<*>) : Int {
             val iter1 = array1.iterator()
             val iter2 = array2.iterator()
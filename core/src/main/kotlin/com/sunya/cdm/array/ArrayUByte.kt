@@ -2,20 +2,67 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
 
-class ArrayUByte(shape : IntArray, datatype : Datatype<UByte>, val values : ByteBuffer) : ArrayTyped<UByte>(values, datatype, shape) {
+class ArrayUByte internal constructor(shape : IntArray, datatype : Datatype<UByte>, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<UByte>(bb, datatype, shape, view) {
 
-    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.UBYTE, bb)
+    constructor(shape : IntArray, datatype : Datatype<UByte>, bb : ByteBuffer) : this(shape, datatype, bb, null)
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.UBYTE, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getUByte() and forEachUByte(). */
+    val values : ByteBuffer
+        get() = bb
 
     override fun iterator(): Iterator<UByte> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<UByte>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++].toUByte())
+        override fun computeNext() = if (idx >= limit) done() else setNext(getUByte(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getUByte(elem : Int) : UByte = backingValues[if (view == null) elem else view.element(elem)].toUByte()
+
+    /** The value at the nD index, without boxing. */
+    fun getUByte(index : IntArray) : UByte = backingValues[backingElement(index)].toUByte()
+
+    /** Copy count values starting at element start into dest starting at destOffset. The unsigned values are copied as their bit patterns. */
+    fun copyInto(dest : ByteArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : ByteArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachUByte(action : (UByte) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx].toUByte())
+        } else {
+            view.forEachElement { action(backingValues[it].toUByte()) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachUByte {
+                if (!first) append(",")
+                append(it.toString())
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayUByte {
-        return ArrayUByte(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayUByte(shape, datatype, bb, view) }
     }
 }
\ No newline at end of file
@@ -3,22 +3,70 @@ package com.sunya.cdm.array
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
 import com.sunya.cdm.api.computeSize
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.IntBuffer
 
-class ArrayUInt(shape : IntArray, datatype : Datatype<UInt>, bb : ByteBuffer) : ArrayTyped<UInt>(bb, datatype, shape) {
-    val values = bb.asIntBuffer()
+class ArrayUInt internal constructor(shape : IntArray, datatype : Datatype<UInt>, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<UInt>(bb, datatype, shape, view) {
 
-    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.UINT, bb)
+    constructor(shape : IntArray, datatype : Datatype<UInt>, bb : ByteBuffer) : this(shape, datatype, bb, null)
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.UINT, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asIntBuffer()
+    private var contiguousValues : IntBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getUInt() and forEachUInt(). */
+    val values : IntBuffer
+        get() = contiguousValues ?: bb.asIntBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<UInt> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<UInt>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++].toUInt())
+        override fun computeNext() = if (idx >= limit) done() else setNext(getUInt(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getUInt(elem : Int) : UInt = backingValues[if (view == null) elem else view.element(elem)].toUInt()
+
+    /** The value at the nD index, without boxing. */
+    fun getUInt(index : IntArray) : UInt = backingValues[backingElement(index)].toUInt()
+
+    /** Copy count values starting at element start into dest starting at destOffset. The unsigned values are copied as their bit patterns. */
+    fun copyInto(dest : IntArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : IntArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachUInt(action : (UInt) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx].toUInt())
+        } else {
+            view.forEachElement { action(backingValues[it].toUInt()) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachUInt {
+                if (!first) append(",")
+                append(it.toString())
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayUInt {
-        return ArrayUInt(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayUInt(shape, datatype, bb, view) }
     }
 
     companion object {
@@ -2,21 +2,68 @@ package com.sunya.cdm.array
 
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.LongBuffer
 
-class ArrayULong(shape : IntArray, bb : ByteBuffer) : ArrayTyped<ULong>(bb, Datatype.ULONG, shape) {
-    val values = bb.asLongBuffer()
+class ArrayULong internal constructor(shape : IntArray, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<ULong>(bb, Datatype.ULONG, shape, view) {
+
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asLongBuffer()
+    private var contiguousValues : LongBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getULong() and forEachULong(). */
+    val values : LongBuffer
+        get() = contiguousValues ?: bb.asLongBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<ULong> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<ULong>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() {
-            if (idx >= values.limit()) done() else setNext(values.get(idx++).toULong())
+        override fun computeNext() = if (idx >= limit) done() else setNext(getULong(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getULong(elem : Int) : ULong = backingValues[if (view == null) elem else view.element(elem)].toULong()
+
+    /** The value at the nD index, without boxing. */
+    fun getULong(index : IntArray) : ULong = backingValues[backingElement(index)].toULong()
+
+    /** Copy count values starting at element start into dest starting at destOffset. The unsigned values are copied as their bit patterns. */
+    fun copyInto(dest : LongArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : LongArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachULong(action : (ULong) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx].toULong())
+        } else {
+            view.forEachElement { action(backingValues[it].toULong()) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachULong {
+                if (!first) append(",")
+                append(it.toString())
+                first = false
+            }
         }
     }
 
     override fun section(section : Section) : ArrayULong {
-        return ArrayULong(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayULong(shape, bb, view) }
     }
 }
\ No newline at end of file
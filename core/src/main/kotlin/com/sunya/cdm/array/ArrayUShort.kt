@@ -3,22 +3,70 @@ package com.sunya.cdm.array
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
 import com.sunya.cdm.api.computeSize
-import com.sunya.cdm.api.toIntArray
 import java.nio.ByteBuffer
+import java.nio.ShortBuffer
 
-class ArrayUShort(shape : IntArray, datatype : Datatype<UShort>, bb : ByteBuffer) : ArrayTyped<UShort>(bb, datatype, shape) {
-    val values = bb.asShortBuffer()
+class ArrayUShort internal constructor(shape : IntArray, datatype : Datatype<UShort>, bb : ByteBuffer, view : StridedView?)
+        : ArrayTyped<UShort>(bb, datatype, shape, view) {
 
-    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.USHORT, bb)
+    constructor(shape : IntArray, datatype : Datatype<UShort>, bb : ByteBuffer) : this(shape, datatype, bb, null)
+    constructor(shape : IntArray, bb : ByteBuffer) : this(shape, Datatype.USHORT, bb, null)
+
+    @PublishedApi
+    internal val backingValues = backing.asShortBuffer()
+    private var contiguousValues : ShortBuffer? = if (view == null) backingValues else null
+
+    /** The values in row-major order. If this is a view, they are copied on first use, see getUShort() and forEachUShort(). */
+    val values : ShortBuffer
+        get() = contiguousValues ?: bb.asShortBuffer().also { contiguousValues = it }
 
     override fun iterator(): Iterator<UShort> = BufferIterator()
     private inner class BufferIterator : AbstractIterator<UShort>() {
+        private val limit = if (view == null) backingValues.limit() else nelems
         private var idx = 0
-        override fun computeNext() = if (idx >= values.limit()) done() else setNext(values[idx++].toUShort())
+        override fun computeNext() = if (idx >= limit) done() else setNext(getUShort(idx++))
+    }
+
+    /** The value of the 1D element, without boxing. */
+    fun getUShort(elem : Int) : UShort = backingValues[if (view == null) elem else view.element(elem)].toUShort()
+
+    /** The value at the nD index, without boxing. */
+    fun getUShort(index : IntArray) : UShort = backingValues[backingElement(index)].toUShort()
+
+    /** Copy count values starting at element start into dest starting at destOffset. The unsigned values are copied as their bit patterns. */
+    fun copyInto(dest : ShortArray, destOffset : Int = 0, start : Int = 0, count : Int = nelems - start) : ShortArray {
+        if (view == null) {
+            backingValues.get(start, dest, destOffset, count)
+        } else {
+            var pos = destOffset
+            view.forEachElement(start, count) { dest[pos++] = backingValues[it] }
+        }
+        return dest
+    }
+
+    /** Perform action on each value in order, without boxing. */
+    inline fun forEachUShort(action : (UShort) -> Unit) {
+        val view = this.view
+        if (view == null) {
+            for (idx in 0 until nelems) action(backingValues[idx].toUShort())
+        } else {
+            view.forEachElement { action(backingValues[it].toUShort()) }
+        }
+    }
+
+    override fun showValues(): String {
+        return buildString {
+            var first = true
+            forEachUShort {
+                if (!first) append(",")
+                append(it.toString())
+                first = false
+            }
+        }
     }
 
     override fun section(section : Section) : ArrayUShort {
-        return ArrayUShort(section.shape.toIntArray(), sectionFrom(section))
+        return sectionFrom(section) { shape, bb, view -> ArrayUShort(shape, datatype, bb, view) }
     }
 
     companion object {
@@ -1,8 +1,6 @@
 package com.sunya.cdm.array
 
 import com.sunya.cdm.api.*
-import com.sunya.cdm.layout.IndexND
-import com.sunya.cdm.layout.IndexSpace
 import java.nio.ByteBuffer
 
 // fake ByteBuffer
@@ -27,12 +25,8 @@ class ArrayVlen<T>(shape : IntArray, val values : List<Array<T>>, val baseType :
     }
 
     override fun section(section: Section): ArrayVlen<T> {
-        val odo = IndexND(IndexSpace(section), this.shape.toLongArray())
-        val sectionList = mutableListOf<Array<T>>()
-        for (index in odo) {
-            sectionList.add(values[odo.element().toInt()])
-        }
-        return ArrayVlen(section.shape.toIntArray(), sectionList, baseType)
+        val sectionList = StridedList.section(values, shape, section)
+        return ArrayVlen(sectionList.view.shape, sectionList, baseType)
     }
 
     override fun equals(other: Any?): Boolean {
@@ -0,0 +1,157 @@
+package com.sunya.cdm.array
+
+import com.sunya.cdm.api.Section
+import com.sunya.cdm.api.computeSize
+import java.nio.ByteBuffer
+
+/**
+ * A section of an array that shares the array's data instead of copying it.
+ * Maps the section's elements, in row-major order, to elements of the backing data.
+ *
+ * @param shape the shape of the section
+ * @param offset the backing element of the section's first element
+ * @param strides the number of backing elements between successive indices of each dimension
+ */
+class StridedView(val shape : IntArray, val offset : Int, val strides : IntArray) {
+    val nelems = shape.computeSize()
+
+    /** The section's elements are the backing elements from offset to offset + nelems, in order. */
+    val isContiguous : Boolean
+
+    init {
+        require(shape.size == strides.size)
+        var accumStride = 1
+        var contiguous = true
+        for (k in shape.size - 1 downTo 0) {
+            if (shape[k] != 1 && strides[k] != accumStride) contiguous = false
+            accumStride *= shape[k]
+        }
+        isContiguous = contiguous
+    }
+
+    /** Get the backing element of the section's 1D element. */
+    fun element(elem : Int) : Int {
+        var remain = elem
+        var total = offset
+        for (dim in shape.size - 1 downTo 0) {
+            total += (remain % shape[dim]) * strides[dim]
+            remain /= shape[dim]
+        }
+        return total
+    }
+
+    /** Get the backing element of the section's nD index. */
+    fun element(index : IntArray) : Int {
+        require(index.size == shape.size) { "index rank ${index.size} != section rank ${shape.size}" }
+        var total = offset
+        for (dim in shape.indices) {
+            if (index[dim] < 0 || index[dim] >= shape[dim]) {
+                throw IndexOutOfBoundsException("index ${index.contentToString()} not in shape ${shape.contentToString()}")
+            }
+            total += strides[dim] * index[dim]
+        }
+        return total
+    }
+
+    /** Perform action on the backing element of count section elements in order, starting at start. */
+    inline fun forEachElement(start : Int = 0, count : Int = nelems - start, action : (Int) -> Unit) {
+        if (count <= 0) return
+        val rank = shape.size
+        if (rank == 0) {
+            action(offset)
+            return
+        }
+        val index = IntArray(rank)
+        var remain = start
+        var elem = offset
+        for (dim in rank - 1 downTo 0) {
+            index[dim] = remain % shape[dim]
+            remain /= shape[dim]
+            elem += index[dim] * strides[dim]
+        }
+        val inner = rank - 1
+        val innerLen = shape[inner]
+        val innerStride = strides[inner]
+        var done = 0
+        while (true) {
+            var idx = index[inner]
+            while (idx < innerLen && done < count) {
+                action(elem)
+                elem += innerStride
+                idx++
+                done++
+            }
+            if (done == count) return
+            // back to the start of the row, then carry into the outer dimensions
+            elem -= innerLen * innerStride
+            index[inner] = 0
+            var dim = inner - 1
+            while (dim >= 0) {
+                index[dim]++
+                elem += strides[dim]
+                if (index[dim] < shape[dim]) break
+                elem -= shape[dim] * strides[dim]
+                index[dim] = 0
+                dim--
+            }
+        }
+    }
+
+    /** The view of a section of this view, which may have strides. */
+    fun section(section : Section) : StridedView {
+        require(section.rank == shape.size) {"Variable does not contain requested section"}
+        var sectionOffset = offset
+        val sectionShape = IntArray(shape.size)
+        val sectionStrides = IntArray(shape.size)
+        section.ranges.forEachIndexed { dim, range ->
+            require(range.step > 0) { "section stride must be positive" }
+            val count = if (range.isEmpty()) 0 else ((range.last - range.first) / range.step + 1).toInt()
+            require(range.first >= 0 && (count == 0 || range.last < shape[dim])) {"Variable does not contain requested section"}
+            sectionOffset += range.first.toInt() * strides[dim]
+            sectionShape[dim] = count
+            sectionStrides[dim] = range.step.toInt() * strides[dim]
+        }
+        return StridedView(sectionShape, sectionOffset, sectionStrides)
+    }
+
+    /** Copy the section's elements, of elemSize bytes each, out of backing into a new ByteBuffer. */
+    fun gather(backing : ByteBuffer, elemSize : Int) : ByteBuffer {
+        val result = ByteBuffer.allocate(nelems * elemSize).order(backing.order())
+        var pos = 0
+        forEachElement { elem ->
+            result.put(pos, backing, elem * elemSize, elemSize)
+            pos += elemSize
+        }
+        return result
+    }
+
+    companion object {
+        /** The view of all of an array with this shape. */
+        fun of(shape : IntArray) : StridedView {
+            val strides = IntArray(shape.size)
+            var accumStride = 1
+            for (k in shape.size - 1 downTo 0) {
+                strides[k] = accumStride
+                accumStride *= shape[k]
+            }
+            return StridedView(shape, 0, strides)
+        }
+    }
+}
+
+/** A section of a List that shares the List instead of copying it. */
+internal class StridedList<T>(val backing : List<T>, val view : StridedView) : AbstractList<T>() {
+    override val size = view.nelems
+    override fun get(index: Int): T {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index $index size $size")
+        return backing[view.element(index)]
+    }
+
+    companion object {
+        /** The section of a List with the given shape, composing with a previous section. */
+        fun <T> section(values : List<T>, shape : IntArray, section : Section) : StridedList<T> {
+            return if (values is StridedList<T>) StridedList(values.backing, values.view.section(section))
+                   else StridedList(values, StridedView.of(shape).section(section))
+        }
+    }
+}
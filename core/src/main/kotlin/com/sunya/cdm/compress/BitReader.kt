@@ -0,0 +1,57 @@
+package com.sunya.cdm.compress
+
+/** Reads a bit stream, most significant bit of each byte first. */
+internal class BitReader(private val src: ByteArray, start: Int, length: Int) {
+    private var next = start // the next byte to load
+    private val limit = start + length
+    private var acc = 0L // unused bits, left aligned
+    private var nbits = 0 // number of unused bits in acc
+    private var overrun = 0 // number of zero bytes loaded past the limit
+
+    private fun fill() {
+        while (nbits <= 56) {
+            val b = if (next < limit) src[next].toLong() and 0xff else { overrun++; 0L }
+            next++
+            acc = acc or (b shl (56 - nbits))
+            nbits += 8
+        }
+    }
+
+    private fun use(n: Int) {
+        acc = if (n == 64) 0L else acc shl n
+        nbits -= n
+        check(nbits >= 8 * overrun) { "Compressed bit stream is truncated" }
+    }
+
+    /** The next bit. */
+    fun bit(): Int {
+        if (nbits == 0) fill()
+        val result = (acc ushr 63).toInt()
+        use(1)
+        return result
+    }
+
+    /** The next n bits, 0 <= n <= 32, as an unsigned value. */
+    fun bits(n: Int): Int {
+        if (n == 0) return 0
+        if (nbits < n) fill()
+        val result = (acc ushr (64 - n)).toInt()
+        use(n)
+        return result
+    }
+
+    /** The number of zero bits before the next one bit, which is also used. */
+    fun fundamentalSequence(): Int {
+        var count = 0
+        while (true) {
+            if (nbits == 0) fill()
+            val zeros = java.lang.Long.numberOfLeadingZeros(acc)
+            if (zeros < nbits) {
+                use(zeros + 1)
+                return count + zeros
+            }
+            count += nbits
+            use(nbits)
+        }
+    }
+}
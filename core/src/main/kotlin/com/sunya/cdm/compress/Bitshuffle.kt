@@ -0,0 +1,75 @@
+package com.sunya.cdm.compress
+
+/**
+ * Inverse of the bitshuffle transform, see https://github.com/kiyo-masui/bitshuffle.
+ * Bitshuffled data stores bit 0 of every element, then bit 1, etc., one block of elements at a time.
+ */
+object Bitshuffle {
+    const val blockedMult = 8 // block sizes are multiples of this many elements
+    private const val targetBlockBytes = 8192
+    private const val minBlockSize = 128
+
+    /** The block size (in elements) bitshuffle uses when none is given. */
+    fun defaultBlockSize(elemSize: Int): Int {
+        val blockSize = (targetBlockBytes / elemSize / blockedMult) * blockedMult
+        return maxOf(blockSize, minBlockSize)
+    }
+
+    /**
+     * Unshuffle nelems elements of one block, where nelems is a multiple of 8.
+     * src and dst must not overlap.
+     */
+    fun untransposeBlock(src: ByteArray, srcPos: Int, dst: ByteArray, dstPos: Int, nelems: Int, elemSize: Int) {
+        require(nelems % blockedMult == 0)
+        val rowBytes = nelems / 8 // bytes in one bit row
+        for (byteIdx in 0 until elemSize) {
+            val rowStart = srcPos + byteIdx * 8 * rowBytes
+            for (group in 0 until rowBytes) {
+                // gather bit k of 8 consecutive elements from each of the 8 bit rows for this byte
+                var x = 0L
+                for (k in 0 until 8) {
+                    x = x or ((src[rowStart + k * rowBytes + group].toLong() and 0xff) shl (8 * k))
+                }
+                x = transposeBits8x8(x)
+                // byte m of x is now byte byteIdx of element 8 * group + m
+                var elemPos = dstPos + 8 * group * elemSize + byteIdx
+                for (m in 0 until 8) {
+                    dst[elemPos] = (x ushr (8 * m)).toByte()
+                    elemPos += elemSize
+                }
+            }
+        }
+    }
+
+    /**
+     * Unshuffle nelems elements, processed in blocks of blockSize elements, as bshuf_bitunshuffle does.
+     * Elements past the last multiple of 8 were not shuffled, and are just copied.
+     */
+    fun unshuffle(src: ByteArray, srcPos: Int, dst: ByteArray, dstPos: Int, nelems: Int, elemSize: Int, blockSize: Int) {
+        require(blockSize % blockedMult == 0)
+        var done = 0
+        while (done + blockSize <= nelems) {
+            untransposeBlock(src, srcPos + done * elemSize, dst, dstPos + done * elemSize, blockSize, elemSize)
+            done += blockSize
+        }
+        val lastBlock = (nelems - done) - (nelems - done) % blockedMult
+        if (lastBlock > 0) {
+            untransposeBlock(src, srcPos + done * elemSize, dst, dstPos + done * elemSize, lastBlock, elemSize)
+            done += lastBlock
+        }
+        val leftover = (nelems - done) * elemSize
+        System.arraycopy(src, srcPos + done * elemSize, dst, dstPos + done * elemSize, leftover)
+    }
+
+    // transpose an 8x8 bit matrix held in a long, one row per byte: bit m of byte k <-> bit k of byte m.
+    private fun transposeBits8x8(value: Long): Long {
+        var x = value
+        var t = (x xor (x ushr 7)) and 0x00AA00AA00AA00AAL
+        x = x xor t xor (t shl 7)
+        t = (x xor (x ushr 14)) and 0x0000CCCC0000CCCCL
+        x = x xor t xor (t shl 14)
+        t = (x xor (x ushr 28)) and 0x00000000F0F0F0F0L
+        x = x xor t xor (t shl 28)
+        return x
+    }
+}
@@ -0,0 +1,301 @@
+package com.sunya.cdm.compress
+
+/** The compressed bytes, read as needed. Positions are relative to the start of the compressed data. */
+interface CompressedSource {
+    val size: Long
+
+    /** Read exactly nbytes starting at pos. */
+    fun read(pos: Long, dst: ByteArray, dstPos: Int, nbytes: Int)
+
+    companion object {
+        fun of(bytes: ByteArray) = object : CompressedSource {
+            override val size = bytes.size.toLong()
+            override fun read(pos: Long, dst: ByteArray, dstPos: Int, nbytes: Int) {
+                System.arraycopy(bytes, pos.toInt(), dst, dstPos, nbytes)
+            }
+        }
+    }
+}
+
+/**
+ * A deflate (RFC 1951) decoder that can stop at the end of any block, and restart from there given the last 32K of output.
+ * java.util.zip.Inflater cant do either, so this is needed for InflateIndex.
+ * Not thread safe.
+ *
+ * @param inBitPos where to start in the compressed data, in bits.
+ * @param outPos the number of bytes of output before inBitPos.
+ * @param window the 32K window at outPos, as saved by window(), or null if starting at the beginning.
+ */
+internal class InflateDecoder(private val source: CompressedSource, inBitPos: Long, outPos: Long, window: ByteArray?) {
+    // the last 32K of output, indexed by output position
+    private val window = window?.copyOf() ?: ByteArray(WSIZE)
+    var outPos = outPos
+        private set
+
+    // input
+    private val inbuf = ByteArray(INBUF_SIZE)
+    private var inStart = inBitPos / 8 // source position of inbuf[0]
+    private var inLen = 0
+    private var inPos = 0
+    private var bitBuf = 0L
+    private var bitCount = 0
+    private var overrun = 0 // zero bytes supplied past the end of the source
+
+    // block state
+    private var mode = HEADER
+    private var lastBlock = false
+    private var storedRemaining = 0
+    private var matchRemaining = 0
+    private var matchDistance = 0
+    private var litTable = IntArray(0)
+    private var litBits = 0
+    private var distTable = IntArray(0)
+    private var distBits = 0
+
+    init {
+        val skip = (inBitPos % 8).toInt()
+        if (skip > 0) bits(skip)
+    }
+
+    val finished get() = (mode == DONE)
+    val atBlockBoundary get() = (mode == HEADER)
+
+    /** The position in the compressed data of the next unused bit. */
+    fun bitPosition(): Long = (inStart + inPos) * 8 - bitCount + 8L * overrun
+
+    /** A copy of the window, to restart from this point. */
+    fun window(): ByteArray = window.copyOf()
+
+    /**
+     * Decode up to len bytes into dst, or skip them if dst is null.
+     * @param stopAtBlockEnd return early at the end of each block.
+     * @return number of bytes decoded. Less than len only at the end of the stream, or of a block if stopAtBlockEnd.
+     */
+    fun inflate(dst: ByteArray?, off: Int, len: Int, stopAtBlockEnd: Boolean = false): Int {
+        var produced = 0
+        while (produced < len) {
+            when (mode) {
+                HEADER -> {
+                    if (lastBlock) {
+                        mode = DONE
+                        continue
+                    }
+                    lastBlock = bits(1) == 1
+                    when (bits(2)) {
+                        0 -> startStored()
+                        1 -> startFixed()
+                        2 -> startDynamic()
+                        else -> throw IllegalStateException("Deflate data has an invalid block type")
+                    }
+                }
+                STORED -> {
+                    val n = minOf(storedRemaining, len - produced)
+                    for (i in 0 until n) put(dst, off + produced + i, byte())
+                    produced += n
+                    storedRemaining -= n
+                    if (storedRemaining == 0) {
+                        mode = HEADER
+                        if (stopAtBlockEnd) return produced
+                    }
+                }
+                CODES -> {
+                    if (matchRemaining > 0) {
+                        val n = minOf(matchRemaining, len - produced)
+                        for (i in 0 until n) {
+                            put(dst, off + produced + i, window[((outPos - matchDistance).toInt()) and WMASK])
+                        }
+                        produced += n
+                        matchRemaining -= n
+                        continue
+                    }
+                    val sym = decode(litTable, litBits)
+                    if (sym < 256) {
+                        put(dst, off + produced, sym.toByte())
+                        produced++
+                    } else if (sym == 256) {
+                        mode = HEADER
+                        if (stopAtBlockEnd) return produced
+                    } else {
+                        val lsym = sym - 257
+                        check(lsym < 29) { "Deflate data has an invalid length code $sym" }
+                        matchRemaining = LENGTH_BASE[lsym] + bits(LENGTH_EXTRA[lsym])
+                        val dsym = decode(distTable, distBits)
+                        check(dsym < 30) { "Deflate data has an invalid distance code $dsym" }
+                        matchDistance = DIST_BASE[dsym] + bits(DIST_EXTRA[dsym])
+                        check(matchDistance <= outPos) { "Deflate data has a distance too far back" }
+                    }
+                }
+                DONE -> return produced
+            }
+        }
+        return produced
+    }
+
+    private fun put(dst: ByteArray?, pos: Int, b: Byte) {
+        window[outPos.toInt() and WMASK] = b
+        outPos++
+        if (dst != null) dst[pos] = b
+    }
+
+    private fun startStored() {
+        bits(bitCount % 8) // to a byte boundary
+        val len = bits(16)
+        val nlen = bits(16)
+        check(len == (nlen.inv() and 0xffff)) { "Deflate stored block length doesnt match its complement" }
+        storedRemaining = len
+        mode = STORED
+    }
+
+    private fun startFixed() {
+        litTable = FIXED_LIT.first
+        litBits = FIXED_LIT.second
+        distTable = FIXED_DIST.first
+        distBits = FIXED_DIST.second
+        mode = CODES
+    }
+
+    private fun startDynamic() {
+        val nlen = bits(5) + 257
+        val ndist = bits(5) + 1
+        val ncode = bits(4) + 4
+        check(nlen <= 286 && ndist <= 30) { "Deflate dynamic block has too many codes" }
+
+        val codeLengths = IntArray(19)
+        for (i in 0 until ncode) codeLengths[CODE_ORDER[i]] = bits(3)
+        val (codeTable, codeBits) = buildTable(codeLengths, 19)
+
+        val lengths = IntArray(nlen + ndist)
+        var i = 0
+        while (i < nlen + ndist) {
+            val sym = decode(codeTable, codeBits)
+            if (sym < 16) {
+                lengths[i++] = sym
+            } else {
+                val (value, repeat) = when (sym) {
+                    16 -> {
+                        check(i > 0) { "Deflate repeat with no previous length" }
+                        Pair(lengths[i - 1], 3 + bits(2))
+                    }
+                    17 -> Pair(0, 3 + bits(3))
+                    else -> Pair(0, 11 + bits(7))
+                }
+                check(i + repeat <= nlen + ndist) { "Deflate code lengths overrun" }
+                repeat(repeat) { lengths[i++] = value }
+            }
+        }
+        check(lengths[256] > 0) { "Deflate dynamic block has no end of block code" }
+        val lit = buildTable(lengths.copyOfRange(0, nlen), nlen)
+        val dist = buildTable(lengths.copyOfRange(nlen, nlen + ndist), ndist)
+        litTable = lit.first
+        litBits = lit.second
+        distTable = dist.first
+        distBits = dist.second
+        mode = CODES
+    }
+
+    // the table has an entry for every possible value of the next tableBits bits
+    private fun decode(table: IntArray, tableBits: Int): Int {
+        need(tableBits)
+        val entry = table[(bitBuf and ((1L shl tableBits) - 1)).toInt()]
+        val len = entry and 15
+        check(len != 0) { "Deflate data has an invalid code" }
+        use(len)
+        return entry ushr 4
+    }
+
+    private fun bits(n: Int): Int {
+        if (n == 0) return 0
+        need(n)
+        val result = (bitBuf and ((1L shl n) - 1)).toInt()
+        use(n)
+        return result
+    }
+
+    private fun byte(): Byte {
+        return bits(8).toByte()
+    }
+
+    private fun need(n: Int) {
+        while (bitCount < n) {
+            if (inPos == inLen) refill()
+            val b = if (inLen == 0) { overrun++; 0L } else inbuf[inPos++].toLong() and 0xff
+            bitBuf = bitBuf or (b shl bitCount)
+            bitCount += 8
+        }
+    }
+
+    private fun use(n: Int) {
+        bitBuf = bitBuf ushr n
+        bitCount -= n
+        check(bitCount >= 8 * overrun) { "Deflate data is truncated" }
+    }
+
+    private fun refill() {
+        inStart += inLen
+        inLen = minOf(INBUF_SIZE.toLong(), source.size - inStart).toInt()
+        inPos = 0
+        if (inLen > 0) source.read(inStart, inbuf, 0, inLen)
+        else inLen = 0
+    }
+
+    companion object {
+        const val WSIZE = 32768
+        private const val WMASK = WSIZE - 1
+        private const val INBUF_SIZE = 65536
+
+        private const val HEADER = 0
+        private const val STORED = 1
+        private const val CODES = 2
+        private const val DONE = 3
+
+        private val LENGTH_BASE = intArrayOf(3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258)
+        private val LENGTH_EXTRA = intArrayOf(0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0)
+        private val DIST_BASE = intArrayOf(1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577)
+        private val DIST_EXTRA = intArrayOf(0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13)
+        private val CODE_ORDER = intArrayOf(16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15)
+
+        private val FIXED_LIT = buildTable(IntArray(288) { if (it < 144) 8 else if (it < 256) 9 else if (it < 280) 7 else 8 }, 288)
+        private val FIXED_DIST = buildTable(IntArray(30) { 5 }, 30)
+
+        /**
+         * Make a lookup table for a canonical Huffman code: for every value of the next maxLength bits (least
+         * significant bit first, as deflate stores codes), the entry is (symbol shl 4) or length, or 0 if not a code.
+         * @return the table and maxLength.
+         */
+        fun buildTable(lengths: IntArray, n: Int): Pair<IntArray, Int> {
+            val maxLength = maxOf(1, (0 until n).maxOf { lengths[it] })
+            val count = IntArray(16)
+            for (i in 0 until n) count[lengths[i]]++
+            count[0] = 0
+            var left = 1
+            for (len in 1..15) {
+                left = (left shl 1) - count[len]
+                check(left >= 0) { "Deflate data has an oversubscribed code" }
+            }
+            // the first code of each length
+            val nextCode = IntArray(16)
+            var code = 0
+            for (len in 1..15) {
+                code = (code + count[len - 1]) shl 1
+                nextCode[len] = code
+            }
+            val table = IntArray(1 shl maxLength)
+            for (sym in 0 until n) {
+                val len = lengths[sym]
+                if (len == 0) continue
+                val reversed = Integer.reverse(nextCode[len]++) ushr (32 - len)
+                val entry = (sym shl 4) or len
+                var idx = reversed
+                while (idx < table.size) {
+                    table[idx] = entry
+                    idx += 1 shl len
+                }
+            }
+            return Pair(table, maxLength)
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.sunya.cdm.compress
+
+/**
+ * Random access into zlib or raw deflate compressed data, like zran.c in the zlib examples.
+ * One pass over the data records a checkpoint at the first block boundary after every span bytes of output:
+ * the output and input positions, and the last 32K of output, which is all that's needed to start decoding there.
+ * Reads then start from the nearest checkpoint before the wanted data, instead of from the beginning.
+ * Immutable once made, so can be shared between threads; each Reader is used by one thread.
+ *
+ * @param checkpoints in order of outPos, the first is the start of the data.
+ * @param totalOut the size of the uncompressed data.
+ */
+class InflateIndex private constructor(val checkpoints: List<Checkpoint>, val totalOut: Long) {
+
+    class Checkpoint(val outPos: Long, val inBitPos: Long, internal val window: ByteArray?)
+
+    /** The last checkpoint at or before outPos. */
+    fun checkpoint(outPos: Long): Checkpoint {
+        var low = 0
+        var high = checkpoints.size - 1
+        while (low < high) {
+            val mid = (low + high + 1) ushr 1
+            if (checkpoints[mid].outPos <= outPos) low = mid else high = mid - 1
+        }
+        return checkpoints[low]
+    }
+
+    /** Make a reader, which keeps its place so that reads in increasing order only decode the data once. */
+    fun reader(source: CompressedSource) = Reader(source)
+
+    inner class Reader(private val source: CompressedSource) {
+        private var decoder: InflateDecoder? = null
+        private val skipBuffer = ByteArray(8192)
+
+        /** Read exactly nbytes of uncompressed data starting at outPos. */
+        fun read(outPos: Long, dst: ByteArray, dstPos: Int, nbytes: Int) {
+            require(outPos >= 0 && outPos + nbytes <= totalOut) { "read $outPos + $nbytes past end $totalOut" }
+            val checkpoint = checkpoint(outPos)
+            var current = decoder
+            // continue from where the last read left off, unless a checkpoint is closer
+            if (current == null || current.outPos > outPos || current.outPos < checkpoint.outPos) {
+                current = InflateDecoder(source, checkpoint.inBitPos, checkpoint.outPos, checkpoint.window)
+                decoder = current
+            }
+            while (current.outPos < outPos) {
+                val n = minOf(skipBuffer.size.toLong(), outPos - current.outPos).toInt()
+                check(current.inflate(skipBuffer, 0, n) == n) { "Deflate data ended early" }
+            }
+            var done = 0
+            while (done < nbytes) {
+                val n = current.inflate(dst, dstPos + done, nbytes - done)
+                check(n > 0) { "Deflate data ended early" }
+                done += n
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Decode all the data once, to make the index.
+         * @param span the number of bytes of output between checkpoints, the larger the span the smaller the index,
+         *   but the more that must be decoded to get to the wanted data.
+         * @param zlib the data has a zlib header, otherwise its raw deflate.
+         */
+        fun build(source: CompressedSource, span: Int, zlib: Boolean = true): InflateIndex {
+            require(span > 0)
+            var startBits = 0L
+            if (zlib) {
+                check(source.size >= 2) { "zlib header missing" }
+                val header = ByteArray(2)
+                source.read(0, header, 0, 2)
+                val cmf = header[0].toInt() and 0xff
+                val flg = header[1].toInt() and 0xff
+                check((cmf and 0x0f) == 8 && (cmf * 256 + flg) % 31 == 0) { "not zlib deflate data" }
+                check((flg and 0x20) == 0) { "zlib preset dictionary not supported" }
+                startBits = 16
+            }
+
+            val checkpoints = mutableListOf(Checkpoint(0, startBits, null))
+            val decoder = InflateDecoder(source, startBits, 0, null)
+            var last = 0L
+            while (!decoder.finished) {
+                decoder.inflate(null, 0, Int.MAX_VALUE, true)
+                if (decoder.atBlockBoundary && decoder.outPos - last >= span) {
+                    checkpoints.add(Checkpoint(decoder.outPos, decoder.bitPosition(), decoder.window()))
+                    last = decoder.outPos
+                }
+            }
+            return InflateIndex(checkpoints, decoder.outPos)
+        }
+    }
+}
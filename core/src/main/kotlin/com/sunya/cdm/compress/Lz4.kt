@@ -0,0 +1,73 @@
+package com.sunya.cdm.compress
+
+/**
+ * Decoder for the LZ4 block format (not the LZ4 frame format).
+ * See https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md
+ */
+object Lz4 {
+
+    /**
+     * Decompress one LZ4 block.
+     * @return number of bytes written to dst
+     * @throws IllegalStateException if the block is corrupt or decompresses to more than dstLen bytes.
+     */
+    fun decompressBlock(src: ByteArray, srcPos: Int, srcLen: Int, dst: ByteArray, dstPos: Int, dstLen: Int): Int {
+        val srcLimit = srcPos + srcLen
+        val dstLimit = dstPos + dstLen
+        var ip = srcPos
+        var op = dstPos
+
+        while (ip < srcLimit) {
+            val token = src[ip++].toInt() and 0xff
+
+            // literals
+            var litLen = token ushr 4
+            if (litLen == 15) {
+                var b: Int
+                do {
+                    check(ip < srcLimit) { "LZ4 block truncated" }
+                    b = src[ip++].toInt() and 0xff
+                    litLen += b
+                } while (b == 255)
+            }
+            check(ip + litLen <= srcLimit && op + litLen <= dstLimit) { "LZ4 literals overrun" }
+            System.arraycopy(src, ip, dst, op, litLen)
+            ip += litLen
+            op += litLen
+            if (ip == srcLimit) break // the last sequence has only literals
+
+            // match
+            check(ip + 2 <= srcLimit) { "LZ4 block truncated" }
+            val offset = (src[ip].toInt() and 0xff) or ((src[ip + 1].toInt() and 0xff) shl 8)
+            ip += 2
+            check(offset > 0 && op - offset >= dstPos) { "LZ4 bad match offset $offset" }
+            var matchLen = (token and 15) + 4
+            if (matchLen == 19) {
+                var b: Int
+                do {
+                    check(ip < srcLimit) { "LZ4 block truncated" }
+                    b = src[ip++].toInt() and 0xff
+                    matchLen += b
+                } while (b == 255)
+            }
+            check(op + matchLen <= dstLimit) { "LZ4 match overrun" }
+            copyMatch(dst, op, offset, matchLen)
+            op += matchLen
+        }
+        return op - dstPos
+    }
+}
+
+// copy len bytes starting offset bytes back from op, the regions may overlap
+internal fun copyMatch(dst: ByteArray, op: Int, offset: Int, len: Int) {
+    val ref = op - offset
+    if (offset >= len) {
+        System.arraycopy(dst, ref, dst, op, len)
+    } else if (offset == 1) {
+        dst.fill(dst[ref], op, op + len)
+    } else {
+        for (i in 0 until len) {
+            dst[op + i] = dst[ref + i]
+        }
+    }
+}
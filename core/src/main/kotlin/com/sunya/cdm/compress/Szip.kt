@@ -0,0 +1,170 @@
+package com.sunya.cdm.compress
+
+/**
+ * Decoder for SZIP compressed data, which is the CCSDS 121.0 adaptive entropy coder (extended Rice coding),
+ * with an optional nearest neighbor preprocessor. Follows the szip compatible interface of libaec,
+ * see https://gitlab.dkrz.de/k202009/libaec, so reads data written by either the SZIP library or libaec.
+ *
+ * The samples are coded in blocks of pixelsPerBlock. A reference sample interval (RSI) is the blocks of one scanline.
+ * With the preprocessor, the first sample of each RSI is the reference, and the rest are mapped differences
+ * from the previous sample.
+ */
+object Szip {
+    const val ALLOW_K13_OPTION_MASK = 1
+    const val CHIP_OPTION_MASK = 2
+    const val EC_OPTION_MASK = 4
+    const val LSB_OPTION_MASK = 8
+    const val MSB_OPTION_MASK = 16
+    const val NN_OPTION_MASK = 32
+    const val RAW_OPTION_MASK = 128
+
+    private const val ROS = 5 // remainder of segment, in the zero block count
+    private const val segmentBlocks = 64
+
+    // second extension: for each value m, the sum of the pair, and the first m with that sum
+    private val seTable = IntArray(2 * 91).also { table ->
+        var k = 0
+        for (sum in 0 until 13) {
+            val start = k
+            for (j in 0..sum) {
+                table[2 * k] = sum
+                table[2 * k + 1] = start
+                k++
+            }
+        }
+    }
+
+    /**
+     * Decompress SZIP data into exactly dstLen bytes.
+     * @throws IllegalStateException if the data is corrupt or truncated.
+     */
+    fun decompress(src: ByteArray, srcPos: Int, srcLen: Int, dst: ByteArray, dstPos: Int, dstLen: Int,
+                   optionsMask: Int, bitsPerPixel: Int, pixelsPerBlock: Int, pixelsPerScanline: Int) {
+        require(bitsPerPixel in 1..32 || bitsPerPixel == 64) { "SZIP bitsPerPixel = $bitsPerPixel" }
+        require(pixelsPerBlock > 0 && pixelsPerBlock % 2 == 0) { "SZIP pixelsPerBlock = $pixelsPerBlock" }
+        require(pixelsPerScanline > 0) { "SZIP pixelsPerScanline = $pixelsPerScanline" }
+
+        // 32 and 64 bit pixels are coded as byte planes of 8 bit samples
+        val interleave = bitsPerPixel == 32 || bitsPerPixel == 64
+        val bitsPerSample = if (interleave) 8 else bitsPerPixel
+        val sampleBytes = bytesPerSample(bitsPerSample)
+        val nsamples = dstLen / sampleBytes
+
+        // each scanline is padded to a whole number of blocks
+        val rsiBlocks = (pixelsPerScanline + pixelsPerBlock - 1) / pixelsPerBlock
+        val rsiSamples = rsiBlocks * pixelsPerBlock
+        val nscanlines = (nsamples + pixelsPerScanline - 1) / pixelsPerScanline
+        val codedSamples = if (rsiSamples == pixelsPerScanline) nsamples else nscanlines * rsiSamples
+
+        val samples = decodeSamples(BitReader(src, srcPos, srcLen), codedSamples, bitsPerSample, pixelsPerBlock,
+            rsiBlocks, (optionsMask and NN_OPTION_MASK) != 0)
+
+        // remove the scanline padding, and write the samples in the requested byte order
+        val bytes = if (interleave) ByteArray(dstLen) else dst
+        val start = if (interleave) 0 else dstPos
+        val msb = (optionsMask and MSB_OPTION_MASK) != 0
+        for (idx in 0 until nsamples) {
+            val sampleIdx = if (rsiSamples == pixelsPerScanline) idx else
+                (idx / pixelsPerScanline) * rsiSamples + idx % pixelsPerScanline
+            putSample(bytes, start + idx * sampleBytes, samples[sampleIdx], sampleBytes, msb)
+        }
+
+        if (interleave) { // byte planes to pixels
+            val pixelBytes = bitsPerPixel / 8
+            val npixels = dstLen / pixelBytes
+            for (plane in 0 until pixelBytes) {
+                for (pixel in 0 until npixels) {
+                    dst[dstPos + pixel * pixelBytes + plane] = bytes[plane * npixels + pixel]
+                }
+            }
+            System.arraycopy(bytes, npixels * pixelBytes, dst, dstPos + npixels * pixelBytes, dstLen - npixels * pixelBytes)
+        }
+    }
+
+    private fun decodeSamples(bits: BitReader, nsamples: Int, bitsPerSample: Int, blockSize: Int, rsiBlocks: Int,
+                              preprocess: Boolean): IntArray {
+        val idLen = if (bitsPerSample > 16) 5 else if (bitsPerSample > 8) 4 else 3
+        val uncompressedId = (1 shl idLen) - 1
+        val nblocks = (nsamples + blockSize - 1) / blockSize
+        val samples = IntArray(nblocks * blockSize)
+
+        var block = 0
+        while (block < nblocks) {
+            val blockInRsi = block % rsiBlocks
+            val ref = if (preprocess && blockInRsi == 0) 1 else 0
+            val pos = block * blockSize
+            val id = bits.bits(idLen)
+
+            if (id == 0) { // low entropy: zero blocks or second extension
+                val secondExtension = bits.bit() == 1
+                if (ref == 1) samples[pos] = bits.bits(bitsPerSample)
+                if (secondExtension) {
+                    var idx = ref
+                    while (idx < blockSize) {
+                        val m = bits.fundamentalSequence()
+                        check(m < seTable.size / 2) { "SZIP bad second extension value $m" }
+                        val second = m - seTable[2 * m + 1]
+                        if (idx and 1 == 0) {
+                            samples[pos + idx] = seTable[2 * m] - second
+                            idx++
+                        }
+                        samples[pos + idx] = second
+                        idx++
+                    }
+                    block++
+                } else { // the samples are already zero
+                    var zeroBlocks = bits.fundamentalSequence() + 1
+                    if (zeroBlocks == ROS) {
+                        zeroBlocks = minOf(rsiBlocks - blockInRsi, segmentBlocks - blockInRsi % segmentBlocks)
+                    } else if (zeroBlocks > ROS) {
+                        zeroBlocks--
+                    }
+                    block += zeroBlocks
+                }
+
+            } else if (id == uncompressedId) {
+                for (idx in 0 until blockSize) samples[pos + idx] = bits.bits(bitsPerSample)
+                block++
+
+            } else { // split samples: the high bits as fundamental sequences, then the low k bits
+                val k = id - 1
+                if (ref == 1) samples[pos] = bits.bits(bitsPerSample)
+                for (idx in ref until blockSize) samples[pos + idx] = bits.fundamentalSequence()
+                if (k > 0) {
+                    for (idx in ref until blockSize) samples[pos + idx] = (samples[pos + idx] shl k) or bits.bits(k)
+                }
+                block++
+            }
+        }
+
+        if (preprocess) {
+            val rsiSamples = rsiBlocks * blockSize
+            val xmax = (1L shl bitsPerSample) - 1
+            for (rsiStart in 0 until nblocks * blockSize step rsiSamples) {
+                var last = samples[rsiStart].toLong() and 0xffffffffL // the reference sample
+                for (idx in rsiStart + 1 until minOf(rsiStart + rsiSamples, samples.size)) {
+                    val d = samples[idx].toLong() and 0xffffffffL
+                    val theta = minOf(last, xmax - last)
+                    last = if (d <= 2 * theta) {
+                        if (d and 1L == 0L) last + d / 2 else last - (d + 1) / 2
+                    } else if (theta == last) {
+                        d
+                    } else {
+                        xmax - d
+                    }
+                    samples[idx] = last.toInt()
+                }
+            }
+        }
+        return samples
+    }
+
+    private fun bytesPerSample(bitsPerSample: Int) = if (bitsPerSample > 16) 4 else if (bitsPerSample > 8) 2 else 1
+
+    private fun putSample(dst: ByteArray, pos: Int, sample: Int, nbytes: Int, msb: Boolean) {
+        for (idx in 0 until nbytes) {
+            val shift = if (msb) 8 * (nbytes - 1 - idx) else 8 * idx
+            dst[pos + idx] = (sample ushr shift).toByte()
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.sunya.cdm.compress
+
+/**
+ * Decoder for the Zstandard compression format, RFC 8878.
+ * Handles any number of frames, skipping skippable frames. Dictionaries are not supported, and the optional
+ * content checksum is not verified.
+ * Keeps entropy tables between blocks, so an instance is not thread safe; use one per thread or per call.
+ */
+class ZstdDecompressor {
+    // state carried between the blocks of a frame
+    private var huffman: HuffmanTable? = null
+    private var llTable: FseTable? = null
+    private var ofTable: FseTable? = null
+    private var mlTable: FseTable? = null
+    private val repeatOffsets = IntArray(3)
+    private var literals = ByteArray(maxBlockSize)
+
+    /**
+     * Decompress src into dst.
+     * @return number of bytes written to dst
+     * @throws IllegalStateException if the data is corrupt, uses a dictionary, or decompresses to more than dstLen bytes.
+     */
+    fun decompress(src: ByteArray, srcPos: Int, srcLen: Int, dst: ByteArray, dstPos: Int, dstLen: Int): Int {
+        val input = ForwardReader(src, srcPos, srcPos + srcLen)
+        var op = dstPos
+        val dstLimit = dstPos + dstLen
+        while (input.pos < input.limit) {
+            val magic = input.readInt()
+            if ((magic and -0x10) == skippableMagic) {
+                input.skip(input.readInt())
+                continue
+            }
+            check(magic == frameMagic) { "Not a Zstandard frame, magic = ${Integer.toHexString(magic)}" }
+            op = decodeFrame(input, dst, op, dstLimit)
+        }
+        return op - dstPos
+    }
+
+    private fun decodeFrame(input: ForwardReader, dst: ByteArray, dstStart: Int, dstLimit: Int): Int {
+        val descriptor = input.readByte()
+        val fcsFlag = descriptor ushr 6
+        val singleSegment = (descriptor and 0x20) != 0
+        val hasChecksum = (descriptor and 0x04) != 0
+        val dictIdFlag = descriptor and 3
+        check((descriptor and 0x08) == 0) { "Zstandard reserved bit set" }
+
+        if (!singleSegment) input.skip(1) // window descriptor; the whole frame is decoded in place, so not needed
+        val dictIdSize = intArrayOf(0, 1, 2, 4)[dictIdFlag]
+        var dictId = 0L
+        for (i in 0 until dictIdSize) dictId = dictId or (input.readByte().toLong() shl (8 * i))
+        check(dictId == 0L) { "Zstandard dictionaries are not supported" }
+        val fcsSize = when (fcsFlag) {
+            0 -> if (singleSegment) 1 else 0
+            1 -> 2
+            2 -> 4
+            else -> 8
+        }
+        input.skip(fcsSize) // content size is not needed, we are bounded by dst
+
+        huffman = null
+        llTable = null
+        ofTable = null
+        mlTable = null
+        repeatOffsets[0] = 1
+        repeatOffsets[1] = 4
+        repeatOffsets[2] = 8
+
+        var op = dstStart
+        while (true) {
+            val header = input.readByte() or (input.readByte() shl 8) or (input.readByte() shl 16)
+            val isLast = (header and 1) != 0
+            val blockType = (header ushr 1) and 3
+            val blockSize = header ushr 3
+            when (blockType) {
+                0 -> { // raw
+                    check(op + blockSize <= dstLimit) { "Zstandard output overrun" }
+                    input.readBytes(dst, op, blockSize)
+                    op += blockSize
+                }
+                1 -> { // RLE
+                    check(op + blockSize <= dstLimit) { "Zstandard output overrun" }
+                    dst.fill(input.readByte().toByte(), op, op + blockSize)
+                    op += blockSize
+                }
+                2 -> {
+                    check(blockSize <= maxBlockSize) { "Zstandard block too big $blockSize" }
+                    val blockStart = input.pos
+                    input.skip(blockSize)
+                    op = decodeCompressedBlock(input.buffer, blockStart, blockSize, dst, dstStart, op, dstLimit)
+                }
+                else -> throw IllegalStateException("Zstandard reserved block type")
+            }
+            if (isLast) break
+        }
+        if (hasChecksum) input.skip(4)
+        return op
+    }
+
+    private fun decodeCompressedBlock(src: ByteArray, blockStart: Int, blockSize: Int,
+                                      dst: ByteArray, frameStart: Int, dstPos: Int, dstLimit: Int): Int {
+        val blockLimit = blockStart + blockSize
+        var ip = blockStart
+
+        //// literals section
+        val b0 = src[ip].toInt() and 0xff
+        val litType = b0 and 3
+        val sizeFormat = (b0 ushr 2) and 3
+        val nlits: Int
+        when (litType) {
+            0, 1 -> { // raw or RLE
+                val headerSize: Int
+                when (sizeFormat) {
+                    0, 2 -> { nlits = b0 ushr 3; headerSize = 1 }
+                    1 -> { nlits = (b0 ushr 4) + (u8(src, ip + 1) shl 4); headerSize = 2 }
+                    else -> { nlits = (b0 ushr 4) + (u8(src, ip + 1) shl 4) + (u8(src, ip + 2) shl 12); headerSize = 3 }
+                }
+                ip += headerSize
+                check(nlits <= maxBlockSize) { "Zstandard too many literals" }
+                if (litType == 0) {
+                    check(ip + nlits <= blockLimit) { "Zstandard literals overrun" }
+                    System.arraycopy(src, ip, literals, 0, nlits)
+                    ip += nlits
+                } else {
+                    literals.fill(src[ip], 0, nlits)
+                    ip += 1
+                }
+            }
+            else -> { // Huffman compressed, or treeless
+                val headerSize: Int
+                val compressedSize: Int
+                val nstreams: Int
+                when (sizeFormat) {
+                    0, 1 -> {
+                        val combined = b0 or (u8(src, ip + 1) shl 8) or (u8(src, ip + 2) shl 16)
+                        nlits = (combined ushr 4) and 0x3ff
+                        compressedSize = (combined ushr 14) and 0x3ff
+                        headerSize = 3
+                        nstreams = if (sizeFormat == 0) 1 else 4
+                    }
+                    2 -> {
+                        val combined = b0 or (u8(src, ip + 1) shl 8) or (u8(src, ip + 2) shl 16) or (u8(src, ip + 3) shl 24)
+                        nlits = (combined ushr 4) and 0x3fff
+                        compressedSize = (combined ushr 18) and 0x3fff
+                        headerSize = 4
+                        nstreams = 4
+                    }
+                    else -> {
+                        val combined = b0.toLong() or (u8(src, ip + 1).toLong() shl 8) or (u8(src, ip + 2).toLong() shl 16) or
+                                (u8(src, ip + 3).toLong() shl 24) or (u8(src, ip + 4).toLong() shl 32)
+                        nlits = ((combined ushr 4) and 0x3ffff).toInt()
+                        compressedSize = ((combined ushr 22) and 0x3ffff).toInt()
+                        headerSize = 5
+                        nstreams = 4
+                    }
+                }
+                ip += headerSize
+                check(nlits <= maxBlockSize) { "Zstandard too many literals" }
+                check(ip + compressedSize <= blockLimit) { "Zstandard literals overrun" }
+                var streamStart = ip
+                if (litType == 2) {
+                    val table = HuffmanTable.read(src, ip)
+                    huffman = table
+                    streamStart += table.headerSize
+                } else {
+                    checkNotNull(huffman) { "Zstandard treeless literals without a previous Huffman table" }
+                }
+                huffman!!.decodeStreams(src, streamStart, ip + compressedSize, nstreams, literals, nlits)
+                ip += compressedSize
+            }
+        }
+
+        //// sequences section
+        var op = dstPos
+        var litPos = 0
+        check(ip < blockLimit) { "Zstandard block missing sequences section" }
+        val s0 = u8(src, ip++)
+        val nseqs = when {
+            s0 < 128 -> s0
+            s0 < 255 -> ((s0 - 128) shl 8) + u8(src, ip++)
+            else -> { val n = u8(src, ip) + (u8(src, ip + 1) shl 8) + 0x7f00; ip += 2; n }
+        }
+
+        if (nseqs > 0) {
+            val modes = u8(src, ip++)
+            check((modes and 3) == 0) { "Zstandard reserved sequence mode bits" }
+            val headerReader = ForwardReader(src, ip, blockLimit)
+            llTable = readSequenceTable(modes ushr 6, headerReader, llTable, LL_DEFAULT, 35, 9)
+            ofTable = readSequenceTable((modes ushr 4) and 3, headerReader, ofTable, OF_DEFAULT, 31, 8)
+            mlTable = readSequenceTable((modes ushr 2) and 3, headerReader, mlTable, ML_DEFAULT, 52, 9)
+            ip = headerReader.pos
+            val ll = llTable!!
+            val of = ofTable!!
+            val ml = mlTable!!
+
+            val bits = BackwardReader(src, ip, blockLimit)
+            var llState = bits.read(ll.accuracyLog)
+            var ofState = bits.read(of.accuracyLog)
+            var mlState = bits.read(ml.accuracyLog)
+
+            for (seq in 0 until nseqs) {
+                val ofCode = of.symbols[ofState].toInt()
+                val llCode = ll.symbols[llState].toInt()
+                val mlCode = ml.symbols[mlState].toInt()
+                check(ofCode <= 31) { "Zstandard offset code too big $ofCode" }
+
+                val offsetValue = (1L shl ofCode) + bits.readLong(ofCode)
+                val matchLen = ML_BASE[mlCode] + bits.read(ML_BITS[mlCode])
+                val litLen = LL_BASE[llCode] + bits.read(LL_BITS[llCode])
+
+                // repeat offsets
+                val offset: Int
+                if (offsetValue > 3) {
+                    offset = (offsetValue - 3).toInt()
+                    repeatOffsets[2] = repeatOffsets[1]
+                    repeatOffsets[1] = repeatOffsets[0]
+                    repeatOffsets[0] = offset
+                } else {
+                    val index = offsetValue.toInt() - 1 + (if (litLen == 0) 1 else 0)
+                    when (index) {
+                        0 -> offset = repeatOffsets[0]
+                        1 -> {
+                            offset = repeatOffsets[1]
+                            repeatOffsets[1] = repeatOffsets[0]
+                            repeatOffsets[0] = offset
+                        }
+                        else -> {
+                            offset = if (index == 2) repeatOffsets[2] else repeatOffsets[0] - 1
+                            repeatOffsets[2] = repeatOffsets[1]
+                            repeatOffsets[1] = repeatOffsets[0]
+                            repeatOffsets[0] = offset
+                        }
+                    }
+                }
+
+                if (seq < nseqs - 1) {
+                    llState = ll.baselines[llState] + bits.read(ll.nbits[llState].toInt())
+                    mlState = ml.baselines[mlState] + bits.read(ml.nbits[mlState].toInt())
+                    ofState = of.baselines[ofState] + bits.read(of.nbits[ofState].toInt())
+                }
+
+                // execute the sequence
+                check(litPos + litLen <= nlits) { "Zstandard sequence uses too many literals" }
+                check(op + litLen + matchLen <= dstLimit) { "Zstandard output overrun" }
+                System.arraycopy(literals, litPos, dst, op, litLen)
+                litPos += litLen
+                op += litLen
+                check(offset > 0 && offset <= op - frameStart) { "Zstandard bad match offset $offset" }
+                copyMatch(dst, op, offset, matchLen)
+                op += matchLen
+            }
+            check(bits.isFinished()) { "Zstandard sequences bitstream not fully consumed" }
+        }
+
+        // the remaining literals
+        val remaining = nlits - litPos
+        check(op + remaining <= dstLimit) { "Zstandard output overrun" }
+        System.arraycopy(literals, litPos, dst, op, remaining)
+        return op + remaining
+    }
+
+    private fun readSequenceTable(mode: Int, reader: ForwardReader, previous: FseTable?, defaultTable: FseTable,
+                                  maxSymbol: Int, maxLog: Int): FseTable {
+        return when (mode) {
+            0 -> defaultTable
+            1 -> {
+                val symbol = reader.readByte()
+                check(symbol <= maxSymbol) { "Zstandard RLE symbol too big $symbol" }
+                FseTable.rle(symbol)
+            }
+            2 -> FseTable.read(reader, maxSymbol, maxLog)
+            else -> previous ?: throw IllegalStateException("Zstandard repeat mode without a previous table")
+        }
+    }
+
+    companion object {
+        private const val frameMagic = 0xFD2FB528.toInt()
+        private const val skippableMagic = 0x184D2A50
+        private const val maxBlockSize = 128 * 1024
+
+        private val LL_BASE = intArrayOf(
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096,
+            8192, 16384, 32768, 65536)
+        private val LL_BITS = intArrayOf(
+            0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+            13, 14, 15, 16)
+        private val ML_BASE = IntArray(53) { if (it < 32) it + 3 else 0 }.also {
+            val base = intArrayOf(35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+                4099, 8195, 16387, 32771, 65539)
+            base.copyInto(it, 32)
+        }
+        private val ML_BITS = IntArray(53).also {
+            val bits = intArrayOf(1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16)
+            bits.copyInto(it, 32)
+        }
+
+        private val LL_DEFAULT = FseTable.build(shortArrayOf(
+            4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+            2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+            -1, -1, -1, -1), 6)
+        private val ML_DEFAULT = FseTable.build(shortArrayOf(
+            1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+            -1, -1, -1, -1, -1), 6)
+        private val OF_DEFAULT = FseTable.build(shortArrayOf(
+            1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1), 5)
+    }
+}
+
+/** Finite State Entropy decoding table. */
+private class FseTable(val accuracyLog: Int, val symbols: ByteArray, val nbits: ByteArray, val baselines: IntArray) {
+
+    companion object {
+        fun rle(symbol: Int) = FseTable(0, byteArrayOf(symbol.toByte()), byteArrayOf(0), intArrayOf(0))
+
+        // read the table description, see RFC 8878 section 4.1.1
+        fun read(reader: ForwardReader, maxSymbol: Int, maxLog: Int): FseTable {
+            val bits = reader.bitReader()
+            val accuracyLog = bits.read(4) + 5
+            check(accuracyLog <= maxLog) { "Zstandard FSE accuracy log too big $accuracyLog" }
+            val probs = ShortArray(maxSymbol + 1)
+            var remaining = 1 shl accuracyLog
+            var symbol = 0
+            while (remaining > 0) {
+                check(symbol <= maxSymbol) { "Zstandard FSE table has too many symbols" }
+                val nbits = highestBit(remaining + 1) + 1
+                var value = bits.read(nbits)
+                val lowerMask = (1 shl (nbits - 1)) - 1
+                val threshold = (1 shl nbits) - 1 - (remaining + 1)
+                if ((value and lowerMask) < threshold) {
+                    bits.rewind(1)
+                    value = value and lowerMask
+                } else if (value > lowerMask) {
+                    value -= threshold
+                }
+                val prob = value - 1
+                remaining -= if (prob < 0) -prob else prob
+                probs[symbol++] = prob.toShort()
+                if (prob == 0) {
+                    var repeat = bits.read(2)
+                    while (true) {
+                        for (i in 0 until repeat) {
+                            check(symbol <= maxSymbol) { "Zstandard FSE table has too many symbols" }
+                            probs[symbol++] = 0
+                        }
+                        if (repeat == 3) repeat = bits.read(2) else break
+                    }
+                }
+            }
+            check(remaining == 0) { "Zstandard FSE table probabilities dont add up" }
+            reader.pos = bits.alignedPos()
+            return build(probs.copyOf(symbol), accuracyLog)
+        }
+
+        // build the decoding table from the normalized probabilities, see RFC 8878 section 4.1.1
+        fun build(probs: ShortArray, accuracyLog: Int): FseTable {
+            val size = 1 shl accuracyLog
+            val symbols = ByteArray(size)
+            val nbits = ByteArray(size)
+            val baselines = IntArray(size)
+            val next = IntArray(probs.size)
+
+            // less than one probability symbols go at the end
+            var highThreshold = size
+            probs.forEachIndexed { s, prob ->
+                if (prob.toInt() == -1) {
+                    symbols[--highThreshold] = s.toByte()
+                    next[s] = 1
+                }
+            }
+            val step = (size ushr 1) + (size ushr 3) + 3
+            val mask = size - 1
+            var pos = 0
+            probs.forEachIndexed { s, prob ->
+                if (prob > 0) {
+                    next[s] = prob.toInt()
+                    repeat(prob.toInt()) {
+                        symbols[pos] = s.toByte()
+                        do {
+                            pos = (pos + step) and mask
+                        } while (pos >= highThreshold)
+                    }
+                }
+            }
+            check(pos == 0) { "Zstandard FSE table spread failed" }
+
+            for (i in 0 until size) {
+                val s = symbols[i].toInt() and 0xff
+                val nextState = next[s]++
+                val nb = accuracyLog - highestBit(nextState)
+                nbits[i] = nb.toByte()
+                baselines[i] = (nextState shl nb) - size
+            }
+            return FseTable(accuracyLog, symbols, nbits, baselines)
+        }
+    }
+}
+
+/** Huffman decoding table for literals. */
+private class HuffmanTable(val maxBits: Int, val symbols: ByteArray, val nbits: ByteArray, val headerSize: Int) {
+
+    fun decodeStreams(src: ByteArray, start: Int, limit: Int, nstreams: Int, dst: ByteArray, nlits: Int) {
+        if (nstreams == 1) {
+            decodeStream(src, start, limit, dst, 0, nlits)
+            return
+        }
+        check(start + 6 <= limit) { "Zstandard Huffman jump table truncated" }
+        val size1 = u8(src, start) or (u8(src, start + 1) shl 8)
+        val size2 = u8(src, start + 2) or (u8(src, start + 3) shl 8)
+        val size3 = u8(src, start + 4) or (u8(src, start + 5) shl 8)
+        val start1 = start + 6
+        val start2 = start1 + size1
+        val start3 = start2 + size2
+        val start4 = start3 + size3
+        check(start4 <= limit) { "Zstandard Huffman streams overrun" }
+        val perStream = (nlits + 3) / 4
+        check(3 * perStream <= nlits) { "Zstandard Huffman too few literals for 4 streams" }
+        decodeStream(src, start1, start2, dst, 0, perStream)
+        decodeStream(src, start2, start3, dst, perStream, perStream)
+        decodeStream(src, start3, start4, dst, 2 * perStream, perStream)
+        decodeStream(src, start4, limit, dst, 3 * perStream, nlits - 3 * perStream)
+    }
+
+    private fun decodeStream(src: ByteArray, start: Int, limit: Int, dst: ByteArray, dstPos: Int, count: Int) {
+        val bits = BackwardReader(src, start, limit)
+        val mask = (1 shl maxBits) - 1
+        var state = bits.read(maxBits)
+        for (i in 0 until count) {
+            dst[dstPos + i] = symbols[state]
+            val nb = nbits[state].toInt()
+            state = ((state shl nb) + bits.read(nb)) and mask
+        }
+        check(bits.bitsConsumedPastStart() == maxBits) { "Zstandard Huffman stream not fully consumed" }
+    }
+
+    companion object {
+        private const val maxTableLog = 11
+
+        fun read(src: ByteArray, pos: Int): HuffmanTable {
+            val header = u8(src, pos)
+            val weights = ByteArray(257)
+            val nweights: Int
+            val headerSize: Int
+            if (header < 128) { // FSE compressed weights
+                headerSize = 1 + header
+                val reader = ForwardReader(src, pos + 1, pos + 1 + header)
+                val table = FseTable.read(reader, 255, 6)
+                val bits = BackwardReader(src, reader.pos, pos + 1 + header)
+                var state1 = bits.read(table.accuracyLog)
+                var state2 = bits.read(table.accuracyLog)
+                var n = 0
+                while (true) {
+                    check(n < 254) { "Zstandard Huffman too many weights" }
+                    weights[n++] = table.symbols[state1]
+                    state1 = table.baselines[state1] + bits.read(table.nbits[state1].toInt())
+                    if (bits.isOverflowed()) {
+                        weights[n++] = table.symbols[state2]
+                        break
+                    }
+                    weights[n++] = table.symbols[state2]
+                    state2 = table.baselines[state2] + bits.read(table.nbits[state2].toInt())
+                    if (bits.isOverflowed()) {
+                        weights[n++] = table.symbols[state1]
+                        break
+                    }
+                }
+                nweights = n
+            } else { // 4 bits per weight
+                nweights = header - 127
+                headerSize = 1 + (nweights + 1) / 2
+                for (i in 0 until nweights) {
+                    val b = u8(src, pos + 1 + i / 2)
+                    weights[i] = (if (i % 2 == 0) b ushr 4 else b and 15).toByte()
+                }
+            }
+            return build(weights, nweights, headerSize)
+        }
+
+        // the last weight is implied, so that the total is a power of 2
+        private fun build(weights: ByteArray, nweights: Int, headerSize: Int): HuffmanTable {
+            check(nweights <= 255) { "Zstandard Huffman too many weights" }
+            var total = 0
+            for (i in 0 until nweights) {
+                val w = weights[i].toInt()
+                check(w <= maxTableLog) { "Zstandard Huffman weight too big $w" }
+                if (w > 0) total += 1 shl (w - 1)
+            }
+            check(total > 0) { "Zstandard Huffman weights all zero" }
+            val maxBits = highestBit(total) + 1
+            check(maxBits <= maxTableLog) { "Zstandard Huffman table too big" }
+            val leftover = (1 shl maxBits) - total
+            check(leftover and (leftover - 1) == 0) { "Zstandard Huffman weights dont add up" }
+            weights[nweights] = (highestBit(leftover) + 1).toByte()
+            val nsymbols = nweights + 1
+
+            // codes are assigned starting with the longest codes, ie smallest weights
+            val rankCount = IntArray(maxBits + 1)
+            val bitsOf = IntArray(nsymbols) { s ->
+                val w = weights[s].toInt()
+                if (w > 0) maxBits + 1 - w else 0
+            }
+            bitsOf.forEach { if (it > 0) rankCount[it]++ }
+            val rankStart = IntArray(maxBits + 1)
+            for (b in maxBits downTo 1) {
+                rankStart[b - 1] = rankStart[b] + rankCount[b] * (1 shl (maxBits - b))
+            }
+            val size = 1 shl maxBits
+            val symbols = ByteArray(size)
+            val nbits = ByteArray(size)
+            for (s in 0 until nsymbols) {
+                val b = bitsOf[s]
+                if (b == 0) continue
+                val len = 1 shl (maxBits - b)
+                val code = rankStart[b]
+                symbols.fill(s.toByte(), code, code + len)
+                nbits.fill(b.toByte(), code, code + len)
+                rankStart[b] += len
+            }
+            return HuffmanTable(maxBits, symbols, nbits, headerSize)
+        }
+    }
+}
+
+/** Reads bytes going forward, little endian. */
+private class ForwardReader(val buffer: ByteArray, var pos: Int, val limit: Int) {
+    fun readByte(): Int {
+        check(pos < limit) { "Zstandard data truncated" }
+        return buffer[pos++].toInt() and 0xff
+    }
+
+    fun readInt(): Int = readByte() or (readByte() shl 8) or (readByte() shl 16) or (readByte() shl 24)
+
+    fun readBytes(dst: ByteArray, dstPos: Int, n: Int) {
+        check(pos + n <= limit) { "Zstandard data truncated" }
+        System.arraycopy(buffer, pos, dst, dstPos, n)
+        pos += n
+    }
+
+    fun skip(n: Int) {
+        check(n >= 0 && pos + n <= limit) { "Zstandard data truncated" }
+        pos += n
+    }
+
+    fun bitReader() = ForwardBitReader(buffer, pos, limit)
+}
+
+/** Reads bits going forward, starting with the low bits of each byte. */
+private class ForwardBitReader(val buffer: ByteArray, val start: Int, val limit: Int) {
+    private var bitPos = 0L
+
+    fun read(nbits: Int): Int {
+        var result = 0
+        for (i in 0 until nbits) {
+            val bytePos = start + (bitPos ushr 3).toInt()
+            check(bytePos < limit) { "Zstandard FSE table truncated" }
+            val bit = (buffer[bytePos].toInt() ushr (bitPos and 7).toInt()) and 1
+            result = result or (bit shl i)
+            bitPos++
+        }
+        return result
+    }
+
+    fun rewind(nbits: Int) {
+        bitPos -= nbits
+    }
+
+    fun alignedPos(): Int = start + ((bitPos + 7) ushr 3).toInt()
+}
+
+/**
+ * Reads bits going backward from the end of a bitstream, as used by FSE and Huffman streams.
+ * The last byte has a 1 bit marking where the stream begins. Reads past the start of the stream return zeros.
+ */
+private class BackwardReader(val buffer: ByteArray, val start: Int, limit: Int) {
+    private var bitOffset: Long // number of bits not yet read
+
+    init {
+        check(limit > start) { "Zstandard empty bitstream" }
+        val last = buffer[limit - 1].toInt() and 0xff
+        check(last != 0) { "Zstandard bitstream missing end mark" }
+        bitOffset = 8L * (limit - start) - (8 - highestBit(last))
+    }
+
+    fun read(nbits: Int): Int = readLong(nbits).toInt()
+
+    fun readLong(nbits: Int): Long {
+        if (nbits == 0) return 0
+        bitOffset -= nbits
+        var actualOffset = bitOffset
+        var actualBits = nbits
+        if (bitOffset < 0) {
+            actualBits += bitOffset.toInt()
+            actualOffset = 0
+        }
+        var result = 0L
+        var got = 0
+        while (got < actualBits) {
+            val pos = actualOffset + got
+            val b = buffer[start + (pos ushr 3).toInt()].toInt() and 0xff
+            val shift = (pos and 7).toInt()
+            val take = minOf(8 - shift, actualBits - got)
+            result = result or (((b ushr shift) and ((1 shl take) - 1)).toLong() shl got)
+            got += take
+        }
+        if (bitOffset < 0) {
+            result = if (-bitOffset >= 64) 0 else result shl (-bitOffset).toInt()
+        }
+        return result
+    }
+
+    fun isOverflowed() = bitOffset < 0
+    fun isFinished() = bitOffset == 0L
+    fun bitsConsumedPastStart() = (-bitOffset).toInt()
+}
+
+private fun u8(src: ByteArray, pos: Int) = src[pos].toInt() and 0xff
+
+private fun highestBit(value: Int) = 31 - Integer.numberOfLeadingZeros(value)
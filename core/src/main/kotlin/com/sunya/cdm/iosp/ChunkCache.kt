@@ -0,0 +1,105 @@
+package com.sunya.cdm.iosp
+
+import java.nio.ByteBuffer
+
+/**
+ * Keeps recently decoded (decompressed, unfiltered) data chunks, so reads of overlapping or nearby sections
+ * dont have to read and decode the same chunks again. Keyed by file location and chunk address, so one cache
+ * can be shared by several open files. Safe to share between threads.
+ *
+ * The least recently used chunks are evicted when the cached chunks total more than maxBytes.
+ * A chunk bigger than maxBytes is not cached.
+ * The cached buffers are shared, so they are only handed out as read-only views.
+ *
+ * @param maxBytes limit on the total bytes of the cached chunks; 0 = no caching.
+ * @param offHeap keep the cached chunks in direct buffers, outside of the java heap.
+ */
+class ChunkCache(val maxBytes : Long = defaultChunkCacheBytes, val offHeap : Boolean = false) {
+    private data class Key(val location : String, val address : Long)
+
+    private val cache = LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true) // access order
+    private var bytes = 0L
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    init {
+        require(maxBytes >= 0)
+    }
+
+    val isEnabled : Boolean get() = maxBytes > 0
+
+    /** A read-only view of the cached chunk at position 0, or null if its not cached. */
+    @Synchronized
+    fun get(location : String, address : Long) : ByteBuffer? {
+        if (!isEnabled) return null
+        val cached = cache[Key(location, address)]
+        if (cached == null) {
+            misses++
+            return null
+        }
+        hits++
+        return cached.asReadOnlyBuffer()
+    }
+
+    /**
+     * Add a decoded chunk, evicting the least recently used chunks as needed.
+     * @param data the chunk is its bytes from 0 to its limit; it must not be changed afterwards.
+     * @return a read-only view of the chunk at position 0, or data itself if its not cached
+     */
+    @Synchronized
+    fun put(location : String, address : Long, data : ByteBuffer) : ByteBuffer {
+        val nbytes = data.limit()
+        if (!isEnabled || nbytes > maxBytes) return data
+        val stored = if (offHeap) {
+            ByteBuffer.allocateDirect(nbytes).put(0, data, 0, nbytes)
+        } else {
+            data.duplicate().position(0)
+        }
+        val previous = cache.put(Key(location, address), stored)
+        if (previous != null) bytes -= previous.limit()
+        bytes += nbytes
+
+        val iter = cache.values.iterator()
+        while (bytes > maxBytes && iter.hasNext()) {
+            bytes -= iter.next().limit()
+            iter.remove()
+            evictions++
+        }
+        return stored.asReadOnlyBuffer()
+    }
+
+    /** The cached chunk if there is one, else decode it and cache it. See get() and put(). Not locked while decoding. */
+    fun getOrPut(location : String, address : Long, decode : () -> ByteBuffer) : ByteBuffer {
+        return get(location, address) ?: put(location, address, decode())
+    }
+
+    @Synchronized
+    fun clear() {
+        cache.clear()
+        bytes = 0
+    }
+
+    @Synchronized
+    fun stats() = ChunkCacheStats(hits, misses, evictions, cache.size, bytes)
+
+    companion object {
+        const val defaultChunkCacheBytes = 32L * 1024 * 1024
+    }
+}
+
+/**
+ * Counters for a ChunkCache.
+ * @param hits number of chunks found in the cache
+ * @param misses number of chunks not found in the cache, that had to be read and decoded
+ * @param evictions number of chunks removed to stay under maxBytes
+ * @param size number of chunks currently cached
+ * @param bytes total bytes of the chunks currently cached
+ */
+data class ChunkCacheStats(
+    val hits : Long = 0,
+    val misses : Long = 0,
+    val evictions : Long = 0,
+    val size : Int = 0,
+    val bytes : Long = 0,
+)
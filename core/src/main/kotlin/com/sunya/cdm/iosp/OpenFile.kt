@@ -1,5 +1,6 @@
 package com.sunya.cdm.iosp
 
+import com.sunya.cdm.layout.Layout
 import java.io.Closeable
 import java.io.EOFException
 import java.io.IOException
@@ -8,22 +9,35 @@ import java.nio.ByteOrder
 import java.nio.channels.FileChannel
 import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
-
-/** An abstraction over a Java FileChannel. */
-data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * An abstraction over a Java FileChannel.
+ * All reads are positional (FileChannel.read(dst, pos)), and the only state is in the OpenFileState passed in,
+ * so one OpenFile can be shared by any number of threads.
+ * Small reads go through a per-thread buffer, so sequential header reading is still efficient.
+ *
+ * @param useMmap if true, large contiguous data reads may return a read-only view of the memory-mapped file
+ *   instead of a copy on the heap. See readByteBufferMapped().
+ * @param maxReadGap readLayout() reads chunks that are separated by no more than this many bytes with a single read.
+ */
+data class OpenFile(val location : String, val useMmap : Boolean = false, val maxReadGap : Int = defaultMaxReadGap)
+    : ReaderIntoByteArray, Closeable {
     var allowTruncation = true
-    val raf : com.sunya.io.RandomAccessFile
     val fileChannel : FileChannel
     val size : Long
+    private val readBuffers : ThreadLocal<ReadBuffer>
+
     init {
-        raf = com.sunya.io.RandomAccessFile(location, "r")
-        fileChannel = raf.fileChannel
-        raf.order(ByteOrder.LITTLE_ENDIAN)
-        size = raf.length()
+        fileChannel = FileChannel.open(Path.of(location), StandardOpenOption.READ)
+        size = fileChannel.size()
+        readBuffers = ThreadLocal.withInitial { ReadBuffer(defaultBufferSize) }
+        require(maxReadGap >= 0)
     }
 
     override fun close() {
-        raf.close()
+        fileChannel.close()
     }
 
     fun readByteBufferDirect(state : OpenFileState, nbytes : Int): ByteBuffer {
@@ -51,6 +65,21 @@ data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
         }
     }
 
+    /**
+     * Memory map nbytes of the file starting at state.pos, without copying.
+     * The returned buffer is read-only and has no backing array.
+     * The mapping stays valid until the buffer is garbage collected, even after this file is closed.
+     */
+    fun readByteBufferMapped(state : OpenFileState, nbytes : Int): ByteBuffer {
+        if (state.pos + nbytes > size) {
+            throw EOFException("Tried to map past EOF $size at pos ${state.pos} nbytes $nbytes location $location")
+        }
+        val dst = fileChannel.map(FileChannel.MapMode.READ_ONLY, state.pos, nbytes.toLong())
+        dst.order(state.byteOrder)
+        state.pos += nbytes
+        return dst
+    }
+
     fun readIntoByteBufferDirect(state : OpenFileState, dst : ByteBuffer, dstPos : Int, nbytes : Int) : Int {
         if (nbytes < 4000) {
             return readIntoByteBuffer(state, dst, dstPos, nbytes)
@@ -86,13 +115,63 @@ data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
             throw EOFException("Tried to read past EOF ${size} at pos ${state.pos} location $location")
         }
         val bb = readBytes(state, nbytes)
-        var pos = dstPos
-        for (idx in 0 until bb.size) {
-            dst.put(pos++, bb[idx])
-        }
+        dst.put(dstPos, bb)
         return bb.size
     }
 
+    /**
+     * Read all of the layout's chunks into dst, each at its destElem.
+     * Chunks that are in increasing file order and separated by no more than maxReadGap bytes are read together,
+     * with one read into a buffer that they are then copied out of, so many small chunks dont need many small reads.
+     * The position and limit of dst are not changed.
+     * @return the number of bytes transferred into dst
+     */
+    fun readLayout(layout : Layout, dst : ByteBuffer) : Int {
+        val elemSize = layout.elemSize
+        val group = mutableListOf<Layout.Chunk>()
+        var groupStart = 0L
+        var groupEnd = 0L
+        var scratch = ByteArray(0)
+        var total = 0
+        val direct = dst.duplicate() // readIntoByteBufferDirect changes its position and limit
+
+        fun readGroup() {
+            if (group.size == 1) {
+                val chunk = group[0]
+                total += readIntoByteBufferDirect(OpenFileState(groupStart), direct, elemSize * chunk.destElem().toInt(), elemSize * chunk.nelems())
+            } else {
+                val nbytes = (groupEnd - groupStart).toInt()
+                if (scratch.size < nbytes) scratch = ByteArray(nbytes)
+                val nread = readFully(fileChannel, ByteBuffer.wrap(scratch, 0, nbytes), groupStart)
+                if (nread < nbytes && !allowTruncation) {
+                    throw EOFException("Only read $nread bytes of wanted $nbytes bytes; starting at pos $groupStart EOF=${size}")
+                }
+                for (chunk in group) {
+                    val offset = (chunk.srcPos() - groupStart).toInt()
+                    val len = Math.min(elemSize * chunk.nelems(), nread - offset)
+                    if (len <= 0) break
+                    dst.put(elemSize * chunk.destElem().toInt(), scratch, offset, len)
+                    total += len
+                }
+            }
+            group.clear()
+        }
+
+        while (layout.hasNext()) {
+            val chunk = layout.next()
+            val start = chunk.srcPos()
+            val end = start + elemSize.toLong() * chunk.nelems()
+            if (group.isNotEmpty() && (start < groupEnd || start - groupEnd > maxReadGap || end - groupStart > maxGroupBytes)) {
+                readGroup()
+            }
+            if (group.isEmpty()) groupStart = start
+            group.add(chunk)
+            groupEnd = end
+        }
+        if (group.isNotEmpty()) readGroup()
+        return total
+    }
+
     fun readByteBuffer(state : OpenFileState, nbytes : Int): ByteBuffer {
         val dst = readBytes(state, nbytes)
         val bb = ByteBuffer.wrap(dst)
@@ -102,17 +181,13 @@ data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
 
     // doesnt check the number of bytes read into dst, just returns the number.
     fun readBytesUnchecked(state : OpenFileState, dst : ByteArray) : Int {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        val nread = raf.read(dst)
+        val nread = readAt(state.pos, dst, 0, dst.size)
         state.pos += nread
         return nread
     }
 
     fun readBytes(state : OpenFileState, dst : ByteArray) : Int {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        val nread = raf.read(dst)
+        val nread = readAt(state.pos, dst, 0, dst.size)
         if (nread != dst.size && !allowTruncation) {
             throw EOFException("Only read $nread bytes of wanted ${dst.size} bytes; starting at pos ${state.pos} EOF=${size}")
         }
@@ -127,45 +202,52 @@ data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
     }
 
     fun readByte(state : OpenFileState): Byte {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos++
-        return raf.readByte()
+        return readPrimitive(state, 1) { bb, offset -> bb.get(offset) }
     }
 
     fun readDouble(state : OpenFileState): Double {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos += 8
-        return raf.readDouble()
+        return readPrimitive(state, 8) { bb, offset -> bb.getDouble(offset) }
     }
 
     fun readFloat(state : OpenFileState): Float {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos += 4
-        return raf.readFloat()
+        return readPrimitive(state, 4) { bb, offset -> bb.getFloat(offset) }
     }
 
     fun readInt(state : OpenFileState): Int {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos += 4
-        return raf.readInt()
+        return readPrimitive(state, 4) { bb, offset -> bb.getInt(offset) }
     }
 
     fun readLong(state : OpenFileState): Long {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos += 8
-        return raf.readLong()
+        return readPrimitive(state, 8) { bb, offset -> bb.getLong(offset) }
     }
 
     fun readShort(state : OpenFileState): Short {
-        raf.seek(state.pos)
-        raf.order(state.byteOrder)
-        state.pos += 2
-        return raf.readShort()
+        return readPrimitive(state, 2) { bb, offset -> bb.getShort(offset) }
+    }
+
+    // read a primitive value of nbytes out of this thread's buffer
+    private inline fun <T> readPrimitive(state : OpenFileState, nbytes : Int, get : (ByteBuffer, Int) -> T) : T {
+        val rb = readBuffers.get()
+        val offset = rb.fill(fileChannel, state.pos, nbytes)
+        if (rb.dataSize - offset < nbytes) {
+            throw EOFException("Tried to read past EOF $size at pos ${state.pos} location $location")
+        }
+        rb.bb.order(state.byteOrder)
+        state.pos += nbytes
+        return get(rb.bb, offset)
+    }
+
+    // read up to nbytes starting at file position pos; may return less than nbytes at EOF.
+    private fun readAt(pos : Long, dst : ByteArray, dstPos : Int, nbytes : Int) : Int {
+        if (nbytes > defaultBufferSize) {
+            return readFully(fileChannel, ByteBuffer.wrap(dst, dstPos, nbytes), pos)
+        }
+        val rb = readBuffers.get()
+        val offset = rb.fill(fileChannel, pos, nbytes)
+        val nread = Math.min(nbytes, rb.dataSize - offset)
+        if (nread <= 0) return 0
+        System.arraycopy(rb.buffer, offset, dst, dstPos, nread)
+        return nread
     }
 
     fun readString(state : OpenFileState, nbytes : Int): String {
@@ -229,6 +311,40 @@ data class OpenFile(val location : String) : ReaderIntoByteArray, Closeable {
     }
 }
 
+/** Each thread gets its own ReadBuffer, a window into the file starting at bufferStart. */
+private class ReadBuffer(bufferSize : Int) {
+    val buffer = ByteArray(bufferSize)
+    val bb: ByteBuffer = ByteBuffer.wrap(buffer)
+    var bufferStart = -1L
+    var dataSize = 0
+
+    /** Make sure the buffer holds nbytes starting at pos (unless EOF), return the offset of pos in the buffer. */
+    fun fill(fileChannel : FileChannel, pos : Long, nbytes : Int) : Int {
+        if (pos < 0) throw IOException("Negative seek offset")
+        if (bufferStart >= 0 && pos >= bufferStart && pos + nbytes <= bufferStart + dataSize) {
+            return (pos - bufferStart).toInt()
+        }
+        bufferStart = pos
+        dataSize = readFully(fileChannel, ByteBuffer.wrap(buffer), pos)
+        return 0
+    }
+}
+
+// keep reading until dst is full or EOF; return number of bytes read.
+private fun readFully(fileChannel : FileChannel, dst : ByteBuffer, pos : Long) : Int {
+    var total = 0
+    while (dst.hasRemaining()) {
+        val nread = fileChannel.read(dst, pos + total)
+        if (nread < 0) break
+        total += nread
+    }
+    return total
+}
+
+private const val defaultBufferSize = 8092
+const val defaultMaxReadGap = 16 * 1024
+private const val maxGroupBytes = 1024 * 1024 // limit on the size of a read that contains more than one chunk
+
 data class OpenFileState(var pos : Long, var byteOrder : ByteOrder = ByteOrder.LITTLE_ENDIAN) {
     fun incr(addit : Long) : OpenFileState {
         this.pos += addit
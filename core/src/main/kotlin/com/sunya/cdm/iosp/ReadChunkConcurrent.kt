@@ -1,53 +1,90 @@
 package com.sunya.cdm.iosp
 
 import com.sunya.cdm.api.ArraySection
-import com.sunya.cdm.array.*
+import com.sunya.cdm.api.ChunkRead
 
 import kotlinx.coroutines.*
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.channels.ReceiveChannel
-import kotlinx.coroutines.channels.produce
-
+import kotlinx.coroutines.channels.Channel
 
+/**
+ * Reads and decodes chunks in parallel, while keeping the memory they use bounded.
+ * Finding the chunks is done serially by one coroutine; reading and decoding them, by up to nthreads at once.
+ * A chunk is started only when the chunks already started but not yet handed off total less than maxBytesInFlight,
+ * so a slow consumer slows down the reading instead of filling up memory.
+ * Exceptions from reading or from the consumer cancel the remaining reads, and are rethrown.
+ *
+ * @param nthreads the number of chunks to read and decode at the same time
+ * @param maxBytesInFlight limit on the bytes of the chunks that have been started but not yet handed off.
+ *   A single chunk larger than this is still read, by itself.
+ * @param dispatcher where the blocking work of finding and reading the chunks is done
+ */
 @OptIn(ExperimentalCoroutinesApi::class)
-internal class ReadChunkConcurrent() {
+class ReadChunkConcurrent(val nthreads : Int = defaultThreads, val maxBytesInFlight : Long = defaultMaxBytesInFlight,
+                          val dispatcher : CoroutineDispatcher = Dispatchers.IO) {
 
-    fun <T> readChunks(nthreads : Int, chunkIter : Iterator<ArraySection<T>>, lamda : (ArraySection<T>) -> Unit) {
+    init {
+        require(nthreads > 0) { "nthreads must be > 0" }
+        require(maxBytesInFlight > 0) { "maxBytesInFlight must be > 0" }
+    }
 
+    /** Blocks until all the chunks have been passed to lamda. See process(). */
+    fun <T> readChunks(chunkReads : Iterator<ChunkRead<T>>, ordered : Boolean, lamda : (ArraySection<T>) -> Unit) {
         runBlocking {
-            val jobs = mutableListOf<Job>()
-            val chunkProducer = produceChunks(chunkIter)
-            repeat(nthreads) {
-                jobs.add( launchJob(it, chunkProducer, lamda) )
-            }
-
-            // wait for all jobs to be done, then close everything
-            joinAll(*jobs.toTypedArray())
+            process(chunkReads, ordered) { lamda(it) }
         }
     }
 
-    private val allResults = mutableListOf<Double>()
-    private var count = 0
-    private fun <T> CoroutineScope.produceChunks(producer: Iterator<ArraySection<T>>): ReceiveChannel<ArraySection<T>> =
-        produce {
-            for (ballot in producer) {
-                send(ballot)
-                yield()
-                count++
-            }
-            channel.close()
-        }
+    /**
+     * Read all the chunks, and pass each to consumer.
+     * @param ordered if true, consumer is called from this coroutine, with the chunks in the order of chunkReads;
+     *   otherwise consumer is called from the reading threads as each chunk is done, and must be thread safe.
+     */
+    suspend fun <T> process(chunkReads : Iterator<ChunkRead<T>>, ordered : Boolean, consumer : suspend (ArraySection<T>) -> Unit) {
+        val readers = dispatcher.limitedParallelism(nthreads)
+        // the bytes of each chunk, sent back when its been handed off, so it no longer counts against the budget
+        val released = Channel<Long>(Channel.UNLIMITED)
+        // for ordered delivery, the reads in order
+        val pending = Channel<Pair<Deferred<ArraySection<T>>, Long>>(Channel.UNLIMITED)
 
-    private val mutex = Mutex()
+        coroutineScope {
+            launch(dispatcher) {
+                var inFlight = 0L
+                try {
+                    for (chunkRead in chunkReads) {
+                        // wait until theres room for this chunk, unless nothing else is in flight
+                        while (inFlight > 0 && inFlight + chunkRead.nbytes > maxBytesInFlight) {
+                            inFlight -= released.receive()
+                        }
+                        while (true) { // also collect any other releases that are waiting
+                            inFlight -= released.tryReceive().getOrNull() ?: break
+                        }
+                        inFlight += chunkRead.nbytes
 
-    private fun <T> CoroutineScope.launchJob(
-        id: Int,
-        input: ReceiveChannel<ArraySection<T>>,
-        lamda: (ArraySection<T>) -> Unit,
-    ) = launch(Dispatchers.Default) {
-        for (arraySection in input) {
-            lamda(arraySection)
-            yield()
+                        if (ordered) {
+                            pending.send(Pair(async(readers) { chunkRead.read() }, chunkRead.nbytes))
+                        } else {
+                            launch(readers) {
+                                consumer(chunkRead.read())
+                                released.send(chunkRead.nbytes)
+                            }
+                        }
+                    }
+                } finally {
+                    pending.close()
+                }
+            }
+
+            if (ordered) {
+                for ((deferred, nbytes) in pending) {
+                    consumer(deferred.await())
+                    released.send(nbytes)
+                }
+            }
         }
     }
-}
\ No newline at end of file
+
+    companion object {
+        val defaultThreads = Runtime.getRuntime().availableProcessors()
+        const val defaultMaxBytesInFlight = 256L * 1024 * 1024
+    }
+}
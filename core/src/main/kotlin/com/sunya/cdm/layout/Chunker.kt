@@ -9,7 +9,8 @@ enum class Merge { all, none, notFirst }
 /**
  * Copies the intersection of a dataChunk and wantSpace to the destination buffer.
  * Each dataChunk gets its own Chunker, which can only be used once.
- * The wantSpace is a (possibly improper) subset of the variable's IndexSpace.
+ * The wantSpace is a (possibly improper) subset of the variable's IndexSpace, and may be strided,
+ * in which case only the wanted elements are copied, densely packed in the destination.
  * Finds contiguous chunks of data to copy from the dataChunk to the destination.
  * The iteration is monotonic in both src and dest positions.
 
@@ -29,29 +30,33 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
 
     init {
         val intersectSpace = wantSpace.intersect(dataChunk)
+        val rank = intersectSpace.rank
 
-        // shift intersect to dataChunk and wantSection origins
+        // the source odometer steps through the dataChunk by the wanted stride.
+        // the destination is dense, with the wanted indices in each dimension numbered from 0
         val dataChunkShifted = intersectSpace.shift(dataChunk.start) // dataChunk origin
-        val wantSectionShifted = intersectSpace.shift(wantSpace.start) // wantSection origin
+        val wantSectionShifted = IndexSpace(LongArray(rank) { idx ->
+            (intersectSpace.start[idx] - wantSpace.start[idx]) / wantSpace.stride[idx] }, intersectSpace.shape)
 
         // construct odometers over source and destination index spaces
         this.srcOdometer = IndexND(dataChunkShifted, dataChunk.shape)
         this.dstOdometer = IndexND(wantSectionShifted, wantSpace.shape)
         this.totalNelems = intersectSpace.totalElements
 
-        val rank = intersectSpace.rank
         val mergeNDims = countMergeDims(intersectSpace, dataChunk.shape, wantSpace.shape, merge)
         // the first dimension to merge
         val firstDim = if (rank == mergeNDims) 0 else rank - mergeNDims - 1
+        // a strided dimension isnt contiguous in the source, so cant be part of the transfer
+        val runDim = if (rank == mergeNDims || isContiguous(intersectSpace, firstDim)) firstDim else firstDim + 1
 
         var product = 1L
-        for (idx in rank - 1 downTo firstDim) {
+        for (idx in rank - 1 downTo runDim) {
             product *= intersectSpace.shape[idx]
         }
         this.nelems = if ((rank == 1) && (merge == Merge.notFirst)) 1 else product.toInt()
 
         // the digit to increment when iterating
-        this.incrDigit = if (firstDim == 0) 0 else firstDim - 1
+        this.incrDigit = if (runDim == 0) 0 else runDim - 1
     }
 
     constructor(section : Section, merge : Merge = Merge.all) : this(IndexSpace(section.varShape), IndexSpace(section), merge)
@@ -67,7 +72,8 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
 
         var mergeDims = 0 // how many dimensions can be merged?
         for (idx in intersect.rank - 1 downTo mergeDownto) {
-            if ((intersect.shape[idx] == dataChunkShape[idx]) && (intersect.shape[idx] == dataSubsetShape[idx])) {
+            if ((intersect.shape[idx] == dataChunkShape[idx]) && (intersect.shape[idx] == dataSubsetShape[idx]) &&
+                isContiguous(intersect, idx)) {
                 mergeDims++
             } else {
                 break
@@ -76,6 +82,8 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
         return mergeDims
     }
 
+    private fun isContiguous(intersect: IndexSpace, dim : Int) = intersect.stride[dim] == 1L || intersect.shape[dim] == 1L
+
     //// iterator
     private var done: Long = 0 // done so far
     private var first = true
@@ -106,9 +114,9 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
     // transfer from src to dst buffer, using my computed chunks
     internal fun transfer(src: ByteBuffer, elemSize : Int, dst: ByteBuffer) {
         for (chunk in this) {
-            System.arraycopy(
-                src.array(),
-                src.arrayOffset() + elemSize * chunk.srcElem.toInt(),
+            copy(
+                src,
+                elemSize * chunk.srcElem.toInt(),
                 dst.array(),
                 dst.arrayOffset() + elemSize * chunk.destElem.toInt(),
                 elemSize * chunk.nelems,
@@ -120,10 +128,9 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
         val dst = ByteBuffer.allocate(elemSize * totalElems)
         var dstElem = 0 // ignore chunker dstPosition
         for (chunk in this) {
-            // Object src,  int  srcPos, Object dest, int destPos, int length
-            System.arraycopy(
-                src.array(),
-                src.arrayOffset() + elemSize * chunk.srcElem.toInt(),
+            copy(
+                src,
+                elemSize * chunk.srcElem.toInt(),
                 dst.array(),
                 dst.arrayOffset() + elemSize * dstElem,
                 elemSize * chunk.nelems,
@@ -133,6 +140,15 @@ class Chunker(val dataChunk: IndexSpace, val wantSpace: IndexSpace, merge : Merg
         return dst
     }
 
+    // src may be memory mapped, in which case it has no backing array
+    private fun copy(src: ByteBuffer, srcPos : Int, dst: ByteArray, dstPos : Int, nbytes : Int) {
+        if (src.hasArray()) {
+            System.arraycopy(src.array(), src.arrayOffset() + srcPos, dst, dstPos, nbytes)
+        } else {
+            src.get(srcPos, dst, dstPos, nbytes)
+        }
+    }
+
     // transfer fillValue to dst buffer, using my computed chunks
     internal fun transferMissing(fillValue: Any?, datatype: Datatype<*>, elemSize: Int, dst: ByteBuffer) {
         if (fillValue == null) {
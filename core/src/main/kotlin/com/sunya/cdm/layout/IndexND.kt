@@ -6,7 +6,7 @@ import com.sunya.cdm.api.Section
  * Translate between 1D "element" and nD "index".
  * Keeps "current index" state.
  * Separately, it provides iterators over the nD indices, aka an "odometer",
- * @param section : a section of the entire datashape.
+ * @param section : a section of the entire datashape, may be strided.
  * @param datashape : The datashape. May have an extra dimension, which is ignored.
  */
 class IndexND(val section : IndexSpace, val datashape : LongArray) : Iterable<LongArray> {
@@ -17,7 +17,7 @@ class IndexND(val section : IndexSpace, val datashape : LongArray) : Iterable<Lo
 
     init {
         repeat(rank) {  idx ->
-            require( section.start[idx] + section.shape[idx] <= datashape[idx])
+            require( section.shape[idx] <= 0 || section.last[idx] < datashape[idx])
         }
 
         strider = LongArray(rank)
@@ -60,7 +60,7 @@ class IndexND(val section : IndexSpace, val datashape : LongArray) : Iterable<Lo
     private fun LongArray.incr(): LongArray {
         var digit: Int = rank - 1
         while (digit >= 0) {
-            this[digit]++
+            this[digit] += section.stride[digit]
             if (this[digit] <= section.last[digit]) break // normal exit
             this[digit] = section.start[digit] // else, carry
             digit--
@@ -73,7 +73,7 @@ class IndexND(val section : IndexSpace, val datashape : LongArray) : Iterable<Lo
         require(incrdigit in 0 until rank)
         var digit = incrdigit
         while (digit >= 0) {
-            this[digit]++
+            this[digit] += section.stride[digit]
             if (this[digit] <= section.last[digit]) break // normal exit
             this[digit] = section.start[digit] // else, carry
             digit--
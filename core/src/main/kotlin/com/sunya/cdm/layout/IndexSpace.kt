@@ -6,17 +6,23 @@ import com.sunya.cdm.api.toLongArray
 import kotlin.math.max
 import kotlin.math.min
 
-/** A rectangular subsection of indices, going from start to start + shape */
-data class IndexSpace(val start : LongArray, val shape : LongArray) {
+/**
+ * A rectangular subsection of indices, going from start to start + shape.
+ * If strided, only every stride-th index is in the subsection, so shape is the number of indices in each dimension,
+ * and the last index is start + (shape - 1) * stride.
+ */
+data class IndexSpace(val start : LongArray, val shape : LongArray, val stride : LongArray = LongArray(start.size) { 1L }) {
     val rank = start.size
     val totalElements = shape.computeSize()
-    val last by lazy { LongArray(rank) { idx -> start[idx] + shape[idx] - 1 } } // inclusive
+    val isStrided = stride.any { it != 1L }
+    val last by lazy { LongArray(rank) { idx -> start[idx] + (shape[idx] - 1) * stride[idx] } } // inclusive
     val ranges : List<LongProgression> by lazy { start.mapIndexed {
-            idx, start -> LongProgression.fromClosedRange(start, start + shape[idx] - 1, 1) } } // inclusive
+            idx, start -> LongProgression.fromClosedRange(start, last[idx], stride[idx]) } } // inclusive
 
     constructor(shape : IntArray) : this( shape.toLongArray()) // starts at 0
     constructor(shape : LongArray) : this( LongArray(shape.size), shape) // starts at 0
-    constructor(section : Section) : this(section.ranges.map { it.first() }.toLongArray(), section.shape)
+    constructor(section : Section) : this(section.ranges.map { it.first }.toLongArray(), section.shape,
+        section.ranges.map { it.step }.toLongArray())
     constructor(rank : Int, start : LongArray, shape : LongArray) : this( LongArray(rank) { start[it] }, LongArray(rank) { shape[it] })
 
     fun section(varShape : LongArray) : Section {
@@ -27,8 +33,9 @@ data class IndexSpace(val start : LongArray, val shape : LongArray) {
         if (rank != pt.size) {
             return false
         }
-        ranges.forEachIndexed { idx, range ->
-            if (!range.contains(pt[idx])) {
+        for (idx in 0 until rank) {
+            val offset = pt[idx] - start[idx]
+            if (offset < 0 || offset % stride[idx] != 0L || offset / stride[idx] >= shape[idx]) {
                 return false
             }
         }
@@ -39,48 +46,55 @@ data class IndexSpace(val start : LongArray, val shape : LongArray) {
         if (rank != other.rank) {
             return false
         }
-        ranges.forEachIndexed { idx, range : LongProgression ->
-            val o : LongProgression = other.ranges[idx]
-            if (!range.contains(o)) {
+        for (idx in 0 until rank) {
+            if (other.shape[idx] <= 0) continue
+            if (!contains(idx, other.start[idx]) || !contains(idx, other.last[idx])) {
+                return false
+            }
+            if (other.shape[idx] > 1 && other.stride[idx] % stride[idx] != 0L) {
                 return false
             }
         }
         return true
     }
 
+    // is the index in the idx dimension of this space
+    private fun contains(idx : Int, index : Long) : Boolean {
+        val offset = index - start[idx]
+        return offset >= 0 && offset % stride[idx] == 0L && offset / stride[idx] < shape[idx]
+    }
+
     fun shift(origin : LongArray): IndexSpace {
         val newOrigin = LongArray(rank) { idx -> start[idx] - origin[idx] }
-        return IndexSpace(newOrigin, shape)
+        return IndexSpace(newOrigin, shape, stride)
     }
 
+    /** The indices in both spaces. At most one of them can be strided. */
     fun intersect(other: IndexSpace): IndexSpace {
-        val firstList = mutableListOf<Long>()
-        val lengthList = mutableListOf<Long>()
-        ranges.mapIndexed  { idx, range ->
-            val orange = other.ranges[idx]
-            val first = max(range.first, orange.first)
-            val last = min(range.last, orange.last)
-            firstList.add(first)
-            lengthList.add(last - first + 1)
+        require(!isStrided || !other.isStrided) { "cant intersect two strided IndexSpaces" }
+        val strided = if (other.isStrided) other else this
+        val firstList = LongArray(rank)
+        val lengthList = LongArray(rank)
+        for (idx in 0 until rank) {
+            val step = strided.stride[idx]
+            val lo = max(start[idx], other.start[idx])
+            val hi = min(last[idx], other.last[idx])
+            // the first strided index at or after lo
+            val first = if (step == 1L) lo else strided.start[idx] + (lo - strided.start[idx] + step - 1) / step * step
+            firstList[idx] = first
+            lengthList[idx] = if (first > hi) 0 else (hi - first) / step + 1
         }
-        return IndexSpace(LongArray(rank) { firstList[it] }, LongArray(rank) { lengthList[it] })
+        return IndexSpace(firstList, lengthList, strided.stride)
     }
 
     fun intersects(other: IndexSpace): Boolean {
-        ranges.mapIndexed  { idx, range ->
-            val orange = other.ranges[idx]
-            val first = Math.max(range.first, orange.first)
-            val last = Math.min(range.last, orange.last)
-            if (first > last) {
-                return false
-            }
-        }
-        return true
+        return intersect(other).totalElements > 0
     }
 
     override fun toString(): String {
         // return "${makeSection()} total=${totalElements}"
-        return "${start.contentToString()} ${shape.contentToString()} total=${totalElements}"
+        val strides = if (isStrided) " stride=${stride.contentToString()}" else ""
+        return "${start.contentToString()} ${shape.contentToString()}$strides total=${totalElements}"
     }
 
     override fun equals(other: Any?): Boolean {
@@ -89,6 +103,7 @@ data class IndexSpace(val start : LongArray, val shape : LongArray) {
 
         if (!start.contentEquals(other.start)) return false
         if (!shape.contentEquals(other.shape)) return false
+        if (!stride.contentEquals(other.stride)) return false
         if (rank != other.rank) return false
         if (totalElements != other.totalElements) return false
 
@@ -98,12 +113,9 @@ data class IndexSpace(val start : LongArray, val shape : LongArray) {
     override fun hashCode(): Int {
         var result = start.contentHashCode()
         result = 31 * result + shape.contentHashCode()
+        result = 31 * result + stride.contentHashCode()
         result = 31 * result + rank
         result = 31 * result + totalElements.hashCode()
         return result
     }
 }
-
-private fun LongProgression.contains(other : LongProgression) : Boolean {
-    return (other.first >= this.first && other.last <= this.last)
-}
\ No newline at end of file
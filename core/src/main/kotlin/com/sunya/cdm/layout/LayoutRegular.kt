@@ -24,6 +24,10 @@ class LayoutRegular(startPos: Long, elemSize: Int, wantSection: Section) : Layou
         totalNelems = chunker.totalNelems
     }
 
+    /** true if the wanted section is a single contiguous run of bytes in the file. */
+    val isContiguous : Boolean
+        get() = chunker.nelems.toLong() == totalNelems
+
     override fun hasNext(): Boolean {
         return chunker.hasNext()
     }
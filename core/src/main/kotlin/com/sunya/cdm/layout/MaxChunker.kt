@@ -9,13 +9,15 @@ import com.sunya.cdm.api.computeSize
  * Used in Netchdf.chunkIterator() for non-chunked data.
  *
  * @param maxElems the approx size of the dataChunks to make
- * @param wantSection the requested section of data.
+ * @param wantSection the requested section of data, may be strided.
  */
 class MaxChunker(val maxElems: Int, val wantSection: Section) : AbstractIterator<IndexSpace>() {
     val totalNelems = wantSection.totalElements
     val rank = wantSection.rank
     val strider = LongArray(rank)
-    val odo = IndexND(wantSection)
+    private val wantSpace = IndexSpace(wantSection)
+    // over the wanted indices, numbered from 0 in each dimension
+    val odo = IndexND(IndexSpace(wantSection.shape), wantSection.shape)
 
     init {
         var accumStride = 1L
@@ -28,15 +30,14 @@ class MaxChunker(val maxElems: Int, val wantSection: Section) : AbstractIterator
     //// iterator
     private var done: Long = 0 // done so far
 
-    // start with the case where varshape == wantshape
     override fun computeNext() {
         if (done >= totalNelems) {
             return done()
         }
 
         val chunk = maxChunkShape(wantSection.shape, odo.current)
-        val sectionSpace = IndexSpace(odo.current.copyOf(), chunk)
-        setNext(sectionSpace)
+        val start = LongArray(rank) { idx -> wantSpace.start[idx] + odo.current[idx] * wantSpace.stride[idx] }
+        setNext(IndexSpace(start, chunk, wantSpace.stride))
 
         done += chunk.computeSize()
         odo.set(done)
@@ -102,6 +102,30 @@ class Tiling(varshape: LongArray, val chunk: LongArray) {
         return IndexSpace(start, length)
     }
 
+    /**
+     * The tiles that contain at least one index of wantSpace, in row-major tile order.
+     * When wantSpace is strided, tiles that fall between the wanted indices are skipped.
+     */
+    fun tiles(wantSpace : IndexSpace) : Iterable<LongArray> {
+        val tileSection = section(wantSpace)
+        if (!wantSpace.isStrided) return IndexND(tileSection, tileShape)
+
+        // in each dimension, the tiles with a wanted index
+        val wantTiles = List(rank) { idx ->
+            val stride = wantSpace.stride[idx]
+            (tileSection.start[idx] .. tileSection.last[idx]).filter { tile ->
+                val tileStart = max(tile * chunk[idx], wantSpace.start[idx])
+                // the first wanted index at or after the start of the tile
+                val first = wantSpace.start[idx] + (tileStart - wantSpace.start[idx] + stride - 1) / stride * stride
+                first <= min((tile + 1) * chunk[idx] - 1, wantSpace.last[idx])
+            }
+        }
+        val counts = LongArray(rank) { wantTiles[it].size.toLong() }
+        return IndexND(IndexSpace(counts), counts).asSequence().map { index ->
+            LongArray(rank) { idx -> wantTiles[idx][index[idx].toInt()] }
+        }.asIterable()
+    }
+
     override fun toString(): String {
         return "Tiling(chunk=${chunk.contentToString()}, tileShape=${tileShape.contentToString()}, indexShape=${indexShape.contentToString()})"
     }
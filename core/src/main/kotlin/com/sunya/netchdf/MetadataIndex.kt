@@ -0,0 +1,343 @@
+package com.sunya.netchdf
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.StructureMember
+import mu.KotlinLogging
+import java.io.*
+import java.nio.ByteOrder
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.IdentityHashMap
+
+/**
+ * A compact binary copy of a file's metadata: the CDM Group tree, and the layout information (spObject) that the
+ * format needs to read each variable's data. Its written after a file's header has been read, and read in place of
+ * the header the next time the file is opened, as long as the file's size and modification time are the same.
+ * Opening from the index is one sequential read of a small file, instead of many reads all over the data file.
+ */
+object MetadataIndex {
+    private const val MAGIC = 0x43444d58 // "CDMX"
+    private const val VERSION = 1
+    private val logger = KotlinLogging.logger("MetadataIndex")
+
+    /** The default index for a file: a sidecar file next to it, with ".cdmx" appended to the name. */
+    fun sidecar(filename : String) = "$filename.cdmx"
+
+    /**
+     * What is read from an index.
+     * @param type the file's Netchdf.type()
+     * @param formatInfo whatever else the format needs, besides the spObjects
+     */
+    class Contents internal constructor(val type : String, val rootGroup : Group, val formatInfo : LongArray)
+
+    /** Read the index of filename. Null if there is none, or its out of date, or cant be read. */
+    internal fun read(indexFilename : String, filename : String, codec : SpObjectCodec) : Contents? {
+        val indexPath = Path.of(indexFilename)
+        if (!Files.exists(indexPath)) return null
+        return try {
+            val input = DataInputStream(ByteArrayInputStream(Files.readAllBytes(indexPath)))
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) return null
+            val dataPath = Path.of(filename)
+            if (input.readLong() != Files.size(dataPath) || input.readLong() != Files.getLastModifiedTime(dataPath).toMillis()) {
+                return null
+            }
+            val type = input.readUTF()
+            val formatInfo = LongArray(input.readInt()) { input.readLong() }
+            val rootBuilder = IndexReader(input, codec).readGroup()
+            Contents(type, rootBuilder.build(null), formatInfo)
+        } catch (e : Exception) {
+            logger.warn { "cant read metadata index $indexFilename: $e" }
+            null
+        }
+    }
+
+    /**
+     * Write the index of filename, replacing any existing one.
+     * @return false if the metadata has something that cant go in an index, or the index cant be written.
+     */
+    internal fun write(indexFilename : String, filename : String, type : String, rootGroup : Group, formatInfo : LongArray,
+                       codec : SpObjectCodec) : Boolean {
+        val reason = notIndexable(rootGroup, codec)
+        if (reason != null) {
+            logger.info { "no metadata index for $filename: $reason" }
+            return false
+        }
+        val bytes = ByteArrayOutputStream()
+        val out = DataOutputStream(bytes)
+        val dataPath = Path.of(filename)
+        out.writeInt(MAGIC)
+        out.writeInt(VERSION)
+        out.writeLong(Files.size(dataPath))
+        out.writeLong(Files.getLastModifiedTime(dataPath).toMillis())
+        out.writeUTF(type)
+        out.writeInt(formatInfo.size)
+        formatInfo.forEach { out.writeLong(it) }
+        IndexWriter(out, codec).writeGroup(rootGroup)
+        out.flush()
+
+        // written to a temporary file and then moved, so a reader never sees part of an index
+        val indexPath = Path.of(indexFilename).toAbsolutePath()
+        var temp : Path? = null
+        return try {
+            temp = Files.createTempFile(indexPath.parent, indexPath.fileName.toString(), ".tmp")
+            Files.write(temp, bytes.toByteArray())
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            true
+        } catch (e : IOException) {
+            logger.warn { "cant write metadata index $indexFilename: $e" }
+            temp?.let { Files.deleteIfExists(it) }
+            false
+        }
+    }
+}
+
+/** Writes and reads the spObject of each Variable of one format. */
+internal interface SpObjectCodec {
+    /** Why the spObject cant go in an index, or null if it can. Only spObjects that can are written. */
+    fun notIndexable(spObject : Any?) : String? = null
+    fun write(out : DataOutputStream, spObject : Any?)
+    fun read(input : DataInputStream) : Any?
+}
+
+private val datatypes = Datatype.values()
+private val attributeValueTypes = listOf(Datatype.BYTE, Datatype.UBYTE, Datatype.CHAR, Datatype.ENUM1, Datatype.SHORT,
+    Datatype.USHORT, Datatype.ENUM2, Datatype.INT, Datatype.UINT, Datatype.ENUM4, Datatype.LONG, Datatype.ULONG,
+    Datatype.FLOAT, Datatype.DOUBLE, Datatype.STRING)
+
+// Why the group's metadata cant go in an index, or null if it can. IndexWriter can write anything that passes.
+private fun notIndexable(group : Group, codec : SpObjectCodec) : String? {
+    return group.typedefs.firstNotNullOfOrNull { notIndexable(it) }
+        ?: notIndexable(group.attributes)
+        ?: group.variables.firstNotNullOfOrNull { v ->
+            notIndexable(v.datatype) ?: notIndexable(v.attributes) ?: codec.notIndexable(v.spObject)?.let { "${v.name}: $it" }
+        }
+        ?: group.groups.firstNotNullOfOrNull { notIndexable(it, codec) }
+}
+
+private fun notIndexable(atts : List<Attribute<*>>) : String? {
+    return atts.firstNotNullOfOrNull { att ->
+        notIndexable(att.datatype) ?: if (att.datatype in attributeValueTypes) null else "attribute values of type ${att.datatype}"
+    }
+}
+
+private fun notIndexable(datatype : Datatype<*>) : String? {
+    if (datatype !in datatypes) return "datatype $datatype"
+    return datatype.typedef?.let { notIndexable(it) }
+}
+
+private fun notIndexable(typedef : Typedef) : String? {
+    return notIndexable(typedef.baseType) ?: when (typedef) {
+        is CompoundTypedef -> typedef.members.firstNotNullOfOrNull { member ->
+            if (member::class != StructureMember::class) "member ${member.name}" else notIndexable(member.datatype)
+        }
+        is EnumTypedef, is OpaqueTypedef, is VlenTypedef -> null
+        else -> "typedef ${typedef.name}"
+    }
+}
+
+private class IndexWriter(val out : DataOutputStream, val codec : SpObjectCodec) {
+    // each typedef is written once, where its first used; after that, just its number
+    private val typedefIds = IdentityHashMap<Typedef, Int>()
+
+    fun writeGroup(group : Group) {
+        out.writeUTF(group.name)
+        out.writeInt(group.typedefs.size)
+        group.typedefs.forEach { writeTypedef(it) }
+        out.writeInt(group.dimensions.size)
+        group.dimensions.forEach { writeDimension(it) }
+        writeAttributes(group.attributes)
+        out.writeInt(group.variables.size)
+        group.variables.forEach { writeVariable(it) }
+        out.writeInt(group.groups.size)
+        group.groups.forEach { writeGroup(it) }
+    }
+
+    private fun writeVariable(v : Variable<*>) {
+        out.writeUTF(v.orgName)
+        writeDatatype(v.datatype)
+        out.writeInt(v.dimensions.size)
+        v.dimensions.forEach { writeDimension(it) }
+        writeAttributes(v.attributes)
+        codec.write(out, v.spObject)
+    }
+
+    private fun writeDimension(dim : Dimension) {
+        out.writeUTF(dim.orgName)
+        out.writeLong(dim.length)
+        out.writeBoolean(dim.isShared)
+    }
+
+    private fun writeAttributes(atts : List<Attribute<*>>) {
+        out.writeInt(atts.size)
+        atts.forEach { att ->
+            out.writeUTF(att.orgName)
+            writeDatatype(att.datatype)
+            out.writeInt(att.values.size)
+            att.values.forEach { writeValue(att.datatype, it) }
+        }
+    }
+
+    private fun writeDatatype(datatype : Datatype<*>) {
+        val idx = datatypes.indexOf(datatype)
+        check(idx >= 0) { "datatype $datatype" }
+        out.writeByte(idx)
+        out.writeByte(when (datatype.isVlen) { null -> 0; false -> 1; true -> 2 })
+        out.writeBoolean(datatype.typedef != null)
+        datatype.typedef?.let { writeTypedef(it) }
+    }
+
+    private fun writeTypedef(typedef : Typedef) {
+        val id = typedefIds[typedef]
+        out.writeInt(id ?: -1)
+        if (id != null) return
+        typedefIds[typedef] = typedefIds.size
+
+        out.writeByte(typedef.kind.ordinal)
+        out.writeUTF(typedef.name)
+        writeDatatype(typedef.baseType)
+        when (typedef) {
+            is CompoundTypedef -> {
+                out.writeInt(typedef.members.size)
+                typedef.members.forEach { member ->
+                    out.writeUTF(member.orgName)
+                    writeDatatype(member.datatype)
+                    out.writeInt(member.offset)
+                    out.writeInt(member.dims.size)
+                    member.dims.forEach { out.writeInt(it) }
+                    out.writeByte(when (member.endian) { null -> 0; ByteOrder.BIG_ENDIAN -> 1; else -> 2 })
+                }
+            }
+            is EnumTypedef -> {
+                out.writeInt(typedef.valueMap.size)
+                typedef.valueMap.forEach { (num, name) -> out.writeInt(num); out.writeUTF(name) }
+            }
+            is OpaqueTypedef -> out.writeInt(typedef.elemSize)
+            is VlenTypedef -> {}
+            else -> error("typedef ${typedef.name}")
+        }
+    }
+
+    private fun writeValue(datatype : Datatype<*>, value : Any?) {
+        when (datatype) {
+            Datatype.BYTE -> out.writeByte((value as Byte).toInt())
+            Datatype.UBYTE, Datatype.CHAR, Datatype.ENUM1 -> out.writeByte((value as UByte).toInt())
+            Datatype.SHORT -> out.writeShort((value as Short).toInt())
+            Datatype.USHORT, Datatype.ENUM2 -> out.writeShort((value as UShort).toInt())
+            Datatype.INT -> out.writeInt(value as Int)
+            Datatype.UINT, Datatype.ENUM4 -> out.writeInt((value as UInt).toInt())
+            Datatype.LONG -> out.writeLong(value as Long)
+            Datatype.ULONG -> out.writeLong((value as ULong).toLong())
+            Datatype.FLOAT -> out.writeFloat(value as Float)
+            Datatype.DOUBLE -> out.writeDouble(value as Double)
+            Datatype.STRING -> {
+                // not writeUTF, which is limited to 64K bytes
+                val bytes = (value as String).toByteArray(Charsets.UTF_8)
+                out.writeInt(bytes.size)
+                out.write(bytes)
+            }
+            else -> error("attribute values of type $datatype")
+        }
+    }
+}
+
+private class IndexReader(val input : DataInputStream, val codec : SpObjectCodec) {
+    private val typedefs = mutableListOf<Typedef?>()
+
+    fun readGroup() : Group.Builder {
+        val groupb = Group.Builder(input.readUTF())
+        repeat(input.readInt()) { groupb.addTypedef(readTypedef()) }
+        repeat(input.readInt()) { groupb.addDimension(readDimension()) }
+        groupb.attributes.addAll(readAttributes())
+        repeat(input.readInt()) { groupb.addVariable(readVariable()) }
+        repeat(input.readInt()) { groupb.addGroup(readGroup()) }
+        return groupb
+    }
+
+    private fun readVariable() : Variable.Builder<*> {
+        val vb = Variable.Builder(input.readUTF(), readDatatype())
+        repeat(input.readInt()) { vb.addDimension(readDimension()) }
+        vb.attributes.addAll(readAttributes())
+        vb.spObject = codec.read(input)
+        return vb
+    }
+
+    private fun readDimension() = Dimension(input.readUTF(), input.readLong(), input.readBoolean())
+
+    private fun readAttributes() : List<Attribute<*>> {
+        return List(input.readInt()) {
+            val name = input.readUTF()
+            val datatype = readDatatype()
+            val values = List(input.readInt()) { readValue(datatype) }
+            Attribute.Builder(name, datatype).setValues(values).build()
+        }
+    }
+
+    private fun readDatatype() : Datatype<*> {
+        var datatype : Datatype<*> = datatypes[input.readByte().toInt()]
+        when (input.readByte().toInt()) {
+            1 -> datatype = datatype.withVlen(false)
+            2 -> datatype = datatype.withVlen(true)
+        }
+        if (input.readBoolean()) {
+            datatype = datatype.withTypedef(readTypedef())
+        }
+        return datatype
+    }
+
+    private fun readTypedef() : Typedef {
+        val id = input.readInt()
+        if (id >= 0) return typedefs[id]!!
+
+        // numbered in the order they were started, like the writer, which may be before a nested one
+        val newId = typedefs.size
+        typedefs.add(null)
+        val kind = TypedefKind.values()[input.readByte().toInt()]
+        val name = input.readUTF()
+        val baseType = readDatatype()
+        val typedef = when (kind) {
+            TypedefKind.Compound -> {
+                val members = List(input.readInt()) {
+                    val memberName = input.readUTF()
+                    val datatype = readDatatype()
+                    val offset = input.readInt()
+                    val dims = IntArray(input.readInt()) { input.readInt() }
+                    val endian = when (input.readByte().toInt()) { 0 -> null; 1 -> ByteOrder.BIG_ENDIAN; else -> ByteOrder.LITTLE_ENDIAN }
+                    StructureMember(memberName, datatype, offset, dims, endian)
+                }
+                CompoundTypedef(name, members)
+            }
+            TypedefKind.Enum -> {
+                val valueMap = mutableMapOf<Int, String>()
+                repeat(input.readInt()) { valueMap[input.readInt()] = input.readUTF() }
+                EnumTypedef(name, baseType, valueMap)
+            }
+            TypedefKind.Opaque -> OpaqueTypedef(name, input.readInt())
+            TypedefKind.Vlen -> VlenTypedef(name, baseType)
+            else -> throw IOException("unknown typedef kind $kind")
+        }
+        typedefs[newId] = typedef
+        return typedef
+    }
+
+    private fun readValue(datatype : Datatype<*>) : Any {
+        return when (datatype) {
+            Datatype.BYTE -> input.readByte()
+            Datatype.UBYTE, Datatype.CHAR, Datatype.ENUM1 -> input.readByte().toUByte()
+            Datatype.SHORT -> input.readShort()
+            Datatype.USHORT, Datatype.ENUM2 -> input.readShort().toUShort()
+            Datatype.INT -> input.readInt()
+            Datatype.UINT, Datatype.ENUM4 -> input.readInt().toUInt()
+            Datatype.LONG -> input.readLong()
+            Datatype.ULONG -> input.readLong().toULong()
+            Datatype.FLOAT -> input.readFloat()
+            Datatype.DOUBLE -> input.readDouble()
+            Datatype.STRING -> {
+                val bytes = ByteArray(input.readInt())
+                input.readFully(bytes)
+                String(bytes, Charsets.UTF_8)
+            }
+            else -> throw IOException("attribute values of type $datatype")
+        }
+    }
+}
@@ -6,18 +6,24 @@ import com.sunya.netchdf.hdf4.Hdf4File
 import com.sunya.netchdf.hdf5.Hdf5File
 import com.sunya.netchdf.netcdf3.Netcdf3File
 
-fun openNetchdfFile(filename : String, strict : Boolean = false) : Netchdf? {
+/**
+ * Open a netcdf3, netcdf4, hdf5 or hdf4 file.
+ * @param useMmap memory map contiguous data reads, if the format supports it (currently netcdf3 and hdf5).
+ * @param useMetadataIndex read the metadata from the file's sidecar MetadataIndex, writing it if needed.
+ */
+fun openNetchdfFile(filename : String, strict : Boolean = false, useMmap : Boolean = false, useMetadataIndex : Boolean = false) : Netchdf? {
     val useFilename = filename.trim()
+    val metadataIndex = if (useMetadataIndex) MetadataIndex.sidecar(useFilename) else null
     OpenFile(useFilename).use { raf ->
         val format = NetchdfFileFormat.findNetcdfFormatType(raf)
         return when (format) {
             NetchdfFileFormat.NC_FORMAT_CLASSIC,
             NetchdfFileFormat.NC_FORMAT_64BIT_OFFSET,
-            NetchdfFileFormat.NC_FORMAT_64BIT_DATA -> Netcdf3File(useFilename)
+            NetchdfFileFormat.NC_FORMAT_64BIT_DATA -> Netcdf3File(useFilename, useMmap, metadataIndex = metadataIndex)
             NetchdfFileFormat.NC_FORMAT_NETCDF4,
-            NetchdfFileFormat.NC_FORMAT_NETCDF4_CLASSIC  -> Hdf5File(useFilename, strict)
-            NetchdfFileFormat.HDF5  -> Hdf5File(useFilename, strict)
-            NetchdfFileFormat.HDF4  -> Hdf4File(useFilename)
+            NetchdfFileFormat.NC_FORMAT_NETCDF4_CLASSIC  -> Hdf5File(useFilename, strict, useMmap, metadataIndex = metadataIndex)
+            NetchdfFileFormat.HDF5  -> Hdf5File(useFilename, strict, useMmap, metadataIndex = metadataIndex)
+            NetchdfFileFormat.HDF4  -> Hdf4File(useFilename, metadataIndex = metadataIndex)
             NetchdfFileFormat.NC_FORMAT_64BIT_DATA -> throw RuntimeException(" unsupported NetcdfFileFormat $format")
             else -> null
         }
@@ -1,9 +1,11 @@
 package com.sunya.netchdf.hdf4
 
 import com.sunya.cdm.api.*
+import com.sunya.cdm.iosp.ChunkCache
 import com.sunya.cdm.iosp.OpenFile
 import com.sunya.cdm.iosp.OpenFileState
 import com.sunya.cdm.util.Indent
+import com.sunya.netchdf.MetadataIndex
 import com.sunya.netchdf.netcdf4.NUG
 import mu.KotlinLogging
 import java.nio.ByteOrder
@@ -13,12 +15,15 @@ import java.nio.charset.StandardCharsets
 const val attLengthMaxPromote = 4000
 
 /**
+ * @param metadataIndex the file's metadata, read from its metadata index, whose formatInfo is the DD list (see ddList).
+ *   Then the tags arent read until a variable's data layout needs them, and rootBuilder is empty.
  * @see "https://support.hdfgroup.org/release4/doc/index.html"
  */
 /* Implementation Notes
    1. Early version seem to use the refno as a groouping mechanism. Perhaps before Vgroup??
  */
-class H4builder(val raf: OpenFile, val valueCharset: Charset) {
+class H4builder(val raf: OpenFile, val valueCharset: Charset, val chunkCache: ChunkCache = ChunkCache(0),
+                val metadataIndex: MetadataIndex.Contents? = null) {
     private val alltags = mutableListOf<Tag>() // in order as they appear in the file
 
     var rootBuilder: Group.Builder = Group.Builder("")
@@ -35,9 +40,11 @@ class H4builder(val raf: OpenFile, val valueCharset: Charset) {
     val sdAliasMap = mutableMapOf<Int, TagVGroup>() // sd refno, sd parent group
     val vhAliasMap = mutableMapOf<Int, TagVGroup>()    // vh refno, vh group
     internal val tagidMap = mutableMapOf<Int, Tag>()
+    private val unreadTags = mutableSetOf<Int>() // tag ids of tags from the metadata index that havent been read
     private var imageCount = 0
 
     fun type(): String {
+        if (metadataIndex != null) return metadataIndex.type
         return if (structMetadata.isEmpty()) "hdf4     " else "hdf-eos2 "
     }
 
@@ -50,6 +57,14 @@ class H4builder(val raf: OpenFile, val valueCharset: Charset) {
             throw RuntimeException("Not an HDF4 file ")
         }
 
+        if (metadataIndex != null) {
+            readDDlist(metadataIndex.formatInfo)
+        } else {
+            readFile(state)
+        }
+    }
+
+    private fun readFile(state : OpenFileState) {
         // read the DDH and DD records, and populate the tag list
         var link = state.pos
         while (link > 0) {
@@ -78,6 +93,35 @@ class H4builder(val raf: OpenFile, val valueCharset: Charset) {
         showTags(debugTagSummary, debugTagUsed)
     }
 
+    /** The DD list, for a metadata index: two longs for each tag, the tag code and refno, then the offset and length. */
+    internal fun ddList(): LongArray {
+        val result = LongArray(2 * alltags.size)
+        alltags.forEachIndexed { idx, tag ->
+            result[2 * idx] = (tag.xtag.toLong() shl 16) or tag.refno.toLong()
+            result[2 * idx + 1] = (tag.offset shl 32) or tag.length.toUInt().toLong()
+        }
+        return result
+    }
+
+    private fun readDDlist(ddList: LongArray) {
+        for (idx in 0 until ddList.size / 2) {
+            val xtag = (ddList[2 * idx] shr 16).toInt()
+            val refno = (ddList[2 * idx] and 0xffff).toInt()
+            val tag = makeTag(xtag, refno, ddList[2 * idx + 1] shr 32, ddList[2 * idx + 1].toInt())
+            alltags.add(tag)
+            tagidMap[tag.tagid()] = tag
+            unreadTags.add(tag.tagid())
+        }
+    }
+
+    /** Find the tag, reading it first if it came from the metadata index and hasnt been read yet. */
+    @Synchronized
+    internal fun findTag(tagid: Int): Tag? {
+        val tag = tagidMap[tagid] ?: return null
+        if (unreadTags.remove(tagid)) tag.readTag(this)
+        return tag
+    }
+
     private fun build() {
         // alltags.forEach { findRasterInfo(it) }
         // if (debugGR) checkRasterInfo()
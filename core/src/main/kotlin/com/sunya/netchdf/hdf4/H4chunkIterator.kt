@@ -19,7 +19,7 @@ class H4chunkIterator<T>(h4 : H4builder, val v2: Variable<*>, val wantSection :
     private val chunkIterator : Iterator<H4CompressedDataChunk>
 
     init {
-        tiledData = H4tiledData(h4, v2.shape, vinfo.chunkLengths, vinfo.chunks!!)
+        tiledData = vinfo.tiledData(h4, v2.shape)
         if (debugChunking) println(" ${tiledData.tiling}")
         chunkIterator = tiledData.findDataChunks(wantSpace).iterator()
     }
@@ -32,6 +32,13 @@ class H4chunkIterator<T>(h4 : H4builder, val v2: Variable<*>, val wantSection :
         }
     }
 
+    /** The remaining chunks, to be read later, possibly in parallel. */
+    fun reads() : Iterator<ChunkRead<T>> = chunkIterator.asSequence().map { dataChunk ->
+        val dataSpace = IndexSpace(v2.rank, dataChunk.offsets.toLongArray(), vinfo.chunkLengths.toLongArray())
+        val intersectSpace = wantSpace.intersect(dataSpace)
+        ChunkRead(intersectSpace.section(v2.shape), intersectSpace.totalElements * elemSize) { getaPair(dataChunk) }
+    }.iterator()
+
     private fun getaPair(dataChunk : H4CompressedDataChunk) : ArraySection<T> {
         val dataSpace = IndexSpace(v2.rank, dataChunk.offsets.toLongArray(), vinfo.chunkLengths.toLongArray())
         val useEntireChunk = wantSpace.contains(dataSpace)
@@ -49,7 +56,8 @@ class H4chunkIterator<T>(h4 : H4builder, val v2: Variable<*>, val wantSection :
             if (debugChunking) println("  chunkIterator=${dataChunk.show(tiledData.tiling)}")
             val filteredData = dataChunk.getByteBuffer() // filter already applied
             if (useEntireChunk) {
-                filteredData
+                // a cached chunk is shared, so the array gets its own copy
+                if (filteredData.isReadOnly) ByteBuffer.allocate(filteredData.remaining()).put(filteredData) else filteredData
             } else {
                 val chunker = Chunker(dataSpace, wantSpace) // each DataChunkEntry has its own Chunker iteration
                 chunker.transferBB(filteredData, elemSize, intersectSpace.totalElements.toInt())
@@ -60,7 +68,7 @@ class H4chunkIterator<T>(h4 : H4builder, val v2: Variable<*>, val wantSection :
         bb.limit(bb.capacity())
         bb.order(vinfo.endian)
 
-        val shape = wantSpace.shape.toIntArray()
+        val shape = intersectSpace.shape.toIntArray()
         val array = when (datatype) {
             Datatype.BYTE -> ArrayByte(shape, bb)
             Datatype.STRING, Datatype.CHAR, Datatype.UBYTE -> ArrayUByte(shape, datatype as Datatype<UByte>, bb)
@@ -25,7 +25,7 @@ class H4chunkReader(val h4 : H4builder) {
         val bb = ByteBuffer.allocate(sizeBytes.toInt())
         bb.order(vinfo.endian)
 
-        val tiledData = H4tiledData(h4, v2.shape, vinfo.chunkLengths, vinfo.chunks!!)
+        val tiledData = vinfo.tiledData(h4, v2.shape)
         if (debugChunking) println(" ${tiledData.tiling}")
 
         var count = 0
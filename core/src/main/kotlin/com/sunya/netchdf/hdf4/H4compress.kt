@@ -0,0 +1,190 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.compress.BitReader
+import com.sunya.cdm.compress.Szip
+import java.nio.ByteBuffer
+import java.util.zip.Inflater
+
+/**
+ * Decoders for the HDF4 compression types (TagEnum.COMP_CODE_XXX).
+ * Follows the HDF4 library's crle.c, cnbit.c, cskphuff.c, cdeflate.c and cszip.c.
+ */
+internal object H4compress {
+    private const val SZ_H4_REV_2 = 0x10000 // the szip data starts with the number of uncompressed bytes
+
+    /** Decompress the entire compressed data of a SpecialComp, giving comp.uncomp_length bytes. */
+    fun decompress(comp: SpecialComp, compressed: ByteArray): ByteArray {
+        val size = comp.uncomp_length
+        return when (comp.compress_type) {
+            TagEnum.COMP_CODE_NONE -> compressed
+            TagEnum.COMP_CODE_RLE -> runLength(compressed, size)
+            TagEnum.COMP_CODE_NBIT -> nbit(compressed, size, comp.nt, comp.signFlag.toInt() != 0,
+                comp.fillValue.toInt() != 0, comp.startBit, comp.bitLength)
+            TagEnum.COMP_CODE_SKPHUFF -> skippingHuffman(compressed, size, comp.skipSize)
+            TagEnum.COMP_CODE_DEFLATE -> inflate(compressed, size)
+            TagEnum.COMP_CODE_SZIP -> szip(compressed, size, comp)
+            else -> throw IllegalStateException("unknown compression type =" + comp.compress_type)
+        }
+    }
+
+    // a count byte, then if the high bit is set, a run of (count & 0x7f) + 3 copies of the next byte,
+    // otherwise (count + 1) literal bytes.
+    fun runLength(src: ByteArray, size: Int): ByteArray {
+        val result = ByteArray(size)
+        var ip = 0
+        var op = 0
+        while (op < size) {
+            check(ip < src.size) { "RLE data truncated at $op of $size bytes" }
+            val count = src[ip++].toInt() and 0xff
+            if (count > 127) {
+                check(ip < src.size) { "RLE data truncated at $op of $size bytes" }
+                val n = minOf((count and 0x7f) + 3, size - op)
+                result.fill(src[ip++], op, op + n)
+                op += n
+            } else {
+                val n = minOf(count + 1, size - op)
+                check(ip + n <= src.size) { "RLE data truncated at $op of $size bytes" }
+                System.arraycopy(src, ip, result, op, n)
+                ip += count + 1
+                op += n
+            }
+        }
+        return result
+    }
+
+    // Each value is stored as bitLength bits, which are bits (startBit - bitLength + 1) to startBit of the number.
+    // The other bits are ones if fillOne, else zeros; if signExtend, the bits above startBit copy the top stored bit.
+    fun nbit(src: ByteArray, size: Int, nt: Int, signExtend: Boolean, fillOne: Boolean, startBit: Int, bitLength: Int): ByteArray {
+        val ntSize = numberTypeSize(nt)
+        val offset = startBit - bitLength + 1
+        require(bitLength in 1..64 && offset >= 0 && startBit < 8 * ntSize) { "NBIT bad startBit=$startBit bitLength=$bitLength for nt=$nt" }
+        val littleEndian = (nt and DFNT_LITEND) != 0
+        val fullMask = if (ntSize == 8) -1L else (1L shl (8 * ntSize)) - 1
+        val storedMask = (if (bitLength == 64) -1L else (1L shl bitLength) - 1) shl offset
+        val aboveMask = if (startBit == 63) 0L else (fullMask shl (startBit + 1)) and fullMask
+        val fill = if (fillOne) fullMask and storedMask.inv() else 0L
+
+        val bits = BitReader(src, 0, src.size)
+        val result = ByteArray(size)
+        for (elem in 0 until size / ntSize) {
+            val stored = if (bitLength > 32) {
+                (bits.bits(bitLength - 32).toLong() shl 32) or (bits.bits(32).toLong() and 0xffffffffL)
+            } else {
+                bits.bits(bitLength).toLong() and 0xffffffffL
+            }
+            var value = (stored shl offset) or fill
+            if (signExtend) {
+                value = if ((stored ushr (bitLength - 1)) and 1L != 0L) value or aboveMask else value and aboveMask.inv()
+            }
+            val pos = elem * ntSize
+            for (idx in 0 until ntSize) {
+                val shift = if (littleEndian) 8 * idx else 8 * (ntSize - 1 - idx)
+                result[pos + idx] = (value ushr shift).toByte()
+            }
+        }
+        return result
+    }
+
+    // Adaptive Huffman coding with splay trees (D. Jones, "Application of Splay Trees to Data Compression").
+    // Byte i is coded with tree (i % skipSize), so each byte of a multi-byte number type has its own tree.
+    fun skippingHuffman(src: ByteArray, size: Int, skipSize: Int): ByteArray {
+        val ntrees = maxOf(skipSize, 1)
+        val trees = Array(ntrees) { SplayTree() }
+        val bits = BitReader(src, 0, src.size)
+        val result = ByteArray(size)
+        for (idx in 0 until size) {
+            val tree = trees[idx % ntrees]
+            var node = ROOT
+            do {
+                node = if (bits.bit() == 0) tree.left[node] else tree.right[node]
+            } while (node < SUCCMAX)
+            val plain = node - SUCCMAX
+            tree.splay(plain)
+            result[idx] = plain.toByte()
+        }
+        return result
+    }
+
+    private const val SUCCMAX = 256 // the leaves are SUCCMAX + byte value
+    private const val TWICEMAX = 2 * SUCCMAX + 1
+    private const val ROOT = 1
+
+    private class SplayTree {
+        val left = IntArray(SUCCMAX) { 2 * it }
+        val right = IntArray(SUCCMAX) { 2 * it + 1 }
+        val up = IntArray(TWICEMAX) { it / 2 }
+
+        // semi-splay the path from the leaf to the root
+        fun splay(plain: Int) {
+            var a = plain + SUCCMAX
+            do {
+                val c = up[a]
+                if (c != ROOT) { // a pair remains
+                    val d = up[c]
+                    var b = left[d]
+                    if (c == b) {
+                        b = right[d]
+                        right[d] = a
+                    } else {
+                        left[d] = a
+                    }
+                    if (a == left[c]) left[c] = b else right[c] = b
+                    up[a] = d
+                    up[b] = c
+                    a = d
+                } else {
+                    a = c
+                }
+            } while (a != ROOT)
+        }
+    }
+
+    fun inflate(src: ByteArray, size: Int): ByteArray {
+        val inflater = Inflater()
+        try {
+            inflater.setInput(src)
+            val result = ByteArray(size)
+            var n = 0
+            while (n < size && !inflater.finished()) {
+                val count = inflater.inflate(result, n, size - n)
+                check(count > 0 || !(inflater.needsInput() || inflater.needsDictionary())) { "Deflate data truncated at $n of $size bytes" }
+                n += count
+            }
+            return result
+        } finally {
+            inflater.end()
+        }
+    }
+
+    fun szip(src: ByteArray, size: Int, comp: SpecialComp): ByteArray {
+        var start = 0
+        var length = src.size
+        var goodBytes = size
+        if ((comp.szipOptionsMask and SZ_H4_REV_2) != 0) {
+            goodBytes = ByteBuffer.wrap(src).getInt() // big endian
+            start = 4
+            length -= 4
+        }
+        val result = ByteArray(size)
+        if (length == goodBytes) { // didnt compress, so it was stored as is
+            System.arraycopy(src, start, result, 0, minOf(length, size))
+        } else {
+            Szip.decompress(src, start, length, result, 0, minOf(goodBytes, size), comp.szipOptionsMask,
+                comp.szipBitsPerPixel, comp.szipPixelsPerBlock, comp.szipPixelsPerScanline)
+        }
+        return result
+    }
+
+    private const val DFNT_LITEND = 0x4000
+
+    // the size in bytes of an HDF4 number type
+    fun numberTypeSize(nt: Int): Int {
+        return when (nt and 0xff) {
+            3, 4, 20, 21 -> 1
+            22, 23 -> 2
+            5, 24, 25 -> 4
+            6, 26, 27 -> 8
+            else -> throw IllegalStateException("unknown number type= $nt")
+        }
+    }
+}
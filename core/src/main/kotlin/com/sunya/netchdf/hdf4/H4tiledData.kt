@@ -4,46 +4,62 @@ import com.sunya.cdm.api.toIntArray
 import com.sunya.cdm.api.toLongArray
 import com.sunya.cdm.iosp.OpenFileState
 import com.sunya.cdm.layout.IndexSpace
-import com.sunya.cdm.layout.IndexND
 import com.sunya.cdm.layout.Tiling
-import com.sunya.cdm.util.IOcopyB
-import java.io.ByteArrayInputStream
-import java.io.ByteArrayOutputStream
 import java.io.IOException
-import java.io.InputStream
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
-import java.util.zip.InflaterInputStream
 
-private const val defaultBufferSize = 50_000
-
-// replace H4ChunkIterator, LayoutBB
-internal class H4tiledData(val h4 : H4builder, varShape : LongArray, chunk : IntArray, val chunks: List<SpecialDataChunk>) {
+/**
+ * Finds the chunks of a chunked variable. The chunks are indexed by tile order, so finding one is a lookup.
+ * Made once per variable, see Vinfo.tiledData(). Safe to share between threads.
+ */
+internal class H4tiledData(val h4 : H4builder, varShape : LongArray, chunk : IntArray, chunks: List<SpecialDataChunk>) {
     val tiling = Tiling(varShape, chunk.toLongArray())
+    private val ntiles = tiling.tileShape.fold(1L) { acc, n -> acc * n }
 
-    // optimize later
-    fun findEntryContainingKey(want : IntArray) : SpecialDataChunk? {
-        chunks.forEach { chunk ->
-            if (chunk.origin.contentEquals(want)) return chunk
+    // dense array over all the tiles, unless that would be too big; then a map keyed by tile order
+    private val chunkArray : Array<SpecialDataChunk?>?
+    private val chunkMap : Map<Long, SpecialDataChunk>?
+
+    init {
+        // chunks past the variable's shape are ignored
+        val keep = chunks.filter { dataChunk -> inRange(dataChunk.origin) }
+        if (ntiles <= maxOf(maxDenseTiles, 2L * chunks.size)) {
+            chunkArray = arrayOfNulls(ntiles.toInt())
+            keep.forEach { chunkArray[order(it.origin).toInt()] = it }
+            chunkMap = null
+        } else {
+            chunkArray = null
+            chunkMap = keep.associateBy { order(it.origin) }
         }
-        return null
     }
 
-    fun findDataChunks(wantSpace : IndexSpace) : Iterable<H4CompressedDataChunk> {
-        val chunks = mutableListOf<H4CompressedDataChunk>()
+    private fun order(origin : IntArray) = tiling.order(origin.toLongArray())
 
-        val tileSection = tiling.section(wantSpace) // section in tiles that we want
-        val tileOdometer = IndexND(tileSection, tiling.tileShape) // loop over tiles we want
-        // println("tileSection = ${tileSection}")
+    // otherwise its tile order would be wrong, or the same as another tile's
+    private fun inRange(origin : IntArray) : Boolean {
+        val tile = tiling.tile(origin.toLongArray())
+        return tile.size == tiling.rank && tile.indices.all { tile[it] >= 0 && tile[it] < tiling.tileShape[it] }
+    }
+
+    fun findEntryContainingKey(want : IntArray) : SpecialDataChunk? {
+        if (!inRange(want)) return null
+        val order = order(want)
+        return if (chunkArray != null) chunkArray[order.toInt()] else chunkMap!![order]
+    }
 
-        for (wantTile in tileOdometer) {
+    /** The chunks that intersect wantSpace, in tile order, found as they are iterated over. */
+    fun findDataChunks(wantSpace : IndexSpace) : Iterable<H4CompressedDataChunk> = Iterable {
+        tiling.tiles(wantSpace).asSequence().map { wantTile -> // loop over tiles we want
             val wantKey = tiling.index(wantTile).toIntArray() // convert to chunk origin
             val chunk = findEntryContainingKey(wantKey)
-            val useEntry = if (chunk != null) H4CompressedDataChunk(h4, chunk.origin, chunk.data.compress)
+            if (chunk != null) H4CompressedDataChunk(h4, chunk.origin, chunk.data.compress)
                 else H4CompressedDataChunk(h4, wantKey, null)
-            chunks.add(useEntry)
-        }
-        return chunks
+        }.iterator()
+    }
+
+    companion object {
+        private const val maxDenseTiles = 1_000_000L
     }
 }
 
@@ -60,40 +76,20 @@ internal class H4CompressedDataChunk(
     fun getByteBuffer(): ByteBuffer {
         if (bb != null) return bb!!
         if (compress != null) {
-            // read compressed data in
-            val cdata = compress.getDataTag(h4)
-            val input: InputStream
-
-            // compressed data stored in one place
-            input = if (cdata.linked == null) {
-                val state = OpenFileState(cdata.offset, ByteOrder.BIG_ENDIAN)
-                val cbuffer = h4.raf.readBytes(state, cdata.length)
-                ByteArrayInputStream(cbuffer)
-            } else { // or compressed data stored in linked storage
-                makeSpecialLinkedInputStream(h4, cdata.linked!!)
-            }
+            // the chunk's compression header is unique to it
+            bb = h4.chunkCache.getOrPut(h4.raf.location, compress.owner.offset) {
+                // read compressed data in
+                val cdata = compress.getDataTag(h4)
+                val cbuffer = if (cdata.linked == null) { // compressed data stored in one place
+                    h4.raf.readBytes(OpenFileState(cdata.offset, ByteOrder.BIG_ENDIAN), cdata.length)
+                } else { // or compressed data stored in linked storage
+                    makeSpecialLinkedInputStream(h4, cdata.linked!!).readAllBytes()
+                }
 
-            // uncompress it
-            val outSize : Int
-            bb = if (compress.compress_type == TagEnum.COMP_CODE_DEFLATE) {
-                // read the stream in and uncompress
-                val zin: InputStream = InflaterInputStream(input)
-                val out = ByteArrayOutputStream(compress.uncomp_length)
-                IOcopyB(zin, out, defaultBufferSize)
-                val buffer = out.toByteArray()
-                outSize = buffer.size
-                ByteBuffer.wrap(buffer)
-            } else if (compress.compress_type == TagEnum.COMP_CODE_NONE) {
-                // just read the stream in
-                val out = ByteArrayOutputStream(compress.uncomp_length)
-                IOcopyB(input, out, defaultBufferSize)
-                val buffer = out.toByteArray()
-                outSize = buffer.size
-                ByteBuffer.wrap(buffer)
-            } else {
-                throw IllegalStateException("unknown compression type =" + compress.compress_type)
+                // uncompress it
+                ByteBuffer.wrap(H4compress.decompress(compress, cbuffer))
             }
-            // println("uncompress offset ${cdata.offset} length ${cdata.length} uncomp_length=${compress.uncomp_length} outSize=${outSize}")
+            // println("uncompress offset ${cdata.offset} length ${cdata.length} uncomp_length=${compress.uncomp_length}")
         }
         bb!!.position(0)
         return bb!!
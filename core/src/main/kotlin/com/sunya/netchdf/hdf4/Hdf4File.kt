@@ -2,8 +2,11 @@ package com.sunya.netchdf.hdf4
 
 import com.sunya.cdm.api.*
 import com.sunya.cdm.array.*
+import com.sunya.cdm.compress.CompressedSource
+import com.sunya.cdm.compress.InflateIndex
 import com.sunya.cdm.iosp.*
 import com.sunya.cdm.layout.*
+import com.sunya.netchdf.MetadataIndex
 import java.io.ByteArrayInputStream
 import java.io.IOException
 import java.io.InputStream
@@ -13,7 +16,18 @@ import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
 import java.util.zip.InflaterInputStream
 
-class Hdf4File(val filename : String) : Netchdf {
+/**
+ * @param inflateCheckpointSpan for deflate compressed, non-chunked variables bigger than this, keep a checkpoint
+ *   every this many bytes of uncompressed data, so reads can start near the wanted data. The checkpoints are found
+ *   with an extra decode of the whole variable, the first time a read doesnt start at the beginning of it.
+ *   The default, 0, doesnt use checkpoints.
+ * @param chunkCache keeps recently decompressed chunks of chunked variables; may be shared with other open files.
+ *   The default doesnt cache.
+ * @param metadataIndex the filename of a metadata index (see MetadataIndex) for this file. If its up to date, the
+ *   metadata is read from it instead of from the file; otherwise its written after the metadata is read from the file.
+ */
+class Hdf4File(val filename : String, val inflateCheckpointSpan : Int = 0,
+               val chunkCache : ChunkCache = ChunkCache(0), metadataIndex : String? = null) : Netchdf {
     private val raf: OpenFile = OpenFile(filename)
     val header: H4builder
     private val rootGroup: Group
@@ -21,10 +35,17 @@ class Hdf4File(val filename : String) : Netchdf {
     var valueCharset: Charset = StandardCharsets.UTF_8
 
     init {
-        header = H4builder(raf, valueCharset)
-        rootGroup = header.rootBuilder.build(null)
+        val indexed = metadataIndex?.let { MetadataIndex.read(it, filename, VinfoCodec) }
+        header = H4builder(raf, valueCharset, chunkCache, indexed)
+        rootGroup = indexed?.rootGroup ?: header.rootBuilder.build(null)
+        if (metadataIndex != null && indexed == null) {
+            MetadataIndex.write(metadataIndex, filename, header.type(), rootGroup, header.ddList(), VinfoCodec)
+        }
     }
 
+    /** hit/miss/eviction counters for the decompressed chunk cache. */
+    fun chunkCacheStats() : ChunkCacheStats = chunkCache.stats()
+
     override fun close() {
         raf.close()
     }
@@ -62,6 +83,21 @@ class Hdf4File(val filename : String) : Netchdf {
         }
     }
 
+    @Throws(IOException::class)
+    override fun <T> chunkReads(v2: Variable<T>, section: SectionPartial?, maxElements : Int?): Iterator<ChunkRead<T>> {
+        if (v2.nelems == 0L) {
+            return listOf<ChunkRead<T>>().iterator()
+        }
+        val wantSection = SectionPartial.fill(section, v2.shape)
+        val vinfo = v2.spObject as Vinfo
+
+        return if (vinfo.isChunked) {
+            H4chunkIterator<T>(header, v2, wantSection).reads()
+        } else {
+            H4maxIterator(v2, wantSection, maxElements ?: 100_000).reads()
+        }
+    }
+
     private inner class H4maxIterator<T>(val v2: Variable<T>, wantSection : Section, maxElems: Int) : AbstractIterator<ArraySection<T>>() {
         private val debugChunking = false
         private val maxIterator  = MaxChunker(maxElems,  wantSection)
@@ -70,27 +106,33 @@ class Hdf4File(val filename : String) : Netchdf {
             if (maxIterator.hasNext()) {
                 val indexSection = maxIterator.next()
                 if (debugChunking) println("  chunk=${indexSection}")
-
-                val section = indexSection.section(v2.shape)
-                val array = if (v2.datatype == Datatype.COMPOUND) {
-                    readStructureDataArray(v2, section)
-                } else {
-                    readRegularDataArray(v2, section)
-                }
-                setNext(ArraySection(array as ArrayTyped<T>, section))
+                setNext(read(indexSection.section(v2.shape)))
             } else {
                 done()
             }
         }
+
+        /** The remaining pieces, to be read later, possibly in parallel. */
+        fun reads() : Iterator<ChunkRead<T>> = maxIterator.asSequence().map { indexSection ->
+            val section = indexSection.section(v2.shape)
+            ChunkRead(section, section.totalElements * v2.datatype.size) { read(section) }
+        }.iterator()
+
+        private fun read(section : Section) : ArraySection<T> {
+            val array = if (v2.datatype == Datatype.COMPOUND) {
+                readStructureDataArray(v2, section)
+            } else {
+                readRegularDataArray(v2, section)
+            }
+            return ArraySection(array as ArrayTyped<T>, section)
+        }
     }
 
     private fun <T> readRegularDataArray(v: Variable<T>, section: Section): ArrayTyped<T> {
         requireNotNull(v.spObject) { "Variable ${v.name}"}
         val vinfo = v.spObject as Vinfo
 
-        if (vinfo.tagData != null) {
-            vinfo.setLayoutInfo(header) // make sure needed info is present LOOK why wait until now ??
-        }
+        vinfo.setLayoutInfo(header) // make sure needed info is present LOOK why wait until now ??
 
         if (vinfo.hasNoData) {
             return ArraySingle(section.shape.toIntArray(), v.datatype, vinfo.fillValue!!)
@@ -116,6 +158,11 @@ class Hdf4File(val filename : String) : Netchdf {
         } else {
             if (!vinfo.isLinked && !vinfo.isChunked) {
                 val layout = LayoutRegular(0, vinfo.elemSize, section)
+                // a read from the beginning gains nothing from the checkpoints
+                val index = if (startElem(section, v.shape) == 0L) null else vinfo.inflateIndex(header, inflateCheckpointSpan)
+                if (index != null) {
+                    return readDataWithFill(InflateIndexReader(index.reader(compressedSource(header, vinfo))), layout, v, vinfo.fillValue, section)
+                }
                 val input: InputStream = getCompressedInputStream(header, vinfo)
                 val reader = PositioningDataInputStream(input)
                 return readDataWithFill(reader, layout, v, vinfo.fillValue, section)
@@ -175,9 +222,8 @@ class Hdf4File(val filename : String) : Netchdf {
     private fun <T> readStructureDataArray(v2: Variable<T>, section: Section): ArrayStructureData {
         val vinfo = v2.spObject as Vinfo
 
-        if (vinfo.tagData != null) {
-            vinfo.setLayoutInfo(header) // make sure needed info is present LOOK why wait until now ??
-        } else {
+        vinfo.setLayoutInfo(header) // make sure needed info is present LOOK why wait until now ??
+        if (vinfo.tagData == null) {
             vinfo.hasNoData = true
         }
 
@@ -225,12 +271,43 @@ class Hdf4File(val filename : String) : Netchdf {
 internal fun getCompressedInputStream(h4: H4builder, vinfo: Vinfo): InputStream {
     // probably could construct an input stream from a channel from a raf for now, just read it all in.
     val buffer = h4.raf.readBytes(OpenFileState(vinfo.start, ByteOrder.BIG_ENDIAN), vinfo.length)
-    val input = ByteArrayInputStream(buffer)
-    return InflaterInputStream(input)
+    return uncompressedInputStream(vinfo, ByteArrayInputStream(buffer))
+}
+
+// the compressed data of a non-linked variable, read as needed
+internal fun compressedSource(h4: H4builder, vinfo: Vinfo) = object : CompressedSource {
+    override val size = vinfo.length.toLong()
+    override fun read(pos: Long, dst: ByteArray, dstPos: Int, nbytes: Int) {
+        h4.raf.readIntoByteArray(OpenFileState(vinfo.start + pos, ByteOrder.BIG_ENDIAN), dst, dstPos, nbytes)
+    }
+}
+
+// the row-major index of the first element of the section
+private fun startElem(section: Section, varShape: LongArray): Long {
+    var elem = 0L
+    section.ranges.forEachIndexed { dim, range -> elem = elem * varShape[dim] + range.first }
+    return elem
+}
+
+// read uncompressed data starting from the nearest checkpoint
+private class InflateIndexReader(val reader: InflateIndex.Reader) : ReaderIntoByteArray {
+    override fun readIntoByteArray(state: OpenFileState, dest: ByteArray, destPos: Int, nbytes: Int): Int {
+        reader.read(state.pos, dest, destPos, nbytes)
+        return nbytes
+    }
 }
 
 internal fun getLinkedCompressedInputStream(h4: H4builder, vinfo: Vinfo): InputStream {
-    return InflaterInputStream(LinkedInputStream(h4, vinfo))
+    return uncompressedInputStream(vinfo, LinkedInputStream(h4, vinfo))
+}
+
+// deflate is uncompressed as its read, the others all at once.
+private fun uncompressedInputStream(vinfo: Vinfo, input: InputStream): InputStream {
+    val compress = vinfo.compress
+    if (compress == null || compress.compress_type == TagEnum.COMP_CODE_DEFLATE) {
+        return InflaterInputStream(input)
+    }
+    return ByteArrayInputStream(H4compress.decompress(compress, input.readAllBytes()))
 }
 
 // called from special.getDataChunks()
@@ -57,9 +57,9 @@ class SpecialChunked(raf : OpenFile, state : OpenFileState, val owner : TagData)
 
     internal fun getDataChunks(header: H4builder, readData : Boolean = true): List<SpecialDataChunk> {
         if (dataChunks == null) {
-            val chunkTableTag = header.tagidMap[H4builder.tagid(chunk_tbl_ref, chunk_tbl_tag)] as TagVH
+            val chunkTableTag = header.findTag(H4builder.tagid(chunk_tbl_ref, chunk_tbl_tag)) as TagVH
             val vinfo = Vinfo(chunkTableTag.refno) // so we dont have to create a phony variable
-            vinfo.tagData = header.tagidMap[H4builder.tagid(chunkTableTag.refno, TagEnum.VS.code)] as TagData
+            vinfo.tagData = header.findTag(H4builder.tagid(chunkTableTag.refno, TagEnum.VS.code)) as TagData
             vinfo.elemSize = chunkTableTag.ivsize
             vinfo.setLayoutInfo(header)
             val shape = longArrayOf (chunkTableTag.nelems.toLong())
@@ -86,7 +86,7 @@ class SpecialChunked(raf : OpenFile, state : OpenFileState, val owner : TagData)
 
                 val tag = tagM.value(sdata) as UShort
                 val ref = refM.value(sdata) as UShort
-                val data  = header.tagidMap[H4builder.tagid(ref.toInt(), tag.toInt())]
+                val data  = header.findTag(H4builder.tagid(ref.toInt(), tag.toInt()))
                 if (data != null) { // missing?
                     val dataAs = data as TagData
                     isCompressed = (dataAs.compress != null) // dont know if its compressed or not until you read the data. barf.
@@ -155,14 +155,36 @@ internal class SpecialComp(raf : OpenFile, state : OpenFileState, val owner : Ta
     var dataTag: TagData? = null
 
     // compress_type == 2
-    val signFlag: Short
-    val fillValue: Short
-    val nt : Int
-    val startBit : Int
-    val bitLength : Int
+    var signFlag: Short = -1
+        private set
+    var fillValue: Short = -1
+        private set
+    var nt = -1
+        private set
+    var startBit = -1
+        private set
+    var bitLength = -1
+        private set
+
+    // compress_type == 3
+    var skipSize = -1
+        private set
 
     // compress_type == 4
-    val deflateLevel: Short
+    var deflateLevel: Short = -1
+        private set
+
+    // compress_type == 5
+    var szipPixels = -1
+        private set
+    var szipPixelsPerScanline = -1
+        private set
+    var szipOptionsMask = -1
+        private set
+    var szipBitsPerPixel = -1
+        private set
+    var szipPixelsPerBlock = -1
+        private set
 
     init {
         version = raf.readShort(state)
@@ -170,37 +192,35 @@ internal class SpecialComp(raf : OpenFile, state : OpenFileState, val owner : Ta
         data_ref = raf.readShort(state).toUShort().toInt()
         model_type = raf.readShort(state)
         compress_type = raf.readShort(state).toInt()
-        if (compress_type == TagEnum.COMP_CODE_NBIT) {
-            nt = raf.readInt(state)
-            signFlag = raf.readShort(state)
-            fillValue = raf.readShort(state)
-            startBit = raf.readInt(state)
-            bitLength = raf.readInt(state)
-
-            deflateLevel = -1
-        } else if (compress_type == TagEnum.COMP_CODE_DEFLATE) {
-            deflateLevel = raf.readShort(state)
-
-            nt = -1
-            signFlag = -1
-            fillValue = -1
-            startBit = -1
-            bitLength = -1
-        } else {
-            // compress_type = 0 happens
-            if (warn) println("unimplemented compress_type=$compress_type")
-            deflateLevel = -1
-            nt = -1
-            signFlag = -1
-            fillValue = -1
-            startBit = -1
-            bitLength = -1
+        when (compress_type) {
+            TagEnum.COMP_CODE_NBIT -> {
+                nt = raf.readInt(state)
+                signFlag = raf.readShort(state)
+                fillValue = raf.readShort(state)
+                startBit = raf.readInt(state)
+                bitLength = raf.readInt(state)
+            }
+            TagEnum.COMP_CODE_SKPHUFF -> {
+                skipSize = raf.readInt(state)
+            }
+            TagEnum.COMP_CODE_DEFLATE -> {
+                deflateLevel = raf.readShort(state)
+            }
+            TagEnum.COMP_CODE_SZIP -> {
+                szipPixels = raf.readInt(state)
+                szipPixelsPerScanline = raf.readInt(state)
+                szipOptionsMask = raf.readInt(state)
+                szipBitsPerPixel = raf.readByte(state).toInt() and 0xff
+                szipPixelsPerBlock = raf.readByte(state).toInt() and 0xff
+            }
+            TagEnum.COMP_CODE_NONE, TagEnum.COMP_CODE_RLE -> {}
+            else -> if (warn) println("unimplemented compress_type=$compress_type")
         }
     }
 
     fun getDataTag(h4 : H4builder): TagData {
         if (dataTag == null) {
-            dataTag = h4.tagidMap[H4builder.tagid(data_ref, TagEnum.COMPRESSED.code)] as TagData
+            dataTag = h4.findTag(H4builder.tagid(data_ref, TagEnum.COMPRESSED.code)) as TagData
             if (dataTag == null) throw IllegalStateException("TagCompress not found for " + detail())
             dataTag!!.isUsed = true
             dataTag!!.usedBy = owner
@@ -218,8 +238,14 @@ internal class SpecialComp(raf : OpenFile, state : OpenFileState, val owner : Ta
             sbuff.append(" nt=").append(nt).append(" signFlag=").append(signFlag.toInt()).append(" fillValue=")
                 .append(fillValue.toInt())
                 .append(" startBit=").append(startBit).append(" bitLength=").append(bitLength)
+        } else if (compress_type == TagEnum.COMP_CODE_SKPHUFF) {
+            sbuff.append(" skipSize=").append(skipSize)
         } else if (compress_type == TagEnum.COMP_CODE_DEFLATE) {
             sbuff.append(" deflateLevel=").append(deflateLevel.toInt())
+        } else if (compress_type == TagEnum.COMP_CODE_SZIP) {
+            sbuff.append(" pixels=").append(szipPixels).append(" pixelsPerScanline=").append(szipPixelsPerScanline)
+                .append(" optionsMask=").append(szipOptionsMask).append(" bitsPerPixel=").append(szipBitsPerPixel)
+                .append(" pixelsPerBlock=").append(szipPixelsPerBlock)
         }
         return sbuff.toString()
     }
@@ -252,7 +278,7 @@ internal class SpecialLinked(raf : OpenFile, state : OpenFileState, val owner :
             var next = link_ref // (short) (link_ref & 0x3FFF);
             while (next != 0) {
                 val tag: TagLinkedBlock =
-                    h4.tagidMap.get(H4builder.tagid(next, TagEnum.LINKED.code)) as TagLinkedBlock?
+                    h4.findTag(H4builder.tagid(next, TagEnum.LINKED.code)) as TagLinkedBlock?
                         ?: throw IllegalStateException("TagLinkedBlock not found for " + detail())
                 tag.isUsed = true
                 tag.usedBy = owner
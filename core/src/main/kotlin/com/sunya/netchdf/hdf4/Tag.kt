@@ -13,11 +13,15 @@ import java.nio.ByteOrder
 fun readTag(raf : OpenFile, state: OpenFileState): Tag {
     // read just the DD part of the tag. see p 11
     val xtag = raf.readShort(state).toUShort().toInt()
-    val btag = xtag and 0x3FFF // 14 bits // basic tags are numbered 0x0001 through 0x3FFF,
     val refno = raf.readShort(state).toUShort().toInt()
     val offset = raf.readInt(state).toLong() // LOOK only 32 bit (!)
     val length = raf.readInt(state)
+    return makeTag(xtag, refno, offset, length)
+}
 
+// the Tag subclass for the DD's tag. its data element isnt read until readTag().
+internal fun makeTag(xtag : Int, refno : Int, offset : Long, length : Int): Tag {
+    val btag = xtag and 0x3FFF // 14 bits // basic tags are numbered 0x0001 through 0x3FFF,
     when (val tagEnum = TagEnum.byCode(btag)) {
         TagEnum.LINKED -> return TagLinkedBlock(xtag, refno, offset, length)
         TagEnum.VERSION -> return TagVersion(xtag, refno, offset, length)
@@ -49,7 +53,7 @@ fun readTag(raf : OpenFile, state: OpenFileState): Tag {
 }
 
 // Tag == "Data Descriptor" (DD) and (usually) a "Data Element" that the offset/length points to
-open class Tag(xtag: Int, val refno : Int, val offset : Long, val length : Int) {
+open class Tag(val xtag: Int, val refno : Int, val offset : Long, val length : Int) {
     val isExtended: Boolean = (xtag and 0x4000) != 0
     val code = (xtag and 0x3FFF) // basic tag
 
@@ -158,7 +162,7 @@ class TagLinkedBlock(icode: Int, refno: Int, offset : Long, length : Int) : Tag(
         }
         for (i in 0 until n) {
             val tagid = tagid(block_ref[i], TagEnum.LINKED.code)
-            val tag = h4.tagidMap[tagid] as TagLinkedBlock?
+            val tag = h4.findTag(tagid) as TagLinkedBlock?
             if (tag != null) {
                 tag.isUsed = true
                 tag.usedBy = owner
@@ -1,6 +1,8 @@
 package com.sunya.netchdf.hdf4
 
 import com.sunya.cdm.api.*
+import com.sunya.cdm.compress.InflateIndex
+import com.sunya.netchdf.SpObjectCodec
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_BYTE
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_CHAR
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_DOUBLE
@@ -13,6 +15,8 @@ import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_USHORT
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_INT64
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_STRING
 import com.sunya.netchdf.netcdf4.Netcdf4.NC_FILL_UINT64
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.nio.ByteOrder
 
 internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
@@ -22,6 +26,7 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
     // info about reading the data
     var tagDataRI: TagRasterImage? = null
     var tagData: TagData? = null
+    var tagDataId = -1 // from a metadata index: the tag id of tagData, found when the layout info is needed
     var elemSize = 0 // for Structures, this is recsize
     var fillValue: Any? = null
 
@@ -35,6 +40,11 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
     var start = -1L
     var length = 0
 
+    // compressed
+    var compress: SpecialComp? = null
+    private var inflateIndex: InflateIndex? = null
+    private val inflateIndexLock = Any() // so building the index doesnt block setLayoutInfo()
+
     // linked
     var segPos = LongArray(0)
     var segSize = IntArray(0)
@@ -42,6 +52,7 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
     // chunked
     var chunks: List<SpecialDataChunk>? = null
     var chunkLengths = IntArray(0)
+    private var tiledData: H4tiledData? = null
 
     // internal string valued
     var svalue : String? = null
@@ -73,10 +84,14 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
         return this
     }
 
+    private var layoutInfoDone = false
+
     // make sure needed info is present : call this when variable needs to be read
-    // this allows us to defer getting layout info until then
+    // this allows us to defer getting layout info until then. Only done once, may be called from multiple threads.
+    @Synchronized
     fun setLayoutInfo(header: H4builder) {
-        if (tagData == null) return
+        if (tagData == null && tagDataId >= 0) tagData = header.findTag(tagDataId) as TagData?
+        if (tagData == null || layoutInfoDone) return
         val useData = tagData!!
         if (null != useData.linked) {
             isLinked = true
@@ -84,6 +99,7 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
 
         } else if (null != useData.compress) {
             isCompressed = true
+            compress = useData.compress
             val compData: TagData = useData.compress!!.getDataTag(header)
             tags.add(compData)
             isLinked = (compData.linked != null)
@@ -103,6 +119,31 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
             start = useData.offset
             hasNoData = (start < 0)
         }
+        layoutInfoDone = true
+    }
+
+    // the chunk index, made the first time its needed. call setLayoutInfo() first.
+    @Synchronized
+    fun tiledData(header: H4builder, varShape: LongArray): H4tiledData {
+        if (tiledData == null) {
+            tiledData = H4tiledData(header, varShape, chunkLengths, chunks!!)
+        }
+        return tiledData!!
+    }
+
+    // the checkpoints for a deflate compressed, non-linked, non-chunked variable, made the first time its needed.
+    // null if its not one, or not bigger than the span. call setLayoutInfo() first.
+    // concurrent readers wait for the one that builds it.
+    fun inflateIndex(header: H4builder, span: Int): InflateIndex? {
+        val comp = compress
+        if (span <= 0 || comp == null || comp.compress_type != TagEnum.COMP_CODE_DEFLATE || isLinked || isChunked
+            || comp.uncomp_length <= span) return null
+        synchronized(inflateIndexLock) {
+            if (inflateIndex == null) {
+                inflateIndex = InflateIndex.build(compressedSource(header, this), span)
+            }
+            return inflateIndex
+        }
     }
 
     private fun setDataBlocks(linkedBlocks: List<TagLinkedBlock>) {
@@ -126,6 +167,86 @@ internal class Vinfo(val refno: Int) : Comparable<Vinfo?> {
     }
 }
 
+// The spObject of each variable in a metadata index. The data layout isnt in the index; as when the file is read,
+// its found from the variable's data tag the first time the variable is read.
+internal object VinfoCodec : SpObjectCodec {
+    // the types a fill value may have, in the order of their codes
+    private val fillValueTypes = listOf(Byte::class, UByte::class, Short::class, UShort::class, Int::class, UInt::class,
+        Long::class, ULong::class, Float::class, Double::class, String::class)
+
+    override fun notIndexable(spObject: Any?): String? {
+        if (spObject !is Vinfo) return "spObject isnt a Vinfo: ${spObject?.javaClass?.simpleName}"
+        val fillValue = spObject.fillValue
+        if (fillValue != null && fillValue::class !in fillValueTypes) return "fill value of type ${fillValue::class.simpleName}"
+        return null
+    }
+
+    override fun write(out: DataOutputStream, spObject: Any?) {
+        val vinfo = spObject as Vinfo
+        out.writeInt(vinfo.refno)
+        out.writeInt(vinfo.tagData?.tagid() ?: vinfo.tagDataId)
+        out.writeInt(vinfo.elemSize)
+        out.writeLong(vinfo.start)
+        out.writeBoolean(vinfo.hasNoData)
+        out.writeBoolean(vinfo.endian == ByteOrder.BIG_ENDIAN)
+        out.writeBoolean(vinfo.svalue != null)
+        vinfo.svalue?.let { writeString(out, it) }
+        val fillValue = vinfo.fillValue
+        out.writeByte(if (fillValue == null) -1 else fillValueTypes.indexOf(fillValue::class))
+        when (fillValue) {
+            is Byte -> out.writeByte(fillValue.toInt())
+            is UByte -> out.writeByte(fillValue.toInt())
+            is Short -> out.writeShort(fillValue.toInt())
+            is UShort -> out.writeShort(fillValue.toInt())
+            is Int -> out.writeInt(fillValue)
+            is UInt -> out.writeInt(fillValue.toInt())
+            is Long -> out.writeLong(fillValue)
+            is ULong -> out.writeLong(fillValue.toLong())
+            is Float -> out.writeFloat(fillValue)
+            is Double -> out.writeDouble(fillValue)
+            is String -> writeString(out, fillValue)
+        }
+    }
+
+    override fun read(input: DataInputStream): Any {
+        val vinfo = Vinfo(input.readInt())
+        vinfo.tagDataId = input.readInt()
+        vinfo.elemSize = input.readInt()
+        vinfo.start = input.readLong()
+        vinfo.hasNoData = input.readBoolean()
+        vinfo.endian = if (input.readBoolean()) ByteOrder.BIG_ENDIAN else ByteOrder.LITTLE_ENDIAN
+        if (input.readBoolean()) vinfo.svalue = readString(input)
+        vinfo.fillValue = when (input.readByte().toInt()) {
+            0 -> input.readByte()
+            1 -> input.readByte().toUByte()
+            2 -> input.readShort()
+            3 -> input.readShort().toUShort()
+            4 -> input.readInt()
+            5 -> input.readInt().toUInt()
+            6 -> input.readLong()
+            7 -> input.readLong().toULong()
+            8 -> input.readFloat()
+            9 -> input.readDouble()
+            10 -> readString(input)
+            else -> null
+        }
+        return vinfo
+    }
+
+    // not writeUTF, which is limited to 64K bytes
+    private fun writeString(out: DataOutputStream, s: String) {
+        val bytes = s.toByteArray(Charsets.UTF_8)
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        val bytes = ByteArray(input.readInt())
+        input.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+}
+
 // the netcdf default fill values
 internal fun getNcDefaultFillValue(datatype: Datatype<*>): Any {
     return when (datatype) {
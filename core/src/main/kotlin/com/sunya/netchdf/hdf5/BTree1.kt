@@ -116,9 +116,12 @@ internal class BTree1(
     }
 
     // childAddress = data chunk (level 1) else a child node
-    data class DataChunkEntry(val level : Int, val parent : Node, val idx : Int, val key : DataChunkKey, val childAddress : Long) {
-        fun isMissing() = (childAddress == -1L)
-        fun show(tiling : Tiling) : String = "chunkSize=${key.chunkSize}, chunkStart=${key.offsets.contentToString()}" +
+    data class DataChunkEntry(val level : Int, val parent : Node, val idx : Int, val key : DataChunkKey, override val childAddress : Long) : DataChunk {
+        override val offsets get() = key.offsets
+        override val chunkSize get() = key.chunkSize
+        override val filterMask get() = key.filterMask
+
+        override fun show(tiling : Tiling) : String = "chunkSize=${key.chunkSize}, chunkStart=${key.offsets.contentToString()}" +
                 ", tile= ${tiling.tile(key.offsets).contentToString()}  idx=$idx"
     }
 }
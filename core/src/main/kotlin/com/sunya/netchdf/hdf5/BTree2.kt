@@ -10,10 +10,12 @@ import java.util.*
  * Level 1A2
  * Used in readGroupNew( type 5 and 6), readAttributesFromInfoMessage(), FractalHeap, and DHeapId(type 1,2,3,4)
  */
-internal class BTree2(h5: H5builder, owner: String, address: Long) {
+internal class BTree2(h5: H5builder, owner: String, address: Long, val ndims: Int = 0) { // ndims: chunk records only
     val btreeType: Int
     private val nodeSize: Int // size in bytes of btree nodes
     private val recordSize: Short// size in bytes of btree records
+    private val maxNrecSize: Int // size in bytes of the number of records in a child node
+    private val cumMaxNrecSize: IntArray // size in bytes of the total number of records below a child, by depth
     private val owner: String
     private val h5: H5builder
     private val raf: OpenFile
@@ -39,9 +41,23 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
         val totalRecords: Long = h5.readLength(state) // total in entire btree
         val checksum: Int = raf.readInt(state)
 
+        // these field sizes depend on the maximum number of records that can be below a node, see H5B2__hdr_init()
+        val maxNrec = LongArray(treeDepth + 1)
+        val cumMaxNrec = LongArray(treeDepth + 1)
+        cumMaxNrecSize = IntArray(treeDepth + 1)
+        maxNrec[0] = ((nodeSize - metadataPrefixSize) / recordSize).toLong()
+        cumMaxNrec[0] = maxNrec[0]
+        maxNrecSize = log2(maxNrec[0]) / 8 + 1
+        for (depth in 1..treeDepth) {
+            val sizeofPtr = h5.sizeOffsets + maxNrecSize + cumMaxNrecSize[depth - 1]
+            maxNrec[depth] = ((nodeSize - (metadataPrefixSize + sizeofPtr)) / (recordSize + sizeofPtr)).toLong()
+            cumMaxNrec[depth] = (maxNrec[depth] + 1) * cumMaxNrec[depth - 1] + maxNrec[depth]
+            cumMaxNrecSize[depth] = log2(cumMaxNrec[depth]) / 8 + 1
+        }
+
         // eager reading of all nodes
         if (treeDepth > 0) {
-            val node = InternalNode(rootNodeAddress, numRecordsRootNode, recordSize, treeDepth.toInt())
+            val node = InternalNode(rootNodeAddress, numRecordsRootNode, treeDepth.toInt())
             node.recurse()
         } else {
             val leaf = LeafNode(rootNodeAddress, numRecordsRootNode)
@@ -65,7 +81,7 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
         var record: Any? = null
     }
 
-    internal inner class InternalNode(address: Long, nrecords: Short, recordSize: Short, val depth: Int) {
+    internal inner class InternalNode(address: Long, nrecords: Short, val depth: Int) {
         var entries: Array<Entry2?>
 
         init {
@@ -84,15 +100,13 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
             }
             entries[nrecords.toInt()] = Entry2()
 
-            val maxNumRecords = nodeSize / recordSize // guessing
-            val maxNumRecordsPlusDesc = nodeSize / recordSize // guessing
             for (i in 0 until nrecords + 1) {
                 val e = entries[i]
                 e!!.childAddress = h5.readOffset(state)
-                e.nrecords = h5.readVariableSizeUnsigned(state, 1) // readVariableSizeMax(maxNumRecords);
+                e.nrecords = h5.readVariableSizeUnsigned(state, maxNrecSize)
                 if (depth > 1) {
-                    e.totNrecords = h5.readVariableSizeUnsigned(state, 2)
-                } // readVariableSizeMax(maxNumRecordsPlusDesc);
+                    e.totNrecords = h5.readVariableSizeUnsigned(state, cumMaxNrecSize[depth - 1])
+                }
             }
 
             // skip
@@ -103,7 +117,7 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
         fun recurse() {
             for (e in entries) {
                 if (depth > 1) {
-                    val node = InternalNode(e!!.childAddress, e.nrecords.toShort(), recordSize, depth - 1)
+                    val node = InternalNode(e!!.childAddress, e.nrecords.toShort(), depth - 1)
                     node.recurse()
                 } else {
                     val nrecs = e!!.nrecords
@@ -157,8 +171,8 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
             7 -> Record70(state) // TODO wrong
             8 -> Record8(state)
             9 -> Record9(state)
-            10 -> Record10(state, 0) // TODO wrong, whats ndims?
-            11 -> Record11(state, 0) // TODO wrong, whats ndims?
+            10 -> Record10(state, ndims)
+            11 -> Record11(state, ndims)
             else -> throw IllegalStateException()
         }
     }
@@ -238,7 +252,7 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
         val creationOrder = raf.readInt(state)
     }
 
-    // Type 10 Record Layout - Non-filtered Dataset Chunks
+    // Type 10 Record Layout - Non-filtered Dataset Chunks. dims are the chunk's scaled offsets, ie its tile.
     inner class Record10(state: OpenFileState, ndims : Int) {
         val address = h5.readOffset(state)
         val dims = LongArray(ndims) { raf.readLong(state) }
@@ -247,8 +261,15 @@ internal class BTree2(h5: H5builder, owner: String, address: Long) {
     // Type 11 Record Layout - Filtered Dataset Chunks
     inner class Record11(state: OpenFileState, ndims : Int) {
         val address = h5.readOffset(state)
-        val chunkSize = raf.readLong(state) // LOOK variable size based on what ?
+        // the chunk size takes up whatever the rest of the record doesnt
+        val chunkSize = h5.readVariableSizeUnsigned(state, recordSize - h5.sizeOffsets - 4 - 8 * ndims)
         val filterMask = raf.readInt(state)
         val dims = LongArray(ndims) { raf.readLong(state) }
     }
+
+    companion object {
+        private const val metadataPrefixSize = 10 // signature, version, type, checksum
+
+        private fun log2(n: Long): Int = 63 - java.lang.Long.numberOfLeadingZeros(n)
+    }
 } // BTree2
@@ -0,0 +1,177 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.iosp.OpenFileState
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Extensible Array chunk index, used by version 4 data layout messages when one dimension is unlimited.
+ * Like the fixed array, there is one element for each chunk in linear index order, with the unlimited dimension
+ * varying slowest. The first few elements are in the index block, the rest in data blocks that double in size
+ * as the array grows. The data blocks are found from the index block, or for the larger ones, through a super block.
+ * Large data blocks are split into pages. Blocks and pages are read the first time they are needed and then kept.
+ *
+ * @see "https://support.hdfgroup.org/HDF5/doc/Specs.html, Extensible Array"
+ */
+internal class ExtensibleArrayIndex(h5 : H5builder, varShape : LongArray, storageDims : LongArray, maxDims : LongArray, mdl : DataLayoutChunked4)
+    : H5chunkLookup(h5, varShape, storageDims, mdl.dontFilterPartialChunks) {
+
+    private val strides = maxChunkStrides(maxDims, storageDims, maxDims.indexOfFirst { it < 0 })
+    private val filtered : Boolean
+    private val elemSize : Int
+    private val indexBlockNelems : Int
+    private val dataBlockMinNelems : Int
+    private val pageNelems : Long
+    private val arrayOffsetSize : Int // size in bytes of the block offset field
+    private val dataBlockPrefixSize : Int // bytes before the first page of a paged data block
+
+    private val superBlocks : List<SuperBlockInfo>
+    private val nsuperBlocksInIndex : Int // the data blocks of these super blocks are listed in the index block
+
+    // from the index block
+    private val indexElements : ByteBuffer
+    private val dataBlockAddresses : LongArray
+    private val superBlockAddresses : LongArray
+
+    // keyed by file offset
+    private val blocks = mutableMapOf<Long, ByteBuffer>()
+    private val superBlockCache = mutableMapOf<Long, SuperBlock>()
+
+    // data blocks in super block u: ndataBlocks of dataBlockNelems each, for array indices starting at startIdx
+    private class SuperBlockInfo(val ndataBlocks : Int, val dataBlockNelems : Long, val startIdx : Long, val startDataBlock : Int)
+
+    // pageInit has a bit for each page of each data block, set if its been written
+    private class SuperBlock(val pageInit : ByteArray, val dataBlockAddresses : LongArray)
+
+    init {
+        val state = OpenFileState(h5.getFileOffset(mdl.indexAddress), ByteOrder.LITTLE_ENDIAN)
+        val magic = h5.raf.readString(state, 4)
+        check(magic == "EAHD") { "Extensible array header doesnt start with EAHD" }
+        state.incr(1) // version
+        filtered = h5.raf.readByte(state).toInt() == 1 // client id: 0 = unfiltered chunks, 1 = filtered chunks
+        elemSize = h5.raf.readByte(state).toInt() and 0xff
+        val maxNelemsBits = h5.raf.readByte(state).toInt()
+        indexBlockNelems = h5.raf.readByte(state).toInt() and 0xff
+        dataBlockMinNelems = h5.raf.readByte(state).toInt() and 0xff
+        val superBlockMinDataPtrs = h5.raf.readByte(state).toInt() and 0xff
+        val pageBits = h5.raf.readByte(state).toInt()
+        state.incr(6L * (if (h5.isLengthLong) 8 else 4)) // statistics
+        val indexBlockAddress = h5.readOffset(state)
+
+        pageNelems = 1L shl pageBits
+        arrayOffsetSize = (maxNelemsBits + 7) / 8
+        dataBlockPrefixSize = 10 + h5.sizeOffsets + arrayOffsetSize // signature, version, client id, checksum
+
+        // see H5EA__hdr_init()
+        val nsuperBlocks = 1 + maxNelemsBits - log2(dataBlockMinNelems.toLong())
+        var startIdx = 0L
+        var startDataBlock = 0
+        superBlocks = List(nsuperBlocks) { u ->
+            val info = SuperBlockInfo(1 shl (u / 2), (1L shl ((u + 1) / 2)) * dataBlockMinNelems, startIdx, startDataBlock)
+            startIdx += info.ndataBlocks * info.dataBlockNelems
+            startDataBlock += info.ndataBlocks
+            info
+        }
+        nsuperBlocksInIndex = 2 * log2(superBlockMinDataPtrs.toLong())
+        val ndataBlockAddresses = 2 * (superBlockMinDataPtrs - 1)
+
+        if (indexBlockAddress == -1L) { // nothing written yet
+            indexElements = ByteBuffer.allocate(0)
+            dataBlockAddresses = LongArray(0)
+            superBlockAddresses = LongArray(0)
+        } else {
+            val istate = OpenFileState(h5.getFileOffset(indexBlockAddress), ByteOrder.LITTLE_ENDIAN)
+            val imagic = h5.raf.readString(istate, 4)
+            check(imagic == "EAIB") { "Extensible array index block doesnt start with EAIB" }
+            istate.incr(2L + h5.sizeOffsets) // version, client id, header address
+            indexElements = h5.raf.readByteBuffer(istate, indexBlockNelems * elemSize)
+            dataBlockAddresses = LongArray(ndataBlockAddresses) { h5.readOffset(istate) }
+            superBlockAddresses = LongArray(nsuperBlocks - nsuperBlocksInIndex) { h5.readOffset(istate) }
+            readMiss++
+        }
+    }
+
+    override fun findChunk(tile : LongArray) : DataChunk? {
+        val idx = linearIndex(tile, strides)
+        if (idx < indexBlockNelems) {
+            return if (indexElements.capacity() == 0) null else readElement(indexElements, idx.toInt() * elemSize, elemSize, filtered, tile)
+        }
+
+        // see H5EA__lookup_elmt()
+        val superBlockIdx = log2((idx - indexBlockNelems) / dataBlockMinNelems + 1)
+        if (superBlockIdx >= superBlocks.size) return null
+        val info = superBlocks[superBlockIdx]
+        var elemIdx = idx - indexBlockNelems - info.startIdx
+        val dataBlockIdx = (elemIdx / info.dataBlockNelems).toInt()
+        elemIdx %= info.dataBlockNelems
+
+        val superBlock : SuperBlock?
+        val dataBlockAddress : Long
+        if (superBlockIdx < nsuperBlocksInIndex) {
+            superBlock = null
+            dataBlockAddress = dataBlockAddresses[info.startDataBlock + dataBlockIdx]
+        } else {
+            val superBlockAddress = superBlockAddresses[superBlockIdx - nsuperBlocksInIndex]
+            if (superBlockAddress == -1L) return null
+            superBlock = superBlock(h5.getFileOffset(superBlockAddress), info)
+            dataBlockAddress = superBlock.dataBlockAddresses[dataBlockIdx]
+        }
+        if (dataBlockAddress == -1L) return null
+        val dataBlockPos = h5.getFileOffset(dataBlockAddress)
+
+        if (info.dataBlockNelems <= pageNelems) {
+            val bb = block(dataBlockPos + dataBlockPrefixSize - 4, info.dataBlockNelems)
+            return readElement(bb, (elemIdx * elemSize).toInt(), elemSize, filtered, tile)
+        }
+        // paged data block, each page followed by a checksum
+        val page = elemIdx / pageNelems
+        if (superBlock != null) {
+            val npages = info.dataBlockNelems / pageNelems
+            if (!isBitSet(superBlock.pageInit, dataBlockIdx * npages + page)) return null
+        }
+        val bb = block(dataBlockPos + dataBlockPrefixSize + page * (pageNelems * elemSize + 4), pageNelems)
+        return readElement(bb, ((elemIdx % pageNelems) * elemSize).toInt(), elemSize, filtered, tile)
+    }
+
+    // the elements of a data block or page, starting at filePos
+    @Synchronized
+    private fun block(filePos : Long, nelems : Long) : ByteBuffer {
+        val cached = blocks[filePos]
+        if (cached != null) {
+            readHit++
+            return cached
+        }
+        readMiss++
+        val bb = h5.raf.readByteBuffer(OpenFileState(filePos, ByteOrder.LITTLE_ENDIAN), (nelems * elemSize).toInt())
+        blocks[filePos] = bb
+        return bb
+    }
+
+    @Synchronized
+    private fun superBlock(filePos : Long, info : SuperBlockInfo) : SuperBlock {
+        val cached = superBlockCache[filePos]
+        if (cached != null) {
+            readHit++
+            return cached
+        }
+        readMiss++
+        val state = OpenFileState(filePos, ByteOrder.LITTLE_ENDIAN)
+        val magic = h5.raf.readString(state, 4)
+        check(magic == "EASB") { "Extensible array super block doesnt start with EASB" }
+        state.incr(2L + h5.sizeOffsets + arrayOffsetSize) // version, client id, header address, block offset
+        val pageInit = if (info.dataBlockNelems > pageNelems) {
+            val npages = info.dataBlockNelems / pageNelems
+            h5.raf.readByteBuffer(state, info.ndataBlocks * ((npages + 7) / 8).toInt()).array()
+        } else ByteArray(0)
+        val addresses = LongArray(info.ndataBlocks) { h5.readOffset(state) }
+        val superBlock = SuperBlock(pageInit, addresses)
+        superBlockCache[filePos] = superBlock
+        return superBlock
+    }
+
+    private fun log2(n : Long) : Int = 63 - java.lang.Long.numberOfLeadingZeros(n)
+
+    override fun toString(): String {
+        return "ExtensibleArrayIndex(nsuperBlocks=${superBlocks.size}, readHit=$readHit, readMiss=$readMiss)"
+    }
+}
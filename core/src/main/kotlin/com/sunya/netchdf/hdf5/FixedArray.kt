@@ -0,0 +1,91 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.iosp.OpenFileState
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Fixed Array chunk index, used by version 4 data layout messages when no dimension is unlimited.
+ * There is one element for each possible chunk, in linear index order, so finding a chunk is just an array lookup.
+ * The elements are in a single data block, which is split into pages when there are more than 2^pageBits elements.
+ * The data block, or each page, is read the first time its needed and then kept.
+ *
+ * @see "https://support.hdfgroup.org/HDF5/doc/Specs.html, Fixed Array Index"
+ */
+internal class FixedArrayIndex(h5 : H5builder, varShape : LongArray, storageDims : LongArray, maxDims : LongArray, mdl : DataLayoutChunked4)
+    : H5chunkLookup(h5, varShape, storageDims, mdl.dontFilterPartialChunks) {
+
+    private val strides = maxChunkStrides(maxDims, storageDims)
+    private val filtered : Boolean
+    private val elemSize : Int
+    private val nelems : Long
+    private val pageNelems : Long
+    private val npages : Long // 0 = not paged
+    private val pageInit : ByteArray // bit set if page has been written
+    private val elementsStart : Long // file offset of the elements, or of the first page if paged
+
+    // keyed by page number, or 0 if not paged
+    private val blocks = mutableMapOf<Long, ByteBuffer>()
+
+    init {
+        val state = OpenFileState(h5.getFileOffset(mdl.indexAddress), ByteOrder.LITTLE_ENDIAN)
+        val magic = h5.raf.readString(state, 4)
+        check(magic == "FAHD") { "Fixed array header doesnt start with FAHD" }
+        state.incr(1) // version
+        filtered = h5.raf.readByte(state).toInt() == 1 // client id: 0 = unfiltered chunks, 1 = filtered chunks
+        elemSize = h5.raf.readByte(state).toInt() and 0xff
+        val pageBits = h5.raf.readByte(state).toInt()
+        nelems = h5.readLength(state)
+        val dataBlockAddress = h5.readAddress(state)
+        pageNelems = 1L shl pageBits
+
+        val dstate = OpenFileState(dataBlockAddress, ByteOrder.LITTLE_ENDIAN)
+        val dmagic = h5.raf.readString(dstate, 4)
+        check(dmagic == "FADB") { "Fixed array data block doesnt start with FADB" }
+        dstate.incr(2L + h5.sizeOffsets) // version, client id, header address
+        if (nelems > pageNelems) {
+            npages = (nelems + pageNelems - 1) / pageNelems
+            pageInit = h5.raf.readByteBuffer(dstate, ((npages + 7) / 8).toInt()).array()
+            elementsStart = dstate.pos + 4 // skip the checksum
+        } else {
+            npages = 0
+            pageInit = ByteArray(0)
+            elementsStart = dstate.pos
+        }
+    }
+
+    override fun findChunk(tile : LongArray) : DataChunk? {
+        val idx = linearIndex(tile, strides)
+        if (idx >= nelems) return null
+        if (npages == 0L) {
+            return readElement(block(0), (idx * elemSize).toInt(), elemSize, filtered, tile)
+        }
+        val page = idx / pageNelems
+        if (!isBitSet(pageInit, page)) return null
+        return readElement(block(page), ((idx % pageNelems) * elemSize).toInt(), elemSize, filtered, tile)
+    }
+
+    @Synchronized
+    private fun block(page : Long) : ByteBuffer {
+        val cached = blocks[page]
+        if (cached != null) {
+            readHit++
+            return cached
+        }
+        readMiss++
+        val state = if (npages == 0L) {
+            OpenFileState(elementsStart, ByteOrder.LITTLE_ENDIAN)
+        } else {
+            // each page is followed by a checksum. the last page may be partial
+            OpenFileState(elementsStart + page * (pageNelems * elemSize + 4), ByteOrder.LITTLE_ENDIAN)
+        }
+        val n = if (npages == 0L) nelems else minOf(pageNelems, nelems - page * pageNelems)
+        val bb = h5.raf.readByteBuffer(state, (n * elemSize).toInt())
+        blocks[page] = bb
+        return bb
+    }
+
+    override fun toString(): String {
+        return "FixedArrayIndex(nelems=$nelems, npages=$npages, readHit=$readHit, readMiss=$readMiss)"
+    }
+}
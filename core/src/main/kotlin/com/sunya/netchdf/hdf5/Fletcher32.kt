@@ -0,0 +1,76 @@
+package com.sunya.netchdf.hdf5
+
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.VarHandle
+import java.nio.ByteOrder
+
+/**
+ * The Fletcher32 checksum used by the HDF5 fletcher32 filter, same result as H5_checksum_fletcher32().
+ * The data is summed as big endian 16-bit words; an odd last byte is the high byte of a last word.
+ *
+ * H5_checksum_fletcher32 folds the sums every 360 words, which gives the same result as the exact sums modulo 65535,
+ * except that a nonzero sum is never reduced to 0. So this sums four words at a time from a long,
+ * and reduces only every blockLongs longs.
+ */
+internal object Fletcher32 {
+    private const val mod = 65535L
+    private const val blockLongs = 4096 // sum2 stays well under Long.MAX_VALUE
+    private val longsBE: VarHandle = MethodHandles.byteArrayViewVarHandle(LongArray::class.java, ByteOrder.BIG_ENDIAN)
+
+    fun checksum(data: ByteArray, start: Int, length: Int): Int {
+        var sum1 = 0L
+        var sum2 = 0L
+        var nonzero = 0L
+        var pos = start
+        val nlongs = length / 8
+
+        var done = 0
+        while (done < nlongs) {
+            val n = minOf(blockLongs, nlongs - done)
+            for (i in 0 until n) {
+                val x = longsBE.get(data, pos) as Long
+                nonzero = nonzero or x
+                val w0 = (x ushr 48)
+                val w1 = (x ushr 32) and 0xffff
+                val w2 = (x ushr 16) and 0xffff
+                val w3 = x and 0xffff
+                sum2 += 4 * sum1 + 4 * w0 + 3 * w1 + 2 * w2 + w3
+                sum1 += w0 + w1 + w2 + w3
+                pos += 8
+            }
+            sum1 %= mod
+            sum2 %= mod
+            done += n
+        }
+
+        // remaining words, then the odd byte if any
+        val end = start + length
+        while (pos + 1 < end) {
+            val w = ((data[pos].toLong() and 0xff) shl 8) or (data[pos + 1].toLong() and 0xff)
+            nonzero = nonzero or w
+            sum1 += w
+            sum2 += sum1
+            pos += 2
+        }
+        if (pos < end) {
+            val w = (data[pos].toLong() and 0xff) shl 8
+            nonzero = nonzero or w
+            sum1 += w
+            sum2 += sum1
+        }
+
+        // all zero data sums to zero, otherwise a multiple of 65535 is 65535
+        if (nonzero == 0L) return 0
+        return ((reduce(sum2) shl 16) or reduce(sum1)).toInt()
+    }
+
+    private fun reduce(sum: Long): Long {
+        val r = sum % mod
+        return if (r == 0L) mod else r
+    }
+
+    /** Files written by HDF5 1.6 may have stored the checksum with the bytes of each 16-bit half swapped. */
+    fun reversed(checksum: Int): Int {
+        return ((checksum and 0x00ff00ff) shl 8) or ((checksum ushr 8) and 0x00ff00ff)
+    }
+}
@@ -1,86 +1,123 @@
 package com.sunya.netchdf.hdf5
 
 import com.sunya.cdm.layout.IndexSpace
-import com.sunya.cdm.layout.IndexND
 import com.sunya.cdm.layout.Tiling
 
-/** wraps BTree1New to handle iterating through tiled data (aka chunked data) */
-internal class H5TiledData(val btree1 : BTree1) {
+/**
+ * The chunk index for version 1 B-trees.
+ * wraps BTree1New to handle iterating through tiled data (aka chunked data).
+ * Nodes are cached as they are read, so keeping this around (see H5chunkIndexCache) avoids rereading them.
+ * Safe to share between threads.
+ */
+internal class H5TiledData(val btree1 : BTree1) : H5chunkIndex {
     private val check = true
     private val debug = false
     private val debugMissing = false
 
-    val tiling = Tiling(btree1.varShape, btree1.storageSize)
+    override val tiling = Tiling(btree1.varShape, btree1.storageSize)
     val rootNode : BTree1.Node
+    private val root : SortedNode
 
     // keep track of nodes so we only read once
-    private val nodeCache = mutableMapOf<Long, BTree1.Node>()
-    private var readHit = 0
-    private var readMiss = 0
+    private val nodeCache = mutableMapOf<Long, SortedNode>()
+    override var readHit = 0L
+        private set
+    override var readMiss = 0L
+        private set
 
     init {
-        rootNode = readNode(btree1.rootNodeAddress, null)
+        root = readNode(btree1.rootNodeAddress, null)
+        rootNode = root.node
+    }
+
+    // a node, along with the tile order of each entry's key, for binary search.
+    private class SortedNode(val node : BTree1.Node, val orders : LongArray) {
+        // index of the last entry whose key order is <= wantOrder, or -1 if none
+        fun find(wantOrder : Long) : Int {
+            var low = 0
+            var high = orders.size - 1
+            while (low <= high) {
+                val mid = (low + high) ushr 1
+                if (orders[mid] <= wantOrder) low = mid + 1 else high = mid - 1
+            }
+            return high
+        }
     }
 
     // node reading goes through here for caching
-    private fun readNode(address : Long, parent : BTree1.Node?) : BTree1.Node {
-        if (nodeCache[address] != null) {
+    @Synchronized
+    private fun readNode(address : Long, parent : BTree1.Node?) : SortedNode {
+        val cached = nodeCache[address]
+        if (cached != null) {
             readHit++
-            return nodeCache[address]!!
+            return cached
         }
         readMiss++
         val node = btree1.Node(address, parent)
-        nodeCache[address] = node
+        val orders = LongArray(node.nentries) { tiling.order(node.dataChunkEntries[it].key.offsets) }
+        val sorted = SortedNode(node, orders)
+        nodeCache[address] = sorted
 
         if (check) {
             if (debug) println("node = $address, level = ${node.level} nentries = ${node.nentries}")
             for (idx in 0 until node.nentries) {
-                val thisEntry = node.dataChunkEntries[idx]
-                val key = thisEntry.key.offsets
-                if (debug) println(" $idx = ${key.contentToString()} tile = ${tiling.tile(key).contentToString()}")
+                if (debug) println(" $idx = ${node.dataChunkEntries[idx].key.offsets.contentToString()} order = ${orders[idx]}")
                 if (idx < node.nentries - 1) {
-                    val nextEntry = node.dataChunkEntries[idx + 1]
-                    require(tiling.compare(key, nextEntry.key.offsets) < 0)
+                    require(orders[idx] < orders[idx + 1])
                 }
             }
         }
-        return node
+        return sorted
     }
 
-    // optimize later
-    private fun findEntryContainingKey(parent : BTree1.Node, key : LongArray) : BTree1.DataChunkEntry? {
-        var foundEntry : BTree1.DataChunkEntry? = null
-        for (idx in 0 until parent.nentries) {
-            foundEntry = parent.dataChunkEntries[idx]
-            if (idx < parent.nentries - 1) {
-                val nextEntry = parent.dataChunkEntries[idx + 1] // look at the next one
-                if (tiling.compare(key, nextEntry.key.offsets) < 0) {
-                    break
-                }
+    private fun findEntryContainingKey(parent : SortedNode, wantOrder : Long) : BTree1.DataChunkEntry? {
+        val idx = parent.find(wantOrder)
+        if (idx < 0) { // before the first key, or no keys
+            if (parent.node.level > 0 && parent.node.nentries == 0) {
+                throw RuntimeException("TiledH5Data findEntryContainingKey cant find order $wantOrder")
             }
+            if (debugMissing) println("TiledH5Data findEntryContainingKey missing order $wantOrder")
+            return null
         }
-        if (foundEntry == null) {
-            if (parent.level == 0) {
-                if (debugMissing) println("TiledH5Data findEntryContainingKey missing key ${key.contentToString()}")
-                return null
-            }
-            throw RuntimeException("TiledH5Data findEntryContainingKey cant find key ${key.contentToString()}")
+        val foundEntry = parent.node.dataChunkEntries[idx]
+        if (parent.node.level == 0) {
+            return if (parent.orders[idx] == wantOrder) foundEntry else null
         }
-        if (parent.level == 0) {
-            return if (tiling.compare(key, foundEntry.key.offsets) == 0L) foundEntry else null
+        val node = readNode(foundEntry.childAddress, parent.node)
+        return findEntryContainingKey(node, wantOrder)
+    }
+
+    // add the leaf entries with key orders in [firstOrder, lastOrder], in key order
+    private fun addLeafEntries(parent : SortedNode, firstOrder : Long, lastOrder : Long, result : MutableList<BTree1.DataChunkEntry>) {
+        var idx = maxOf(0, parent.find(firstOrder))
+        while (idx < parent.node.nentries && parent.orders[idx] <= lastOrder) {
+            val entry = parent.node.dataChunkEntries[idx]
+            if (parent.node.level == 0) {
+                if (parent.orders[idx] >= firstOrder) result.add(entry)
+            } else {
+                addLeafEntries(readNode(entry.childAddress, parent.node), firstOrder, lastOrder, result)
+            }
+            idx++
         }
-        val node= readNode(foundEntry.childAddress, parent)
-        return findEntryContainingKey(node, key)
     }
 
-    fun dataChunks(wantSpace : IndexSpace) = Iterable { DataChunkIterator(wantSpace) }
+    override fun dataChunks(wantSpace : IndexSpace) : Iterable<DataChunk> = Iterable { DataChunkIterator(wantSpace) }
 
     private inner class DataChunkIterator(wantSpace : IndexSpace) : AbstractIterator<BTree1.DataChunkEntry>() {
         val tileIterator : Iterator<LongArray>
+        // if the wanted tiles are consecutive in key order, walk the leaves once instead of searching for each tile
+        val leafEntries : Iterator<BTree1.DataChunkEntry>?
+        var leafEntry : BTree1.DataChunkEntry? = null
 
         init {
             val tileSection = tiling.section(wantSpace) // section in tiles that we want
-            tileIterator = IndexND(tileSection, tiling.tileShape).iterator() // iterate over tiles we want
+            tileIterator = tiling.tiles(wantSpace).iterator() // iterate over tiles we want
+            leafEntries = if (!wantSpace.isStrided && isContiguous(tileSection)) {
+                val result = mutableListOf<BTree1.DataChunkEntry>()
+                val firstOrder = tiling.order(tiling.index(tileSection.start))
+                addLeafEntries(root, firstOrder, firstOrder + tileSection.totalElements - 1, result)
+                result.iterator()
+            } else null
         }
 
         override fun computeNext() {
@@ -89,13 +126,37 @@ internal class H5TiledData(val btree1 : BTree1) {
             } else {
                 val wantTile = tileIterator.next()
                 val wantKey = tiling.index(wantTile) // convert to index "keys"
-                val haveEntry = findEntryContainingKey(rootNode, wantKey)
+                val haveEntry = if (leafEntries != null) nextLeafEntry(wantKey) else
+                    findEntryContainingKey(root, tiling.order(wantKey))
                 val useEntry = haveEntry ?:
                     // missing
                     BTree1.DataChunkEntry(0, rootNode, -1, BTree1.DataChunkKey(-1, 0, wantKey), -1L)
                 setNext(useEntry)
             }
         }
+
+        // both the wanted tiles and the leaf entries are in key order, so just merge them
+        private fun nextLeafEntry(wantKey : LongArray) : BTree1.DataChunkEntry? {
+            if (leafEntry == null && leafEntries!!.hasNext()) {
+                leafEntry = leafEntries.next()
+            }
+            val entry = leafEntry ?: return null
+            if (tiling.compare(entry.key.offsets, wantKey) != 0L) {
+                return null
+            }
+            leafEntry = null
+            return entry
+        }
+    }
+
+    // true if the tiles are consecutive in row-major order, which is the key order
+    private fun isContiguous(tileSection : IndexSpace) : Boolean {
+        val firstDim = tileSection.shape.indexOfFirst { it != 1L }
+        if (firstDim < 0) return true
+        for (idx in firstDim + 1 until tileSection.rank) {
+            if (tileSection.shape[idx] != tiling.tileShape[idx]) return false
+        }
+        return true
     }
 
     override fun toString(): String {
@@ -7,13 +7,16 @@ import com.sunya.cdm.util.unsignedByteToShort
 import com.sunya.cdm.util.unsignedIntToLong
 import com.sunya.cdm.util.unsignedShortToInt
 import com.sunya.netchdf.hdf4.ODLparser
+import com.sunya.netchdf.MetadataIndex
 import com.sunya.netchdf.NetchdfFileFormat
+import com.sunya.netchdf.netcdf4.Netcdf4.NETCDF4_SPECIAL_ATTS
 import mu.KotlinLogging
 import java.io.IOException
 import java.nio.*
 import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 val debugFlow = false
 private val debugStart = false
@@ -24,6 +27,13 @@ internal val debugTypedefs = false
  * Build the rootGroup for an HDF5 file.
  * @param strict  true = make it agree with nclib if possible
  * @param valueCharset used when reading HDF5 header. LOOK need example to test
+ * @param verifyChecksums check the fletcher32 checksum of data chunks that have one.
+ * @param lazyOpen only read the superblock and the root group's links now; the contents of each group are read when
+ *   its CDM Group is first used. Typedefs go in the group where they are first found, and references to datasets
+ *   in groups not yet read use the data object name. HDF-EOS5 files are always read completely.
+ * @param metadataIndex the file's metadata, read from its metadata index; then only the superblock is read from the file,
+ *   and each variable's data object is read when the variable is first read.
+ * @param globalHeapCacheBytes keep at most this many bytes of parsed global heap collections, used by vlen data.
  *
  * @see "https://support.hdfgroup.org/HDF5/doc/Specs.html"
  */
@@ -31,6 +41,11 @@ class H5builder(
     val raf: OpenFile,
     val strict: Boolean,
     val valueCharset: Charset = StandardCharsets.UTF_8,
+    val verifyChecksums: Boolean = true,
+    val chunkCache: ChunkCache = ChunkCache(0),
+    val lazyOpen: Boolean = false,
+    val metadataIndex: MetadataIndex.Contents? = null,
+    globalHeapCacheBytes: Long = defaultGlobalHeapCacheBytes,
 ) {
     private val superblockStart: Long // may be offset for arbitrary metadata
     var sizeOffsets: Int = 0
@@ -44,15 +59,19 @@ class H5builder(
     private val typeinfoMap = mutableMapOf<Typedef, MutableList<Group.Builder>>()
     private val typedefMap = mutableMapOf<Long, Typedef>() // key = mdt address
     private val typedefMdtHash = mutableMapOf<Int, Typedef>() // key = mdt hash
+    private val placedTypedefs = mutableSetOf<Typedef>() // lazyOpen: typedefs already added to a group
 
     internal val hashGroups = mutableMapOf<Long, H5GroupBuilder>() // key =  btreeAddress
     internal val symlinkMap = mutableMapOf<String, DataObjectFacade>()
     private val dataObjectMap = mutableMapOf<Long, DataObject>() // key = DataObject address
+    internal val globalHeaps = GlobalHeapCache(this, globalHeapCacheBytes)
     val structMetadata = mutableListOf<String>()
     val datasetMap = mutableMapOf<Long, Pair<Group.Builder, Variable.Builder<*>>>()
+    private val indexedContainers = ConcurrentHashMap<Long, DataContainerVariable>() // key = data object address
 
     val cdmRoot : Group
     fun formatType() : String {
+        if (metadataIndex != null) return metadataIndex.type
         return if (isNetcdf4) "netcdf4  " else {
             if (structMetadata.isEmpty()) "hdf5     " else "hdf-eos5 "
         }
@@ -91,8 +110,23 @@ class H5builder(
             }
         }
 
-        // now look for symbolic links TODO this doesnt work??
-        replaceSymbolicLinks(rootGroupBuilder)
+        if (metadataIndex != null) {
+            // the rest of the metadata is in the index
+            isNetcdf4 = metadataIndex.type.startsWith("netcdf4")
+            this.cdmRoot = metadataIndex.rootGroup
+        } else {
+            // now look for symbolic links TODO this doesnt work??
+            replaceSymbolicLinks(rootGroupBuilder)
+            this.cdmRoot = buildRoot(rootGroupBuilder)
+        }
+    }
+
+    private fun buildRoot(rootGroupBuilder : H5GroupBuilder) : Group {
+        // hdf-eos5 needs all of the groups to apply the StructMetadata
+        if (lazyOpen && rootGroupBuilder.nestedObjects.none { it.name == HDFEOS_INFORMATION }) {
+            isNetcdf4 = rootGroupBuilder.dataObject.attributes.any { NETCDF4_SPECIAL_ATTS.contains(it.name) }
+            return lazyGroup(rootGroupBuilder, null, null).build(null)
+        }
 
         // build tree of H5groups
         val h5rootGroup = rootGroupBuilder.build()
@@ -108,9 +142,51 @@ class H5builder(
             ODLparser(rootBuilder, false).applyStructMetadata(sm)
         }
 
-        this.cdmRoot =  rootBuilder.build(null)
+        return rootBuilder.build(null)
+    }
+
+    // lazyOpen: a group whose contents are read when the CDM Group is first used.
+    // Either the group's links have been read (groupb5), or theyre read then (facade).
+    private fun lazyGroup(groupb5 : H5GroupBuilder?, facade : DataObjectFacade?, parent5 : H5Group?) : Group.Builder {
+        val name = groupb5?.name ?: facade!!.name
+        return Group.Builder(name).setContentsLoader { groupb -> loadGroup(groupb, groupb5, facade, parent5) }
+    }
+
+    // Synchronized since the groups may be loaded from multiple threads, and they share the builder's maps.
+    @Synchronized
+    private fun loadGroup(groupb : Group.Builder, groupb5 : H5GroupBuilder?, facade : DataObjectFacade?, parent5 : H5Group?) {
+        val h5groupb = groupb5 ?: readH5Group(facade!!)?.also { replaceSymbolicLinks(it) }
+            ?: return // a hard link loop, leave it empty
+        val group5 = h5groupb.build(readNestedGroups = false)
+        group5.parent = parent5
+
+        buildGroupContents(groupb, group5)
+        // the typedefs first found in this group; the groups that also use them may not be read yet
+        typeinfoMap.keys.filter { placedTypedefs.add(it) }.forEach { groupb.addTypedef(it) }
+        convertGroupReferences(groupb)
+
+        h5groupb.nestedGroupFacades.forEach { groupb.addGroup(lazyGroup(null, it, group5)) }
     }
 
+    /** The DataContainer of a variable. For a variable from a metadata index, its made from the data object when first needed. */
+    internal fun dataContainer(v2 : Variable<*>) : DataContainer {
+        return when (val spObject = v2.spObject) {
+            is DataContainer -> spObject
+            is H5indexedVariable -> indexedContainers.computeIfAbsent(spObject.objectAddress) {
+                val dataObject = getDataObject(spObject.objectAddress, spObject.objectName)
+                    ?: throw IOException("cant read data object of ${v2.name} at ${spObject.objectAddress}")
+                val v5 = H5Variable(this, dataObject)
+                DataContainerVariable(v2.orgName, makeH5TypeInfo(v5.mdt, v2.datatype.typedef), v5, this)
+            }
+            else -> throw IllegalStateException("Variable ${v2.name} is not from this file")
+        }
+    }
+
+    internal fun dataContainerVariable(v2 : Variable<*>) = dataContainer(v2) as DataContainerVariable
+
+    /** Where to cache the decoded chunks of a variable. Unfiltered chunks are just read again, so they are not cached. */
+    internal fun chunkCacheFor(filters : H5filters) = if (filters.mfp == null) noChunkCache else chunkCache
+
     private fun readSuperBlock01(superblockStart : Long, state : OpenFileState, version : Int) : H5GroupBuilder {
         // have to read ahead a bit
         state.pos = superblockStart + 13
@@ -253,8 +329,10 @@ class H5builder(
      * @param name optional name, sometimes isnt known until later, so leave null. Applicable eg for an Attribute
      *   referencing a typedef before the typedef is found through a hardlink, which supplies the name. Because
      *   the DataObject doesnt know its name. Because its name is free to be something else. Cause thats how we roll.
+     * Synchronized since references may be resolved while reading data, from multiple threads.
      */
     @Throws(IOException::class)
+    @Synchronized
     internal fun getDataObject(address: Long, name: String?): DataObject? {
         // find it
         var dobj = dataObjectMap[address]
@@ -348,7 +426,7 @@ class H5builder(
     @Throws(IOException::class)
     private fun readVariableSizeN(state : OpenFileState, nbytes : Int): Long {
         val ch = IntArray(nbytes)
-        for (i in 0 until nbytes) ch[i] = raf.readByte(state).toInt()
+        for (i in 0 until nbytes) ch[i] = raf.readByte(state).toInt() and 0xff
         var result = ch[nbytes - 1].toLong()
         for (i in nbytes - 2 downTo 0) {
             result = result shl 8
@@ -396,6 +474,7 @@ class H5builder(
 
     companion object {
         private val logger = KotlinLogging.logger("H5builder")
+        private val noChunkCache = ChunkCache(0)
 
         // special attribute names in HDF5
         val HDF5_CLASS = "CLASS"
@@ -407,6 +486,7 @@ class H5builder(
 
         val HDF5_SPECIAL_ATTS = listOf<String>()
         val HDF5_SKIP_ATTS = listOf(HDF5_DIMENSION_LABELS, HDF5_REFERENCE_LIST)
+        val HDFEOS_INFORMATION = "HDFEOS INFORMATION"
         val HDF5_IGNORE_ATTS = listOf(HDF5_CLASS, HDF5_DIMENSION_LIST, HDF5_DIMENSION_SCALE, HDF5_DIMENSION_LABELS, HDF5_REFERENCE_LIST, HDF5_DIMENSION_NAME)
 
         private val magicHeader = byteArrayOf(
@@ -517,6 +597,12 @@ class H5builder(
 
     ////////////////////////////////////////////////////////////////////////////////
     fun convertReferences(gb : Group.Builder) {
+        convertGroupReferences(gb)
+        gb.groups.forEach{ convertReferences(it) }
+    }
+
+    // not including nested groups
+    private fun convertGroupReferences(gb : Group.Builder) {
         val refAtts = gb.attributes.filter{ it.datatype == Datatype.REFERENCE}
         refAtts.forEach { att ->
             val convertAtt = convertAttribute(att)
@@ -540,8 +626,6 @@ class H5builder(
                 vb.attributes.remove(att)
             }
         }
-
-        gb.groups.forEach{ convertReferences(it) }
     }
 
     fun convertAttribute(att : Attribute<*>) : Attribute<*>? {
@@ -549,6 +633,10 @@ class H5builder(
         att.values.forEach {
             val dsetId = it as Long
             val pair = datasetMap[dsetId]
+            if (pair == null && lazyOpen) {
+                svalues.add(convertReferenceToDataObjectName(dsetId)) // its group hasnt been read
+                return@forEach
+            }
             if (pair == null)  {
                 println("H5 cant find dataset reference for $att")
                 return null
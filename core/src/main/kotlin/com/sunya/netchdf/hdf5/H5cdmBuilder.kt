@@ -15,6 +15,9 @@ import com.sunya.netchdf.hdf5.H5builder.Companion.HDF5_SPECIAL_ATTS
 import com.sunya.netchdf.netcdf4.Netcdf4.NETCDF4_NON_COORD
 import com.sunya.netchdf.netcdf4.Netcdf4.NETCDF4_NOT_VARIABLE
 import com.sunya.netchdf.netcdf4.Netcdf4.NETCDF4_SPECIAL_ATTS
+import com.sunya.netchdf.SpObjectCodec
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.io.IOException
 import java.nio.*
 
@@ -29,7 +32,13 @@ internal fun H5builder.buildCdm(h5root : H5Group) : Group.Builder {
 
 internal fun H5builder.buildGroup(group5 : H5Group) : Group.Builder {
     val groupb = Group.Builder(group5.name)
+    buildGroupContents(groupb, group5)
+    group5.nestedGroups.forEach { groupb.addGroup( buildGroup( it )) }
+    return groupb
+}
 
+// everything but the nested groups
+internal fun H5builder.buildGroupContents(groupb : Group.Builder, group5 : H5Group) {
     makeDimensions(groupb, group5)
 
     // types are added to groups at the end, right now just build them
@@ -56,8 +65,6 @@ internal fun H5builder.buildGroup(group5 : H5Group) : Group.Builder {
         if (address > 0) datasetMap[address] = Pair(groupb, vb)
     }
 
-    group5.nestedGroups.forEach { groupb.addGroup( buildGroup( it )) }
-
     val iter = groupb.attributes.iterator()
     while (iter.hasNext()) {
         val attname = iter.next().name
@@ -69,7 +76,6 @@ internal fun H5builder.buildGroup(group5 : H5Group) : Group.Builder {
             if (!includeOriginalAttributes) iter.remove()
         }
     }
-    return groupb
 }
 
 internal fun H5builder.buildAttribute(att5 : AttributeMessage) : Attribute<*> {
@@ -165,6 +171,8 @@ internal class DataContainerVariable(
 
     val mdl = v5.mdl
     val mfp = v5.mfp
+    val objectAddress = v5.dataObject.address // the data object, for a metadata index
+    val objectName = v5.name
 
     val isChunked : Boolean
     val isCompact : Boolean
@@ -178,6 +186,7 @@ internal class DataContainerVariable(
             is DataLayoutContiguous -> h5.getFileOffset(mdl.dataAddress)
             is DataLayoutContiguous3 -> h5.getFileOffset(mdl.dataAddress)
             is DataLayoutChunked -> mdl.btreeAddress // offset will be added in BTreeData
+            is DataLayoutChunked4 -> mdl.indexAddress // offset will be added in the chunk index
             is DataLayoutCompact -> -2L // data is in mdl.compactData
             is DataLayoutCompact3 -> -2L // data is in mdl.compactData
             else -> -1 // LOOK compact?
@@ -212,11 +221,39 @@ internal class DataContainerVariable(
                 this.storageDims = mdl.chunkDims.toLongArray()
                 this.elementSize = storageDims[storageDims.size - 1].toInt() // last number is element size
             }
+            is DataLayoutChunked4 -> {
+                this.storageDims = mdl.chunkDims.toLongArray()
+                this.elementSize = storageDims[storageDims.size - 1].toInt() // last number is element size
+            }
             else -> throw RuntimeException()
         }
     }
 }
 
+/** The spObject of a variable from a metadata index, until its DataContainerVariable is made from the data object. */
+internal data class H5indexedVariable(val objectAddress : Long, val objectName : String)
+
+// the data object of each variable in a metadata index. Promoted attributes arent indexed.
+internal object H5indexCodec : SpObjectCodec {
+    override fun notIndexable(spObject: Any?): String? {
+        return if (spObject is DataContainerVariable || spObject is H5indexedVariable) null
+            else "spObject isnt a data object: ${spObject?.javaClass?.simpleName}"
+    }
+
+    override fun write(out: DataOutputStream, spObject: Any?) {
+        val indexed = when (spObject) {
+            is DataContainerVariable -> H5indexedVariable(spObject.objectAddress, spObject.objectName)
+            else -> spObject as H5indexedVariable
+        }
+        out.writeLong(indexed.objectAddress)
+        out.writeUTF(indexed.objectName)
+    }
+
+    override fun read(input: DataInputStream): Any {
+        return H5indexedVariable(input.readLong(), input.readUTF())
+    }
+}
+
 internal fun getFillValueNonDefault(h5 : H5builder, v5 : H5Variable, h5type: H5TypeInfo): Any {
     // look for fill value message
     var fillValueBB : ByteBuffer? = null
@@ -0,0 +1,136 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.Section
+import com.sunya.cdm.api.computeSize
+import com.sunya.cdm.layout.Chunker
+import com.sunya.cdm.layout.IndexSpace
+import com.sunya.cdm.layout.Tiling
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.produce
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Decodes the raw (still filtered) chunks of a chunked HDF5 variable, and puts the wanted part of each into one buffer.
+ * For readers that get the raw chunks some other way than from this library's chunk index, like the HDF5 C library's
+ * H5Dread_chunk. The chunks are read one at a time on the calling thread, and decoded on nthreads threads.
+ *
+ * @param varShape the shape of the variable, in elements
+ * @param chunkShape the shape of a chunk, in elements
+ * @param elemSize the number of bytes in one element
+ * @param filters the variable's filter pipeline, in the order they were applied when writing
+ * @param byteOrder the byte order of the data in the file
+ */
+class H5chunkDecoder(val varname : String, val varShape : LongArray, val chunkShape : LongArray, val elemSize : Int,
+                     filters : List<Filter>, val byteOrder : ByteOrder, verifyChecksums : Boolean = true) {
+    private val tiling = Tiling(varShape, chunkShape)
+    private val h5filters = H5filters(varname, if (filters.isEmpty()) null else FilterPipelineMessage(filters),
+        byteOrder, chunkShape.computeSize().toInt() * elemSize, verifyChecksums)
+
+    init {
+        require(varShape.size == chunkShape.size) { "chunk rank ${chunkShape.size} != variable rank ${varShape.size}" }
+    }
+
+    /**
+     * A raw chunk.
+     * @param filterMask bit n set = filter n was skipped when writing this chunk
+     * @param data the filtered bytes, from 0 to limit
+     * @param address where the chunk is in the file, for error messages
+     */
+    class RawChunk(val filterMask : Int, val data : ByteBuffer, val address : Long = -1L)
+
+    /**
+     * Read and decode the chunks that intersect wantSection.
+     * @param fillValue the bytes of one element, used for chunks that arent in the file
+     * @param readChunk returns the raw chunk whose first element is at offsets, or null if its not in the file
+     * @return the wanted data, in byteOrder
+     */
+    fun readChunkedData(wantSection : Section, fillValue : ByteArray, nthreads : Int,
+                        readChunk : (offsets : LongArray) -> RawChunk?) : ByteBuffer {
+        require(nthreads > 0)
+        require(fillValue.size == elemSize) { "fillValue has ${fillValue.size} bytes, elemSize = $elemSize" }
+        val wantSpace = IndexSpace(wantSection)
+        val sizeBytes = wantSpace.totalElements * elemSize
+        require(sizeBytes < Int.MAX_VALUE) { "Illegal nbytes to read = $sizeBytes" }
+        val bb = ByteBuffer.allocate(sizeBytes.toInt())
+
+        if (nthreads == 1) {
+            for (tile in tiling.tiles(wantSpace)) {
+                val offsets = tiling.index(tile)
+                val chunker = Chunker(IndexSpace(offsets, chunkShape), wantSpace)
+                val raw = readChunk(offsets)
+                if (raw == null) {
+                    chunker.transferFill(fillValue, bb)
+                } else {
+                    chunker.transfer(decode(raw, offsets), elemSize, bb)
+                }
+            }
+        } else {
+            readConcurrent(wantSpace, fillValue, nthreads, readChunk, bb)
+        }
+
+        bb.order(byteOrder)
+        return bb
+    }
+
+    private class PendingChunk(val offsets : LongArray, val chunker : Chunker, val raw : RawChunk)
+
+    // Like H5chunkReader.readConcurrent, except the producer runs on the calling thread, since the source of the
+    // raw chunks may not be thread safe. Each chunk goes to its own region of bb, so the workers dont need to coordinate.
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private fun readConcurrent(wantSpace : IndexSpace, fillValue : ByteArray, nthreads : Int,
+                               readChunk : (offsets : LongArray) -> RawChunk?, bb : ByteBuffer) {
+        runBlocking {
+            val pending : ReceiveChannel<PendingChunk> = produce(capacity = nthreads) {
+                for (tile in tiling.tiles(wantSpace)) {
+                    val offsets = tiling.index(tile)
+                    val chunker = Chunker(IndexSpace(offsets, chunkShape), wantSpace)
+                    val raw = readChunk(offsets)
+                    if (raw == null) {
+                        chunker.transferFill(fillValue, bb)
+                    } else {
+                        send(PendingChunk(offsets, chunker, raw))
+                    }
+                }
+            }
+
+            val jobs = List(nthreads) {
+                launch(Dispatchers.Default) {
+                    for (chunk in pending) {
+                        chunk.chunker.transfer(decode(chunk.raw, chunk.offsets), elemSize, bb)
+                    }
+                }
+            }
+            joinAll(*jobs.toTypedArray())
+        }
+    }
+
+    private fun decode(raw : RawChunk, offsets : LongArray) : ByteBuffer {
+        val dataChunk = object : DataChunk {
+            override val offsets = offsets
+            override val chunkSize = raw.data.limit()
+            override val filterMask = raw.filterMask
+            override val childAddress = raw.address
+        }
+        return h5filters.apply(raw.data, dataChunk)
+    }
+
+    private fun Chunker.transferFill(fillValue : ByteArray, dst : ByteBuffer) {
+        for (chunk in this) {
+            var pos = elemSize * chunk.destElem.toInt()
+            repeat(chunk.nelems) {
+                dst.put(pos, fillValue)
+                pos += elemSize
+            }
+        }
+    }
+
+    companion object {
+        /** If all of these filters can be decoded by this library. */
+        fun canDecode(filters : List<Filter>) : Boolean = filters.all { filter ->
+            filter.filterType in listOf(FilterType.deflate, FilterType.shuffle, FilterType.fletcher32) ||
+                H5filterRegistry.decoder(filter.filterId) != null
+        }
+    }
+}
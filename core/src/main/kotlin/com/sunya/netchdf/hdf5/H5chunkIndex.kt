@@ -0,0 +1,197 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.Variable
+import com.sunya.cdm.api.computeSize
+import com.sunya.cdm.layout.IndexSpace
+import com.sunya.cdm.layout.Tiling
+import java.nio.ByteBuffer
+
+/** One chunk of a chunked variable, as found in its chunk index. */
+internal interface DataChunk {
+    val offsets : LongArray // index of the first element of the chunk
+    val chunkSize : Int // number of bytes stored in the file
+    val filterMask : Int // bit n set = skip filter n
+    val childAddress : Long // file offset of the chunk, or -1 if missing
+
+    fun isMissing() = (childAddress == -1L)
+    fun show(tiling : Tiling) : String = "chunkSize=$chunkSize, chunkStart=${offsets.contentToString()}" +
+            ", tile= ${tiling.tile(offsets).contentToString()}"
+}
+
+internal class H5DataChunk(
+    override val offsets : LongArray,
+    override val chunkSize : Int,
+    override val filterMask : Int,
+    override val childAddress : Long,
+) : DataChunk
+
+/**
+ * Finds the chunks of a chunked variable. Version 1-3 data layout messages always use a version 1 B-tree (H5TiledData);
+ * version 4 may use any of the ChunkIndexType. Safe to share between threads.
+ */
+internal interface H5chunkIndex {
+    val tiling : Tiling
+    val readHit : Long // number of index nodes or blocks found in memory
+    val readMiss : Long // number of index nodes or blocks read from the file
+
+    /** The chunks that intersect wantSpace, in tile order. Missing chunks are included, with childAddress = -1. */
+    fun dataChunks(wantSpace : IndexSpace) : Iterable<DataChunk>
+}
+
+internal fun H5builder.makeChunkIndex(v2 : Variable<*>, vinfo : DataContainerVariable) : H5chunkIndex {
+    val mdl = vinfo.mdl
+    if (mdl !is DataLayoutChunked4) {
+        return H5TiledData(BTree1(this, vinfo.dataPos, 1, v2.shape, vinfo.storageDims))
+    }
+    val maxDims = vinfo.mds.maxDims
+    return when (mdl.chunkIndexType) {
+        ChunkIndexType.SingleChunk -> SingleChunkIndex(this, v2.shape, vinfo.storageDims, mdl)
+        ChunkIndexType.Implicit -> ImplicitChunkIndex(this, v2.shape, vinfo.storageDims, maxDims, mdl.indexAddress)
+        ChunkIndexType.FixedArray -> FixedArrayIndex(this, v2.shape, vinfo.storageDims, maxDims, mdl)
+        ChunkIndexType.ExtensibleArray -> ExtensibleArrayIndex(this, v2.shape, vinfo.storageDims, maxDims, mdl)
+        ChunkIndexType.BTreeV2 -> BTree2ChunkIndex(this, v2.shape, vinfo.storageDims, mdl)
+    }
+}
+
+/**
+ * A chunk index that goes directly from a tile to its chunk, without searching.
+ * @param dontFilterPartialChunks edge chunks that extend past the variable are not filtered
+ */
+internal abstract class H5chunkLookup(
+    val h5 : H5builder,
+    val varShape : LongArray,
+    val storageDims : LongArray,
+    val dontFilterPartialChunks : Boolean,
+) : H5chunkIndex {
+    override val tiling = Tiling(varShape, storageDims)
+    override var readHit = 0L
+        protected set
+    override var readMiss = 0L
+        protected set
+
+    // the size of an unfiltered chunk, including the element size
+    protected val chunkSizeBytes = storageDims.computeSize().toInt()
+
+    /** the chunk containing this tile, or null if its missing. */
+    abstract fun findChunk(tile : LongArray) : DataChunk?
+
+    override fun dataChunks(wantSpace : IndexSpace) = Iterable {
+        tiling.tiles(wantSpace).asSequence().map { tile ->
+            findChunk(tile) ?: H5DataChunk(tiling.index(tile), -1, 0, -1L)
+        }.iterator()
+    }
+
+    protected fun makeChunk(tile : LongArray, address : Long, chunkSize : Int, filterMask : Int) : DataChunk {
+        val offsets = tiling.index(tile)
+        val useMask = if (dontFilterPartialChunks && isPartial(offsets)) -1 else filterMask
+        return H5DataChunk(offsets, chunkSize, useMask, h5.getFileOffset(address))
+    }
+
+    /**
+     * Read a chunk index element, as used in the fixed and extensible arrays: the chunk address, then if filtered,
+     * the chunk size, which takes up the rest of the element, and the filter mask.
+     */
+    protected fun readElement(bb : ByteBuffer, pos : Int, elemSize : Int, filtered : Boolean, tile : LongArray) : DataChunk? {
+        val address = readAddress(bb, pos)
+        if (address == -1L) return null // undefined address = not written
+        if (!filtered) {
+            return makeChunk(tile, address, chunkSizeBytes, 0)
+        }
+        val sizeLength = elemSize - h5.sizeOffsets - 4
+        var chunkSize = 0L
+        for (idx in sizeLength - 1 downTo 0) {
+            chunkSize = (chunkSize shl 8) or (bb.get(pos + h5.sizeOffsets + idx).toLong() and 0xff)
+        }
+        val filterMask = bb.getInt(pos + h5.sizeOffsets + sizeLength)
+        return makeChunk(tile, address, chunkSize.toInt(), filterMask)
+    }
+
+    protected fun readAddress(bb : ByteBuffer, pos : Int) : Long {
+        return if (h5.isOffsetLong) bb.getLong(pos) else bb.getInt(pos).toLong()
+    }
+
+    private fun isPartial(offsets : LongArray) : Boolean {
+        for (idx in varShape.indices) {
+            if (offsets[idx] + storageDims[idx] > varShape[idx]) return true
+        }
+        return false
+    }
+
+    companion object {
+        /**
+         * Strides for the linear index of a tile, as used by the fixed and extensible arrays and implicit indexes:
+         * row-major over the maximum number of chunks in each dimension, with the unlimited dimension, if any,
+         * moved to be the slowest varying.
+         */
+        fun maxChunkStrides(maxDims : LongArray, storageDims : LongArray, unlimitedDim : Int = -1) : LongArray {
+            val rank = maxDims.size
+            val order = if (unlimitedDim <= 0) (0 until rank).toList() else listOf(unlimitedDim) + (0 until rank).filter { it != unlimitedDim }
+            val strides = LongArray(rank)
+            var accumStride = 1L
+            for (k in rank - 1 downTo 0) {
+                val dim = order[k]
+                strides[dim] = accumStride
+                val maxChunks = maxOf(1L, (maxDims[dim] + storageDims[dim] - 1) / storageDims[dim])
+                accumStride *= maxChunks
+            }
+            return strides
+        }
+
+        fun linearIndex(tile : LongArray, strides : LongArray) : Long {
+            var result = 0L
+            for (idx in strides.indices) result += tile[idx] * strides[idx]
+            return result
+        }
+
+        // bitmaps like the page initialized flags start with the high bit of the first byte
+        fun isBitSet(bitmap : ByteArray, bitno : Long) : Boolean {
+            return (bitmap[(bitno / 8).toInt()].toInt() and (0x80 ushr (bitno % 8).toInt())) != 0
+        }
+    }
+}
+
+/** The entire variable is in one chunk. */
+internal class SingleChunkIndex(h5 : H5builder, varShape : LongArray, storageDims : LongArray, val mdl : DataLayoutChunked4)
+    : H5chunkLookup(h5, varShape, storageDims, mdl.dontFilterPartialChunks) {
+
+    override fun findChunk(tile : LongArray) : DataChunk {
+        val chunkSize = if (mdl.filteredSize > 0) mdl.filteredSize.toInt() else chunkSizeBytes
+        return makeChunk(tile, mdl.indexAddress, chunkSize, mdl.filterMask)
+    }
+}
+
+/** The chunks are unfiltered and allocated together, in linear index order, starting at address. */
+internal class ImplicitChunkIndex(h5 : H5builder, varShape : LongArray, storageDims : LongArray, maxDims : LongArray, val address : Long)
+    : H5chunkLookup(h5, varShape, storageDims, false) {
+    private val strides = maxChunkStrides(maxDims, storageDims)
+
+    override fun findChunk(tile : LongArray) : DataChunk {
+        return makeChunk(tile, address + linearIndex(tile, strides) * chunkSizeBytes, chunkSizeBytes, 0)
+    }
+}
+
+/** Version 2 B-tree, used when more than one dimension is unlimited. All the records are read at once. */
+internal class BTree2ChunkIndex(h5 : H5builder, varShape : LongArray, storageDims : LongArray, mdl : DataLayoutChunked4)
+    : H5chunkLookup(h5, varShape, storageDims, mdl.dontFilterPartialChunks) {
+    private val chunks = mutableMapOf<Long, DataChunk>() // key = tile order
+
+    init {
+        val btree = BTree2(h5, "BTree2ChunkIndex", mdl.indexAddress, varShape.size)
+        readMiss++
+        for (entry in btree.entryList) {
+            val chunk = when (val record = entry.record) {
+                is BTree2.Record10 -> if (inRange(record.dims)) makeChunk(record.dims, record.address, chunkSizeBytes, 0) else null
+                is BTree2.Record11 -> if (inRange(record.dims)) makeChunk(record.dims, record.address, record.chunkSize.toInt(), record.filterMask) else null
+                else -> throw IllegalStateException("BTree2ChunkIndex has record type ${btree.btreeType}")
+            }
+            if (chunk != null) chunks[tiling.order(chunk.offsets)] = chunk
+        }
+    }
+
+    // chunks past the current shape of the variable are ignored
+    private fun inRange(tile : LongArray) = tile.indices.all { tile[it] < tiling.tileShape[it] }
+
+    override fun findChunk(tile : LongArray) : DataChunk? {
+        return chunks[tiling.order(tiling.index(tile))]
+    }
+}
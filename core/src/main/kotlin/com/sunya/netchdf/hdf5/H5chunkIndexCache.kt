@@ -0,0 +1,75 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.Variable
+
+/**
+ * Keeps the chunk index (H5chunkIndex) of recently read chunked variables, so repeated reads of the same variable
+ * dont have to reread and revalidate its B-tree nodes or index blocks. Owned by Hdf5File; safe to share between threads.
+ *
+ * @param maxVariables evict the least recently used variable's index when more than this are cached; 0 = no caching.
+ */
+internal class H5chunkIndexCache(val h5 : H5builder, val maxVariables : Int) {
+    // keyed by the chunk index address, which is unique for each chunked variable in the file
+    private val cache = object : LinkedHashMap<Long, H5chunkIndex>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, H5chunkIndex>): Boolean {
+            if (size > maxVariables) {
+                evicted = evicted.accum(eldest.value)
+                return true
+            }
+            return false
+        }
+    }
+    private var hits = 0L
+    private var misses = 0L
+    private var evicted = ChunkIndexStats() // node counts from evicted indexes, so totals arent lost
+
+    init {
+        require(maxVariables >= 0)
+    }
+
+    @Synchronized
+    fun chunkIndex(v2 : Variable<*>) : H5chunkIndex {
+        val vinfo = h5.dataContainerVariable(v2)
+        val cached = cache[vinfo.dataPos]
+        if (cached != null) {
+            hits++
+            return cached
+        }
+        misses++
+        val chunkIndex = h5.makeChunkIndex(v2, vinfo)
+        if (maxVariables > 0) {
+            cache[vinfo.dataPos] = chunkIndex
+        }
+        return chunkIndex
+    }
+
+    @Synchronized
+    fun stats() : ChunkIndexStats {
+        var result = ChunkIndexStats(hits, misses, cache.size)
+        result = result.accum(evicted)
+        cache.values.forEach { result = result.accum(it) }
+        return result
+    }
+
+    private fun ChunkIndexStats.accum(chunkIndex : H5chunkIndex) =
+        this.copy(nodeHits = nodeHits + chunkIndex.readHit, nodeMisses = nodeMisses + chunkIndex.readMiss)
+
+    private fun ChunkIndexStats.accum(other : ChunkIndexStats) =
+        this.copy(nodeHits = nodeHits + other.nodeHits, nodeMisses = nodeMisses + other.nodeMisses)
+}
+
+/**
+ * Counters for the chunk index cache of an Hdf5File.
+ * @param hits number of reads that found the variable's chunk index in the cache
+ * @param misses number of reads that had to start a new chunk index
+ * @param size number of variables currently cached
+ * @param nodeHits number of B-tree node or index block lookups found in memory
+ * @param nodeMisses number of B-tree nodes or index blocks read from disk
+ */
+data class ChunkIndexStats(
+    val hits : Long = 0,
+    val misses : Long = 0,
+    val size : Int = 0,
+    val nodeHits : Long = 0,
+    val nodeMisses : Long = 0,
+)
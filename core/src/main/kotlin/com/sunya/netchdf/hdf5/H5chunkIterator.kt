@@ -8,35 +8,32 @@ import com.sunya.cdm.layout.IndexSpace
 import com.sunya.cdm.layout.transferMissingNelems
 import java.nio.ByteBuffer
 
-internal class H5chunkIterator<T>(val h5 : H5builder, val v2: Variable<T>, val wantSection : Section) : AbstractIterator<ArraySection<T>>() {
+internal class H5chunkIterator<T>(val h5 : H5builder, chunkIndexes : H5chunkIndexCache, val v2: Variable<T>, val wantSection : Section) : AbstractIterator<ArraySection<T>>() {
     private val debugChunking = false
 
     val vinfo : DataContainerVariable
     val h5type : H5TypeInfo
     val elemSize : Int
     val datatype : Datatype<*>
-    val tiledData : H5TiledData
+    val chunkIndex : H5chunkIndex
     val filters : H5filters
-    val state : OpenFileState
 
     private val wantSpace : IndexSpace
-    private val chunkIterator : Iterator<BTree1.DataChunkEntry>
+    private val chunkIterator : Iterator<DataChunk>
 
     init {
-        vinfo = v2.spObject as DataContainerVariable
+        vinfo = h5.dataContainerVariable(v2)
 
         h5type = vinfo.h5type
         elemSize = vinfo.storageDims[vinfo.storageDims.size - 1].toInt() // last one is always the elements size
         datatype = h5type.datatype()
 
-        val btreeNew = BTree1(h5, vinfo.dataPos, 1, v2.shape, vinfo.storageDims)
-        tiledData = H5TiledData(btreeNew)
-        filters = H5filters(v2.name, vinfo.mfp, h5type.endian)
-        if (debugChunking) println(" H5chunkIterator tiles=${tiledData.tiling}")
+        chunkIndex = chunkIndexes.chunkIndex(v2)
+        filters = H5filters(v2.name, vinfo.mfp, h5type.endian, vinfo.storageDims.computeSize().toInt(), h5.verifyChecksums)
+        if (debugChunking) println(" H5chunkIterator tiles=${chunkIndex.tiling}")
 
-        state = OpenFileState(0L, h5type.endian)
         wantSpace = IndexSpace(wantSection)
-        chunkIterator = tiledData.dataChunks(wantSpace).iterator()
+        chunkIterator = chunkIndex.dataChunks(wantSpace).iterator()
     }
 
     override fun computeNext() {
@@ -47,8 +44,15 @@ internal class H5chunkIterator<T>(val h5 : H5builder, val v2: Variable<T>, val w
         }
     }
 
-    private fun getaPair(dataChunk : BTree1.DataChunkEntry) : ArraySection<T> {
-        val dataSpace = IndexSpace(v2.rank, dataChunk.key.offsets, vinfo.storageDims)
+    /** The remaining chunks, to be read later. Each read uses its own OpenFileState, so they can be run in parallel. */
+    fun reads() : Iterator<ChunkRead<T>> = chunkIterator.asSequence().map { dataChunk ->
+        val dataSpace = IndexSpace(v2.rank, dataChunk.offsets, vinfo.storageDims)
+        val intersectSpace = wantSpace.intersect(dataSpace)
+        ChunkRead(intersectSpace.section(v2.shape), intersectSpace.totalElements * elemSize) { getaPair(dataChunk) }
+    }.iterator()
+
+    private fun getaPair(dataChunk : DataChunk) : ArraySection<T> {
+        val dataSpace = IndexSpace(v2.rank, dataChunk.offsets, vinfo.storageDims)
 
         // TODO we need to intersect the dataChunk with the wanted section.
         // optionally, we could make a view of the array, rather than copying the data.
@@ -56,7 +60,7 @@ internal class H5chunkIterator<T>(val h5 : H5builder, val v2: Variable<T>, val w
         val intersectSpace = if (useEntireChunk) dataSpace else wantSpace.intersect(dataSpace)
 
         val bb = if (dataChunk.isMissing()) {
-            if (debugChunking) println("   missing ${dataChunk.show(tiledData.tiling)}")
+            if (debugChunking) println("   missing ${dataChunk.show(chunkIndex.tiling)}")
             val sizeBytes = intersectSpace.totalElements * elemSize
             val bbmissing = ByteBuffer.allocate(sizeBytes.toInt())
             bbmissing.order(vinfo.h5type.endian)
@@ -64,12 +68,14 @@ internal class H5chunkIterator<T>(val h5 : H5builder, val v2: Variable<T>, val w
             if (debugChunking) println("   missing transfer ${intersectSpace.totalElements} fillValue=${vinfo.fillValue}")
             bbmissing
         } else {
-            if (debugChunking) println("  chunkIterator=${dataChunk.show(tiledData.tiling)}")
-            state.pos = dataChunk.childAddress
-            val chunkData = h5.raf.readByteBufferDirect(state, dataChunk.key.chunkSize)
-            val filteredData = filters.apply(chunkData, dataChunk)
+            if (debugChunking) println("  chunkIterator=${dataChunk.show(chunkIndex.tiling)}")
+            val filteredData = h5.chunkCacheFor(filters).getOrPut(h5.raf.location, dataChunk.childAddress) {
+                val state = OpenFileState(dataChunk.childAddress, h5type.endian)
+                filters.apply(h5.raf.readByteBufferDirect(state, dataChunk.chunkSize), dataChunk)
+            }
             if (useEntireChunk) {
-                filteredData
+                // a cached chunk is shared, so the array gets its own copy
+                if (filteredData.isReadOnly) ByteBuffer.allocate(filteredData.remaining()).put(filteredData) else filteredData
             } else {
                 val chunker = Chunker(dataSpace, wantSpace) // each DataChunkEntry has its own Chunker iteration
                 chunker.transferBB(filteredData, elemSize, intersectSpace.totalElements.toInt())
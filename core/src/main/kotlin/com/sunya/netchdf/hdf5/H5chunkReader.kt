@@ -3,18 +3,26 @@ package com.sunya.netchdf.hdf5
 import com.sunya.cdm.api.Datatype
 import com.sunya.cdm.api.Section
 import com.sunya.cdm.api.Variable
+import com.sunya.cdm.api.computeSize
 import com.sunya.cdm.api.toIntArray
 import com.sunya.cdm.array.*
 import com.sunya.cdm.iosp.OpenFileState
 import com.sunya.cdm.layout.Chunker
 import com.sunya.cdm.layout.IndexSpace
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.produce
 import java.nio.ByteBuffer
 
-internal class H5chunkReader(val h5 : H5builder) {
+/**
+ * Reads chunked data into a single array.
+ * @param nthreads number of threads to decode (decompress, unshuffle, etc) chunks; 1 = all on the calling thread.
+ */
+internal class H5chunkReader(val h5 : H5builder, val chunkIndexes : H5chunkIndexCache, val nthreads : Int = 1) {
     private val debugChunking = false
 
     internal fun <T> readChunkedData(v2: Variable<T>, wantSection : Section) : ArrayTyped<T> {
-        val vinfo = v2.spObject as DataContainerVariable
+        val vinfo = h5.dataContainerVariable(v2)
         val h5type = vinfo.h5type
 
         val elemSize = vinfo.storageDims[vinfo.storageDims.size - 1].toInt() // last one is always the elements size
@@ -28,26 +36,29 @@ internal class H5chunkReader(val h5 : H5builder) {
         val bb = ByteBuffer.allocate(sizeBytes.toInt())
         bb.order(vinfo.h5type.endian)
 
-        val btreeNew =  BTree1(h5, vinfo.dataPos, 1, v2.shape, vinfo.storageDims)
-        val tiledData = H5TiledData(btreeNew)
-        val filters = H5filters(v2.name, vinfo.mfp, vinfo.h5type.endian)
-        if (debugChunking) println(" readChunkedData tiles=${tiledData.tiling}")
-
-        var transferChunks = 0
-        val state = OpenFileState(0L, vinfo.h5type.endian)
-        for ((count, dataChunk : BTree1.DataChunkEntry) in tiledData.dataChunks(wantSpace).withIndex()) { // : Iterable<BTree1New.DataChunkEntry>
-            val dataSection = IndexSpace(v2.rank, dataChunk.key.offsets, vinfo.storageDims)
-            val chunker = Chunker(dataSection, wantSpace) // each DataChunkEntry has its own Chunker iteration
-            if (dataChunk.isMissing()) {
-                if (debugChunking) println("   missing ${dataChunk.show(tiledData.tiling)}")
-                chunker.transferMissing(vinfo.fillValue, datatype, elemSize, bb)
-            } else {
-                if (debugChunking) println("   chunk=${dataChunk.show(tiledData.tiling)}")
-                state.pos = dataChunk.childAddress
-                val chunkData = h5.raf.readByteBufferDirect(state, dataChunk.key.chunkSize)
-                val filteredData = filters.apply(chunkData, dataChunk)
-                chunker.transfer(filteredData, elemSize, bb)
-                transferChunks += chunker.transferChunks
+        val chunkIndex = chunkIndexes.chunkIndex(v2)
+        val filters = H5filters(v2.name, vinfo.mfp, vinfo.h5type.endian, vinfo.storageDims.computeSize().toInt(), h5.verifyChecksums)
+        if (debugChunking) println(" readChunkedData tiles=${chunkIndex.tiling}")
+
+        if (nthreads > 1) {
+            readConcurrent(v2, vinfo, chunkIndex, filters, wantSpace, bb)
+        } else {
+            val state = OpenFileState(0L, vinfo.h5type.endian)
+            val chunkCache = h5.chunkCacheFor(filters)
+            for (dataChunk : DataChunk in chunkIndex.dataChunks(wantSpace)) {
+                val dataSection = IndexSpace(v2.rank, dataChunk.offsets, vinfo.storageDims)
+                val chunker = Chunker(dataSection, wantSpace) // each DataChunkEntry has its own Chunker iteration
+                if (dataChunk.isMissing()) {
+                    if (debugChunking) println("   missing ${dataChunk.show(chunkIndex.tiling)}")
+                    chunker.transferMissing(vinfo.fillValue, datatype, elemSize, bb)
+                } else {
+                    if (debugChunking) println("   chunk=${dataChunk.show(chunkIndex.tiling)}")
+                    val filteredData = chunkCache.getOrPut(h5.raf.location, dataChunk.childAddress) {
+                        state.pos = dataChunk.childAddress
+                        filters.apply(h5.raf.readByteBufferDirect(state, dataChunk.chunkSize), dataChunk)
+                    }
+                    chunker.transfer(filteredData, elemSize, bb)
+                }
             }
         }
 
@@ -62,6 +73,52 @@ internal class H5chunkReader(val h5 : H5builder) {
             h5.processDataIntoArray(bb, datatype, shape, h5type, elemSize) as ArrayTyped<T>
         }
     }
+
+    private class RawChunk(val dataChunk : DataChunk, val chunker : Chunker, val chunkData : ByteBuffer)
+
+    // One producer reads the chunks in file order, and nthreads workers decode them and copy them into bb.
+    // Each chunk goes to its own region of bb, and Chunker.transfer doesnt change bb's position, so the workers
+    // dont need to coordinate. Missing chunks are filled by the producer, the only one that uses bb's position,
+    // as are chunks found in the chunk cache.
+    @OptIn(ExperimentalCoroutinesApi::class)
+    private fun readConcurrent(v2: Variable<*>, vinfo : DataContainerVariable, chunkIndex : H5chunkIndex, filters : H5filters,
+                               wantSpace : IndexSpace, bb : ByteBuffer) {
+        val elemSize = vinfo.storageDims[vinfo.storageDims.size - 1].toInt()
+        val datatype = vinfo.h5type.datatype()
+        val chunkCache = h5.chunkCacheFor(filters)
+
+        runBlocking {
+            val rawChunks : ReceiveChannel<RawChunk> = produce(Dispatchers.IO, capacity = nthreads) {
+                val state = OpenFileState(0L, vinfo.h5type.endian)
+                for (dataChunk in chunkIndex.dataChunks(wantSpace)) {
+                    val dataSection = IndexSpace(v2.rank, dataChunk.offsets, vinfo.storageDims)
+                    val chunker = Chunker(dataSection, wantSpace)
+                    val cached = if (dataChunk.isMissing()) null else chunkCache.get(h5.raf.location, dataChunk.childAddress)
+                    if (dataChunk.isMissing()) {
+                        chunker.transferMissing(vinfo.fillValue, datatype, elemSize, bb)
+                    } else if (cached != null) {
+                        chunker.transfer(cached, elemSize, bb)
+                    } else {
+                        state.pos = dataChunk.childAddress
+                        send(RawChunk(dataChunk, chunker, h5.raf.readByteBufferDirect(state, dataChunk.chunkSize)))
+                    }
+                }
+            }
+
+            // Dispatchers.Default has only as many threads as cores, so it would quietly ignore an nthreads above that
+            val decoders = Dispatchers.IO.limitedParallelism(nthreads)
+            val jobs = List(nthreads) {
+                launch(decoders) {
+                    for (raw in rawChunks) {
+                        val filteredData = chunkCache.put(h5.raf.location, raw.dataChunk.childAddress,
+                            filters.apply(raw.chunkData, raw.dataChunk))
+                        raw.chunker.transfer(filteredData, elemSize, bb)
+                    }
+                }
+            }
+            joinAll(*jobs.toTypedArray())
+        }
+    }
 }
 
 // Chunked data apparently has heapIds directly, not addresses of heapIds. Go figure.
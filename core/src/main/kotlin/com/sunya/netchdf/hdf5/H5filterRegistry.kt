@@ -0,0 +1,183 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.compress.Bitshuffle
+import com.sunya.cdm.compress.Lz4
+import com.sunya.cdm.compress.Szip
+import com.sunya.cdm.compress.ZstdDecompressor
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.ServiceLoader
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Decodes one kind of HDF5 filter, identified by its registered filter id.
+ * See https://portal.hdfgroup.org/display/support/Registered+Filter+Plugins.
+ * Implementations must be thread safe.
+ */
+interface H5filterDecoder {
+    val filterId: Int
+    val name: String
+
+    /**
+     * @param encoded the filtered data, from position to limit. Its backing array may be reused after this returns.
+     * @param clientValues the filter's client data from the filter pipeline message.
+     * @param chunkSizeBytes the size of the uncompressed chunk.
+     * @return the decoded data, from position 0 to limit.
+     */
+    fun decode(encoded: ByteBuffer, clientValues: IntArray, chunkSizeBytes: Int): ByteBuffer
+}
+
+/**
+ * Decoders for the filters other than deflate, shuffle and fletcher32, keyed by filter id.
+ * The built-in decoders are szip (4), LZ4 (32004), Zstandard (32015) and bitshuffle (32008, with or without LZ4 or Zstandard).
+ * Others can be added with register(), or from the classpath with a java.util.ServiceLoader provider configuration
+ * file named META-INF/services/com.sunya.netchdf.hdf5.H5filterDecoder. Those replace built-ins with the same id.
+ */
+object H5filterRegistry {
+    private val decoders = ConcurrentHashMap<Int, H5filterDecoder>()
+
+    init {
+        register(SzipFilterDecoder())
+        register(Lz4FilterDecoder())
+        register(ZstdFilterDecoder())
+        register(BitshuffleFilterDecoder())
+        ServiceLoader.load(H5filterDecoder::class.java).forEach { register(it) }
+    }
+
+    fun register(decoder: H5filterDecoder) {
+        decoders[decoder.filterId] = decoder
+    }
+
+    fun decoder(filterId: Int): H5filterDecoder? = decoders[filterId]
+}
+
+// the ZstdDecompressor keeps its tables between blocks, so use one per thread.
+private val zstdDecompressors = ThreadLocal.withInitial { ZstdDecompressor() }
+
+/**
+ * Szip filter, see H5Zszip.c. clientValues are (options mask, bits per pixel, pixels per block, pixels per scanline).
+ * The data starts with the uncompressed size as a little endian 4 byte int.
+ */
+private class SzipFilterDecoder : H5filterDecoder {
+    override val filterId = FilterType.szip.id
+    override val name = "szip"
+
+    override fun decode(encoded: ByteBuffer, clientValues: IntArray, chunkSizeBytes: Int): ByteBuffer {
+        check(clientValues.size >= 4) { "szip filter needs 4 client values, has ${clientValues.size}" }
+        val size = encoded.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(encoded.position())
+        check(size >= 0) { "szip filter bad uncompressed size $size" }
+        val result = ByteArray(size)
+        Szip.decompress(encoded.array(), encoded.arrayOffset() + encoded.position() + 4, encoded.remaining() - 4,
+            result, 0, size, clientValues[0], clientValues[1], clientValues[2], clientValues[3])
+        return ByteBuffer.wrap(result)
+    }
+}
+
+/**
+ * LZ4 filter, see https://github.com/HDFGroup/hdf5_plugins/blob/master/LZ4/src/H5Zlz4.c.
+ * Big endian header with the total uncompressed size (8 bytes) and block size (4 bytes),
+ * then each block as its compressed size (4 bytes) and an LZ4 block, or the raw bytes if they didnt compress.
+ */
+private class Lz4FilterDecoder : H5filterDecoder {
+    override val filterId = FilterType.lz4.id
+    override val name = "lz4"
+
+    override fun decode(encoded: ByteBuffer, clientValues: IntArray, chunkSizeBytes: Int): ByteBuffer {
+        val src = encoded.duplicate().order(ByteOrder.BIG_ENDIAN)
+        val totalSize = src.getLong()
+        check(totalSize in 0..Int.MAX_VALUE) { "LZ4 filter bad uncompressed size $totalSize" }
+        val blockSize = minOf(src.getInt().toLong() and 0xffffffffL, totalSize).toInt()
+        val result = ByteArray(totalSize.toInt())
+        var done = 0
+        while (done < totalSize) {
+            val thisBlock = minOf(blockSize, totalSize.toInt() - done)
+            val compressedSize = src.getInt()
+            val srcPos = src.arrayOffset() + src.position()
+            if (compressedSize == thisBlock) {
+                System.arraycopy(src.array(), srcPos, result, done, thisBlock)
+            } else {
+                val n = Lz4.decompressBlock(src.array(), srcPos, compressedSize, result, done, thisBlock)
+                check(n == thisBlock) { "LZ4 filter block decompressed to $n bytes, expected $thisBlock" }
+            }
+            src.position(src.position() + compressedSize)
+            done += thisBlock
+        }
+        return ByteBuffer.wrap(result)
+    }
+}
+
+/** Zstandard filter, see https://github.com/aparamon/HDF5Plugin-Zstandard. The data is just a Zstandard frame. */
+private class ZstdFilterDecoder : H5filterDecoder {
+    override val filterId = FilterType.zstandard.id
+    override val name = "zstandard"
+
+    override fun decode(encoded: ByteBuffer, clientValues: IntArray, chunkSizeBytes: Int): ByteBuffer {
+        val result = ByteArray(chunkSizeBytes)
+        val n = zstdDecompressors.get().decompress(encoded.array(), encoded.arrayOffset() + encoded.position(),
+            encoded.remaining(), result, 0, chunkSizeBytes)
+        return ByteBuffer.wrap(result, 0, n)
+    }
+}
+
+/**
+ * Bitshuffle filter, see https://github.com/kiyo-masui/bitshuffle/blob/master/src/bshuf_h5filter.c.
+ * clientValues are (major version, minor version, element size, block size, compression),
+ * where compression is 0 = none, 2 = LZ4, 3 = Zstandard.
+ */
+private class BitshuffleFilterDecoder : H5filterDecoder {
+    override val filterId = FilterType.bitshuffle.id
+    override val name = "bitshuffle"
+
+    override fun decode(encoded: ByteBuffer, clientValues: IntArray, chunkSizeBytes: Int): ByteBuffer {
+        check(clientValues.size >= 3) { "bitshuffle filter needs the element size" }
+        val elemSize = clientValues[2]
+        val compression = if (clientValues.size > 4) clientValues[4] else 0
+        if (compression == 0) {
+            val nbytes = encoded.remaining()
+            val blockSize = if (clientValues.size > 3 && clientValues[3] > 0) clientValues[3] else Bitshuffle.defaultBlockSize(elemSize)
+            val result = ByteArray(nbytes)
+            Bitshuffle.unshuffle(encoded.array(), encoded.arrayOffset() + encoded.position(), result, 0,
+                nbytes / elemSize, elemSize, blockSize)
+            System.arraycopy(encoded.array(), encoded.arrayOffset() + encoded.position() + nbytes - nbytes % elemSize,
+                result, nbytes - nbytes % elemSize, nbytes % elemSize)
+            return ByteBuffer.wrap(result)
+        }
+        check(compression == lz4Compression || compression == zstdCompression) { "bitshuffle unknown compression $compression" }
+
+        // big endian header with the uncompressed size and the block size in bytes
+        val src = encoded.duplicate().order(ByteOrder.BIG_ENDIAN)
+        val nbytes = src.getLong()
+        check(nbytes in 0..Int.MAX_VALUE) { "bitshuffle bad uncompressed size $nbytes" }
+        val blockSize = src.getInt() / elemSize
+        check(blockSize > 0 && blockSize % Bitshuffle.blockedMult == 0) { "bitshuffle bad block size $blockSize" }
+        val nelems = nbytes.toInt() / elemSize
+        val result = ByteArray(nbytes.toInt())
+        val blockBuffer = ByteArray(blockSize * elemSize)
+
+        var done = 0
+        while (done < nelems - nelems % Bitshuffle.blockedMult) {
+            val thisBlock = minOf(blockSize, (nelems - done) - (nelems - done) % Bitshuffle.blockedMult)
+            val compressedSize = src.getInt()
+            val srcPos = src.arrayOffset() + src.position()
+            val thisBytes = thisBlock * elemSize
+            val n = if (compression == lz4Compression) {
+                Lz4.decompressBlock(src.array(), srcPos, compressedSize, blockBuffer, 0, thisBytes)
+            } else {
+                zstdDecompressors.get().decompress(src.array(), srcPos, compressedSize, blockBuffer, 0, thisBytes)
+            }
+            check(n == thisBytes) { "bitshuffle block decompressed to $n bytes, expected $thisBytes" }
+            Bitshuffle.untransposeBlock(blockBuffer, 0, result, done * elemSize, thisBlock, elemSize)
+            src.position(src.position() + compressedSize)
+            done += thisBlock
+        }
+        // leftover elements are stored uncompressed
+        val leftover = nbytes.toInt() - done * elemSize
+        src.get(result, done * elemSize, leftover)
+        return ByteBuffer.wrap(result)
+    }
+
+    companion object {
+        private const val lz4Compression = 2
+        private const val zstdCompression = 3
+    }
+}
@@ -1,50 +1,53 @@
 package com.sunya.netchdf.hdf5
 
-import com.sunya.cdm.util.IOcopyB
-import java.io.ByteArrayInputStream
-import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.util.zip.Inflater
-import java.util.zip.InflaterInputStream
 
-/** Apply filters, if any. */
+/**
+ * Apply filters, if any.
+ * Intermediate results go into per-thread scratch buffers; only the final result is allocated.
+ *
+ * @param chunkSizeBytes the size of an uncompressed chunk, used to size the output buffers.
+ * @param verifyChecksums if true, check the fletcher32 checksum, else just strip it off.
+ */
 internal class H5filters(
     val varname : String,
     val mfp: FilterPipelineMessage?,
-    val byteOrder: ByteOrder
+    val byteOrder: ByteOrder,
+    val chunkSizeBytes: Int,
+    val verifyChecksums: Boolean = true,
 ) {
-    val inflateBufferSize = 80_000 // LOOK make this settable
     var first = true
 
-    fun apply(rawdata: ByteBuffer, entry: BTree1.DataChunkEntry): ByteBuffer {
+    fun apply(rawdata: ByteBuffer, entry: DataChunk): ByteBuffer {
         if (mfp == null) return rawdata
         // if (first) println("  ** Filtered $varname ${mfp.filters.map { it.name}}")
         first = false
 
-        // LOOK can you hook the streams up rather than writing to bytearray at each step ??
-        var data = rawdata.array()
+        // apply filters backwards, skipping the ones in the filter mask
+        val active = mfp.filters.indices.reversed().filter { !isBitSet(entry.filterMask, it) }
+        val scratch = scratchBuffers.get()
+        rawdata.position(0)
+        var data = rawdata
         try {
-            // apply filters backwards
-            for (i in mfp.filters.indices.reversed()) {
+            active.forEachIndexed { count, i ->
                 val filter = mfp.filters[i]
-                if (isBitSet(entry.key.filterMask, i)) {
-                    continue
-                }
+                val isLast = (count == active.size - 1)
                 data = when (filter.filterType) {
-                    FilterType.deflate -> inflate(data)
-                    FilterType.shuffle -> shuffle(data, filter.clientValues[0])
-                    FilterType.fletcher32 -> checkfletcher32(data)
-                    /* FilterType.zstandard -> {
-                        val result = zstandard(data, expectedLengthBytes)
-                        result.order(byteOrder)
-                        return result // LOOK end of filters ??
-                    } */
-                    else -> throw RuntimeException("Unknown filter type=" + filter.filterType)
+                    FilterType.deflate -> inflate(data, scratch.output(data, chunkSizeBytes, isLast))
+                    FilterType.shuffle -> unshuffle(data, filter.clientValues[0], scratch.output(data, data.remaining(), isLast))
+                    FilterType.fletcher32 -> checkfletcher32(data, entry)
+                    else -> {
+                        val decoder = H5filterRegistry.decoder(filter.filterId)
+                            ?: throw RuntimeException("Unknown filter type=${filter.filterType} id=${filter.filterId}")
+                        decoder.decode(data, filter.clientValues, chunkSizeBytes)
+                    }
                 }
             }
-            val result = ByteBuffer.wrap(data)
+            // the result cant be left in a scratch buffer, and callers expect limit == capacity
+            val result = if (scratch.owns(data)) copy(data) else if (data.limit() != data.capacity()) data.slice() else data
             result.order(byteOrder)
             return result
 
@@ -58,65 +61,74 @@ internal class H5filters(
         }
     }
 
-    /*
-     * decompress using Zstandard
-     *
-     * @param compressed compressed data
-     * @return uncompressed data
-     *
-    private fun zstandard(compressed: ByteArray, expectedLengthBytes: Int): ByteBuffer {
-        val input = ByteBuffer.wrap(compressed)
-        val output = ByteBuffer.wrap(ByteArray(expectedLengthBytes))
-        val decompressor = ZstdDecompressor()
-        decompressor.decompress(input, output)
-        output.flip()
-        if (debug || debugFilter) {
-            val compress = compressed.size.toFloat() / output.limit()
-            System.out.printf(
-                " zstandard bytes in= %d out= %d compress = %f.2%n", compressed.size, output.limit(),
-                compress
-            )
+    // inflate directly into dst, which normally is exactly the uncompressed size.
+    @Throws(IOException::class)
+    private fun inflate(compressed: ByteBuffer, dst: ByteBuffer): ByteBuffer {
+        val nin = compressed.remaining()
+        val inflater = inflaters.get()
+        inflater.reset()
+        inflater.setInput(compressed)
+        var out = dst
+        while (!inflater.finished()) {
+            if (!out.hasRemaining()) { // chunk bigger than expected
+                out = ByteBuffer.allocate(maxOf(2 * out.capacity(), minInflateGrowth)).put(out.flip())
+            }
+            val n = inflater.inflate(out)
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw IOException("Truncated deflate data for $varname, inflated ${out.position()} bytes")
+            }
         }
-        return output.slice()
+        out.flip()
+        if (debug || debugFilter) println(" inflate bytes in= $nin bytes out= ${out.limit()}")
+        return out
     }
 
-     */
-
+    // check and strip off the 4-byte fletcher32 checksum at the end, no copy
     @Throws(IOException::class)
-    private fun inflate(compressed: ByteArray): ByteArray {
-        // run it through the Inflator
-        val input = ByteArrayInputStream(compressed)
-        val inflater = Inflater()
-        val inflatestream = InflaterInputStream(input, inflater, inflateBufferSize)
-        val len = Math.min(8 * compressed.size, Companion.MAX_ARRAY_LEN)
-        val out = ByteArrayOutputStream(len) // Fixes KXL-349288
-        IOcopyB(inflatestream, out, inflateBufferSize)
-        val uncomp = out.toByteArray()
-        if (debug || debugFilter) println(" inflate bytes in= " + compressed.size + " bytes out= " + uncomp.size)
-        return uncomp
-    }
-
-    // just strip off the 4-byte fletcher32 checksum at the end
-    private fun checkfletcher32(org: ByteArray): ByteArray {
-        val result = ByteArray(org.size - 4)
-        System.arraycopy(org, 0, result, 0, result.size)
-        if (debug) println(" checkfletcher32 bytes in= " + org.size + " bytes out= " + result.size)
-        return result
+    private fun checkfletcher32(org: ByteBuffer, entry: DataChunk): ByteBuffer {
+        val size = org.remaining() - 4
+        if (size < 0) throw IOException("Fletcher32 checksum missing for $varname chunk at ${entry.childAddress}")
+        if (verifyChecksums) {
+            // stored little endian
+            val stored = org.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(org.position() + size)
+            val computed = Fletcher32.checksum(org.array(), org.arrayOffset() + org.position(), size)
+            if (stored != computed && stored != Fletcher32.reversed(computed)) {
+                throw IOException("Fletcher32 checksum failed for $varname chunk at ${entry.childAddress}: " +
+                        "stored=${Integer.toHexString(stored)} computed=${Integer.toHexString(computed)}")
+            }
+        }
+        org.limit(org.limit() - 4)
+        if (debug) println(" checkfletcher32 bytes in= ${org.limit() + 4} bytes out= ${org.limit()}")
+        return org
     }
 
-    private fun shuffle(data: ByteArray, n: Int): ByteArray {
-        if (debug) println(" shuffle bytes in= " + data.size + " n= " + n)
-        require(data.size % n == 0)
+    // the shuffled data has all the first bytes of each element, then all the second bytes, etc.
+    private fun unshuffle(data: ByteBuffer, n: Int, dst: ByteBuffer): ByteBuffer {
+        val size = data.remaining()
+        if (debug) println(" shuffle bytes in= $size n= $n")
+        require(size % n == 0)
         if (n <= 1) return data
-        val m = data.size / n
-        val count = IntArray(n)
-        for (k in 0 until n) count[k] = k * m
-        val result = ByteArray(data.size)
-        for (i in 0 until m) {
-            for (j in 0 until n) {
-                result[i * n + j] = data[i + count[j]]
+        val m = size / n
+        val src = data.array()
+        val srcStart = data.arrayOffset() + data.position()
+        val result = dst.array()
+        val dstStart = dst.arrayOffset()
+        for (j in 0 until n) {
+            var srcPos = srcStart + j * m
+            var dstPos = dstStart + j
+            for (i in 0 until m) {
+                result[dstPos] = src[srcPos++]
+                dstPos += n
             }
         }
+        dst.limit(size)
+        return dst
+    }
+
+    private fun copy(data: ByteBuffer): ByteBuffer {
+        val result = ByteBuffer.allocate(data.remaining())
+        result.put(data)
+        result.flip()
         return result
     }
 
@@ -126,7 +138,31 @@ internal class H5filters(
 
     companion object {
         var debugFilter = false
-        private val MAX_ARRAY_LEN = Int.MAX_VALUE - 8
         private val debug = false
+
+        // Inflater allocates native memory, so reuse one per thread.
+        private val inflaters = ThreadLocal.withInitial { Inflater() }
+        private val scratchBuffers = ThreadLocal.withInitial { ScratchBuffers() }
+        private const val minInflateGrowth = 4096 // when the expected size is too small, even 0
     }
+}
+
+// Two buffers per thread, so a filter can read from one and write to the other.
+private class ScratchBuffers {
+    private var first = ByteBuffer.allocate(0)
+    private var second = ByteBuffer.allocate(0)
+
+    // where to put the output of a filter. a new buffer if its the last filter, otherwise the scratch buffer not holding input.
+    fun output(input: ByteBuffer, size: Int, isLast: Boolean): ByteBuffer {
+        if (isLast) return ByteBuffer.allocate(size)
+        if (input.array() === first.array()) {
+            if (second.capacity() < size) second = ByteBuffer.allocate(size)
+            return second.clear().limit(size)
+        } else {
+            if (first.capacity() < size) first = ByteBuffer.allocate(size)
+            return first.clear().limit(size)
+        }
+    }
+
+    fun owns(data: ByteBuffer) = data.array() === first.array() || data.array() === second.array()
 }
\ No newline at end of file
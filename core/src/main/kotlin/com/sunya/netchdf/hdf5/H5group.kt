@@ -236,6 +236,7 @@ internal class H5GroupBuilder(
     val nestedObjects : MutableList<DataObjectFacade> = mutableListOf()
 ) {
     val nestedGroupsBuilders = mutableListOf<H5GroupBuilder>()
+    val nestedGroupFacades = mutableListOf<DataObjectFacade>() // when not readNestedGroups
 
     // is this a child of that ?
     fun isChildOf(that: H5GroupBuilder): Boolean {
@@ -259,7 +260,8 @@ internal class H5GroupBuilder(
         return false
     }
 
-    fun build() : H5Group {
+    /** @param readNestedGroups if false, the nested groups are left in nestedGroupFacades, unread, and not in the H5Group */
+    fun build(readNestedGroups : Boolean = true) : H5Group {
         val variables = mutableListOf<H5Variable>()
         val typedefs = mutableListOf<H5typedef>()
 
@@ -276,9 +278,13 @@ internal class H5GroupBuilder(
             nested.build(header)
 
             if (nested.isGroup) {
-                val nestedGroup = header.readH5Group(nested)
-                if (nestedGroup != null) {
-                    nestedGroupsBuilders.add(nestedGroup)
+                if (!readNestedGroups) {
+                    nestedGroupFacades.add(nested)
+                } else {
+                    val nestedGroup = header.readH5Group(nested)
+                    if (nestedGroup != null) {
+                        nestedGroupsBuilders.add(nestedGroup)
+                    }
                 }
             }
             if (nested.isVariable) {
@@ -1,6 +1,7 @@
 package com.sunya.netchdf.hdf5
 
 import com.sunya.cdm.api.ArraySection
+import com.sunya.cdm.api.ChunkRead
 import com.sunya.cdm.api.Section
 import com.sunya.cdm.api.Variable
 import com.sunya.cdm.layout.MaxChunker
@@ -14,11 +15,20 @@ internal class H5maxIterator<T>(val h5 : H5builder, val v2: Variable<T>, val wan
             val indexSection = maxIterator.next()
             if (debugChunking) println("  chunk=${indexSection}")
 
-            val section = indexSection.section(v2.shape)
-            val array = h5.readRegularData(v2.spObject as DataContainerVariable, v2.datatype, section)
-            setNext(ArraySection(array, section))
+            setNext(read(indexSection.section(v2.shape)))
         } else {
             done()
         }
     }
+
+    /** The remaining pieces, to be read later, possibly in parallel. */
+    fun reads() : Iterator<ChunkRead<T>> = maxIterator.asSequence().map { indexSection ->
+        val section = indexSection.section(v2.shape)
+        ChunkRead(section, section.totalElements * v2.datatype.size) { read(section) }
+    }.iterator()
+
+    private fun read(section : Section) : ArraySection<T> {
+        val array = h5.readRegularData(h5.dataContainerVariable(v2), v2.datatype, section)
+        return ArraySection(array, section)
+    }
 }
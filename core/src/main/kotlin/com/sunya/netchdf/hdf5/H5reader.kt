@@ -10,7 +10,6 @@ import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import kotlin.reflect.KClass
 
-private val debugLayout = false
 
 // Handles reading attributes and non-chunked Variables
 internal fun <T> H5builder.readRegularData(dc: DataContainer, datatype: Datatype<T>, section : Section?): ArrayTyped<T> {
@@ -36,7 +35,7 @@ internal fun <T> H5builder.readRegularData(dc: DataContainer, datatype: Datatype
 // LOOK: not subsetting
 @Throws(IOException::class)
 internal fun <T> H5builder.readCompactData(v2 : Variable<T>, shape : IntArray): ArrayTyped<T> {
-    val vinfo = v2.spObject as DataContainerVariable
+    val vinfo = dataContainerVariable(v2)
     val bb = when (vinfo.mdl) {
         is DataLayoutCompact -> vinfo.mdl.compactData
         is DataLayoutCompact3 -> vinfo.mdl.compactData
@@ -56,25 +55,20 @@ internal fun <T> H5builder.readDataWithLayout(state: OpenFileState, layout: Layo
     if (sizeBytes <= 0 || sizeBytes >= Integer.MAX_VALUE) {
         throw java.lang.RuntimeException("Illegal nbytes to read = $sizeBytes")
     }
-    val bb = ByteBuffer.allocate(sizeBytes.toInt())
-    bb.order(h5type.base?.endian ?: h5type.endian)
-
-    var count = 0
-    while (layout.hasNext()) {
-        val chunk = layout.next()
-        state.pos = chunk.srcPos()
-        raf.readIntoByteBufferDirect(
-            state,
-            bb,
-            layout.elemSize * chunk.destElem().toInt(),
-            layout.elemSize * chunk.nelems()
-        )
-        count++
-        if (debugLayout and (count < 20)) println("oldchunk = $chunk")
+    val byteOrder = h5type.base?.endian ?: h5type.endian
+
+    if (raf.useMmap && layout is LayoutRegular && layout.isContiguous && (datatype.isNumber || datatype.isUnsigned)) {
+        // no copy: the array is a view of the mapped file
+        state.pos = layout.next().srcPos()
+        state.byteOrder = byteOrder
+        val bb = raf.readByteBufferMapped(state, sizeBytes.toInt())
+        return this.processDataIntoArray(bb, datatype, shape.toIntArray(), h5type, layout.elemSize)
     }
-    bb.position(0)
-    bb.limit(bb.capacity())
-    bb.order(h5type.base?.endian ?: h5type.endian)
+
+    val bb = ByteBuffer.allocate(sizeBytes.toInt())
+    bb.order(byteOrder)
+
+    raf.readLayout(layout, bb)
 
     return this.processDataIntoArray(bb, datatype, shape.toIntArray(), h5type, layout.elemSize)
 }
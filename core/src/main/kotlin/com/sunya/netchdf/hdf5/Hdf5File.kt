@@ -5,19 +5,54 @@ import com.sunya.cdm.array.ArrayEmpty
 import com.sunya.cdm.array.ArraySingle
 import com.sunya.cdm.array.ArrayTyped
 import com.sunya.cdm.iosp.*
+import com.sunya.netchdf.MetadataIndex
 import java.io.IOException
 
 /**
  * @param strict true = make it agree with nclib if possible
+ * @param useMmap if true, contiguous reads of numeric variables return a view of the memory-mapped file, not a copy.
+ * @param chunkIndexCacheSize keep the chunk index of this many recently read chunked variables; 0 = no caching.
+ * @param decodeThreads readArrayData decodes chunks of compressed variables on this many threads; 1 = calling thread only.
+ *   All of them are used, even more than there are cores, though decoding is cpu bound so that seldom helps.
+ * @param verifyChecksums check the fletcher32 checksum of data chunks that have one; a mismatch throws IOException.
+ * @param maxReadGap pieces of a contiguous variable read that are separated by no more than this many bytes
+ *   in the file are read together with one read.
+ * @param chunkCache keeps recently decoded chunks of filtered variables; may be shared with other open files.
+ *   The default doesnt cache.
+ * @param lazyOpen only read the root group's links when opening; each group's contents are read when it is first used.
+ * @param metadataIndex the filename of a metadata index (see MetadataIndex) for this file. If its up to date, the
+ *   metadata is read from it instead of from the file; otherwise its written after the metadata is read from the file,
+ *   unless lazyOpen is true.
+ * @param globalHeapCacheBytes keep at most this many bytes of parsed global heap collections, which hold the
+ *   vlen data; the most recently used one is always kept.
  */
-class Hdf5File(val filename : String, strict : Boolean = false) : Netchdf {
-    private val raf : OpenFile = OpenFile(filename)
+class Hdf5File(val filename : String, strict : Boolean = false, useMmap : Boolean = false,
+               chunkIndexCacheSize : Int = 100, val decodeThreads : Int = 1, verifyChecksums : Boolean = true,
+               maxReadGap : Int = defaultMaxReadGap, val chunkCache : ChunkCache = ChunkCache(0),
+               lazyOpen : Boolean = false, metadataIndex : String? = null,
+               globalHeapCacheBytes : Long = defaultGlobalHeapCacheBytes) : Netchdf {
+    private val raf : OpenFile = OpenFile(filename, useMmap, maxReadGap)
     private val header : H5builder
+    private val chunkIndexes : H5chunkIndexCache
 
     init {
-        header = H5builder(raf, strict)
+        require(decodeThreads > 0)
+        require(globalHeapCacheBytes >= 0)
+        val indexed = metadataIndex?.let { MetadataIndex.read(it, filename, H5indexCodec) }
+        header = H5builder(raf, strict, verifyChecksums = verifyChecksums, chunkCache = chunkCache, lazyOpen = lazyOpen,
+            metadataIndex = indexed, globalHeapCacheBytes = globalHeapCacheBytes)
+        if (metadataIndex != null && indexed == null && !lazyOpen) {
+            MetadataIndex.write(metadataIndex, filename, header.formatType(), header.cdmRoot, LongArray(0), H5indexCodec)
+        }
+        chunkIndexes = H5chunkIndexCache(header, chunkIndexCacheSize)
     }
 
+    /** hit/miss counters for the chunk index cache. */
+    fun chunkIndexStats() : ChunkIndexStats = chunkIndexes.stats()
+
+    /** hit/miss/eviction counters for the decoded chunk cache. */
+    fun chunkCacheStats() : ChunkCacheStats = chunkCache.stats()
+
     override fun close() {
         raf.close()
     }
@@ -36,18 +71,19 @@ class Hdf5File(val filename : String, strict : Boolean = false) : Netchdf {
         val wantSection = SectionPartial.fill(section, v2.shape)
 
         // promoted attributes
-        if (v2.spObject is DataContainerAttribute) {
-            return header.readRegularData(v2.spObject, v2.datatype, wantSection)
+        val dc = header.dataContainer(v2)
+        if (dc is DataContainerAttribute) {
+            return header.readRegularData(dc, v2.datatype, wantSection)
         }
 
-        val vinfo = v2.spObject as DataContainerVariable
+        val vinfo = dc as DataContainerVariable
         if (vinfo.onlyFillValue) { // fill value only, no data
             return ArraySingle(wantSection.shape.toIntArray(), v2.datatype, vinfo.fillValue!!)
         }
 
         return try {
             if (vinfo.isChunked) {
-                H5chunkReader(header).readChunkedData(v2, wantSection)
+                H5chunkReader(header, chunkIndexes, decodeThreads).readChunkedData(v2, wantSection)
             } else if (vinfo.isCompact) {
                 val alldata = header.readCompactData(v2, v2.shape.toIntArray())
                 alldata.section(wantSection)
@@ -66,7 +102,7 @@ class Hdf5File(val filename : String, strict : Boolean = false) : Netchdf {
             return listOf<ArraySection<T>>().iterator()
         }
         val wantSection = SectionPartial.fill(section, v2.shape)
-        val vinfo = v2.spObject as DataContainerVariable
+        val vinfo = header.dataContainerVariable(v2)
 
         if (vinfo.onlyFillValue) { // fill value only, no data
             val single = ArraySection(ArraySingle(wantSection.shape.toIntArray(), v2.datatype, vinfo.fillValue!!), wantSection)
@@ -74,10 +110,24 @@ class Hdf5File(val filename : String, strict : Boolean = false) : Netchdf {
         }
 
         return if (vinfo.isChunked) {
-            H5chunkIterator(header, v2, wantSection)
+            H5chunkIterator(header, chunkIndexes, v2, wantSection)
         } else {
             H5maxIterator(header, v2, wantSection, maxElements ?: 100_000)
         }
     }
 
+    @Throws(IOException::class)
+    override fun <T> chunkReads(v2: Variable<T>, section: SectionPartial?, maxElements : Int?) : Iterator<ChunkRead<T>> {
+        val vinfo = header.dataContainerVariable(v2)
+        if (v2.nelems == 0L || vinfo.onlyFillValue) {
+            return super.chunkReads(v2, section, maxElements)
+        }
+        val wantSection = SectionPartial.fill(section, v2.shape)
+        return if (vinfo.isChunked) {
+            H5chunkIterator(header, chunkIndexes, v2, wantSection).reads()
+        } else {
+            H5maxIterator(header, v2, wantSection, maxElements ?: 100_000).reads()
+        }
+    }
+
 }
\ No newline at end of file
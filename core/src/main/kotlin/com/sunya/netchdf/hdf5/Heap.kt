@@ -1,18 +1,20 @@
 package com.sunya.netchdf.hdf5
 
 import com.sunya.cdm.api.*
+import com.sunya.cdm.array.makeStringZ
 import com.sunya.cdm.iosp.*
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
 import java.util.*
 
 private const val debugHeap = false
 
+/** Reads from the global heap. The parsed collections are kept by the H5builder, so these are cheap to make. */
 internal class H5heap(val header: H5builder) {
     val raf = header.raf
-    private val heapMap = mutableMapOf<Long, GlobalHeap>()
 
     /**
      * Fetch a Vlen data array.
@@ -48,18 +50,20 @@ internal class H5heap(val header: H5builder) {
         val typedef = datatype.typedef
         val valueDatatype = typedef?.baseType ?: datatype
 
-        val state = OpenFileState(ho.dataPos, endian ?: ByteOrder.nativeOrder())
+        // decode from the collection's bytes, already in memory
+        val bb = ho.buffer(endian ?: ByteOrder.nativeOrder())
+        val n = heapId.nelems
         val result = when (valueDatatype) {
-            Datatype.FLOAT -> raf.readArrayFloat(state, heapId.nelems)
-            Datatype.DOUBLE -> raf.readArrayDouble(state, heapId.nelems)
-            Datatype.BYTE -> raf.readArrayByte(state, heapId.nelems)
-            Datatype.UBYTE, Datatype.ENUM1 -> raf.readArrayUByte(state, heapId.nelems)
-            Datatype.SHORT -> raf.readArrayShort(state, heapId.nelems)
-            Datatype.USHORT, Datatype.ENUM2 -> raf.readArrayUShort(state, heapId.nelems)
-            Datatype.INT -> raf.readArrayInt(state, heapId.nelems)
-            Datatype.UINT, Datatype.ENUM4 -> raf.readArrayUInt(state, heapId.nelems)
-            Datatype.LONG -> raf.readArrayLong(state, heapId.nelems)
-            Datatype.ULONG -> raf.readArrayULong(state, heapId.nelems)
+            Datatype.FLOAT -> Array(n) { bb.getFloat(4 * it) }
+            Datatype.DOUBLE -> Array(n) { bb.getDouble(8 * it) }
+            Datatype.BYTE -> Array(n) { bb.get(it) }
+            Datatype.UBYTE, Datatype.ENUM1 -> Array(n) { bb.get(it).toUByte() }
+            Datatype.SHORT -> Array(n) { bb.getShort(2 * it) }
+            Datatype.USHORT, Datatype.ENUM2 -> Array(n) { bb.getShort(2 * it).toUShort() }
+            Datatype.INT -> Array(n) { bb.getInt(4 * it) }
+            Datatype.UINT, Datatype.ENUM4 -> Array(n) { bb.getInt(4 * it).toUInt() }
+            Datatype.LONG -> Array(n) { bb.getLong(8 * it) }
+            Datatype.ULONG -> Array(n) { bb.getLong(8 * it).toULong() }
             else -> throw UnsupportedOperationException("getHeapDataAsArray datatype=$datatype")
         }
         return result
@@ -80,8 +84,7 @@ internal class H5heap(val header: H5builder) {
             return null
         }
         val ho = heapId.getHeapObject() ?: throw IllegalStateException("Cant find Heap Object,heapId=$heapId")
-        val state = OpenFileState(ho.dataPos, ByteOrder.LITTLE_ENDIAN)
-        return raf.readString(state, ho.dataSize.toInt())
+        return ho.string(StandardCharsets.UTF_8)
     }
 
     /**
@@ -101,8 +104,7 @@ internal class H5heap(val header: H5builder) {
             ?: throw IllegalStateException("Cant find Heap Object,heapId=$heapId")
         if (ho.dataSize == 0L) return null
         if (ho.dataSize > 1000 * 1000) return java.lang.String.format("Bad HeapObject.dataSize=%s", ho)
-        val state = OpenFileState(ho.dataPos, ByteOrder.nativeOrder())
-        return raf.readString(state, ho.dataSize.toInt(), header.valueCharset)
+        return ho.string(header.valueCharset)
     }
 
     // see "Global Heap Id" in http://www.hdfgroup.org/HDF5/doc/H5.format.html
@@ -156,20 +158,18 @@ internal class H5heap(val header: H5builder) {
 
         fun getHeapObject(): GlobalHeap.HeapObject? {
             if (isEmpty()) return null
-            var gheap = heapMap[heapAddress]
-            if (null == gheap) {
-                gheap = GlobalHeap(header, heapAddress)
-                heapMap[heapAddress] = gheap
-            }
+            val gheap = header.globalHeaps.get(heapAddress)
             return gheap.getHeapObject(index.toShort()) ?: throw IllegalStateException("cant find HeapObject")
         }
     } // HeapIdentifier
 } // H5heap
 
 // level 1E Global Heap
+// The whole collection is read at once, and its heap objects are decoded from memory.
 class GlobalHeap(h5: H5builder, address: Long) {
     private val version: Byte
-    private val sizeBytes: Int
+    internal val sizeBytes: Int
+    private val bytes: ByteBuffer // the entire collection
     private val hos: MutableMap<Short, HeapObject> = HashMap()
 
     init {
@@ -188,28 +188,23 @@ class GlobalHeap(h5: H5builder, address: Long) {
         }
         version = h5.raf.readByte(state)
         state.pos += 3
-        sizeBytes = h5.raf.readInt(state)
-        state.pos += 4  // pad to 8
+        // the collection size includes the header. the last collection may be cut short by the end of the file
+        sizeBytes = minOf(h5.readLength(state), h5.raf.size - filePos).toInt()
+        bytes = h5.raf.readByteBuffer(OpenFileState(filePos, ByteOrder.LITTLE_ENDIAN), sizeBytes)
 
-        var count = 0
-        var countBytes = 0
-        while (true) {
+        var pos = 8 + h5.sizeLengths
+        while (pos + 8 + h5.sizeLengths <= sizeBytes) {
             val o = HeapObject()
-            o.id = h5.raf.readShort(state)
-            if (o.id.toInt() == 0) break // ?? look
-            o.refCount = h5.raf.readShort(state)
-            state.pos += 4
-            o.dataSize = h5.readLength(state)
-            o.dataPos = state.pos
-            val dsize = o.dataSize.toInt() + padding(o.dataSize.toInt(), 8)
-            countBytes += dsize + 16
-            if (o.dataSize < 0) break // ran off the end, must be done
-            if (countBytes < 0) break // ran off the end, must be done
-            if (countBytes > sizeBytes) break // ran off the end
-            state.pos += dsize
+            o.id = bytes.getShort(pos)
+            if (o.id.toInt() == 0) break // the free space object
+            o.refCount = bytes.getShort(pos + 2)
+            o.dataSize = if (h5.isLengthLong) bytes.getLong(pos + 8) else bytes.getInt(pos + 8).toLong()
+            pos += 8 + h5.sizeLengths
+            if (o.dataSize < 0 || o.dataSize > sizeBytes - pos) break // ran off the end, must be done
+            o.offset = pos
+            o.dataPos = filePos + pos
             hos[o.id] = o
-            count++
-            if (countBytes + 16 >= sizeBytes) break // ran off the end, must be done
+            pos += o.dataSize.toInt() + padding(o.dataSize.toInt(), 8)
         }
     }
 
@@ -221,13 +216,58 @@ class GlobalHeap(h5: H5builder, address: Long) {
         var id: Short = 0
         var refCount: Short = 0
         var dataSize: Long = 0
-        var dataPos: Long = 0
+        var dataPos: Long = 0 // in the file
+        var offset: Int = 0 // in the collection
+
+        /** The object's bytes, with the given byte order. */
+        fun buffer(order: ByteOrder): ByteBuffer = bytes.slice(offset, dataSize.toInt()).order(order)
+
+        /** The object as a zero terminated string. */
+        fun string(charset: Charset): String = makeStringZ(bytes, offset, dataSize.toInt(), charset)
+
         override fun toString(): String {
             return "id=$id, refCount=$refCount, dataSize=$dataSize, dataPos=$dataPos"
         }
     }
 }
 
+/** The default limit on the bytes of global heap collections kept for an open file. */
+const val defaultGlobalHeapCacheBytes = 64L * 1024 * 1024
+
+/**
+ * The global heap collections of one file, parsed once and kept in least recently used order.
+ * Safe to share between threads.
+ *
+ * @param maxBytes keep at most this many bytes of collections, but always the most recent one.
+ */
+internal class GlobalHeapCache(val h5: H5builder, val maxBytes: Long) {
+    private val heaps = LinkedHashMap<Long, GlobalHeap>(16, 0.75f, true) // keyed by address
+    private var totalBytes = 0L
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+
+    @Synchronized
+    fun get(address: Long): GlobalHeap {
+        val cached = heaps[address]
+        if (cached != null) {
+            hits++
+            return cached
+        }
+        misses++
+        val gheap = GlobalHeap(h5, address)
+        heaps[address] = gheap
+        totalBytes += gheap.sizeBytes
+        val iter = heaps.values.iterator()
+        while (totalBytes > maxBytes && heaps.size > 1) {
+            totalBytes -= iter.next().sizeBytes
+            iter.remove()
+        }
+        return gheap
+    }
+}
+
 // Level 1D - Local Heaps
 internal class LocalHeap(header : H5builder, address: Long) {
     val size: Int
@@ -6,7 +6,8 @@ import java.nio.ByteBuffer
 
 // Message Type 8 "Data Layout" : regular (contiguous), chunked, or compact (stored with the message)
 // The dimensions were specified in version 1 and 2. In version 3 and 4, dimensions are in the Dataspace message.
-// When chunked, the last dimension is the chunk size. LOOK version 4 not done.
+// When chunked, the last dimension is the chunk size. Version 4 adds other ways to index the chunks, see ChunkIndexType.
+// Virtual datasets (layout class 3) are not supported.
 
 // The Data Layout message describes how the elements of a multi-dimensional array are stored in the HDF5 file.
 // Four types of data layout are supported:
@@ -28,7 +29,7 @@ import java.nio.ByteBuffer
 fun H5builder.readDataLayoutMessage(state : OpenFileState) : DataLayoutMessage {
     val tstate = state.copy()
     val version = raf.readByte(tstate).toInt()
-    val layoutClass = if (version == 3) raf.readByte(tstate).toInt() else raf.readByte(tstate.incr(1)).toInt()
+    val layoutClass = if (version >= 3) raf.readByte(tstate).toInt() else raf.readByte(tstate.incr(1)).toInt()
 
     if (version < 3) {
         val rawdata =
@@ -58,7 +59,7 @@ fun H5builder.readDataLayoutMessage(state : OpenFileState) : DataLayoutMessage {
             else -> throw RuntimeException()
         }
 
-    } else if (version == 3) {
+    } else if (version == 3 || (version == 4 && layoutClass != 2)) { // version 4 compact and contiguous are the same as 3
         val rawdata =
             structdsl("MessageLayout3", raf, state) {
                 fld("version", 1)
@@ -81,7 +82,7 @@ fun H5builder.readDataLayoutMessage(state : OpenFileState) : DataLayoutMessage {
                         fld("chunkedElementSize", 4)
                     }
 
-                    else -> throw RuntimeException()
+                    else -> throw RuntimeException("Unsupported data layout class $layoutClass")
                 }
             }
         if (debugMessage) rawdata.show()
@@ -92,8 +93,39 @@ fun H5builder.readDataLayoutMessage(state : OpenFileState) : DataLayoutMessage {
             2 -> DataLayoutChunked(version, rawdata.getIntArray("dims"), rawdata.getLong("btreeAddress"), rawdata.getInt("chunkedElementSize"))
             else -> throw RuntimeException()
         }
-    } else throw RuntimeException() // TODO version 4 not supported
+    } else if (version == 4) {
+        return readDataLayoutChunked4(state)
+    } else throw RuntimeException("Unknown data layout message version $version")
+}
 
+// The dimension sizes have a variable length, so this doesnt use structdsl
+@Throws(IOException::class)
+private fun H5builder.readDataLayoutChunked4(state : OpenFileState) : DataLayoutChunked4 {
+    state.incr(2) // version, layoutClass
+    val flags = raf.readByte(state).toInt()
+    val ndims = raf.readByte(state).toInt()
+    val dimSizeLength = raf.readByte(state).toInt()
+    val chunkDims = IntArray(ndims) { readVariableSizeUnsigned(state, dimSizeLength).toInt() }
+    val indexType = ChunkIndexType.of(raf.readByte(state).toInt())
+
+    var filteredSize = 0L
+    var filterMask = 0
+    when (indexType) {
+        ChunkIndexType.SingleChunk -> {
+            if (flags and 2 != 0) { // SINGLE_INDEX_WITH_FILTER
+                filteredSize = readLength(state)
+                filterMask = raf.readInt(state)
+            }
+        }
+        ChunkIndexType.Implicit -> {}
+        ChunkIndexType.FixedArray -> state.incr(1) // page bits, also in the fixed array header
+        ChunkIndexType.ExtensibleArray -> state.incr(5) // also in the extensible array header
+        ChunkIndexType.BTreeV2 -> state.incr(6) // node size, split and merge percent
+    }
+    val indexAddress = readOffset(state)
+    val result = DataLayoutChunked4(flags, chunkDims, indexType, indexAddress, filteredSize, filterMask)
+    if (debugMessage) println(result.show())
+    return result
 }
 
 enum class LayoutClass(val num : Int) {
@@ -111,6 +143,24 @@ enum class LayoutClass(val num : Int) {
     }
 }
 
+/** How the chunks are indexed, for version 4 of the data layout message. Before that, always a version 1 B-tree. */
+enum class ChunkIndexType(val num : Int) {
+    SingleChunk(1), Implicit(2), FixedArray(3), ExtensibleArray(4), BTreeV2(5);
+
+    companion object {
+        fun of(num: Int) : ChunkIndexType {
+            return when (num) {
+                1 -> SingleChunk
+                2 -> Implicit
+                3 -> FixedArray
+                4 -> ExtensibleArray
+                5 -> BTreeV2
+                else -> throw RuntimeException("Unknown ChunkIndexType $num")
+            }
+        }
+    }
+}
+
 open class DataLayoutMessage(layoutClassNum: Int)  : MessageHeader(MessageType.Layout) {
     val layoutClass = LayoutClass.of(layoutClassNum)
     override fun show() : String = "class=$layoutClass"
@@ -129,3 +179,17 @@ data class DataLayoutCompact3(val compactData: ByteBuffer) : DataLayoutMessage(0
 data class DataLayoutContiguous3(val dataAddress: Long, val dataSize: Long) : DataLayoutMessage(1) {
     override fun show(): String = "class=$layoutClass dataAddress=$dataAddress dataSize=$dataSize"
 }
+
+/**
+ * Version 4 chunked layout.
+ * @param indexAddress address of the chunk index, or of the chunk(s) for SingleChunk and Implicit indexes
+ * @param filteredSize size of the single chunk when its filtered, else 0.
+ * @param filterMask filter mask of the single chunk when its filtered.
+ */
+data class DataLayoutChunked4(val flags : Int, val chunkDims : IntArray, val chunkIndexType : ChunkIndexType, val indexAddress : Long,
+                              val filteredSize : Long, val filterMask : Int) : DataLayoutMessage(2) {
+    // DONT_FILTER_PARTIAL_BOUND_CHUNKS: edge chunks that extend past the dataset are not filtered
+    val dontFilterPartialChunks = (flags and 1) != 0
+
+    override fun show(): String = "class=$layoutClass dims=${chunkDims.contentToString()} index=$chunkIndexType indexAddress=$indexAddress"
+}
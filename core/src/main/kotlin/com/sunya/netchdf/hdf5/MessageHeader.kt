@@ -261,10 +261,12 @@ fun H5builder.readDataspaceMessage(state: OpenFileState): DataspaceMessage {
         maxsize.size > 0 && maxsize[0] < 0 // set maxsize to -1 when unlimited
     } else false
 
+    val dims = rawdata.getLongArray("dims")
     return DataspaceMessage(
         DataspaceType.of(type),
-        rawdata.getLongArray("dims"),
+        dims,
         isUnlimited,
+        if (flags and 1 != 0) rawdata.getLongArray("maxsize") else dims,
     )
 }
 
@@ -283,7 +285,8 @@ enum class DataspaceType(val num: Int) {
     }
 }
 
-data class DataspaceMessage(val type: DataspaceType, val dims: LongArray, val isUnlimited : Boolean)
+/** @param maxDims maximum size of each dimension, -1 if unlimited */
+data class DataspaceMessage(val type: DataspaceType, val dims: LongArray, val isUnlimited : Boolean, val maxDims: LongArray = dims)
     : MessageHeader(MessageType.Dataspace) {
 
     fun rank(): Int = dims.size
@@ -544,7 +547,7 @@ fun H5builder.readFilterPipelineMessage(state: OpenFileState): FilterPipelineMes
     }
     val filters = mutableListOf<Filter>()
     for (i in 0 until nfilters) {
-        val filterId = raf.readShort(state).toInt()
+        val filterId = raf.readShort(state).toUShort().toInt()
         val filterType = fromId(filterId)
         val nameSize = if (version > 1 && filterId < 256) 0 else raf.readShort(state).toUShort().toInt()
         val flags = raf.readShort(state)
@@ -559,7 +562,7 @@ fun H5builder.readFilterPipelineMessage(state: OpenFileState): FilterPipelineMes
         if (version == 1 && nValues.toInt() and 1 != 0) { // check if odd
             state.pos += 4
         }
-        filters.add(Filter(filterType, name, clientValues))
+        filters.add(Filter(filterType, name, clientValues, filterId))
     }
 
     return FilterPipelineMessage(
@@ -568,7 +571,8 @@ fun H5builder.readFilterPipelineMessage(state: OpenFileState): FilterPipelineMes
 }
 
 enum class FilterType(val id: Int) {
-    none(0), deflate(1), shuffle(2), fletcher32(3), szip(4), nbit(5), scaleoffset(6), zstandard(32015), unknown(Int.MAX_VALUE);
+    none(0), deflate(1), shuffle(2), fletcher32(3), szip(4), nbit(5), scaleoffset(6),
+    blosc(32001), lz4(32004), bitshuffle(32008), zstandard(32015), unknown(Int.MAX_VALUE);
 
     companion object {
         fun fromId(id: Int): FilterType {
@@ -591,7 +595,8 @@ enum class FilterType(val id: Int) {
     }
 }
 
-data class Filter(val filterType: FilterType, val name: String, val clientValues: IntArray)
+/** @param filterId the registered filter id, see H5filterRegistry */
+data class Filter(val filterType: FilterType, val name: String, val clientValues: IntArray, val filterId: Int = filterType.id)
 
 data class FilterPipelineMessage(val filters: List<Filter>) : MessageHeader(MessageType.FilterPipeline) {
     override fun show() : String {
@@ -5,6 +5,9 @@ import com.sunya.cdm.array.*
 import com.sunya.cdm.iosp.OpenFile
 import com.sunya.cdm.iosp.OpenFileState
 import com.sunya.netchdf.NetchdfFileFormat
+import com.sunya.netchdf.SpObjectCodec
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.io.IOException
 import java.nio.ByteOrder
 import java.nio.charset.Charset
@@ -383,4 +386,19 @@ data class VinfoN3(
   val begin: Long,
   val isRecordVariable: Boolean,
   val elemSize: Int
-)
\ No newline at end of file
+)
+// the VinfoN3 of each variable in a metadata index
+internal object VinfoN3Codec : SpObjectCodec {
+  override fun write(out: DataOutputStream, spObject: Any?) {
+    val vinfo = spObject as VinfoN3
+    out.writeUTF(vinfo.name)
+    out.writeLong(vinfo.vsize)
+    out.writeLong(vinfo.begin)
+    out.writeBoolean(vinfo.isRecordVariable)
+    out.writeInt(vinfo.elemSize)
+  }
+
+  override fun read(input: DataInputStream): Any {
+    return VinfoN3(input.readUTF(), input.readLong(), input.readLong(), input.readBoolean(), input.readInt())
+  }
+}
@@ -4,19 +4,49 @@ import com.sunya.cdm.api.*
 import com.sunya.cdm.array.*
 import com.sunya.cdm.iosp.*
 import com.sunya.cdm.layout.*
+import com.sunya.netchdf.MetadataIndex
 import java.io.IOException
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import kotlin.math.max
+import kotlin.math.min
 
-class Netcdf3File(val filename : String) : Netchdf {
-    private val raf : OpenFile = OpenFile(filename)
-    private val header : N3header
+private const val maxRecordBytes = 1024 * 1024L
+
+/**
+ * @param useMmap if true, contiguous reads of numeric variables return a view of the memory-mapped file, not a copy.
+ * @param maxReadGap pieces of a read that are separated by no more than this many bytes in the file, like the
+ *   values of a record variable in successive records, are read together with one read.
+ * @param metadataIndex the filename of a metadata index (see MetadataIndex) for this file. If its up to date, the
+ *   header is read from it instead of from the file; otherwise its written after the header is read from the file.
+ */
+class Netcdf3File(val filename : String, useMmap : Boolean = false, maxReadGap : Int = defaultMaxReadGap,
+                  metadataIndex : String? = null) : Netchdf {
+    private val raf : OpenFile = OpenFile(filename, useMmap, maxReadGap)
     private val rootGroup : Group
+    private val formatType : String
+    private val recsize : Long // size of each record (padded)
+    private val unlimitedDimension : Dimension?
 
     init {
-        val rootBuilder = Group.Builder("")
-        header = N3header(raf, rootBuilder)
-        rootGroup = rootBuilder.build(null)
+        val indexed = metadataIndex?.let { MetadataIndex.read(it, filename, VinfoN3Codec) }
+        if (indexed != null) {
+            rootGroup = indexed.rootGroup
+            formatType = indexed.type
+            recsize = indexed.formatInfo[0]
+            unlimitedDimension = rootGroup.dimensions.getOrNull(indexed.formatInfo[1].toInt())
+        } else {
+            val rootBuilder = Group.Builder("")
+            val header = N3header(raf, rootBuilder)
+            rootGroup = rootBuilder.build(null)
+            formatType = header.formatType()
+            recsize = header.recsize
+            unlimitedDimension = header.unlimitedDimension
+            if (metadataIndex != null) {
+                val formatInfo = longArrayOf(recsize, rootGroup.dimensions.indexOf(unlimitedDimension).toLong())
+                MetadataIndex.write(metadataIndex, filename, formatType, rootGroup, formatInfo, VinfoN3Codec)
+            }
+        }
     }
 
     override fun close() {
@@ -26,7 +56,7 @@ class Netcdf3File(val filename : String) : Netchdf {
     override fun rootGroup() = rootGroup
     override fun location() = filename
     override fun cdl() = cdl(this)
-    override fun type() = header.formatType()
+    override fun type() = formatType
     override val size : Long get() = raf.size
 
     @Throws(IOException::class)
@@ -39,13 +69,13 @@ class Netcdf3File(val filename : String) : Netchdf {
         val layout = if (!v2.hasUnlimited()) {
             LayoutRegular(vinfo.begin, vinfo.elemSize, wantSection)
         } else {
-            LayoutRegularSegmented(vinfo.begin, vinfo.elemSize, header.recsize, wantSection)
+            LayoutRegularSegmented(vinfo.begin, vinfo.elemSize, recsize, wantSection)
         }
         return readDataWithLayout(layout, v2, wantSection)
     }
 
     private fun Variable<*>.hasUnlimited() : Boolean {
-        return this.dimensions.find { it == header.unlimitedDimension } != null
+        return this.dimensions.find { it == unlimitedDimension } != null
     }
 
     override fun <T> chunkIterator(v2: Variable<T>, section: SectionPartial?, maxElements : Int?): Iterator<ArraySection<T>> {
@@ -56,6 +86,15 @@ class Netcdf3File(val filename : String) : Netchdf {
         return NCmaxIterator(v2, wantSection, maxElements ?: 100_000)
     }
 
+    @Throws(IOException::class)
+    override fun <T> chunkReads(v2: Variable<T>, section: SectionPartial?, maxElements : Int?): Iterator<ChunkRead<T>> {
+        if (v2.nelems == 0L) {
+            return listOf<ChunkRead<T>>().iterator()
+        }
+        val wantSection = SectionPartial.fill(section, v2.shape)
+        return NCmaxIterator(v2, wantSection, maxElements ?: 100_000).reads()
+    }
+
     private inner class NCmaxIterator<T>(val v2: Variable<T>, wantSection : Section, maxElems: Int) : AbstractIterator<ArraySection<T>>() {
         private val debugChunking = false
         val vinfo = v2.spObject as VinfoN3
@@ -65,21 +104,120 @@ class Netcdf3File(val filename : String) : Netchdf {
             if (maxIterator.hasNext()) {
                 val indexSection = maxIterator.next()
                 if (debugChunking) println("  chunk=${indexSection}")
-                val section = indexSection.section(v2.shape)
+                setNext(read(indexSection.section(v2.shape)))
+            } else {
+                done()
+            }
+        }
 
-                val layout = if (!v2.hasUnlimited()) {
-                    LayoutRegular(vinfo.begin, vinfo.elemSize, section)
-                } else {
-                    // I think this will segment on the record dimension
-                    LayoutRegularSegmented(vinfo.begin, vinfo.elemSize, header.recsize, section)
-                }
+        /** The remaining pieces, to be read later, possibly in parallel. */
+        fun reads() : Iterator<ChunkRead<T>> = maxIterator.asSequence().map { indexSection ->
+            val section = indexSection.section(v2.shape)
+            ChunkRead(section, section.totalElements * vinfo.elemSize) { read(section) }
+        }.iterator()
 
-                val array = readDataWithLayout(layout, v2, section)
-                setNext(ArraySection(array, section))
+        private fun read(section : Section) : ArraySection<T> {
+            val layout = if (!v2.hasUnlimited()) {
+                LayoutRegular(vinfo.begin, vinfo.elemSize, section)
             } else {
-                done()
+                // I think this will segment on the record dimension
+                LayoutRegularSegmented(vinfo.begin, vinfo.elemSize, recsize, section)
+            }
+
+            val array = readDataWithLayout(layout, v2, section)
+            return ArraySection(array, section)
+        }
+    }
+
+    /**
+     * Read the given records of all of the variables at once. Each record is read once, instead of once for each
+     * variable, and successive records are read together.
+     * @param variables record variables of this file
+     * @param recordRange the records wanted, default all
+     * @return the data of each variable for just those records, in the same order as variables
+     */
+    @Throws(IOException::class)
+    fun readRecords(variables : List<Variable<*>>, recordRange : LongProgression? = null) : List<ArrayTyped<*>> {
+        checkRecordVariables(variables)
+        return readRecordSections(variables, recordRange ?: allRecords()).map { it.array }
+    }
+
+    /**
+     * The same as readRecords, but maxRecords records at a time.
+     * Each element has the data of each variable for the next maxRecords records, in the same order as variables.
+     * @param maxRecords the number of records in each element, default about 1 Mbyte of records
+     */
+    @Throws(IOException::class)
+    fun recordIterator(variables : List<Variable<*>>, recordRange : LongProgression? = null, maxRecords : Int? = null)
+            : Iterator<List<ArraySection<*>>> {
+        checkRecordVariables(variables)
+        val records = recordRange ?: allRecords()
+        val nrecs = Section(listOf(records), longArrayOf(allRecords().count)).shape[0]
+        val chunkRecords = maxRecords?.toLong() ?: max(1L, maxRecordBytes / recsize)
+        require(chunkRecords > 0) { "maxRecords must be > 0" }
+
+        return (0 until nrecs step chunkRecords).asSequence().map { start ->
+            val first = records.first + start * records.step
+            val last = records.first + (min(start + chunkRecords, nrecs) - 1) * records.step
+            readRecordSections(variables, LongProgression.fromClosedRange(first, last, records.step))
+        }.iterator()
+    }
+
+    private fun allRecords() : LongProgression = 0L until (unlimitedDimension?.length ?: 0L)
+
+    private val LongProgression.count : Long get() = if (isEmpty()) 0L else (last - first) / step + 1
+
+    private fun checkRecordVariables(variables : List<Variable<*>>) {
+        require(variables.isNotEmpty()) { "no variables" }
+        variables.forEach {
+            val vinfo = it.spObject
+            require(vinfo is VinfoN3 && vinfo.isRecordVariable) { "${it.name} is not a record variable" }
+        }
+    }
+
+    private fun readRecordSections(variables : List<Variable<*>>, records : LongProgression) : List<ArraySection<*>> {
+        val nrecs = allRecords().count
+        require(records.isEmpty() || (records.step > 0 && records.first >= 0 && records.last < nrecs)) {
+            "records $records not in 0 until $nrecs"
+        }
+        val sections = variables.map { v -> Section(listOf(records) + v.shape.drop(1).map { 0L until it }, v.shape) }
+        val vinfos = variables.map { it.spObject as VinfoN3 }
+        // the bytes of each variable in one record
+        val recBytes = variables.mapIndexed { idx, v -> v.shape.drop(1).fold(1L) { a, b -> a * b } * vinfos[idx].elemSize }
+        require(recBytes.sum() * records.count < Int.MAX_VALUE)
+        val values = recBytes.map { ByteBuffer.allocate((it * records.count).toInt()) }
+
+        if (!records.isEmpty()) {
+            // only the part of each record from the first to the end of the last wanted variable is read
+            val start = vinfos.minOf { it.begin }
+            val span = vinfos.indices.maxOf { vinfos[it].begin + recBytes[it] } - start
+            // successive records are read together if the bytes between them arent too many
+            val recStride = records.step * recsize
+            val together = if (recStride - span <= raf.maxReadGap) max(1L, maxRecordBytes / recStride) else 1L
+            val scratch = ByteBuffer.allocate(((min(together, records.count) - 1) * recStride + span).toInt())
+            val state = OpenFileState(0, ByteOrder.BIG_ENDIAN)
+
+            var count = 0L
+            while (count < records.count) {
+                val n = min(together, records.count - count)
+                state.pos = start + (records.first + count * records.step) * recsize
+                raf.readIntoByteBufferDirect(state, scratch, 0, ((n - 1) * recStride + span).toInt())
+                scratch.clear()
+                for (rec in 0 until n) {
+                    vinfos.forEachIndexed { idx, vinfo ->
+                        val srcPos = rec * recStride + vinfo.begin - start
+                        values[idx].put(((count + rec) * recBytes[idx]).toInt(), scratch, srcPos.toInt(), recBytes[idx].toInt())
+                    }
+                }
+                count += n
             }
         }
+
+        return variables.mapIndexed { idx, v ->
+            val shape = sections[idx].shape.toIntArray()
+            val array = if (sections[idx].totalElements == 0L) ArrayEmpty(shape, v.datatype) else makeArray(v, shape, values[idx])
+            ArraySection(array, sections[idx])
+        }
     }
 
     @Throws(IOException::class)
@@ -88,20 +226,24 @@ class Netcdf3File(val filename : String) : Netchdf {
         val vinfo = v2.spObject as VinfoN3
         val totalNbytes = (vinfo.elemSize * layout.totalNelems)
         require(totalNbytes < Int.MAX_VALUE)
-        val values = ByteBuffer.allocate(totalNbytes.toInt())
-
-        var bytesRead = 0
         val filePos = OpenFileState(vinfo.begin, ByteOrder.BIG_ENDIAN)
-        while (layout.hasNext()) {
-            val chunk = layout.next()
-            filePos.pos = chunk.srcPos()
-            val dstPos = (vinfo.elemSize * chunk.destElem()).toInt()
-            val chunkBytes = vinfo.elemSize * chunk.nelems()
-            bytesRead += raf.readIntoByteBufferDirect(filePos, values, dstPos, chunkBytes)
+
+        val values = if (raf.useMmap && layout is LayoutRegular && layout.isContiguous &&
+            (v2.datatype.isNumber || v2.datatype.isUnsigned)) {
+            // no copy: the array is a view of the mapped file
+            filePos.pos = layout.next().srcPos()
+            raf.readByteBufferMapped(filePos, totalNbytes.toInt())
+        } else {
+            val values = ByteBuffer.allocate(totalNbytes.toInt())
+            val bytesRead = raf.readLayout(layout, values)
+            require(bytesRead == totalNbytes.toInt())
+            values
         }
-        require(bytesRead == totalNbytes.toInt())
 
-        val shape = wantSection.shape.toIntArray()
+        return makeArray(v2, wantSection.shape.toIntArray(), values)
+    }
+
+    private fun <T> makeArray(v2: Variable<T>, shape : IntArray, values : ByteBuffer): ArrayTyped<T> {
         val result = when (v2.datatype) {
             Datatype.BYTE -> ArrayByte(shape, values)
             Datatype.UBYTE -> ArrayUByte(shape, values)
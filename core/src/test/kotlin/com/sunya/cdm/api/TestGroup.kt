@@ -343,6 +343,52 @@ class TestGroup {
         assertNotEquals(good.hashCode(), bad.hashCode())
     }
 
+    @Test
+    fun testLazy() {
+        val loaded = mutableListOf<String>()
+        val parentg = Group.Builder("parent").setContentsLoader { gb ->
+            loaded.add(gb.name)
+            val vb = Variable.Builder("v", Datatype.STRING)
+            vb.dimNames = listOf("low", "high")
+            gb.addDimension(Dimension("low", 1)).addVariable(vb)
+        }
+        val root = Group.Builder("root").setContentsLoader { gb ->
+            loaded.add(gb.name)
+            gb.addDimension(Dimension("high", 2)).addGroup(parentg)
+        }.build(null)
+        assertFalse(root.isLoaded)
+        assertTrue(loaded.isEmpty())
+
+        val parent = root.groups.find { it.name == "parent" }
+        assertNotNull(parent)
+        assertTrue(root.isLoaded)
+        assertFalse(parent.isLoaded)
+        assertEquals(listOf("root"), loaded)
+
+        val v = parent.variables.find { it.name == "v" }
+        assertNotNull(v)
+        assertContentEquals(longArrayOf(1, 2), v.shape)
+        assertEquals(listOf("root", "parent"), loaded)
+        assertEquals(0, parent.groups.size)
+        assertEquals(listOf("root", "parent"), loaded) // only loaded once
+
+        // same as if it was built eagerly
+        val vb = Variable.Builder("v", Datatype.STRING)
+        vb.dimNames = listOf("low", "high")
+        val eager = Group.Builder("root").addDimension(Dimension("high", 2))
+            .addGroup(Group.Builder("parent").addDimension(Dimension("low", 1)).addVariable(vb)).build(null)
+        assertEquals(eager, root)
+        assertEquals(eager.cdl(false), root.cdl(false))
+    }
+
+    @Test
+    fun testLazyNotEmpty() {
+        val child = Group.Builder("child").setContentsLoader { gb -> gb.addAttribute(Attribute.from("att", "value")) }
+        val root = Group.Builder("root").addGroup(child)
+        assertFalse(root.removeEmptyGroups())
+        assertEquals(1, root.groups.size)
+    }
+
     @Test
     fun testAddAndReplaceDimension() {
         val dim42 = Dimension("dim1", 42)
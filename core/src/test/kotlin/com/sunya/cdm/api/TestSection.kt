@@ -3,8 +3,8 @@ package com.sunya.cdm.api
 import com.sunya.cdm.layout.IndexND
 import com.sunya.cdm.layout.IndexSpace
 import org.junit.jupiter.api.Test
+import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
-import kotlin.test.assertNotEquals
 
 class TestSection {
 
@@ -59,12 +59,13 @@ class TestSection {
         // class IndexND(val section : IndexSpace, val datashape : LongArray) : Iterable<LongArray> {
         val space : IndexSpace = indexND.section
 
-        // IndexSpace is the same as List<LongProgression>, except for strides
-        assertNotEquals(ranges, space.ranges)
+        // IndexSpace keeps the strides
+        assertEquals(ranges, space.ranges)
+        assertContentEquals(longArrayOf(11, 3, 1), space.shape)
 
-        // sectionL is the same as IndexND, except for strides
         val rt2 = Section(indexND.section.ranges, indexND.datashape)
-        assertNotEquals(section, rt2)
+        assertEquals(section, rt2)
+        assertEquals(33, indexND.count())
     }
 
     //          main/test/clibs
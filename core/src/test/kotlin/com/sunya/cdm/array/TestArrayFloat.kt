@@ -11,6 +11,7 @@ import io.kotest.property.checkAll
 import org.junit.jupiter.api.Test
 import java.nio.ByteBuffer
 import kotlin.math.max
+import kotlin.system.measureNanoTime
 import kotlin.test.*
 
 class TestArrayFloat {
@@ -67,4 +68,51 @@ class TestArrayFloat {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testPrimitiveAccess() {
+        val shape = intArrayOf(4,5,6)
+        val size = shape.computeSize()
+        val bb = ByteBuffer.allocate(size * 4)
+        val fb = bb.asFloatBuffer()
+        repeat(size) { fb.put(it.toFloat())}
+        val testArray = ArrayFloat(shape, bb)
+
+        assertEquals(37.0f, testArray.getFloat(37))
+        assertEquals((2 * 30 + 3 * 6 + 4).toFloat(), testArray.getFloat(intArrayOf(2, 3, 4)))
+        assertFailsWith<IndexOutOfBoundsException> { testArray.getFloat(intArrayOf(2, 5, 4)) }
+
+        assertContentEquals(FloatArray(size) { it.toFloat() }, testArray.toFloatArray())
+        val dest = testArray.copyInto(FloatArray(12), 2, 100, 10)
+        assertEquals(0.0f, dest[1])
+        assertEquals(100.0f, dest[2])
+        assertEquals(109.0f, dest[11])
+
+        var idx = 0
+        testArray.forEachFloat { assertEquals(idx++.toFloat(), it) }
+        assertEquals(size, idx)
+
+        val copy = ArrayFloat(shape, ByteBuffer.allocate(size * 4).also { it.asFloatBuffer().put(testArray.toFloatArray()) })
+        assertEquals(testArray, copy)
+        copy.values.put(size - 1, Float.NaN)
+        assertNotEquals(testArray, copy)
+        testArray.values.put(size - 1, Float.NaN)
+        assertEquals(testArray, copy)
+    }
+
+    @Test
+    fun timeSum() {
+        val size = 10_000_000
+        val bb = ByteBuffer.allocate(size * 4)
+        val fb = bb.asFloatBuffer()
+        repeat(size) { fb.put((it % 1000).toFloat())}
+        val testArray = ArrayFloat(intArrayOf(size), bb)
+
+        var sumIter = 0.0
+        val iterNanos = measureNanoTime { testArray.forEach { sumIter += it } }
+        var sumPrim = 0.0
+        val primNanos = measureNanoTime { testArray.forEachFloat { sumPrim += it } }
+        assertEquals(sumIter, sumPrim)
+        println("sum $size floats: iterator ${iterNanos / 1000_000} msecs, forEachFloat ${primNanos / 1000_000} msecs")
+    }
+}
@@ -82,4 +82,21 @@ class TestArrayUInt {
             assertEquals(idx - 21, it.toInt())
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testPrimitiveAccess() {
+        val shape = intArrayOf(4,5,6)
+        val size = shape.computeSize()
+        val sarray = IntArray(size) { it - 21 }
+        val testArray = ArrayUInt.fromArray(shape, sarray)
+
+        assertEquals((-21).toUInt(), testArray.getUInt(0))
+        assertEquals((1 * 30 + 2 * 6 + 3 - 21).toUInt(), testArray.getUInt(intArrayOf(1, 2, 3)))
+        assertContentEquals(sarray, testArray.copyInto(IntArray(size)))
+
+        var idx = 0
+        testArray.forEachUInt { assertEquals((idx++ - 21).toUInt(), it) }
+        assertEquals(size, idx)
+        assertEquals(testArray.joinToString(","), testArray.showValues())
+    }
+}
@@ -0,0 +1,139 @@
+package com.sunya.cdm.array
+
+import com.sunya.cdm.api.*
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import kotlin.system.measureNanoTime
+import kotlin.test.*
+
+class TestStridedView {
+    val shape = intArrayOf(20, 30, 40)
+    val cube = ArrayFloat(shape, ByteBuffer.allocate(4 * shape.computeSize()).also {
+        val fb = it.asFloatBuffer()
+        repeat(shape.computeSize()) { idx -> fb.put(idx.toFloat()) }
+    })
+
+    fun value(t : Int, y : Int, x : Int) = (t * 1200 + y * 40 + x).toFloat()
+
+    @Test
+    fun testTimeSeries() {
+        val series = cube.section(Section(intArrayOf(0, 7, 11), intArrayOf(20, 1, 1), shape.toLongArray()))
+        assertNotNull(series.view)
+        assertContentEquals(intArrayOf(20, 1, 1), series.shape)
+        repeat(20) { t -> assertEquals(value(t, 7, 11), series.getFloat(t)) }
+        assertEquals(value(3, 7, 11), series.getFloat(intArrayOf(3, 0, 0)))
+        assertContentEquals(FloatArray(20) { value(it, 7, 11) }, series.toFloatArray())
+        assertContentEquals(FloatArray(20) { value(it, 7, 11) }, series.toList().toFloatArray())
+
+        // materialized on demand
+        assertEquals(value(19, 7, 11), series.values[19])
+        assertEquals(80, series.bb.limit())
+    }
+
+    @Test
+    fun testContiguous() {
+        // whole rows are contiguous, so theres no view, just a slice
+        val rows = cube.section(Section(intArrayOf(5, 0, 0), intArrayOf(2, 30, 40), shape.toLongArray()))
+        assertNull(rows.view)
+        assertEquals(value(5, 0, 0), rows.values[0])
+        assertEquals(value(6, 29, 39), rows.values[2 * 1200 - 1])
+
+        val all = cube.section(Section(shape.toLongArray()))
+        assertNull(all.view)
+        assertEquals(cube, all)
+    }
+
+    @Test
+    fun testStridedSections() {
+        val ranges = listOf(LongProgression.fromClosedRange(1, 19, 3), LongProgression.fromClosedRange(2, 29, 9),
+            LongProgression.fromClosedRange(0, 39, 10))
+        val strided = cube.section(Section(ranges, shape.toLongArray()))
+        assertContentEquals(intArrayOf(7, 4, 4), strided.shape)
+        var count = 0
+        for (t in ranges[0]) for (y in ranges[1]) for (x in ranges[2]) {
+            assertEquals(value(t.toInt(), y.toInt(), x.toInt()), strided.getFloat(count++))
+        }
+        assertEquals(strided.nelems, count)
+
+        // section of a section
+        val sub = strided.section(Section(intArrayOf(2, 1, 1), intArrayOf(3, 2, 3), intArrayOf(7, 4, 4).toLongArray()))
+        val expect = mutableListOf<Float>()
+        for (t in 2 until 5) for (y in 1 until 3) for (x in 1 until 4) expect.add(value(1 + 3 * t, 2 + 9 * y, 10 * x))
+        assertEquals(expect, sub.toList())
+        var idx = 0
+        sub.forEachFloat { assertEquals(expect[idx++], it) }
+        assertEquals(expect.joinToString(","), sub.showValues())
+
+        // views compare equal to their copies
+        val copy = ArrayFloat(sub.shape, ByteBuffer.allocate(4 * sub.nelems).also { it.asFloatBuffer().put(sub.toFloatArray()) })
+        assertEquals(copy, sub)
+        assertEquals(sub, copy)
+        assertFailsWith<IllegalArgumentException> {
+            strided.section(Section(intArrayOf(0, 0, 0), intArrayOf(8, 1, 1), intArrayOf(7, 4, 4).toLongArray()))
+        }
+    }
+
+    @Test
+    fun testOtherTypes() {
+        val section = Section(intArrayOf(1, 1), intArrayOf(2, 2), longArrayOf(3, 4))
+        val strings = ArrayString(intArrayOf(3, 4), List(12) { "s$it" })
+        assertEquals(listOf("s5", "s6", "s9", "s10"), strings.section(section).values)
+
+        val opaque = ArrayOpaque(intArrayOf(3, 4), ByteBuffer.wrap(ByteArray(24) { (it / 2).toByte() }), 2)
+        val opaqueSection = opaque.section(section)
+        assertEquals(listOf(5, 6, 9, 10), opaqueSection.map { it.get(1).toInt() })
+
+        val shorts = ArrayUShort.fromArray(intArrayOf(3, 4), ShortArray(12) { (it - 6).toShort() })
+        assertEquals(listOf(5, 6, 9, 10).map { (it - 6).toUShort() }, shorts.section(section).toList())
+    }
+
+    @Test
+    fun testStructureHeap() {
+        val svMember = StructureMember("svMember", Datatype.STRING.withVlen(true), 0, intArrayOf(1))
+        val recsize = Datatype.STRING.size
+        val arraySD = ArrayStructureData(intArrayOf(3, 4), ByteBuffer.allocate(recsize * 12), recsize, listOf(svMember))
+        arraySD.forEachIndexed { recno, sdata -> sdata.putOnHeap(svMember, "rec-$recno") }
+
+        val section = arraySD.section(Section(intArrayOf(0, 2), intArrayOf(3, 1), longArrayOf(3, 4)))
+        assertNotNull(section.view)
+        assertEquals(listOf("rec-2", "rec-6", "rec-10"), section.map { svMember.value(it) })
+    }
+
+    @Test
+    fun timeRepeatedSlicing() {
+        val tshape = intArrayOf(100, 200, 200)
+        val big = ArrayFloat(tshape, ByteBuffer.allocate(4 * tshape.computeSize()))
+        val ntimes = 10_000
+        var sum = 0.0
+        val nanos = measureNanoTime {
+            repeat(ntimes) {
+                val series = big.section(Section(intArrayOf(0, it % 200, it / 200), intArrayOf(100, 1, 1), tshape.toLongArray()))
+                series.forEachFloat { v -> sum += v }
+            }
+        }
+        println("$ntimes time series from ${tshape.contentToString()} took ${nanos / ntimes} nsecs each")
+
+        // the sections are views, not copies: a later write to big shows up in them
+        val series = big.section(Section(intArrayOf(0, 3, 4), intArrayOf(100, 1, 1), tshape.toLongArray()))
+        big.bb.putFloat(4 * (99 * 200 * 200 + 3 * 200 + 4), 42f)
+        assertEquals(42f, series.getFloat(99))
+    }
+
+    // sections share the parent's storage, whether they are views or slices
+    @Test
+    fun testSharesStorage() {
+        val bb = ByteBuffer.allocate(4 * shape.computeSize())
+        val parent = ArrayFloat(shape, bb)
+        val series = parent.section(Section(intArrayOf(0, 7, 11), intArrayOf(20, 1, 1), shape.toLongArray()))
+        val rows = parent.section(Section(intArrayOf(5, 0, 0), intArrayOf(2, 30, 40), shape.toLongArray()))
+        val sub = series.section(Section(intArrayOf(4, 0, 0), intArrayOf(10, 1, 1), longArrayOf(20, 1, 1)))
+        assertNotNull(series.view)
+        assertNull(rows.view)
+        assertNotNull(sub.view)
+
+        bb.putFloat(4 * (6 * 1200 + 7 * 40 + 11).toInt(), 17f)
+        assertEquals(17f, series.getFloat(6))
+        assertEquals(17f, rows.getFloat(1200 + 7 * 40 + 11))
+        assertEquals(17f, sub.getFloat(2))
+    }
+}
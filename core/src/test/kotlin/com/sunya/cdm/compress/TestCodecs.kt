@@ -0,0 +1,209 @@
+package com.sunya.cdm.compress
+
+import com.sunya.netchdf.hdf5.FilterType
+import com.sunya.netchdf.hdf5.H5filterRegistry
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+
+// compressed vectors were made with the reference libzstd and liblz4
+class TestCodecs {
+    val text = (0 until 400).joinToString(" ") { "w" + (it * 7919 % 53) }.toByteArray()
+    val ints = ByteBuffer.allocate(256 * 4).order(ByteOrder.LITTLE_ENDIAN).apply {
+        for (i in 0 until 256) putInt(i * 3 + (i % 7))
+    }.array()
+
+    @Test
+    fun testLz4Block() {
+        val compressed = hex(lz4Text)
+        val result = ByteArray(text.size)
+        val n = Lz4.decompressBlock(compressed, 0, compressed.size, result, 0, result.size)
+        assertEquals(text.size, n)
+        assertContentEquals(text, result)
+    }
+
+    @Test
+    fun testZstdFrame() {
+        val compressed = hex(zstdText)
+        val result = ByteArray(text.size)
+        val n = ZstdDecompressor().decompress(compressed, 0, compressed.size, result, 0, result.size)
+        assertEquals(text.size, n)
+        assertContentEquals(text, result)
+    }
+
+    fun checkZstd(compressedHex: String, expected: ByteArray) {
+        val compressed = hex(compressedHex)
+        val result = ByteArray(expected.size)
+        val n = ZstdDecompressor().decompress(compressed, 0, compressed.size, result, 0, result.size)
+        assertEquals(expected.size, n)
+        assertContentEquals(expected, result)
+    }
+
+    // a compressed block with FSE compressed sequence tables, an RLE block, then a raw block
+    @Test
+    fun testZstdMultiBlock() {
+        val records = (0 until 7000).joinToString("") { "record ${it % 1000} value ${it * it % 1000};" }.toByteArray()
+        var x = 12345L
+        val random = ByteArray(200) { x = (x * 1103515245 + 12345) and 0x7fffffff; (x shr 16).toByte() }
+        checkZstd(zstdMultiBlock, records.copyOf(131072) + ByteArray(131072) { 'a'.code.toByte() } + random)
+    }
+
+    // most matches use a repeat offset
+    @Test
+    fun testZstdRepeatOffsets() {
+        checkZstd(zstdRepeatOffsets, (0 until 500).joinToString("") { "k%04d=%04d;".format(it, it % 97) }.toByteArray())
+    }
+
+    // the content checksum is skipped
+    @Test
+    fun testZstdChecksum() {
+        checkZstd(zstdChecksum, text)
+    }
+
+    @Test
+    fun testBitshuffleRoundtrip() {
+        for (elemSize in listOf(1, 2, 4, 8)) {
+            val nelems = 1000 // not a multiple of the block size, and leaves elements over
+            val data = ByteArray(nelems * elemSize) { (it * 31 + it / 7).toByte() }
+            val blockSize = Bitshuffle.defaultBlockSize(elemSize)
+            val shuffled = bitshuffle(data, nelems, elemSize, blockSize)
+            val result = ByteArray(data.size)
+            Bitshuffle.unshuffle(shuffled, 0, result, 0, nelems, elemSize, blockSize)
+            assertContentEquals(data, result, "elemSize $elemSize")
+        }
+    }
+
+    @Test
+    fun testLz4Filter() {
+        val compressed = hex(lz4Text)
+        val encoded = ByteBuffer.allocate(16 + compressed.size)
+        encoded.putLong(text.size.toLong()).putInt(text.size).putInt(compressed.size).put(compressed).flip()
+
+        val decoder = assertNotNull(H5filterRegistry.decoder(FilterType.lz4.id))
+        val result = decoder.decode(encoded, IntArray(0), text.size)
+        assertContentEquals(text, ByteArray(result.remaining()).also { result.get(it) })
+    }
+
+    @Test
+    fun testBitshuffleLz4Filter() {
+        val decoder = assertNotNull(H5filterRegistry.decoder(FilterType.bitshuffle.id))
+        val clientValues = intArrayOf(0, 3, 4, 0, 2)
+        val result = decoder.decode(ByteBuffer.wrap(hex(bitshuffleLz4Ints)), clientValues, ints.size)
+        assertContentEquals(ints, ByteArray(result.remaining()).also { result.get(it) })
+    }
+
+    // straightforward bitshuffle, one bit at a time
+    fun bitshuffle(data: ByteArray, nelems: Int, elemSize: Int, blockSize: Int): ByteArray {
+        val result = data.copyOf()
+        var start = 0
+        while (start < nelems - nelems % 8) {
+            val n = minOf(blockSize, (nelems - start) - (nelems - start) % 8)
+            val rowBytes = n / 8
+            val offset = start * elemSize
+            for (j in 0 until elemSize) {
+                for (b in 0 until 8) {
+                    val row = offset + (j * 8 + b) * rowBytes
+                    for (g in 0 until rowBytes) {
+                        var v = 0
+                        for (m in 0 until 8) {
+                            v = v or (((data[offset + (8 * g + m) * elemSize + j].toInt() shr b) and 1) shl m)
+                        }
+                        result[row + g] = v.toByte()
+                    }
+                }
+            }
+            start += n
+        }
+        return result
+    }
+
+    fun hex(s: String) = ByteArray(s.length / 2) { s.substring(2 * it, 2 * it + 2).toInt(16).toByte() }
+
+    val zstdText = "28b52ffd60f4043d0300a20c170ec0a703ffbf391111b2f7b2e99a278eb62ca825db523b66c30adada865a9add0e2dd8aeb66c41" +
+            "58322b76d086ada8add959a2dd766ac1ecc296d9b184566c476d98a52ddad952ed66272ca0255b68c796d48ad9da404bdbaa9d59700100ca939abf9102"
+
+    val zstdMultiBlock = "28b52ffda0c80004005c3d00fa64200b159027851c20f9bbdb6f7717524a929572b70166b21eba00ae00aa00a46342e211120f86221a" +
+            "8b0847483c188a682c221ca188c622be88104b6aa1542221b68c3261843ccc58c41f6c6c42147620c31614224438446088b010244488" +
+            "e0073eec21bffcf1bce571b957737c796cdb52731c2cefdb4eb74a0d695f96427a1c91e439534a7a381bcdc484091366266c410bb288" +
+            "4ddf3c76e638196da2748d6292c4eb9ac515a99442e9888c78b2c98204f5897c772464f89dda444244f8a3bf521c19c6ae4904803020" +
+            "304020c08141180c28282080a0209425d144599246d5a5e90ac90a49b24212a5d0445d9a2a495668aa245197485668aa245197746964" +
+            "69648946128d2e912e8992aa902c8d2ea9d26489284d9688d2c4224291894584222317494528231711a984c8c86522128b4845282194" +
+            "90999999d9359919cb888c8c4c38090925842215118b4426971191908a88452e2342918ae412120ec2200ba220412248081282842041" +
+            "78b9bf9f97fb7bbc96efb1ed395ccf65d5b7d2772a7d874273022429064d8a419364f0e4c8b31c06c3810c5ca0020323300486c01018" +
+            "e8f3bbfc3ebfcbe3773d96edb1a79ef1cc239dbe6d57353ad3e16c34f399ce6c343231f3f17438b3d1c8c4ccc7d399f96866623ee3e9" +
+            "74383333b399d168466662626262666666764d66ee6ddbb7c562b1b0c562599eb7cd66e3bacedbb7d864da6c5ce77d8bc9b46d5ce77d" +
+            "8bc9b46dddaa69d2a651ab766d316d5bf7c936ebbc4d9b75df641be74db671de4453e5cc248908c5ffffffffffffffffffffffffffff" +
+            "ffffffffffffffffffffffffffffffffffffffffffffffdbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddb" +
+            "b66ddbb66ddb76dbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb66ddb92244992244992244992" +
+            "24c921cda1f0a4f024459663d0a4f024459663d0a4588e3c19018655a89391deed77b31d14621842d09d071330061f473e4910822114" +
+            "5efbffff06ecacf55098a7221193b648baf24502cc869184014ae17524d1b2c046d245389231818e248c72031db62ad49931d13511cd" +
+            "bf149274bf90e813d0956c241943d3818fbe0ee8801db8fa1da0816443d2037a3fd3a03ea053b4ab804dc382731fe88661dae8ef8191" +
+            "c9ba09d87bd42d48c351c31ffd47b591bb68dd9846dd4b412a69415be88bbba0965895b005bcbd4fc9730b7cf7ad9e7f75f647a16d02" +
+            "5deeadf33e25ad800d2c431b58073bfcb74cbbdf2adbb7ff4a58038bb822380d56a10bbcfb67f3afab800b54d36015da56c005ad84ad" +
+            "a05156d10c9b5654f028b0842d60ad806a625b4217a85650e5ee3af9d7c03658599fdfed12cd229a4d0f8f83c04d28b39fe46042cb58" +
+            "2e1642a9d630161f5c65c881a0f863909282152d8086658ac5825c20afac46a594751b9b1aab15f07760620e28ad0ec1653890403331" +
+            "8a966167d236f2e70e2fceaff438debfbf3fe0f7eff7eef7efe7eea7952a554aeaa0aaaad093d0ffffb8bfbfd4e7828a8a692697082e" +
+            "1c2695e702dcd5201ee53ac6e245a3d9e27141e45d2028d7a730f38545be246406007cef4440bb9acb7bc802507c148b2f901b56fa08" +
+            "0713549e200445dcaa12e483a008ce621296cad4bf10edc8d860280a79586128da144c31146db68a1943c7393f349e24708977a886ae" +
+            "83be28564e04ad253a1c2ebeef242e0ed19d77457218a9a229cc61b49c5cd1f72086a510ab4394422aacbbdfbb1f5f070c1e44350aa5" +
+            "e6e9b0786add71a47e5a1d2e37b75356a9d282ff7575946c63187c68964d3c1648ddb8c72c982d4247d561791e91d081c718c10e29aa" +
+            "48928154b760430c6d6f7787c56199eeeb1c3c5c3c3546b69da359cf32bea034dd4bb379a4b1f3748614cd0be60e4f8dcc3aba8083e3" +
+            "556614a250ec3a9d415dd698a038e1678618230c3e349b261f2ba4be354139561bf34904bf7f659e8380348a2d1e3658804cb0786f09" +
+            "2a5204f9ee5c3bfb7216b55dc3f082b9b91fcec609e5aed318d47b21801a5c3968f14400a9a0968c49850801874a5ed58ce5da46b6ac" +
+            "ab8408a0ca70ff878f0efcdfdb89077e3b99b1572434d2d95715708de04290a19857106441eefc5dc08ce5940417702c6d5a46b5ee36" +
+            "b600ab3246354c2eb0cf5b0c6d3bf402c82dba814b64140d232f656ee4c30954887fe97dbc7fbf7fe0eeefefddefded3e0e7eea735b5" +
+            "32b59e4c19d494d5b6562d5d2d5b2d5d5d4df1afc13601e84400b10788d1009005e01501360e00dc02286600ec0200d1ff21e5bfb6fd" +
+            "bfe39f787f31ea5f68feabf077e0fec0ec477afddbe84fd7fc71e50f8e1f29f88f96e04fe7fd71dd0fb46f09b0bf557aea89d56f2525" +
+            "89fe7ace27d67c05ab5735f513535fc0f87cde7fba743232f4c2da74152beccf47509c063cd6407baaf925bd1f068c5210e193c3c1a9" +
+            "dfe034049697a6bca5c30a5a54e15994822430b193035ef20fcafbed3f5609afb50bc41dafeeb57379b673c12de1506aa5a7f24e59c1" +
+            "a522d2a4edfa7f2fd856be7581de1a09578e0966db89045e54c92118a6932e551a0b528a17560185f8273a27728faa7b3e9ddf5676cc" +
+            "fbec5bc4c6ab802af37de4072cada08d0c9a78c9349ad00bd2ba760db0e325401aad6aa9b58b22385830b3d7152b7170a839b18724fb" +
+            "2bfeb7a1b70d4243b4cbce41200690a5ec1a0e82c038bb914fd09e469dbb0202001061410600dc0465aa1fad1d5adae5ac1b1e5f1370" +
+            "796cfd10ff19af601d04acb41d022b4678733af2df5faeb70859d1ee3910cb4895b5cc892911ff06b6622edf3cf935fd4b9428ca097c" +
+            "44b3025e965fb3ea6dacd42d816e69afe0e6874c9c04e7d2365d2c60c9eaf479f686a0eb9326e46212d50dcbb377156a6a3a68ba8edb" +
+            "7408469ef3ceb30af8d0dd68bbf85ffa24f2d2fc1887fb5c87bab43832a59b1b3d107cf778d67fe26df81191297e9395cb12c557ce5a" +
+            "f1d41618d719bc045b7e9965f1a29471c42aac6aa938"
+
+    val zstdRepeatOffsets = "28b52ffd607c1425260026663f11a0254907ff3ff82d2084ec9d64b2aa9a2c420048002e002184303333333333333333332322222222" +
+            "2222222222f2ffffffffbf6ddbb66ddbb66daaaaaaaaaa9224499224499234861021cc88fca6000a8220200010044110109224499224" +
+            "499224499224499224499224499224495250a344492aa94049922449922449d218628c31c618638c31c6184308218410420821841042" +
+            "08214208218410420821841002dbb66ddbb66ddbb66ddbb66ddbb66ddb36555555555555555555555555555555555555555555555555" +
+            "254992240581ffffffffffffffffffffffffffffffffffffffffffffffffdfb66ddbb66ddbb66ddbb66ddbb66ddbb66ddbb683dea852" +
+            "dbcb72e20c899008fe1200d6eac3018d35f013a327e24f049fc07fa2f709c213424f549f407b22f4c4e189c6133a9e483dc17ec2f144" +
+            "f113b24f1c9f307f22e109d513ff27509e803d717ac2fc098727004f243fc17b22f904f813ac271a9f507902e809e113a727704fa43c" +
+            "617cc2ed899027e89f983c117fa2f804ee89dc4fd09e003c91fe04cd1380270a4f243ec1f1c4ea09fa13084f8c9f907f82e909f3272e" +
+            "4fe89ee83e817802e889f213244f307b02f244f109cd13d14f009f703ed1fe048a27424fcc9f487902f7c4ed09f3131c4f049e40fd84" +
+            "ec09e013e14ff09ee87c42f104908e4dee89d613de27929ec83f817c22fb84ef27189e683d217f22e109d51397278c4f703d317802f5" +
+            "13b227804f843fc17ba2f309c513404f149fb07a02f604c113c727fc9e887982fe84e589f913a44f309e60fc44ed09c413f94f509e00" +
+            "3cb17802e913064f849ea83f81f1c4fa09f913584fb43f61f344ec09e3138927a09ea83f417802db139127289f283c01fc44f009ef13" +
+            "fd4f203c217ae2fe049a27604f8c9e383fc1f344e409e427684f049f00ff84e909c327164f403dd17cc2f404ec8984274c9f387b02e4" +
+            "89fa139e27f64f109fc03c91b9d51179c2fe44d4273a4fe89e283d817c02f109fe274c9f483d217be2fb04e30981278a4f303ff1e809" +
+            "d813c527704f5c3f017cc2f944fb13289e083d317f22e509dc13b727cc4f703c117802f513b227804f843fc17ba2f309c513404f149f" +
+            "b07a02f604c113c727fc9e887982fe84e589f913a44f309e60fc44ed09c413f94f509e003cb17802e913064f849ea83f81f1c4fa09f9" +
+            "13584fb43f61f344ec09e3138927a09ea83f417802db139127289f283c01fc44f009ef13fd4f203c217ae2fe049a27604f8c9e383fc1" +
+            "f344e409e427684f049f00577dd23e917882f144ea894c4fa03da17c82f7c4f213c8279e4ff43f81f1c4e809ff13589ee03d317ae2fc" +
+            "04cf139127909fa03d117c02fc13a6270c9f583c01f544f309d313b027129e307de2ec099027ea4f789ed83f417c02f344e627e89e00" +
+            "3c41fe44e509c413ab27109f607862f404fd13044f849f983f81f744ff139627644f349f407902e809f1138527f03d917982f884e289" +
+            "e027088cb487da83ff13af279c46da43eda1fd44e309c513854f403fe17ce2f113b527104fe43f417a42f244f909b3271a9e0878a2fc" +
+            "04ef89eb27e04fc06d6969e302986bba320088212116041120cc80280380181262411001c20c88320088212116041120cc8028038018" +
+            "1262411001c20c88320088212116041120cc80280380181262d120061650ac67b3be4abf71d682e1ae0d"
+
+    val zstdChecksum = "28b52ffd64f4045d0300a28b150ec0a703ffbf391111b2f7b2e99a278eb62ca825db523b66c38a6da8a5595ab05d6dd982b06456eca0" +
+            "0d5b515bb3b4db4e2d985dd8323b96d08aed98a52ddad952ed66272ca0255b68c796d48ad9da404bdbaa9d597005009cd4b4776e60af" +
+            "acb6cca925065e5514cb34d10f"
+
+    val lz4Text = "f037773020773232207734342077313320773335207734207732362077343820773137207733392077382077333020773532207732" +
+            "312077343320773132207733342077332077323500f01437207731362077333820773720773239207735312077323020773432207731" +
+            "312077332b00f01b2077323420773436207731352077333720773620773238207735302077313920773431207731302077333600b020" +
+            "773233207734352077316b00ff0d36207735207732372077343920773138207734302077392077333120ca00ffffffffff17503120773333"
+
+    // 256 ints, bitshuffled and LZ4 compressed with the bitshuffle filter header
+    val bitshuffleLz4Ints = "000000000000040000000400000000d67f803fe00ff803fe0700067f00c0ff0f00fcff0700067faaaaaa5a555555070006ee4cf3" +
+            "2c639e6598b30cd39c619a670e00f00df0032f7ce0851fbcf0031f7ee0870ffcd0831f7ae0430ffce0811f781c00f10100fc2f80ff05" +
+            "e0bf00fc1f80ff07f0ff0800f11403f0ff00fe1f80ff03d07f0000d0ffff050040ffff1f0000f8ffff0000e0ffff030000100040fcff7f" +
+            "00010031faffff10001000180011ff200001280013ff200001020001100002020011031100000200108005000d020012fc27000002000d" +
+            "1c000f0200ffff99500000000000"
+}
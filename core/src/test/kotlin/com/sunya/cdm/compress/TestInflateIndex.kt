@@ -0,0 +1,96 @@
+package com.sunya.cdm.compress
+
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.util.zip.Deflater
+import java.util.zip.InflaterInputStream
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TestInflateIndex {
+    val data = ByteArray(3_000_000).also { // compressible, but not too much
+        val random = Random(42)
+        for (i in it.indices) it[i] = if ((i / 4096) % 5 == 0) random.nextInt().toByte() else ((i / 7) % 61 + (i % 3)).toByte()
+    }
+
+    @Test
+    fun testLevels() {
+        for (level in listOf(0, 1, 6, 9)) {
+            val compressed = deflate(data, level, false)
+            val index = InflateIndex.build(CompressedSource.of(compressed), 100_000)
+            assertEquals(data.size.toLong(), index.totalOut, "level $level")
+            assertTrue(index.checkpoints.size > 1, "level $level")
+
+            // whole thing
+            val result = ByteArray(data.size)
+            index.reader(CompressedSource.of(compressed)).read(0, result, 0, result.size)
+            assertContentEquals(data, result, "level $level")
+        }
+    }
+
+    @Test
+    fun testRandomReads() {
+        val compressed = deflate(data, 6, false)
+        val source = CompressedSource.of(compressed)
+        val index = InflateIndex.build(source, 64 * 1024)
+        val reader = index.reader(source)
+        val random = Random(7)
+        repeat(200) {
+            val start = random.nextInt(data.size)
+            val n = minOf(random.nextInt(50_000), data.size - start)
+            val result = ByteArray(n)
+            reader.read(start.toLong(), result, 0, n)
+            assertContentEquals(data.copyOfRange(start, start + n), result, "start $start n $n")
+        }
+    }
+
+    @Test
+    fun testRawDeflate() {
+        val compressed = deflate(data, 6, true)
+        val index = InflateIndex.build(CompressedSource.of(compressed), 256 * 1024, false)
+        val result = ByteArray(1000)
+        index.reader(CompressedSource.of(compressed)).read(data.size - 1000L, result, 0, 1000)
+        assertContentEquals(data.copyOfRange(data.size - 1000, data.size), result)
+    }
+
+    @Test
+    fun timeLastRow() {
+        val compressed = deflate(data, 6, false)
+        val source = CompressedSource.of(compressed)
+        val row = 1000
+        val ntimes = 20
+
+        val streamNanos = measureNanoTime {
+            repeat(ntimes) {
+                val input = InflaterInputStream(compressed.inputStream())
+                input.skipNBytes(data.size - row.toLong())
+                input.readNBytes(row)
+            }
+        }
+        var index: InflateIndex
+        val buildNanos = measureNanoTime { index = InflateIndex.build(source, 1024 * 1024) }
+        val indexNanos = measureNanoTime {
+            repeat(ntimes) {
+                index.reader(source).read(data.size - row.toLong(), ByteArray(row), 0, row)
+            }
+        }
+        println("read last $row bytes of ${data.size}: InflaterInputStream ${streamNanos / ntimes / 1000} usecs," +
+                " with checkpoints ${indexNanos / ntimes / 1000} usecs; build index ${buildNanos / 1000} usecs")
+    }
+
+    fun deflate(data: ByteArray, level: Int, raw: Boolean): ByteArray {
+        val deflater = Deflater(level, raw)
+        deflater.setInput(data)
+        deflater.finish()
+        val out = ByteArrayOutputStream()
+        val buffer = ByteArray(65536)
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer))
+        }
+        deflater.end()
+        return out.toByteArray()
+    }
+}
@@ -0,0 +1,89 @@
+package com.sunya.cdm.iosp
+
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.cdm.iosp.ChunkCache] */
+class TestChunkCache {
+
+    fun chunk(nbytes : Int, value : Int) = ByteBuffer.wrap(ByteArray(nbytes) { value.toByte() })
+
+    @Test
+    fun testLru() {
+        val cache = ChunkCache(3000)
+        repeat(3) { cache.put("file", it * 1000L, chunk(1000, it)) }
+        assertEquals(ChunkCacheStats(size = 3, bytes = 3000), cache.stats())
+
+        assertNotNull(cache.get("file", 0)) // now 0 is the most recently used
+        cache.put("file", 3000, chunk(1000, 3))
+        assertNull(cache.get("file", 1000)) // evicted
+        assertEquals(2, cache.get("file", 2000)!!.get(0).toInt())
+        assertEquals(0, cache.get("file", 0)!!.get(999).toInt())
+        assertNull(cache.get("other", 0)) // keyed by file too
+        assertEquals(ChunkCacheStats(hits = 3, misses = 2, evictions = 1, size = 3, bytes = 3000), cache.stats())
+
+        // bigger than maxBytes
+        val big = chunk(4000, 4)
+        assertTrue(big === cache.put("file", 4000, big))
+        assertNull(cache.get("file", 4000))
+        assertEquals(3, cache.stats().size)
+
+        cache.clear()
+        assertEquals(0, cache.stats().size)
+        assertEquals(0, cache.stats().bytes)
+    }
+
+    @Test
+    fun testSharedViews() {
+        for (offHeap in listOf(false, true)) {
+            val cache = ChunkCache(10_000, offHeap)
+            val data = chunk(100, 7)
+            data.position(50)
+            val put = cache.put("file", 0, data)
+            assertTrue(put.isReadOnly)
+            assertEquals(0, put.position())
+            assertEquals(100, put.limit())
+
+            // each view has its own position
+            val view = cache.get("file", 0)!!
+            view.position(100)
+            val view2 = cache.get("file", 0)!!
+            assertEquals(0, view2.position())
+            assertEquals(7, view2.get(99).toInt())
+            assertEquals(offHeap, view2.isDirect)
+        }
+    }
+
+    @Test
+    fun testDisabled() {
+        val cache = ChunkCache(0)
+        val decodes = AtomicInteger()
+        repeat(3) { cache.getOrPut("file", 0) { decodes.incrementAndGet(); chunk(10, 1) } }
+        assertEquals(3, decodes.get())
+        assertEquals(ChunkCacheStats(), cache.stats())
+    }
+
+    @Test
+    fun timeGetOrPut() {
+        val cache = ChunkCache()
+        val nchunks = 100
+        val decodes = AtomicInteger()
+        // a slow decode
+        fun decode(address : Long) : ByteBuffer {
+            decodes.incrementAndGet()
+            Thread.sleep(1)
+            return chunk(64 * 1024, address.toInt())
+        }
+        val first = measureNanoTime { repeat(nchunks) { cache.getOrPut("file", it.toLong()) { decode(it.toLong()) } } }
+        val second = measureNanoTime { repeat(nchunks) { cache.getOrPut("file", it.toLong()) { decode(it.toLong()) } } }
+        assertEquals(nchunks, decodes.get())
+        assertEquals(ChunkCacheStats(nchunks.toLong(), nchunks.toLong(), 0, nchunks, nchunks * 64 * 1024L), cache.stats())
+        println("$nchunks chunks decoded ${first / 1000} usecs, cached ${second / 1000} usecs")
+    }
+}
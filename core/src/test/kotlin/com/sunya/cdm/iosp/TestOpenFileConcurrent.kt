@@ -0,0 +1,99 @@
+package com.sunya.cdm.iosp
+
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+import kotlin.test.assertEquals
+
+/** Test [com.sunya.cdm.iosp.OpenFile] shared by many threads */
+class TestOpenFileConcurrent {
+
+    companion object {
+        const val nints = 1_000_000 // file has the ints 0 until nints, big endian
+        lateinit var tempFile : File
+
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            tempFile = File.createTempFile("TestOpenFileConcurrent", ".bin")
+            val bb = ByteBuffer.allocate(4 * nints)
+            bb.order(ByteOrder.BIG_ENDIAN)
+            repeat(nints) { bb.putInt(it) }
+            tempFile.writeBytes(bb.array())
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    @Test
+    fun testSingleThread() {
+        OpenFile(tempFile.path).use { openFile ->
+            assertEquals(4L * nints, openFile.size)
+            val state = OpenFileState(0L, ByteOrder.BIG_ENDIAN)
+            repeat(10_000) { assertEquals(it, openFile.readInt(state)) }
+            assertEquals(40_000L, state.pos)
+        }
+    }
+
+    @Test
+    fun testManyThreads() {
+        val nthreads = 16
+        val ntasks = 64
+        OpenFile(tempFile.path).use { openFile ->
+            val pool = Executors.newFixedThreadPool(nthreads)
+            try {
+                val tasks = List(ntasks) { seed -> Callable { readRandomly(openFile, seed, 5_000) } }
+                val results = pool.invokeAll(tasks).map { it.get() }
+                assertEquals(ntasks, results.size)
+                results.forEach { assertEquals(5_000, it) }
+            } finally {
+                pool.shutdown()
+                pool.awaitTermination(1, TimeUnit.MINUTES)
+            }
+        }
+    }
+
+    // mix the different kinds of reads, with different byte orders, checking each value. return number of checks.
+    private fun readRandomly(openFile : OpenFile, seed : Int, ntrials : Int) : Int {
+        val random = Random(seed)
+        var count = 0
+        repeat(ntrials) {
+            val elem = random.nextInt(nints - 2500)
+            val state = OpenFileState(4L * elem, ByteOrder.BIG_ENDIAN)
+            when (random.nextInt(6)) {
+                0 -> assertEquals(elem, openFile.readInt(state))
+                1 -> assertEquals((elem.toLong() shl 32) + elem + 1, openFile.readLong(state))
+                2 -> {
+                    state.byteOrder = ByteOrder.LITTLE_ENDIAN
+                    assertEquals(Integer.reverseBytes(elem), openFile.readInt(state))
+                }
+                3 -> {
+                    val n = 1 + random.nextInt(100)
+                    val ba = openFile.readBytes(state, 4 * n)
+                    val bb = ByteBuffer.wrap(ba)
+                    repeat(n) { assertEquals(elem + it, bb.getInt(4 * it)) }
+                }
+                4 -> { // big enough to go directly to the FileChannel
+                    val bb = openFile.readByteBufferDirect(state, 4 * 2500)
+                    repeat(2500) { assertEquals(elem + it, bb.getInt(4 * it)) }
+                }
+                else -> {
+                    repeat(10) { assertEquals(elem + it, openFile.readInt(state)) }
+                }
+            }
+            count++
+        }
+        return count
+    }
+}
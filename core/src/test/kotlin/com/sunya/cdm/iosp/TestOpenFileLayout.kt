@@ -0,0 +1,110 @@
+package com.sunya.cdm.iosp
+
+import com.sunya.cdm.api.SectionPartial
+import com.sunya.cdm.layout.LayoutRegular
+import com.sunya.cdm.layout.LayoutRegularSegmented
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+
+/** Test [com.sunya.cdm.iosp.OpenFile.readLayout] */
+class TestOpenFileLayout {
+
+    companion object {
+        const val nrecs = 20_000
+        const val recInts = 50 // each record has 50 ints, the file has the ints 0 until nrecs * recInts, big endian
+        lateinit var tempFile : File
+
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            tempFile = File.createTempFile("TestOpenFileLayout", ".bin")
+            val bb = ByteBuffer.allocate(4 * nrecs * recInts)
+            bb.order(ByteOrder.BIG_ENDIAN)
+            repeat(nrecs * recInts) { bb.putInt(it) }
+            tempFile.writeBytes(bb.array())
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    // a record variable with shape (nrecs, 3) at int 10 of each record
+    fun recordLayout(spec : String) = LayoutRegularSegmented(40, 4, 4L * recInts,
+        SectionPartial.fill(SectionPartial.fromSpec(spec), longArrayOf(nrecs.toLong(), 3)))
+
+    fun checkRecords(values : ByteBuffer, spec : String, recs : IntProgression) {
+        var count = 0
+        for (rec in recs) {
+            repeat(3) { assertEquals(rec * recInts + 10 + it, values.getInt(4 * count++), "rec $rec") }
+        }
+        assertEquals(values.capacity(), 4 * count, spec)
+    }
+
+    @Test
+    fun testRecords() {
+        for (gap in listOf(0, 100, 1000, 100_000)) {
+            OpenFile(tempFile.path, maxReadGap = gap).use { openFile ->
+                for ((spec, recs) in listOf(Pair(":, :", 0 until nrecs), Pair("100:199, :", 100 until 200),
+                        Pair("1:19999:7, :", 1 until nrecs step 7))) {
+                    val layout = recordLayout(spec)
+                    val values = ByteBuffer.allocate(4 * layout.totalNelems.toInt())
+                    assertEquals(values.capacity(), openFile.readLayout(layout, values), spec)
+                    assertEquals(0, values.position())
+                    assertEquals(values.capacity(), values.limit())
+                    checkRecords(values, spec, recs)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testLargeAndSmall() {
+        // rows of 1200 and 12 ints, so some chunks are read directly, some together
+        // the position and limit of values are not changed
+        OpenFile(tempFile.path).use { openFile ->
+            for (spec in listOf("0:99:3, 0:1199", "0:799:10, 0:1199", "0:99:3, 5:16", "0:799, 0:799:400")) {
+                val section = SectionPartial.fill(SectionPartial.fromSpec(spec), longArrayOf(800, 1200))
+                val layout = LayoutRegular(0, 4, section)
+                val values = ByteBuffer.allocate(4 * section.totalElements.toInt())
+                values.position(4)
+                assertEquals(values.capacity(), openFile.readLayout(layout, values), spec)
+                assertEquals(4, values.position(), spec)
+                assertEquals(values.capacity(), values.limit(), spec)
+                var count = 0
+                for (row in section.ranges[0]) for (col in section.ranges[1]) {
+                    assertEquals((row * 1200 + col).toInt(), values.getInt(4 * count++), spec)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun timeRecords() {
+        val spec = ":, :"
+        OpenFile(tempFile.path).use { openFile ->
+            val values = ByteBuffer.allocate(4 * 3 * nrecs)
+            val oneAtATime = measureNanoTime {
+                val layout = recordLayout(spec)
+                val state = OpenFileState(0, ByteOrder.BIG_ENDIAN)
+                while (layout.hasNext()) {
+                    val chunk = layout.next()
+                    state.pos = chunk.srcPos()
+                    openFile.readIntoByteBufferDirect(state, values, 4 * chunk.destElem().toInt(), 4 * chunk.nelems())
+                }
+            }
+            checkRecords(values, spec, 0 until nrecs)
+            val together = measureNanoTime { openFile.readLayout(recordLayout(spec), values) }
+            checkRecords(values, spec, 0 until nrecs)
+            println("read $nrecs records: one at a time ${oneAtATime / 1000} usecs, together ${together / 1000} usecs")
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.sunya.cdm.iosp
+
+import com.sunya.cdm.api.Section
+import com.sunya.cdm.array.ArrayInt
+import com.sunya.cdm.layout.LayoutRegular
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.EOFException
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.cdm.iosp.OpenFile.readByteBufferMapped] */
+class TestOpenFileMapped {
+
+    companion object {
+        const val nints = 10_000 // file has the ints 0 until nints, big endian
+        lateinit var tempFile : File
+
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            tempFile = File.createTempFile("TestOpenFileMapped", ".bin")
+            val bb = ByteBuffer.allocate(4 * nints)
+            bb.order(ByteOrder.BIG_ENDIAN)
+            repeat(nints) { bb.putInt(it) }
+            tempFile.writeBytes(bb.array())
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    @Test
+    fun testMapped() {
+        OpenFile(tempFile.path, true).use { openFile ->
+            val state = OpenFileState(400L, ByteOrder.BIG_ENDIAN)
+            val bb = openFile.readByteBufferMapped(state, 4 * 1000)
+            assertFalse(bb.hasArray())
+            assertEquals(4400L, state.pos)
+
+            val array = ArrayInt(intArrayOf(10, 100), bb)
+            array.forEachIndexed { idx, value -> assertEquals(100 + idx, value) }
+
+            // section must copy out of the mapped buffer
+            val section = array.section(Section(intArrayOf(2, 10), intArrayOf(3, 5), longArrayOf(10, 100)))
+            assertEquals(15, section.nelems)
+            val expected = listOf(310, 311, 312, 313, 314, 410, 411, 412, 413, 414, 510, 511, 512, 513, 514)
+            assertEquals(expected, section.toList())
+
+            assertFailsWith<EOFException> {
+                openFile.readByteBufferMapped(OpenFileState(4L * nints - 8, ByteOrder.BIG_ENDIAN), 16)
+            }
+        }
+    }
+
+    @Test
+    fun testContiguous() {
+        val varShape = longArrayOf(10, 20, 30)
+        assertTrue(LayoutRegular(0, 4, Section(varShape)).isContiguous)
+        assertTrue(LayoutRegular(0, 4, Section(intArrayOf(2, 0, 0), intArrayOf(3, 20, 30), varShape)).isContiguous)
+        assertTrue(LayoutRegular(0, 4, Section(intArrayOf(2, 5, 0), intArrayOf(1, 3, 30), varShape)).isContiguous)
+        assertTrue(LayoutRegular(0, 4, Section(intArrayOf(2, 5, 7), intArrayOf(1, 1, 3), varShape)).isContiguous)
+        assertFalse(LayoutRegular(0, 4, Section(intArrayOf(2, 5, 0), intArrayOf(2, 3, 30), varShape)).isContiguous)
+        assertFalse(LayoutRegular(0, 4, Section(intArrayOf(0, 0, 0), intArrayOf(10, 20, 29), varShape)).isContiguous)
+    }
+}
@@ -0,0 +1,136 @@
+package com.sunya.cdm.iosp
+
+import com.sunya.cdm.api.ArraySection
+import com.sunya.cdm.api.ChunkRead
+import com.sunya.cdm.api.Section
+import com.sunya.cdm.array.ArrayInt
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.cdm.iosp.ReadChunkConcurrent] */
+class TestReadChunkConcurrent {
+    val nchunks = 100
+    val chunkSize = 1000 // ints
+
+    // chunk i has the values i * chunkSize until (i + 1) * chunkSize, and takes sleepMillis to read
+    fun chunkReads(sleepMillis : Long = 0, inFlight : AtomicLong? = null, maxInFlight : AtomicLong? = null,
+                   failAt : Int = -1) : Iterator<ChunkRead<Int>> {
+        val varShape = longArrayOf(nchunks * chunkSize.toLong())
+        return (0 until nchunks).asSequence().map { chunkno ->
+            val section = Section(listOf(LongProgression.fromClosedRange(chunkno * chunkSize.toLong(),
+                (chunkno + 1) * chunkSize - 1L, 1L)), varShape)
+            ChunkRead(section, 4L * chunkSize) {
+                if (inFlight != null) maxInFlight!!.accumulateAndGet(inFlight.addAndGet(4L * chunkSize)) { a, b -> maxOf(a, b) }
+                if (sleepMillis > 0) Thread.sleep(sleepMillis)
+                if (chunkno == failAt) throw IllegalStateException("bad chunk $chunkno")
+                val bb = ByteBuffer.allocate(4 * chunkSize)
+                bb.asIntBuffer().put(IntArray(chunkSize) { chunkno * chunkSize + it })
+                ArraySection(ArrayInt(intArrayOf(chunkSize), bb), section)
+            }
+        }.iterator()
+    }
+
+    @Test
+    fun testOrdered() {
+        val values = mutableListOf<Int>()
+        ReadChunkConcurrent(8).readChunks(chunkReads(1), true) { arraySection ->
+            arraySection.array.forEach { values.add(it) }
+        }
+        assertEquals((0 until nchunks * chunkSize).toList(), values)
+    }
+
+    @Test
+    fun testUnordered() {
+        val sections = ConcurrentHashMap<Long, Int>()
+        ReadChunkConcurrent(8).readChunks(chunkReads(1), false) { arraySection ->
+            val first = arraySection.section.ranges[0].first
+            assertEquals(first.toInt(), (arraySection.array as ArrayInt).getInt(0))
+            sections[first] = arraySection.array.nelems
+        }
+        assertEquals(nchunks, sections.size)
+        assertEquals(nchunks * chunkSize, sections.values.sum())
+    }
+
+    @Test
+    fun testBoundedMemory() {
+        for (ordered in listOf(true, false)) {
+            val inFlight = AtomicLong()
+            val maxInFlight = AtomicLong()
+            val maxBytes = 5 * 4L * chunkSize
+            ReadChunkConcurrent(16, maxBytes).readChunks(chunkReads(0, inFlight, maxInFlight), ordered) {
+                Thread.sleep(1) // slow consumer
+                inFlight.addAndGet(-4L * chunkSize)
+            }
+            assertTrue(maxInFlight.get() <= maxBytes, "ordered=$ordered maxInFlight=${maxInFlight.get()}")
+            assertEquals(0L, inFlight.get())
+        }
+    }
+
+    @Test
+    fun testErrors() {
+        for (ordered in listOf(true, false)) {
+            val count = AtomicInteger()
+            val ex = assertFailsWith<IllegalStateException> {
+                ReadChunkConcurrent(4).readChunks(chunkReads(1, failAt = 10), ordered) { count.incrementAndGet() }
+            }
+            assertEquals("bad chunk 10", ex.message)
+            assertTrue(count.get() < nchunks, "ordered=$ordered")
+
+            // the consumer fails
+            assertFailsWith<RuntimeException> {
+                ReadChunkConcurrent(4).readChunks(chunkReads(1), ordered) { throw RuntimeException("consumer") }
+            }
+        }
+    }
+
+    // the first nthreads reads each wait until all of them have started, so they must run at the same time
+    @Test
+    fun testConcurrentReads() {
+        val nthreads = 4
+        val started = CountDownLatch(nthreads)
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val reads = chunkReads().asSequence().mapIndexed { idx, chunkRead ->
+            ChunkRead(chunkRead.section, chunkRead.nbytes) {
+                maxRunning.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) }
+                if (idx < nthreads) {
+                    started.countDown()
+                    assertTrue(started.await(10, TimeUnit.SECONDS), "reads are not concurrent")
+                }
+                try { chunkRead.read() } finally { running.decrementAndGet() }
+            }
+        }.iterator()
+
+        val values = mutableListOf<Int>()
+        ReadChunkConcurrent(nthreads).readChunks(reads, true) { arraySection ->
+            arraySection.array.forEach { values.add(it) }
+        }
+        assertEquals((0 until nchunks * chunkSize).toList(), values)
+        assertEquals(nthreads, maxRunning.get())
+    }
+
+    @Test
+    fun timeParallel() {
+        fun readAll(nthreads : Int) : List<Int> {
+            val values = mutableListOf<Int>()
+            ReadChunkConcurrent(nthreads).readChunks(chunkReads(2), true) { arraySection -> arraySection.array.forEach { values.add(it) } }
+            return values
+        }
+        var serialValues : List<Int>
+        var parallelValues : List<Int>
+        val serial = measureNanoTime { serialValues = readAll(1) }
+        val parallel = measureNanoTime { parallelValues = readAll(10) }
+        println("$nchunks chunks serial ${serial / 1_000_000} msecs, 10 threads ${parallel / 1_000_000} msecs")
+        // the times depend on the machine, so only the values are checked
+        assertEquals(serialValues, parallelValues)
+    }
+}
@@ -352,6 +352,61 @@ class TestChunker {
         }
     }
 
+    @Test
+    fun testStrided() {
+        // every other element of every third row: nothing to merge
+        val varshape = longArrayOf(9, 12)
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("0:8:3, 1:11:2"), varshape)
+        runChunkerTest(IndexSpace(varshape), wantSection, 1, 18, true) { count ->
+            Pair(36 * (count / 6) + 1 + 2 * (count % 6), count)
+        }
+    }
+
+    @Test
+    fun testStridedOuter() {
+        // every third row, the rows are contiguous
+        val varshape = longArrayOf(9, 12)
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("1:8:3, :"), varshape)
+        runChunkerTest(IndexSpace(varshape), wantSection, 12, 3, true) { count ->
+            Pair(12 + 36 * count, 12 * count)
+        }
+    }
+
+    @Test
+    fun testStridedDataChunk() {
+        // the dataChunk starts between wanted indices
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("0:19:4, 2:5"), longArrayOf(20, 6))
+        val dataChunk = makeChunk("5:14, 0:5")
+        runChunkerTest(dataChunk, wantSection, 4, 2, true) { count ->
+            Pair(3 * 6 + 2 + 24 * count, 8 + 4 * count)
+        }
+    }
+
+    @Test
+    fun testStridedLayouts() {
+        val varshape = longArrayOf(7, 5, 6)
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("1:6:2, 0:4:4, 1:5:2"), varshape)
+        val expect = mutableListOf<Long>()
+        for (t in 1..6 step 2) for (y in 0..4 step 4) for (x in 1..5 step 2) expect.add((t * 5 + y) * 6L + x)
+        assertEquals(expect.size.toLong(), wantSection.totalElements)
+
+        // the value at each element is its element number
+        fun transfer(layout : Layout, srcElem : (Long) -> Long) : List<Long> {
+            val result = LongArray(layout.totalNelems.toInt()) { -1 }
+            for (chunk in layout) {
+                repeat(chunk.nelems()) { result[chunk.destElem().toInt() + it] = srcElem(chunk.srcPos()) + it }
+            }
+            return result.toList()
+        }
+        assertEquals(expect, transfer(LayoutRegular(0, 4, wantSection)) { it / 4 })
+
+        // each record is 1000 bytes apart
+        val recsize = 1000L
+        assertEquals(expect, transfer(LayoutRegularSegmented(100, 4, recsize, wantSection)) { pos ->
+            (pos - 100) / recsize * 30 + ((pos - 100) % recsize) / 4
+        })
+    }
+
     internal fun makeChunk(spec : String) : IndexSpace {
         val sp = TestSection.fromSpec(spec)
         return IndexSpace(sp)
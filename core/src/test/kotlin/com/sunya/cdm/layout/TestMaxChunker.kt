@@ -1,6 +1,7 @@
 package com.sunya.cdm.layout
 
 import com.sunya.cdm.api.Section
+import com.sunya.cdm.api.SectionPartial
 import com.sunya.cdm.api.computeSize
 import com.sunya.cdm.api.toLongArray
 import org.junit.jupiter.api.Test
@@ -23,6 +24,29 @@ class TestMaxChunker {
         testMaxChunker(intArrayOf(20, 30, 40), 1111)
     }
 
+    @Test
+    fun testStrided() {
+        val varshape = longArrayOf(20, 30, 40)
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("2:19:3, 1:29:4, 0:39:10"), varshape)
+        val chunks = MaxChunker(50, wantSection).asSequence().toList()
+        assertEquals(wantSection.totalElements, chunks.sumOf { it.totalElements })
+
+        // all together the chunks have every wanted index once, in order
+        val expect = IndexND(wantSection).toList()
+        val actual = chunks.flatMap { IndexND(it, varshape).toList() }
+        assertEquals(expect.map { it.toList() }, actual.map { it.toList() })
+    }
+
+    @Test
+    fun testOffset() {
+        val varshape = longArrayOf(20, 30, 40)
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("5:14, 10:19, :"), varshape)
+        val chunks = MaxChunker(1000, wantSection).asSequence().toList()
+        assertEquals(wantSection.totalElements, chunks.sumOf { it.totalElements })
+        assertEquals(listOf(5L, 10L, 0L), chunks.first().start.toList())
+        assertEquals(listOf(14L, 19L, 39L), chunks.last().last.toList())
+    }
+
     fun testMaxChunker(shape : IntArray, max : Int) {
         var totalTransfer = 0
         val chunker = MaxChunker(max, Section(shape.toLongArray()))
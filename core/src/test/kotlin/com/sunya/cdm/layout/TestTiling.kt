@@ -1,5 +1,6 @@
 package com.sunya.cdm.layout
 
+import com.sunya.cdm.api.SectionPartial
 import com.sunya.cdm.api.TestSection
 import org.junit.jupiter.api.Test
 import kotlin.test.assertEquals
@@ -90,6 +91,24 @@ class TestTiling {
         println("tile count = $count")
     }
 
+    @Test
+    fun testStridedTiles() {
+        val varshape = longArrayOf(100, 60)
+        val chunk = longArrayOf(10, 20)
+        val tiling = Tiling(varshape, chunk)
+
+        // every 25th row: rows 0, 25, 50, 75 are in tiles 0, 2, 5, 7 of the first dimension
+        val wantSpace = IndexSpace(SectionPartial.fill(SectionPartial.fromSpec("0:99:25, 5:45:40"), varshape))
+        val tiles = tiling.tiles(wantSpace).toList()
+        val expect = listOf(0L, 2L, 5L, 7L).flatMap { listOf(longArrayOf(it, 0), longArrayOf(it, 2)) }
+        assertEquals(expect.size, tiles.size)
+        expect.zip(tiles).forEach { (e, t) -> checkEquals(e, t) }
+
+        // every tile when its not strided
+        val allSpace = IndexSpace(SectionPartial.fill(SectionPartial.fromSpec("0:99, 5:45"), varshape))
+        assertEquals(30, tiling.tiles(allSpace).count())
+    }
+
     fun checkEquals(ia1 : LongArray, ia2 : LongArray) {
         if (!ia1.contentEquals(ia2)) {
             println("${ia1.contentToString()} != ${ia2.contentToString()}")
@@ -0,0 +1,283 @@
+package com.sunya.netchdf
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayDouble
+import com.sunya.cdm.array.ArrayFloat
+import com.sunya.cdm.array.ArrayInt
+import com.sunya.cdm.array.StructureMember
+import com.sunya.netchdf.hdf4.Hdf4File
+import com.sunya.netchdf.hdf5.Hdf5File
+import com.sunya.netchdf.netcdf3.Netcdf3File
+import com.sunya.netchdf.netcdf3.VinfoN3
+import com.sunya.netchdf.netcdf3.VinfoN3Codec
+import com.sunya.testdata.testData
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteOrder
+import java.util.zip.Deflater
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.MetadataIndex] */
+class MetadataIndexTest {
+    lateinit var dataFile : File
+    lateinit var indexFile : File
+    val nrecs = 4
+
+    // a netcdf-3 file with a global attribute title, coord(x) = x, and a record variable time(rec) = rec * 10.0
+    fun writeNetcdf3(title : String) {
+        fun header(begins : List<Int>) : ByteArray {
+            val header = ByteArrayOutputStream()
+            DataOutputStream(header).use { out ->
+                fun pad(n : Int) = repeat((4 - n % 4) % 4) { out.write(0) }
+                fun name(s : String) { out.writeInt(s.length); out.writeBytes(s); pad(s.length) }
+                out.writeBytes("CDF"); out.write(1)
+                out.writeInt(nrecs)
+                out.writeInt(10); out.writeInt(2) // dimensions
+                name("rec"); out.writeInt(0)
+                name("x"); out.writeInt(3)
+                out.writeInt(12); out.writeInt(2) // global attributes
+                name("title"); out.writeInt(2); out.writeInt(title.length); out.writeBytes(title); pad(title.length)
+                name("version"); out.writeInt(4); out.writeInt(1); out.writeInt(2)
+                out.writeInt(11); out.writeInt(2) // variables
+                name("coord"); out.writeInt(1); out.writeInt(1); out.writeInt(0); out.writeInt(0)
+                out.writeInt(5); out.writeInt(12); out.writeInt(begins[0])
+                name("time"); out.writeInt(1); out.writeInt(0); out.writeInt(0); out.writeInt(0)
+                out.writeInt(6); out.writeInt(8); out.writeInt(begins[1])
+            }
+            return header.toByteArray()
+        }
+        val size = header(listOf(0, 0)).size
+        DataOutputStream(dataFile.outputStream().buffered()).use { out ->
+            out.write(header(listOf(size, size + 12)))
+            repeat(3) { out.writeFloat(it.toFloat()) }
+            repeat(nrecs) { out.writeDouble(it * 10.0) }
+        }
+    }
+
+    // an hdf4 file with two vdatas of one field: plain(4) floats, and packed(100) ints, which are deflated
+    fun writeHdf4() {
+        fun bytes(write : DataOutputStream.() -> Unit) : ByteArray {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use { it.write() }
+            return bytes.toByteArray()
+        }
+        fun vdataHeader(name : String, nelems : Int, type : Int) = bytes {
+            writeShort(0); writeInt(nelems); writeShort(4); writeShort(1) // interlace, nelems, record size, nfields
+            writeShort(type); writeShort(4); writeShort(0); writeShort(1) // field type, size, offset, order
+            writeShort(5); writeBytes("value")
+            writeShort(name.length); writeBytes(name)
+            writeShort(0) // class
+            writeShort(0); writeShort(0); writeShort(3) // extension tag and ref, version
+        }
+        val plain = bytes { repeat(4) { writeFloat(it + .5f) } }
+        val packed = bytes { repeat(100) { writeInt(it * it) } }
+        val deflater = Deflater()
+        deflater.setInput(packed)
+        deflater.finish()
+        val compressed = ByteArray(1000).let { it.copyOf(deflater.deflate(it)) }
+        val special = bytes { // compressed special element
+            writeShort(3); writeShort(0); writeInt(packed.size); writeShort(3) // SPECIAL_COMP, version, length, data ref
+            writeShort(0); writeShort(4); writeShort(6) // model, deflate, level
+        }
+
+        // tag, refno, data element
+        val elements = listOf(Triple(1962, 1, vdataHeader("plain", 4, 5)), Triple(1963, 1, plain),
+            Triple(1962, 2, vdataHeader("packed", 100, 24)), Triple(0x4000 or 1963, 2, special), Triple(40, 3, compressed))
+        DataOutputStream(dataFile.outputStream().buffered()).use { out ->
+            out.write(byteArrayOf(0x0e, 0x03, 0x13, 0x01))
+            out.writeShort(elements.size); out.writeInt(0) // one DD block
+            var offset = 10 + 12 * elements.size
+            elements.forEach { (tag, refno, element) ->
+                out.writeShort(tag); out.writeShort(refno); out.writeInt(offset); out.writeInt(element.size)
+                offset += element.size
+            }
+            elements.forEach { out.write(it.third) }
+        }
+    }
+
+    @BeforeEach
+    fun setup() {
+        dataFile = File.createTempFile("MetadataIndexTest", ".nc")
+        indexFile = File(MetadataIndex.sidecar(dataFile.path))
+    }
+
+    @AfterEach
+    fun cleanup() {
+        dataFile.delete()
+        indexFile.delete()
+    }
+
+    fun Netchdf.title() = rootGroup().findAttribute("title")!!.values[0]
+
+    @Test
+    fun testNetcdf3() {
+        writeNetcdf3("first ")
+        val expected = Netcdf3File(dataFile.path).use { it.cdl() }
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals(expected, it.cdl()) }
+        assertTrue(indexFile.exists())
+
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { ncfile ->
+            assertEquals(expected, ncfile.cdl())
+            assertEquals("netcdf3  ", ncfile.type())
+            val coord = ncfile.rootGroup().variables.find { it.name == "coord" }!!
+            assertEquals(VinfoN3("coord", 12, (coord.spObject as VinfoN3).begin, false, 4), coord.spObject)
+            assertEquals(listOf(0f, 1f, 2f), (ncfile.readArrayData(coord) as ArrayFloat).toList())
+            val time = ncfile.rootGroup().variables.find { it.name == "time" }!!
+            val expectedTime = List(nrecs) { it * 10.0 }
+            assertEquals(expectedTime, (ncfile.readArrayData(time) as ArrayDouble).toList())
+            assertEquals(expectedTime, (ncfile.readRecords(listOf(time))[0] as ArrayDouble).toList())
+        }
+    }
+
+    @Test
+    fun testOutOfDate() {
+        writeNetcdf3("first ")
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals("first ", it.title()) }
+
+        // same size and modification time: the header is read from the index, even though the file has changed
+        val modified = dataFile.lastModified()
+        writeNetcdf3("second")
+        dataFile.setLastModified(modified)
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals("first ", it.title()) }
+
+        // a different modification time: the index is out of date, and is written again
+        dataFile.setLastModified(modified + 2000)
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals("second", it.title()) }
+        assertNotNull(MetadataIndex.read(indexFile.path, dataFile.path, VinfoN3Codec))
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals("second", it.title()) }
+    }
+
+    @Test
+    fun testBadIndex() {
+        writeNetcdf3("first ")
+        indexFile.writeBytes(ByteArray(100) { it.toByte() })
+        assertNull(MetadataIndex.read(indexFile.path, dataFile.path, TestCodec))
+        Netcdf3File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals("first ", it.title()) }
+        assertTrue(indexFile.length() > 100)
+    }
+
+    // the spObject of each variable is its name
+    object TestCodec : SpObjectCodec {
+        override fun notIndexable(spObject: Any?) = if (spObject == "noindex") "noindex" else null
+
+        override fun write(out: DataOutputStream, spObject: Any?) {
+            out.writeUTF(spObject.toString())
+        }
+        override fun read(input: DataInputStream) = input.readUTF()
+    }
+
+    @Test
+    fun testGroupTree() {
+        dataFile.writeBytes(ByteArray(10))
+        val enumTypedef = EnumTypedef("colors", Datatype.UBYTE, mapOf(1 to "red", 2 to "blue"))
+        val compoundTypedef = CompoundTypedef("point", listOf(
+            StructureMember("x", Datatype.FLOAT, 0, intArrayOf(), ByteOrder.LITTLE_ENDIAN),
+            StructureMember("color", Datatype.ENUM1.withTypedef(enumTypedef), 4, intArrayOf(2)),
+        ))
+        val root = Group.Builder("")
+            .addTypedef(enumTypedef)
+            .addTypedef(compoundTypedef)
+            .addDimension(Dimension("n", 5))
+            .addAttribute(Attribute("bytes", Datatype.BYTE, listOf(1.toByte(), (-2).toByte())))
+            .addAttribute(Attribute("ulongs", Datatype.ULONG, listOf(ULong.MAX_VALUE)))
+            .addAttribute(Attribute("doubles", Datatype.DOUBLE, listOf(1.5, Double.NaN)))
+            .addAttribute(Attribute("enum", Datatype.ENUM1.withTypedef(enumTypedef), listOf(2.toUByte())))
+            .addAttribute(Attribute.from("long", "x".repeat(100_000)))
+        val vb = Variable.Builder("points", Datatype.COMPOUND.withTypedef(compoundTypedef))
+            .addDimension(Dimension("n", 5))
+            .addAttribute(Attribute("ushorts", Datatype.USHORT, listOf(7.toUShort())))
+        vb.spObject = "points"
+        root.addVariable(vb)
+        val nested = Group.Builder("nested").addDimension(Dimension("m", 2))
+        val svb = Variable.Builder("names", Datatype.STRING.withVlen(true)).addDimension(Dimension("m", 2))
+        svb.spObject = "names"
+        nested.addVariable(svb)
+        root.addGroup(nested)
+        val rootGroup = root.build(null)
+
+        assertTrue(MetadataIndex.write(indexFile.path, dataFile.path, "test", rootGroup, longArrayOf(42), TestCodec))
+        val contents = MetadataIndex.read(indexFile.path, dataFile.path, TestCodec)!!
+        assertEquals("test", contents.type)
+        assertEquals(listOf(42L), contents.formatInfo.toList())
+        assertEquals(rootGroup, contents.rootGroup)
+        assertEquals(rootGroup.allVariables().map { it.spObject }, contents.rootGroup.allVariables().map { it.spObject })
+
+        // the variable's typedef is the same object as the group's
+        val points = contents.rootGroup.variables[0]
+        assertTrue(points.datatype.typedef === contents.rootGroup.typedefs[1])
+        assertEquals(true, contents.rootGroup.groups[0].variables[0].datatype.isVlen)
+    }
+
+    @Test
+    fun testNotIndexable() {
+        dataFile.writeBytes(ByteArray(10))
+        val root = Group.Builder("")
+        root.addVariable(Variable.Builder("v", Datatype.INT).also { it.spObject = "noindex" })
+        assertFalse(MetadataIndex.write(indexFile.path, dataFile.path, "test", root.build(null), LongArray(0), TestCodec))
+        assertFalse(indexFile.exists())
+
+        val root2 = Group.Builder("").addAttribute(Attribute("opaque", Datatype.OPAQUE, listOf(java.nio.ByteBuffer.allocate(4))))
+        assertFalse(MetadataIndex.write(indexFile.path, dataFile.path, "test", root2.build(null), LongArray(0), TestCodec))
+    }
+
+    @Test
+    fun testHdf4() {
+        writeHdf4()
+        val expected = Hdf4File(dataFile.path).use { it.cdl() }
+        Hdf4File(dataFile.path, metadataIndex = indexFile.path).use { assertEquals(expected, it.cdl()) }
+        assertTrue(indexFile.exists())
+
+        // the data layout is found from the tags, which are read when the data is
+        Hdf4File(dataFile.path, metadataIndex = indexFile.path).use { h4file ->
+            assertEquals(expected, h4file.cdl())
+            assertEquals("hdf4     ", h4file.type())
+            val plain = h4file.rootGroup().variables.find { it.name == "plain" }!!
+            assertEquals(List(4) { it + .5f }, (h4file.readArrayData(plain) as ArrayFloat).toList())
+            val packed = h4file.rootGroup().variables.find { it.name == "packed" }!!
+            assertEquals(List(100) { it * it }, (h4file.readArrayData(packed) as ArrayInt).toList())
+        }
+    }
+
+    @Test
+    fun testHdf5() {
+        val filename = testData + "devcdm/netcdf4/tst_groups.nc"
+        val tempIndex = File.createTempFile("MetadataIndexTest", ".cdmx")
+        tempIndex.delete()
+        try {
+            var expected : String
+            var data : List<Any>
+            val parse = measureNanoTime {
+                Hdf5File(filename).use { h5file ->
+                    expected = h5file.cdl()
+                    data = h5file.rootGroup().allVariables().map { h5file.readArrayData(it) }
+                }
+            }
+            Hdf5File(filename, metadataIndex = tempIndex.path).use { assertEquals(expected, it.cdl()) }
+            assertTrue(tempIndex.exists())
+
+            var cdl : String
+            val indexed = measureNanoTime {
+                Hdf5File(filename, metadataIndex = tempIndex.path).use { h5file ->
+                    cdl = h5file.cdl()
+                }
+            }
+            assertEquals(expected, cdl)
+            Hdf5File(filename, metadataIndex = tempIndex.path).use { h5file ->
+                assertEquals(data, h5file.rootGroup().allVariables().map { h5file.readArrayData(it) })
+            }
+            println("open tst_groups.nc: parse header ${parse / 1000} usecs, metadata index ${indexed / 1000} usecs")
+        } finally {
+            tempIndex.delete()
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.sunya.cdm.array.*
 import com.sunya.cdm.util.Stats
 import com.sunya.cdm.util.nearlyEquals
 import com.sunya.testdata.*
+import kotlinx.coroutines.runBlocking
 import org.junit.jupiter.api.AfterAll
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
@@ -305,6 +306,18 @@ fun compareOneVarIterate(myFile: Netchdf, myvar: Variable<*>, compare : Boolean
         // println("  sumChunkIterator = $sumChunkIterator for ${myvar.nameAndShape()}")
         assertTrue(nearlyEquals(sumArrayData, sumChunkIterator), "chunkIterator $sumChunkIterator != $sumArrayData sumArrayData")
     }
+
+    if (compare) {
+        val sum3 = AtomicDouble()
+        val time2 = measureNanoTime {
+            runBlocking { myFile.chunkFlow(myvar).collect { sumValues(it.array, sum3) } }
+        }
+        Stats.of("chunkFlow", filename, "chunk").accum(time2, countChunks)
+        val sumChunkFlow = sum3.get()
+        if (sumChunkFlow.isFinite() && sumChunkIterator.isFinite()) {
+            assertTrue(nearlyEquals(sumChunkIterator, sumChunkFlow), "chunkFlow $sumChunkFlow != $sumChunkIterator sumChunkIterator")
+        }
+    }
     return countChunks
 }
 
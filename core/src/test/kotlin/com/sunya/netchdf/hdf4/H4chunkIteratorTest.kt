@@ -0,0 +1,78 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayInt
+import com.sunya.cdm.iosp.OpenFile
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.DataOutputStream
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.hdf4.H4chunkIterator] */
+class H4chunkIteratorTest {
+    lateinit var file : File
+    lateinit var raf : OpenFile
+    private lateinit var h4 : H4builder
+
+    // an HDF4 file with no tags
+    @BeforeEach
+    fun setup() {
+        file = File.createTempFile("H4chunkIteratorTest", ".hdf")
+        DataOutputStream(file.outputStream()).use { out ->
+            out.write(byteArrayOf(0x0e, 0x03, 0x13, 0x01))
+            out.writeShort(0) // no DDs
+            out.writeInt(0) // no next DD block
+        }
+        raf = OpenFile(file.path)
+        h4 = H4builder(raf, Charsets.UTF_8)
+    }
+
+    @AfterEach
+    fun cleanup() {
+        raf.close()
+        file.delete()
+    }
+
+    // an int variable(20, 40) in chunks of (10, 20), all of them missing, so every value is the fill value
+    private fun variable() : Variable<Int> {
+        val vinfo = Vinfo(1)
+        vinfo.elemSize = 4
+        vinfo.fillValue = -9
+        vinfo.isChunked = true
+        vinfo.chunkLengths = intArrayOf(10, 20)
+        vinfo.chunks = listOf(SpecialDataChunk(intArrayOf(0, 0), intArrayOf(10, 20), TagData(TagEnum.SD.code, 2, 0, 0)))
+        val vb = Variable.Builder("v", Datatype.INT).setDimensionsAnonymous(longArrayOf(20, 40))
+        vb.spObject = vinfo
+        return Group.Builder("").addVariable(vb).build(null).variables[0] as Variable<Int>
+    }
+
+    // each array has the shape of its section, which is the part of the wanted section inside the chunk
+    private fun check(pieces : List<ArraySection<Int>>) {
+        assertEquals(listOf(listOf(5L, 15L), listOf(5L, 20L), listOf(10L, 15L), listOf(10L, 20L)),
+            pieces.map { piece -> piece.section.ranges.map { it.first } })
+        pieces.forEach { piece ->
+            assertEquals(listOf(5, 5), piece.array.shape.toList(), piece.section.toString())
+            assertEquals(listOf(5L, 5L), piece.section.shape.toList())
+            assertTrue((piece.array as ArrayInt).toIntArray().all { it == -9 })
+        }
+    }
+
+    @Test
+    fun testSectionAcrossChunks() {
+        val v = variable()
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("5:14, 15:24"), v.shape)
+        check(H4chunkIterator<Int>(h4, v, wantSection).asSequence().toList())
+    }
+
+    @Test
+    fun testReads() {
+        val v = variable()
+        val wantSection = SectionPartial.fill(SectionPartial.fromSpec("5:14, 15:24"), v.shape)
+        val reads = H4chunkIterator<Int>(h4, v, wantSection).reads().asSequence().toList()
+        assertEquals(listOf(100L, 100L, 100L, 100L), reads.map { it.nbytes })
+        check(reads.map { it.read() })
+    }
+}
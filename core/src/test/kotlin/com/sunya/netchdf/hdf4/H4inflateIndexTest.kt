@@ -0,0 +1,82 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.iosp.OpenFile
+import com.sunya.cdm.iosp.OpenFileState
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.DataOutputStream
+import java.io.File
+import java.nio.ByteOrder
+import java.util.concurrent.Executors
+import java.util.zip.Deflater
+import kotlin.test.assertContentEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Test the checkpoints of a deflate compressed variable, [com.sunya.netchdf.hdf4.Vinfo.inflateIndex] */
+class H4inflateIndexTest {
+    lateinit var file : File
+    lateinit var raf : OpenFile
+    private lateinit var h4 : H4builder
+    private lateinit var vinfo : Vinfo
+    val data = ByteArray(300_000) { (it % 251 + it / 1000).toByte() }
+
+    // an HDF4 file with no tags, then a compressed special element header, then the deflated data
+    @BeforeEach
+    fun setup() {
+        val deflater = Deflater()
+        deflater.setInput(data)
+        deflater.finish()
+        val compressed = ByteArray(data.size + 1000).let { it.copyOf(deflater.deflate(it)) }
+
+        file = File.createTempFile("H4inflateIndexTest", ".hdf")
+        DataOutputStream(file.outputStream().buffered()).use { out ->
+            out.write(byteArrayOf(0x0e, 0x03, 0x13, 0x01))
+            out.writeShort(0) // no DDs
+            out.writeInt(0) // no next DD block
+            out.writeShort(0); out.writeInt(data.size); out.writeShort(2) // version, length, data ref
+            out.writeShort(0); out.writeShort(TagEnum.COMP_CODE_DEFLATE); out.writeShort(6) // model, deflate, level
+            out.write(compressed)
+        }
+        raf = OpenFile(file.path)
+        h4 = H4builder(raf, Charsets.UTF_8)
+
+        vinfo = Vinfo(1)
+        vinfo.isCompressed = true
+        vinfo.compress = SpecialComp(raf, OpenFileState(10, ByteOrder.BIG_ENDIAN), TagData(TagEnum.SD.code, 1, 0, 0))
+        vinfo.start = 24
+        vinfo.length = compressed.size
+    }
+
+    @AfterEach
+    fun cleanup() {
+        raf.close()
+        file.delete()
+    }
+
+    @Test
+    fun testOptIn() {
+        assertNull(vinfo.inflateIndex(h4, 0))
+        assertNull(vinfo.inflateIndex(h4, data.size)) // not bigger than the span
+        val index = assertNotNull(vinfo.inflateIndex(h4, 64 * 1024))
+
+        val dst = ByteArray(1000)
+        index.reader(compressedSource(h4, vinfo)).read(200_000, dst, 0, dst.size)
+        assertContentEquals(data.copyOfRange(200_000, 201_000), dst)
+    }
+
+    // readers of the same variable at the same time all get the one index
+    @Test
+    fun testConcurrent() {
+        val pool = Executors.newFixedThreadPool(4)
+        try {
+            val indexes = List(8) { pool.submit<Any?> { vinfo.inflateIndex(h4, 64 * 1024) } }.map { it.get() }
+            assertNotNull(indexes[0])
+            assertTrue(indexes.all { it === indexes[0] })
+        } finally {
+            pool.shutdown()
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.iosp.OpenFile
+import com.sunya.cdm.layout.IndexSpace
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.DataOutputStream
+import java.io.File
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.hdf4.H4tiledData] */
+class H4tiledDataTest {
+    lateinit var file : File
+    lateinit var raf : OpenFile
+    lateinit var h4 : H4builder
+
+    // an HDF4 file with no tags
+    @BeforeEach
+    fun setup() {
+        file = File.createTempFile("H4tiledDataTest", ".hdf")
+        DataOutputStream(file.outputStream()).use { out ->
+            out.write(byteArrayOf(0x0e, 0x03, 0x13, 0x01))
+            out.writeShort(0) // no DDs
+            out.writeInt(0) // no next DD block
+        }
+        raf = OpenFile(file.path)
+        h4 = H4builder(raf, Charsets.UTF_8)
+    }
+
+    @AfterEach
+    fun cleanup() {
+        raf.close()
+        file.delete()
+    }
+
+    // chunk origins are in units of chunks
+    private fun chunk(vararg origin : Int, refno : Int) = SpecialDataChunk(origin, intArrayOf(10, 20), TagData(TagEnum.SD.code, refno, 0, 0))
+
+    private fun check(varShape : LongArray) {
+        // the tile at (1, 1) is missing, and (0, 9999) is outside the variable
+        val chunks = listOf(chunk(0, 0, refno = 1), chunk(0, 1, refno = 2), chunk(1, 0, refno = 3), chunk(0, 9999, refno = 4))
+        val tiled = H4tiledData(h4, varShape, intArrayOf(10, 20), chunks)
+
+        assertEquals(2, tiled.findEntryContainingKey(intArrayOf(0, 20))!!.data.refno)
+        assertEquals(3, tiled.findEntryContainingKey(intArrayOf(10, 0))!!.data.refno)
+        assertNull(tiled.findEntryContainingKey(intArrayOf(10, 20)))
+        assertNull(tiled.findEntryContainingKey(intArrayOf(0, 199_980)))
+
+        // a section in the first two rows and columns of tiles, in tile order
+        val found = tiled.findDataChunks(IndexSpace(longArrayOf(5, 15), longArrayOf(10, 10))).toList()
+        assertEquals(listOf(listOf(0, 0), listOf(0, 20), listOf(10, 0), listOf(10, 20)), found.map { it.offsets.toList() })
+        assertTrue(found.all { it.isMissing() }) // none of the test chunks is compressed
+    }
+
+    @Test
+    fun testDense() {
+        check(longArrayOf(20, 40))
+    }
+
+    // too many tiles for a dense array, so the chunks go into a map
+    @Test
+    fun testMap() {
+        check(longArrayOf(20_000, 40_000))
+    }
+}
@@ -0,0 +1,268 @@
+package com.sunya.netchdf.hdf4
+
+import com.sunya.cdm.compress.Szip
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.util.zip.Deflater
+import kotlin.system.measureNanoTime
+import kotlin.test.assertContentEquals
+
+// The encoders here are straightforward versions of the HDF4 library's encoders, to round trip the decoders.
+class TestH4compress {
+    val nvalues = 100_000
+    val shorts = ByteArray(2 * nvalues).also { // big endian, slowly varying, with some runs
+        for (i in 0 until nvalues) {
+            val v = if ((i / 500) % 3 == 0) 1234 else (1000 + 300 * Math.sin(i / 200.0) + (i * 7919) % 13).toInt()
+            it[2 * i] = (v shr 8).toByte()
+            it[2 * i + 1] = v.toByte()
+        }
+    }
+
+    @Test
+    fun testRunLength() {
+        val data = ByteArray(10_000) { if ((it / 100) % 2 == 0) 7 else (it * 31).toByte() }
+        assertContentEquals(data, H4compress.runLength(runLengthEncode(data), data.size))
+        assertContentEquals(shorts, H4compress.runLength(runLengthEncode(shorts), shorts.size))
+    }
+
+    @Test
+    fun testNbit() {
+        // 12 bits stored from bit 13, sign extended
+        val nt = 22 // DFNT_INT16
+        val values = IntArray(1000) { (it * 37 % 4096) - 2048 }
+        val encoded = nbitEncode(values.map { it.toLong() shl 2 }, 13, 12)
+        val result = H4compress.nbit(encoded, 2 * values.size, nt, true, false, 13, 12)
+        val expect = ByteArray(2 * values.size).also {
+            values.forEachIndexed { idx, v -> val s = v shl 2; it[2 * idx] = (s shr 8).toByte(); it[2 * idx + 1] = s.toByte() }
+        }
+        assertContentEquals(expect, result)
+
+        // 5 bits from bit 7 of an unsigned int, little endian, other bits filled with ones
+        val encoded2 = nbitEncode((0 until 1000).map { (it % 32).toLong() shl 3 }, 7, 5)
+        val result2 = H4compress.nbit(encoded2, 4 * 1000, 25 or 0x4000, false, true, 7, 5)
+        for (idx in 0 until 1000) {
+            val v = ((idx % 32) shl 3) or 0x7 or 0xffffff00.toInt()
+            val got = (result2[4 * idx].toInt() and 0xff) or ((result2[4 * idx + 1].toInt() and 0xff) shl 8) or
+                    ((result2[4 * idx + 2].toInt() and 0xff) shl 16) or ((result2[4 * idx + 3].toInt() and 0xff) shl 24)
+            kotlin.test.assertEquals(v, got, "value $idx")
+        }
+    }
+
+    @Test
+    fun testSkippingHuffman() {
+        for (skip in listOf(1, 2, 4)) {
+            assertContentEquals(shorts, H4compress.skippingHuffman(skphuffEncode(shorts, skip), shorts.size, skip), "skip $skip")
+        }
+    }
+
+    @Test
+    fun testSzip() {
+        // 16 bit samples, nearest neighbor preprocessing, scanline not a multiple of the block size
+        val samples = IntArray(nvalues) { ((shorts[2 * it].toInt() and 0xff) shl 8) or (shorts[2 * it + 1].toInt() and 0xff) }
+        for (ppb in listOf(8, 16, 32)) {
+            for (ppsl in listOf(ppb * 16, 1000)) {
+                val encoded = szipEncode(samples, 16, ppb, ppsl, true)
+                val result = ByteArray(shorts.size)
+                Szip.decompress(encoded, 0, encoded.size, result, 0, result.size,
+                    Szip.NN_OPTION_MASK or Szip.MSB_OPTION_MASK, 16, ppb, ppsl)
+                assertContentEquals(shorts, result, "ppb $ppb ppsl $ppsl")
+            }
+        }
+        // 8 bit samples, no preprocessing
+        val bytes = IntArray(10_000) { (it / 40) % 5 }
+        val encoded = szipEncode(bytes, 8, 32, 512, false)
+        val result = ByteArray(bytes.size)
+        Szip.decompress(encoded, 0, encoded.size, result, 0, result.size, 0, 8, 32, 512)
+        assertContentEquals(ByteArray(bytes.size) { bytes[it].toByte() }, result)
+    }
+
+    @Test
+    fun timeDecoders() {
+        val samples = IntArray(nvalues) { ((shorts[2 * it].toInt() and 0xff) shl 8) or (shorts[2 * it + 1].toInt() and 0xff) }
+        val deflater = Deflater()
+        deflater.setInput(shorts)
+        deflater.finish()
+        val deflated = ByteArray(shorts.size + 100).let { it.copyOf(deflater.deflate(it)) }
+
+        val encoded = mapOf(
+            "rle" to runLengthEncode(shorts),
+            "skphuff" to skphuffEncode(shorts, 2),
+            "szip" to szipEncode(samples, 16, 32, 1024, true),
+            "deflate" to deflated,
+        )
+        val decoders = mapOf<String, (ByteArray) -> ByteArray>(
+            "rle" to { H4compress.runLength(it, shorts.size) },
+            "skphuff" to { H4compress.skippingHuffman(it, shorts.size, 2) },
+            "szip" to { ByteArray(shorts.size).also { result -> Szip.decompress(it, 0, it.size, result, 0, result.size,
+                Szip.NN_OPTION_MASK or Szip.MSB_OPTION_MASK, 16, 32, 1024) } },
+            "deflate" to { H4compress.inflate(it, shorts.size) },
+        )
+        val ntimes = 20
+        for ((name, decode) in decoders) {
+            val src = encoded[name]!!
+            repeat(3) { decode(src) } // warm up
+            val nanos = measureNanoTime { repeat(ntimes) { decode(src) } }
+            val mbPerSec = (ntimes.toDouble() * shorts.size / 1.0e6) / (nanos / 1.0e9)
+            println(" %8s compressed %8d bytes to %8d, decode %7.1f MB/sec".format(name, src.size, shorts.size, mbPerSec))
+        }
+    }
+
+    fun runLengthEncode(data: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        var pos = 0
+        while (pos < data.size) {
+            var run = 1
+            while (pos + run < data.size && run < 130 && data[pos + run] == data[pos]) run++
+            if (run >= 3) {
+                out.write(0x80 or (run - 3))
+                out.write(data[pos].toInt())
+                pos += run
+            } else {
+                // literals up to the next run of 3
+                var n = 0
+                while (pos + n < data.size && n < 128) {
+                    if (pos + n + 2 < data.size && data[pos + n] == data[pos + n + 1] && data[pos + n] == data[pos + n + 2]) break
+                    n++
+                }
+                out.write(n - 1)
+                out.write(data, pos, n)
+                pos += n
+            }
+        }
+        return out.toByteArray()
+    }
+
+    fun nbitEncode(values: List<Long>, startBit: Int, bitLength: Int): ByteArray {
+        val bits = BitWriter()
+        val offset = startBit - bitLength + 1
+        values.forEach { bits.write((it ushr offset) and ((1L shl bitLength) - 1), bitLength) }
+        return bits.toByteArray()
+    }
+
+    fun skphuffEncode(data: ByteArray, skip: Int): ByteArray {
+        val trees = Array(skip) { Splay() }
+        val bits = BitWriter()
+        val path = IntArray(600)
+        data.forEachIndexed { idx, b ->
+            val tree = trees[idx % skip]
+            val plain = b.toInt() and 0xff
+            var a = plain + 256
+            var n = 0
+            while (a != 1) {
+                val parent = tree.up[a]
+                path[n++] = if (tree.left[parent] == a) 0 else 1
+                a = parent
+            }
+            for (i in n - 1 downTo 0) bits.write(path[i].toLong(), 1)
+            tree.splay(plain)
+        }
+        return bits.toByteArray()
+    }
+
+    class Splay {
+        val left = IntArray(256) { 2 * it }
+        val right = IntArray(256) { 2 * it + 1 }
+        val up = IntArray(513) { it / 2 }
+
+        fun splay(plain: Int) {
+            var a = plain + 256
+            do {
+                val c = up[a]
+                if (c != 1) {
+                    val d = up[c]
+                    var b = left[d]
+                    if (c == b) { b = right[d]; right[d] = a } else left[d] = a
+                    if (a == left[c]) left[c] = b else right[c] = b
+                    up[a] = d
+                    up[b] = c
+                    a = d
+                } else a = c
+            } while (a != 1)
+        }
+    }
+
+    // uses each of the coding options in turn, where possible
+    fun szipEncode(samples: IntArray, bps: Int, ppb: Int, ppsl: Int, preprocess: Boolean): ByteArray {
+        val idLen = if (bps > 16) 5 else if (bps > 8) 4 else 3
+        val rsiBlocks = (ppsl + ppb - 1) / ppb
+        val nscanlines = (samples.size + ppsl - 1) / ppsl
+        val bits = BitWriter()
+        var blockCount = 0
+        for (line in 0 until nscanlines) {
+            // pad the scanline with its last value
+            val x = IntArray(rsiBlocks * ppb) { samples[minOf(line * ppsl + minOf(it, ppsl - 1), samples.size - 1)] }
+            val d = if (!preprocess) x else IntArray(x.size) {
+                if (it == 0) x[0] else {
+                    val prev = x[it - 1].toLong()
+                    val delta = x[it] - prev
+                    val theta = minOf(prev, (1L shl bps) - 1 - prev)
+                    (if (delta in 0..theta) 2 * delta else if (delta < 0 && -delta <= theta) -2 * delta - 1 else theta + Math.abs(delta)).toInt()
+                }
+            }
+            // a partial last scanline is only padded when the scanlines are
+            val padded = ppsl % ppb != 0
+            val lastBlock = if (line == nscanlines - 1 && !padded) (samples.size - line * ppsl + ppb - 1) / ppb else rsiBlocks
+            for (block in 0 until lastBlock) {
+                val ref = if (preprocess && block == 0) 1 else 0
+                val values = d.copyOfRange(block * ppb, (block + 1) * ppb)
+                val mode = blockCount++ % 4
+                val allZero = (ref until ppb).all { values[it] == 0 }
+                val secondExtOk = (ref until ppb).all { values[it] <= 6 }
+                if (mode == 0 && allZero) {
+                    bits.write(0, idLen); bits.write(0, 1)
+                    if (ref == 1) bits.write(values[0].toLong(), bps)
+                    bits.write(1, 1) // one zero block
+                } else if (mode == 1 && secondExtOk) {
+                    bits.write(0, idLen); bits.write(1, 1)
+                    if (ref == 1) bits.write(values[0].toLong(), bps)
+                    var i = ref
+                    while (i < ppb) {
+                        val (first, second) = if (i and 1 == 1) Pair(0, values[i]) else Pair(values[i], values[i + 1])
+                        val sum = first + second
+                        writeFs(bits, sum * (sum + 1) / 2 + second)
+                        i += if (i and 1 == 1) 1 else 2
+                    }
+                } else if (mode == 2) {
+                    bits.write(((1 shl idLen) - 1).toLong(), idLen)
+                    // uncompressed blocks have the raw reference sample first
+                    values.forEach { bits.write((it.toLong() and 0xffffffffL), bps) }
+                } else {
+                    val k = (0 until (1 shl idLen) - 2).minByOrNull { k -> (ref until ppb).sumOf { (values[it] ushr k) + 1 + k } }!!
+                    bits.write((k + 1).toLong(), idLen)
+                    if (ref == 1) bits.write(values[0].toLong(), bps)
+                    for (i in ref until ppb) writeFs(bits, values[i] ushr k)
+                    for (i in ref until ppb) bits.write(values[i].toLong() and ((1L shl k) - 1), k)
+                }
+            }
+        }
+        return bits.toByteArray()
+    }
+
+    fun writeFs(bits: BitWriter, n: Int) {
+        repeat(n) { bits.write(0, 1) }
+        bits.write(1, 1)
+    }
+
+    class BitWriter {
+        private val out = ByteArrayOutputStream()
+        private var acc = 0L
+        private var nbits = 0
+
+        fun write(value: Long, n: Int) {
+            for (i in n - 1 downTo 0) {
+                acc = (acc shl 1) or ((value ushr i) and 1L)
+                nbits++
+                if (nbits == 8) {
+                    out.write(acc.toInt())
+                    acc = 0
+                    nbits = 0
+                }
+            }
+        }
+
+        fun toByteArray(): ByteArray {
+            if (nbits > 0) write(0, 8 - nbits)
+            return out.toByteArray()
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.array.ArrayString
+import com.sunya.cdm.array.ArrayVlen
+import com.sunya.cdm.iosp.OpenFile
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.hdf5.GlobalHeap] and [com.sunya.netchdf.hdf5.GlobalHeapCache] */
+class GlobalHeapTest {
+    lateinit var file : File
+    val strings = listOf("first", "second", "a longer string, in ütf-8", "fourth", "last")
+    val ragged = listOf(listOf(1, 2, 3), listOf(), listOf(10, 20), listOf(-7))
+    var collection1 = 0L
+    var collection2 = 0L
+
+    // the strings and sequences are split between two collections, each holding some of both
+    @BeforeEach
+    fun setup() {
+        file = File.createTempFile("GlobalHeapTest", ".h5")
+        val writer = H5writer()
+        fun ints(values : List<Int>) = ByteBuffer.allocate(4 * values.size).order(ByteOrder.LITTLE_ENDIAN)
+            .also { bb -> values.forEach { bb.putInt(it) } }.array()
+
+        collection1 = writer.globalHeap(strings.subList(0, 3).map { it.toByteArray() } + ints(ragged[0]))
+        collection2 = writer.globalHeap(listOf(ints(ragged[2])) + strings.subList(3, 5).map { it.toByteArray() } + ints(ragged[3]))
+        writer.vlen("strings", true, strings.mapIndexed { idx, s ->
+            val nbytes = s.toByteArray().size
+            if (idx < 3) H5writer.HeapId(nbytes, collection1, idx + 1) else H5writer.HeapId(nbytes, collection2, idx - 1)
+        })
+        writer.vlen("ragged", false, listOf(
+            H5writer.HeapId(3, collection1, 4),
+            H5writer.HeapId(0, 0, 0), // empty
+            H5writer.HeapId(2, collection2, 1),
+            H5writer.HeapId(1, collection2, 4),
+        ))
+        writer.write(file)
+    }
+
+    @AfterEach
+    fun cleanup() {
+        file.delete()
+    }
+
+    @Test
+    fun testVlen() {
+        Hdf5File(file.path).use { h5file ->
+            val sv = h5file.rootGroup().variables.find { it.name == "strings" }!!
+            assertEquals(strings, (h5file.readArrayData(sv) as ArrayString).values)
+            val rv = h5file.rootGroup().variables.find { it.name == "ragged" }!!
+            val values = (h5file.readArrayData(rv) as ArrayVlen<*>).map { (it as Array<*>).toList() }
+            assertEquals(ragged, values)
+        }
+    }
+
+    // each collection is read once, however many heap objects are in it
+    @Test
+    fun testCacheHits() {
+        OpenFile(file.path).use { raf ->
+            val h5 = H5builder(raf, false)
+            for (name in listOf("strings", "ragged")) {
+                val v = h5.cdmRoot.variables.find { it.name == name }!!
+                h5.readRegularData(h5.dataContainer(v), v.datatype, null)
+            }
+            assertEquals(2, h5.globalHeaps.misses)
+            assertEquals(5L + 3 - 2, h5.globalHeaps.hits)
+        }
+    }
+
+    // with room for only one collection, each switch between them reads one again
+    @Test
+    fun testCacheSize() {
+        OpenFile(file.path).use { raf ->
+            val h5 = H5builder(raf, false, globalHeapCacheBytes = 5000)
+            assertEquals(5000, h5.globalHeaps.maxBytes)
+            for (name in listOf("strings", "ragged")) {
+                val v = h5.cdmRoot.variables.find { it.name == name }!!
+                h5.readRegularData(h5.dataContainer(v), v.datatype, null)
+            }
+            assertEquals(4, h5.globalHeaps.misses)
+            assertEquals(4, h5.globalHeaps.hits)
+        }
+        Hdf5File(file.path, globalHeapCacheBytes = 0).use { h5file ->
+            val sv = h5file.rootGroup().variables.find { it.name == "strings" }!!
+            assertEquals(strings, (h5file.readArrayData(sv) as ArrayString).values)
+        }
+    }
+
+    // a collection is 4096 bytes, so only one fits
+    @Test
+    fun testEviction() {
+        OpenFile(file.path).use { raf ->
+            val cache = GlobalHeapCache(H5builder(raf, false), 5000)
+            val first = cache.get(collection1)
+            assertTrue(first === cache.get(collection1))
+            assertEquals(1, cache.misses)
+            assertEquals(1, cache.hits)
+
+            cache.get(collection2)
+            cache.get(collection2)
+            assertEquals(2, cache.misses)
+            assertEquals(2, cache.hits)
+
+            // collection1 was evicted
+            assertTrue(first !== cache.get(collection1))
+            assertEquals(3, cache.misses)
+            assertEquals(2, cache.hits)
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.iosp.OpenFile
+import com.sunya.cdm.layout.IndexSpace
+import com.sunya.cdm.util.Stats
+import com.sunya.testdata.testData
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+
+// Time finding the data chunks of a variable with many chunks, in the B-tree.
+class H5chunkLookupBenchmark {
+
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            Stats.clear()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            Stats.show()
+        }
+    }
+
+    @Test
+    fun timeGoes16() {
+        timeChunkLookup(testData + "cdmUnitTest/formats/netcdf4/goes16/OR_ABI-L2-CMIPF-M6C13_G16_s20230451800207_e20230451809526_c20230451810015.nc", "CMI")
+    }
+
+    @Test
+    fun timeUpperDeschutes() {
+        timeChunkLookup(testData + "cdmUnitTest/formats/netcdf4/UpperDeschutes_t4p10_swemelt.nc", "UpperDeschutes_t4p10_swemelt")
+    }
+
+    fun timeChunkLookup(filename : String, varname : String, ntrials : Int = 10) {
+        val shortName = filename.substringAfterLast('/')
+        OpenFile(filename).use { raf ->
+            val h5 = H5builder(raf, false)
+            val v2 = h5.cdmRoot.allVariables().find { it.fullname() == varname } ?: throw RuntimeException("cant find $varname")
+            val vinfo = v2.spObject as DataContainerVariable
+            require(vinfo.isChunked)
+            val tiledData = H5TiledData(BTree1(h5, vinfo.dataPos, 1, v2.shape, vinfo.storageDims))
+            val tiling = tiledData.tiling
+            val rank = v2.rank
+            val ntiles = tiling.tileShape.fold(1L) { acc, len -> acc * len }.toInt()
+            println("$shortName $varname tiles = ${tiling.tileShape.contentToString()} = $ntiles chunks")
+
+            // all the tiles at once: consecutive, so the leaves are walked once
+            val allSpace = IndexSpace(v2.shape)
+            repeat(ntrials) {
+                var count = 0
+                val time = measureNanoTime {
+                    tiledData.dataChunks(allSpace).forEach { count++ }
+                }
+                assertEquals(ntiles, count)
+                Stats.of("bulk", shortName, "chunk").accum(time, count)
+            }
+
+            // one slab of tiles along the last dimension at a time: not consecutive, so each tile is a B-tree search
+            val lastChunk = vinfo.storageDims[rank - 1]
+            repeat(ntrials) {
+                var count = 0
+                val time = measureNanoTime {
+                    for (tile in 0 until tiling.tileShape[rank - 1]) {
+                        val start = LongArray(rank) { if (it == rank - 1) tile * lastChunk else 0L }
+                        val shape = LongArray(rank) { if (it == rank - 1) minOf(lastChunk, v2.shape[it] - start[it]) else v2.shape[it] }
+                        tiledData.dataChunks(IndexSpace(start, shape)).forEach { count++ }
+                    }
+                }
+                assertEquals(ntiles, count)
+                Stats.of("search", shortName, "chunk").accum(time, count)
+            }
+            println(tiledData)
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.util.Stats
+import com.sunya.testdata.testData
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+
+// Time reading compressed chunked variables with different numbers of decode threads.
+class H5decodeBenchmark {
+
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            Stats.clear()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            Stats.show()
+        }
+    }
+
+    @Test
+    fun timeGoes16() {
+        timeDecode(testData + "cdmUnitTest/formats/netcdf4/goes16/OR_ABI-L2-CMIPF-M6C13_G16_s20230451800207_e20230451809526_c20230451810015.nc", "CMI")
+    }
+
+    @Test
+    fun timeUpperDeschutes() {
+        timeDecode(testData + "cdmUnitTest/formats/netcdf4/UpperDeschutes_t4p10_swemelt.nc", "UpperDeschutes_t4p10_swemelt")
+    }
+
+    fun timeDecode(filename : String, varname : String, ntrials : Int = 5) {
+        val shortName = filename.substringAfterLast('/')
+        println("$shortName $varname cores = ${Runtime.getRuntime().availableProcessors()}")
+
+        val expected = Hdf5File(filename).use { h5file ->
+            val v2 = h5file.rootGroup().allVariables().find { it.fullname() == varname } ?: throw RuntimeException("cant find $varname")
+            h5file.readArrayData(v2)
+        }
+
+        for (nthreads in listOf(1, 4, 16)) {
+            Hdf5File(filename, decodeThreads = nthreads).use { h5file ->
+                val v2 = h5file.rootGroup().allVariables().find { it.fullname() == varname }!!
+                repeat(ntrials) {
+                    var data : Any? = null
+                    val time = measureNanoTime {
+                        data = h5file.readArrayData(v2)
+                    }
+                    assertEquals(expected, data)
+                    Stats.of("decodeThreads=$nthreads", shortName, "read").accum(time, 1)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.SectionPartial
+import com.sunya.cdm.array.ArrayInt
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import kotlin.test.assertEquals
+
+/**
+ * Test the version 4 data layout chunk indexes: single chunk, fixed array, extensible array and version 2 B-tree.
+ * Each chunked dataset "name" has a contiguous twin "name_ref" with the values expected, which are the same except
+ * where chunks are missing, which read as the fill value.
+ * The files are made by H5writer, as there's no HDF5 library to make them with.
+ */
+class H5layout4Test {
+    lateinit var file : File
+    private lateinit var writer : H5writer
+
+    @BeforeEach
+    fun setup() {
+        file = File.createTempFile("H5layout4Test", ".h5")
+        writer = H5writer()
+    }
+
+    @AfterEach
+    fun cleanup() {
+        file.delete()
+    }
+
+    // values[i] = i, except in the missing chunks
+    fun values(dims : LongArray, chunkDims : LongArray, missing : (LongArray) -> Boolean) : IntArray {
+        val n = dims.fold(1L) { acc, d -> acc * d }.toInt()
+        return IntArray(n) { idx ->
+            var rest = idx.toLong()
+            val tile = LongArray(dims.size)
+            for (d in dims.indices.reversed()) {
+                tile[d] = (rest % dims[d]) / chunkDims[d]
+                rest /= dims[d]
+            }
+            if (missing(tile)) writer.fillValue else idx
+        }
+    }
+
+    // compare each dataset with its twin, all of it and these sections of it
+    fun check(names : List<String>, vararg sections : String, decodeThreads : Int = 1) {
+        writer.write(file)
+        Hdf5File(file.path, decodeThreads = decodeThreads).use { h5file ->
+            for (name in names) {
+                val v = h5file.rootGroup().variables.find { it.name == name }!!
+                val ref = h5file.rootGroup().variables.find { it.name == name + "_ref" }!!
+                assertEquals(ref.shape.toList(), v.shape.toList(), name)
+                assertEquals((h5file.readArrayData(ref) as ArrayInt).toList(), (h5file.readArrayData(v) as ArrayInt).toList(), name)
+                for (spec in sections) {
+                    val section = SectionPartial.fromSpec(spec)
+                    assertEquals((h5file.readArrayData(ref, section) as ArrayInt).toList(),
+                        (h5file.readArrayData(v, section) as ArrayInt).toList(), "$name[$spec]")
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testSingleChunk() {
+        val dims = longArrayOf(5, 7)
+        val values = IntArray(35) { it * 3 }
+        writer.contiguous("single_ref", dims, values)
+        writer.singleChunk("single", dims, values, false)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.singleChunk("filtered", dims, values, true)
+        check(listOf("single", "filtered"), "1:3, 2:6", "4, :")
+    }
+
+    @Test
+    fun testFixedArray() {
+        val dims = longArrayOf(20, 30)
+        val chunk = longArrayOf(6, 7)
+        val missing = { tile : LongArray -> tile[0] == 1L && tile[1] == 2L }
+        val values = values(dims, chunk, missing)
+        writer.contiguous("fa_ref", dims, values)
+        writer.fixedArray("fa", dims, chunk, values, false, missing = missing)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.fixedArray("filtered", dims, chunk, values, true, missing = missing)
+        check(listOf("fa", "filtered"), "5:13, 12:16", "19, :", ":, 29")
+    }
+
+    // more decode threads than there are cores
+    @Test
+    fun testDecodeThreads() {
+        val dims = longArrayOf(40, 50)
+        val chunk = longArrayOf(4, 5)
+        val values = values(dims, chunk) { false }
+        writer.contiguous("filtered_ref", dims, values)
+        writer.fixedArray("filtered", dims, chunk, values, true)
+        val decodeThreads = 2 * Runtime.getRuntime().availableProcessors() + 1
+        check(listOf("filtered"), "3:37, 12:16", decodeThreads = decodeThreads)
+    }
+
+    @Test
+    fun testFixedArrayPaged() {
+        // 2500 chunks, in 3 pages of 1024 chunks; the second page has no chunks, so its not initialized
+        val dims = longArrayOf(50, 50)
+        val chunk = longArrayOf(1, 1)
+        val missing = { tile : LongArray -> (tile[0] * 50 + tile[1]) in 1024L until 2048L }
+        val values = values(dims, chunk, missing)
+        writer.contiguous("paged_ref", dims, values)
+        writer.fixedArray("paged", dims, chunk, values, false, missing = missing)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.fixedArray("filtered", dims, chunk, values, true, missing = missing)
+        check(listOf("paged", "filtered"), "20:45, 3:7", "49, :")
+    }
+
+    @Test
+    fun testExtensibleArray() {
+        // with the default parameters, the first 244 chunks are in the index block
+        // and its data blocks, the rest in super block 4
+        val dims = longArrayOf(300, 4)
+        val chunk = longArrayOf(1, 4)
+        val missing = { tile : LongArray -> tile[0] == 2L || tile[0] == 250L }
+        val values = values(dims, chunk, missing)
+        val maxDims = longArrayOf(-1, 4)
+        writer.contiguous("ea_ref", dims, values)
+        writer.extensibleArray("ea", dims, maxDims, chunk, values, false, missing = missing)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.extensibleArray("filtered", dims, maxDims, chunk, values, true, missing = missing)
+        check(listOf("ea", "filtered"), "0:10, :", "240:299, 1:2", "2, :")
+    }
+
+    @Test
+    fun testExtensibleArrayPaged() {
+        // data blocks of more than 4 chunks are paged; chunks 38 to 41 are a page in super block 4, which isnt initialized
+        val params = H5writer.EAparams(maxNelmtsBits = 16, idxBlkElmts = 4, dataBlkMinElmts = 2, supBlkMinDataPtrs = 2, pageBits = 2)
+        val dims = longArrayOf(100, 3)
+        val chunk = longArrayOf(1, 3)
+        val missing = { tile : LongArray -> tile[0] in 38L..41L }
+        val values = values(dims, chunk, missing)
+        val maxDims = longArrayOf(-1, 3)
+        writer.contiguous("ea_ref", dims, values)
+        writer.extensibleArray("ea", dims, maxDims, chunk, values, false, params, missing)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.extensibleArray("filtered", dims, maxDims, chunk, values, true, params, missing)
+        check(listOf("ea", "filtered"), "30:50, :", "99, 1")
+    }
+
+    @Test
+    fun testBTree2() {
+        // two unlimited dimensions; small nodes make a tree of depth 2. the chunk past the shape is ignored.
+        val dims = longArrayOf(12, 10)
+        val chunk = longArrayOf(2, 3)
+        val missing = { tile : LongArray -> tile[0] == 2L && tile[1] == 1L }
+        val values = values(dims, chunk, missing)
+        val extra = listOf(longArrayOf(7, 0), longArrayOf(0, 4))
+        writer.contiguous("bt2_ref", dims, values)
+        writer.btree2("bt2", dims, chunk, values, false, nodeSize = 128, missing = missing, extraTiles = extra)
+        writer.contiguous("filtered_ref", dims, values)
+        writer.btree2("filtered", dims, chunk, values, true, nodeSize = 128, missing = missing, extraTiles = extra)
+        check(listOf("bt2", "filtered"), "3:8, 2:7", "11, :", ":, 9")
+    }
+}
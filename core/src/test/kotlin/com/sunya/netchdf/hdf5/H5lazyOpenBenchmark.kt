@@ -0,0 +1,96 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.Group
+import com.sunya.cdm.util.Stats
+import com.sunya.testdata.H5Files
+import com.sunya.testdata.N4Files
+import com.sunya.testdata.testData
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.Arguments
+import org.junit.jupiter.params.provider.MethodSource
+import java.util.stream.Stream
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+// Time opening HDF5 files with and without lazyOpen, against the number of groups and variables in the file.
+class H5lazyOpenBenchmark {
+
+    companion object {
+        @JvmStatic
+        fun params(): Stream<Arguments> {
+            return Stream.of(H5Files.params(), N4Files.params()).flatMap { i -> i }
+        }
+
+        val results = mutableListOf<String>()
+
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            Stats.clear()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            println("   eager(ms)    lazy(ms) lazy+one(ms)  nobjects  file")
+            results.forEach { println(it) }
+            Stats.show()
+        }
+    }
+
+    @Test
+    fun testLazyGroups() {
+        val filename = testData + "devcdm/netcdf4/tst_groups.nc"
+        Hdf5File(filename, lazyOpen = true).use { h5file ->
+            val root = h5file.rootGroup()
+            assertFalse(root.isLoaded)
+            val nested = root.groups
+            assertTrue(root.isLoaded)
+            nested.forEach { assertFalse(it.isLoaded) }
+
+            val expected = Hdf5File(filename).use { it.cdl() }
+            assertEquals(expected, h5file.cdl())
+            nested.forEach { assertTrue(it.isLoaded) }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("params")
+    fun timeOpen(filename : String) {
+        val eagerVars : List<String>
+        var nobjects : Int
+        val eager = measureNanoTime {
+            Hdf5File(filename).use { h5file ->
+                eagerVars = h5file.rootGroup().allVariables().map { it.fullname() }
+                nobjects = countObjects(h5file.rootGroup())
+            }
+        }
+        val lazy = measureNanoTime {
+            Hdf5File(filename, lazyOpen = true).use { h5file -> h5file.rootGroup() }
+        }
+        // open and read the first variable in the root group
+        val lazyOne = measureNanoTime {
+            Hdf5File(filename, lazyOpen = true).use { h5file ->
+                h5file.rootGroup().variables.firstOrNull()?.let { h5file.readArrayData(it) }
+            }
+        }
+        // the same variables once everything is loaded
+        Hdf5File(filename, lazyOpen = true).use { h5file ->
+            assertEquals(eagerVars, h5file.rootGroup().allVariables().map { it.fullname() })
+        }
+
+        Stats.of("eager", filename, "open").accum(eager, nobjects)
+        Stats.of("lazy", filename, "open").accum(lazy, nobjects)
+        Stats.of("lazy + read one", filename, "open").accum(lazyOne, nobjects)
+        results.add("%12.3f%12.3f%13.3f%10d  %s".format(eager * 1e-6, lazy * 1e-6, lazyOne * 1e-6, nobjects, filename.substringAfterLast('/')))
+    }
+
+    fun countObjects(group : Group) : Int {
+        return group.variables.size + group.groups.size + group.groups.sumOf { countObjects(it) }
+    }
+}
@@ -6,6 +6,7 @@ import com.sunya.cdm.api.SectionPartial
 import com.sunya.cdm.api.Variable
 import com.sunya.cdm.api.chunkConcurrent
 import com.sunya.cdm.array.ArrayTyped
+import com.sunya.cdm.iosp.ChunkCache
 import com.sunya.cdm.util.Stats
 import com.sunya.netchdf.compareNetchIterate
 import com.sunya.netchdf.readNetchdfData
@@ -21,6 +22,7 @@ import org.junit.jupiter.params.provider.Arguments
 import org.junit.jupiter.params.provider.MethodSource
 import java.util.stream.Stream
 import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
 
 // Sanity check read Hdf5File header, for non-netcdf4 files
 class H5readTest {
@@ -70,6 +72,58 @@ class H5readTest {
         compareNetchIterate(testData + "cdmUnitTest/formats/hdf5/xmdf/mesh_datasets.h5", "/2DMeshModule/mesh/Datasets/velocity_(64)/Mins")
     }
 
+    @Test
+    fun testChunkIndexCache() {
+        Hdf5File(testData + "devcdm/hdf5/zip.h5").use { h5file ->
+            val h5var = h5file.rootGroup().allVariables().find { it.fullname() == "/Data/Compressed_Data" }!!
+            h5file.readArrayData(h5var)
+            val stats1 = h5file.chunkIndexStats()
+            assertEquals(1, stats1.misses)
+            assertEquals(1, stats1.size)
+
+            h5file.readArrayData(h5var)
+            h5file.chunkIterator(h5var).forEach { }
+            val stats2 = h5file.chunkIndexStats()
+            assertEquals(1, stats2.misses)
+            assertEquals(2, stats2.hits)
+            assertEquals(stats1.nodeMisses, stats2.nodeMisses) // no nodes reread
+            println(stats2)
+        }
+    }
+
+    @Test
+    fun testChunkCache() {
+        val filename = testData + "devcdm/hdf5/zip.h5"
+        val cache = ChunkCache(64 * 1024 * 1024)
+        Hdf5File(filename, chunkCache = cache).use { h5file ->
+            val h5var = h5file.rootGroup().allVariables().find { it.fullname() == "/Data/Compressed_Data" }!!
+            val expect = Hdf5File(filename, chunkCache = ChunkCache(0)).use { h5file0 ->
+                h5file0.readArrayData(h5file0.rootGroup().allVariables().find { it.fullname() == "/Data/Compressed_Data" }!!)
+            }
+
+            assertEquals(expect, h5file.readArrayData(h5var))
+            val stats1 = h5file.chunkCacheStats()
+            assertEquals(0, stats1.hits)
+            assertEquals(stats1.misses, stats1.size.toLong())
+
+            // the same chunks, from the cache
+            assertEquals(expect, h5file.readArrayData(h5var))
+            h5file.chunkIterator(h5var).forEach { }
+            val stats2 = h5file.chunkCacheStats()
+            assertEquals(stats1.misses, stats2.misses)
+            assertEquals(2 * stats1.misses, stats2.hits)
+
+            // shared with another open file of the same location, read concurrently
+            Hdf5File(filename, decodeThreads = 4, chunkCache = cache).use { h5file2 ->
+                val h5var2 = h5file2.rootGroup().allVariables().find { it.fullname() == "/Data/Compressed_Data" }!!
+                assertEquals(expect, h5file2.readArrayData(h5var2))
+                assertEquals(stats1.misses, h5file2.chunkCacheStats().misses)
+                assertEquals(3 * stats1.misses, h5file2.chunkCacheStats().hits)
+            }
+            println(h5file.chunkCacheStats())
+        }
+    }
+
     @Test
     fun testEos() {
         testOpenH5(testData + "cdmUnitTest/formats/hdf5/aura/MLS-Aura_L2GP-BrO_v01-52-c01_2007d029.he5")
@@ -0,0 +1,550 @@
+package com.sunya.netchdf.hdf5
+
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.Deflater
+
+/**
+ * Writes small HDF5 files in the latest version of the file format, as libver=latest does: a version 2 superblock,
+ * version 2 object headers, and version 4 data layout messages with each kind of chunk index.
+ * The structures follow the file format specification and the HDF5 library's encoders, not this library's reader,
+ * so the reader can be tested against them. Checksums are computed, even though the reader doesnt check them.
+ *
+ * The datasets are in the root group. Other than the variable length ones, they are 32 bit little endian ints with
+ * a fill value. Chunks that are not written are missing, and read as the fill value. The elements of edge chunks past
+ * the dataset are set to edgeValue.
+ */
+internal class H5writer(val fillValue : Int = -1, val edgeValue : Int = -7) {
+    private var bb = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN)
+    private var eof = superblockSize.toLong()
+    private val links = mutableListOf<Pair<String, Long>>() // dataset name, object header address
+
+    // a chunk as written in the file
+    private class ChunkRef(val address : Long, val size : Int)
+
+    /** Creation parameters of an extensible array, the defaults are the HDF5 library's. */
+    class EAparams(val maxNelmtsBits : Int = 32, val idxBlkElmts : Int = 4, val dataBlkMinElmts : Int = 16,
+                   val supBlkMinDataPtrs : Int = 4, val pageBits : Int = 10)
+
+    /** A global heap id: the number of base type elements, and the address and index of the heap object. */
+    class HeapId(val nelems : Int, val collection : Long, val index : Int)
+
+    /**
+     * A global heap collection holding these objects, which get the indexes 1 to n, returning its address.
+     * Like the HDF5 library's, its at least 4096 bytes, and the space left over is the free space object.
+     */
+    fun globalHeap(objects : List<ByteArray>) : Long {
+        val heapObjects = block {
+            objects.forEachIndexed { idx, obj ->
+                short(idx + 1); short(1); int(0); long(obj.size.toLong()) // index, reference count, reserved, size
+                bytes(obj)
+                repeat((8 - obj.size % 8) % 8) { byte(0) }
+            }
+        }
+        val size = maxOf(4096, 16 + heapObjects.size + 16)
+        return append(block(size = size) {
+            string("GCOL"); byte(1); byte(0); byte(0); byte(0); long(size.toLong())
+            bytes(heapObjects)
+            short(0); short(0); int(0); long((size - 16 - heapObjects.size).toLong()) // free space, including this header
+        })
+    }
+
+    /** A contiguous one dimensional dataset of variable length UTF-8 strings, or if not isString, of int sequences. */
+    fun vlen(name : String, isString : Boolean, heapIds : List<HeapId>) {
+        val data = block { heapIds.forEach { int(it.nelems); long(it.collection); int(it.index) } }
+        val address = append(data)
+        val layout = block {
+            byte(3); byte(1) // version, contiguous
+            long(address); long(data.size.toLong())
+        }
+        val datatype = block {
+            byte(0x19) // version 1, variable length
+            if (isString) {
+                byte(1); byte(1); byte(0); int(16) // string, UTF-8
+                byte(0x10); byte(0); byte(0); byte(0); int(1); short(0); short(8) // of unsigned bytes
+            } else {
+                byte(0); byte(0); byte(0); int(16) // sequence
+                bytes(int32)
+            }
+        }
+        dataset(name, longArrayOf(heapIds.size.toLong()), null, 1, layout, false, datatype, null)
+    }
+
+    /** A dataset with contiguous storage. */
+    fun contiguous(name : String, dims : LongArray, values : IntArray) {
+        val data = ByteBuffer.allocate(4 * values.size).order(ByteOrder.LITTLE_ENDIAN)
+        values.forEach { data.putInt(it) }
+        val address = append(data.array())
+        val layout = block {
+            byte(3); byte(1) // version, contiguous
+            long(address); long(4L * values.size)
+        }
+        dataset(name, dims, null, 1, layout, false)
+    }
+
+    /** A chunked dataset whose single chunk is the entire dataset. */
+    fun singleChunk(name : String, dims : LongArray, values : IntArray, deflate : Boolean) {
+        val chunk = writeChunk(dims, dims, values, LongArray(dims.size), deflate)
+        val layout = chunkedLayout(dims, if (deflate) 2 else 0, 1) {
+            if (deflate) { long(chunk.size.toLong()); int(0) } // filtered size, filter mask
+            long(chunk.address)
+        }
+        dataset(name, dims, null, 2, layout, deflate)
+    }
+
+    /** A chunked dataset with a fixed array index, which is paged when there are more than 2^pageBits chunks. */
+    fun fixedArray(name : String, dims : LongArray, chunkDims : LongArray, values : IntArray, deflate : Boolean,
+                   pageBits : Int = 10, missing : (LongArray) -> Boolean = { false }) {
+        val tiles = tileShape(dims, chunkDims)
+        val chunks = writeChunks(dims, chunkDims, values, tiles, deflate, missing)
+        val nelmts = chunks.size
+        val sizeLen = chunkSizeLength(chunkDims)
+        val elemSize = if (deflate) 8 + sizeLen + 4 else 8
+        val clientId = if (deflate) 1 else 0
+
+        val headerAddress = reserve(28)
+        val pageNelmts = 1 shl pageBits
+        val dataBlock = if (nelmts <= pageNelmts) {
+            append(block(true) {
+                string("FADB"); byte(0); byte(clientId); long(headerAddress)
+                chunks.forEach { element(it, deflate, sizeLen) }
+            })
+        } else {
+            // the page bitmap is in the data block, the pages follow it, each with its own checksum
+            val pages = chunks.chunked(pageNelmts)
+            val bitmap = ByteArray((pages.size + 7) / 8)
+            pages.forEachIndexed { page, elems -> if (elems.any { it != null }) setBit(bitmap, page) }
+            val address = append(block(true) {
+                string("FADB"); byte(0); byte(clientId); long(headerAddress); bytes(bitmap)
+            })
+            pages.forEachIndexed { page, elems ->
+                if (isBitSet(bitmap, page)) append(block(true) { elems.forEach { element(it, deflate, sizeLen) } })
+                else unwritten(elems.size * elemSize + 4)
+            }
+            address
+        }
+        put(headerAddress, block(true) {
+            string("FAHD"); byte(0); byte(clientId); byte(elemSize); byte(pageBits)
+            long(nelmts.toLong()); long(dataBlock)
+        })
+
+        val layout = chunkedLayout(chunkDims, 0, 3) {
+            byte(pageBits)
+            long(headerAddress)
+        }
+        dataset(name, dims, null, 2, layout, deflate)
+    }
+
+    /** A chunked dataset with an extensible array index, for one unlimited dimension, which must be the first. */
+    fun extensibleArray(name : String, dims : LongArray, maxDims : LongArray, chunkDims : LongArray, values : IntArray,
+                        deflate : Boolean, params : EAparams = EAparams(), missing : (LongArray) -> Boolean = { false }) {
+        require(maxDims[0] == -1L && (1 until maxDims.size).all { maxDims[it] >= 0 })
+        val tiles = tileShape(dims, chunkDims) // the fixed dimensions are at their maximum
+        val chunks = writeChunks(dims, chunkDims, values, tiles, deflate, missing)
+        val n = chunks.size.toLong()
+        val sizeLen = chunkSizeLength(chunkDims)
+        val elemSize = if (deflate) 8 + sizeLen + 4 else 8
+        val clientId = if (deflate) 1 else 0
+        val offsetSize = (params.maxNelmtsBits + 7) / 8
+        val pageNelmts = 1L shl params.pageBits
+        fun chunk(idx : Long) = if (idx < n) chunks[idx.toInt()] else null
+
+        // see H5EA__hdr_init
+        val nsblks = 1 + params.maxNelmtsBits - log2(params.dataBlkMinElmts.toLong())
+        val nsblksInIndex = 2 * log2(params.supBlkMinDataPtrs.toLong())
+        val dataBlockAddresses = LongArray(2 * (params.supBlkMinDataPtrs - 1)) { -1L }
+        val superBlockAddresses = LongArray(nsblks - nsblksInIndex) { -1L }
+
+        val headerAddress = reserve(72)
+        var startIdx = 0L
+        var startDataBlock = 0
+        for (u in 0 until nsblks) {
+            val ndblks = 1 shl (u / 2)
+            val dblkNelmts = (1L shl ((u + 1) / 2)) * params.dataBlkMinElmts
+            val first = params.idxBlkElmts + startIdx
+            if (first >= n) break
+            val npages = if (dblkNelmts > pageNelmts) (dblkNelmts / pageNelmts).toInt() else 0
+            val pageInit = ByteArray(ndblks * ((npages + 7) / 8))
+            val addresses = LongArray(ndblks) { -1L }
+            for (j in 0 until ndblks) {
+                val dblkFirst = first + j * dblkNelmts
+                if (dblkFirst >= n) break
+                val prefix = block(false) {
+                    string("EADB"); byte(0); byte(clientId); long(headerAddress)
+                    sized(startIdx + j * dblkNelmts, offsetSize)
+                }
+                addresses[j] = if (npages == 0) {
+                    append(block(true) {
+                        bytes(prefix)
+                        for (idx in dblkFirst until dblkFirst + dblkNelmts) element(chunk(idx), deflate, sizeLen)
+                    })
+                } else {
+                    val address = append(block(true) { bytes(prefix) })
+                    for (page in 0 until npages) {
+                        val pageFirst = dblkFirst + page * pageNelmts
+                        // the data blocks of the index block dont have page bitmaps
+                        if (u < nsblksInIndex || (pageFirst until pageFirst + pageNelmts).any { chunk(it) != null }) {
+                            if (u >= nsblksInIndex) setBit(pageInit, j * npages + page)
+                            append(block(true) { for (idx in pageFirst until pageFirst + pageNelmts) element(chunk(idx), deflate, sizeLen) })
+                        } else {
+                            unwritten((pageNelmts * elemSize).toInt() + 4)
+                        }
+                    }
+                    address
+                }
+            }
+            if (u < nsblksInIndex) {
+                addresses.copyInto(dataBlockAddresses, startDataBlock)
+            } else {
+                superBlockAddresses[u - nsblksInIndex] = append(block(true) {
+                    string("EASB"); byte(0); byte(clientId); long(headerAddress)
+                    sized(startIdx, offsetSize)
+                    if (npages > 0) bytes(pageInit)
+                    addresses.forEach { long(it) }
+                })
+            }
+            startIdx += ndblks * dblkNelmts
+            startDataBlock += ndblks
+        }
+
+        val indexBlock = append(block(true) {
+            string("EAIB"); byte(0); byte(clientId); long(headerAddress)
+            for (idx in 0 until params.idxBlkElmts) element(chunk(idx.toLong()), deflate, sizeLen)
+            dataBlockAddresses.forEach { long(it) }
+            superBlockAddresses.forEach { long(it) }
+        })
+        put(headerAddress, block(true) {
+            string("EAHD"); byte(0); byte(clientId); byte(elemSize)
+            byte(params.maxNelmtsBits); byte(params.idxBlkElmts); byte(params.dataBlkMinElmts)
+            byte(params.supBlkMinDataPtrs); byte(params.pageBits)
+            repeat(4) { long(0) } // super block and data block statistics
+            long(n); long(n) // max index set, number of elements
+            long(indexBlock)
+        })
+
+        val layout = chunkedLayout(chunkDims, 0, 4) {
+            byte(params.maxNelmtsBits); byte(params.idxBlkElmts); byte(params.supBlkMinDataPtrs)
+            byte(params.dataBlkMinElmts); byte(params.pageBits)
+            long(headerAddress)
+        }
+        dataset(name, dims, maxDims, 2, layout, deflate)
+    }
+
+    /**
+     * A chunked dataset with a version 2 B-tree index, for more than one unlimited dimension; all are unlimited here.
+     * @param extraTiles chunks past the dataset's shape, as left when a dataset shrinks
+     */
+    fun btree2(name : String, dims : LongArray, chunkDims : LongArray, values : IntArray, deflate : Boolean,
+               nodeSize : Int = 2048, missing : (LongArray) -> Boolean = { false }, extraTiles : List<LongArray> = emptyList()) {
+        val tiles = tileShape(dims, chunkDims)
+        val chunks = writeChunks(dims, chunkDims, values, tiles, deflate, missing)
+        val records = mutableListOf<Pair<LongArray, ChunkRef>>()
+        chunks.forEachIndexed { idx, chunk -> if (chunk != null) records.add(Pair(unravel(idx.toLong(), tiles), chunk)) }
+        extraTiles.forEach { tile ->
+            val garbage = IntArray(chunkDims.fold(1L) { acc, n -> acc * n }.toInt()) { 99 }
+            records.add(Pair(tile, writeChunk(chunkDims, chunkDims, garbage, LongArray(chunkDims.size), deflate)))
+        }
+        // sorted by the chunks' scaled offsets, see H5D__bt2_compare
+        records.sortWith { a, b -> (a.first.indices.firstOrNull { a.first[it] != b.first[it] }?.let { a.first[it].compareTo(b.first[it]) } ?: 0) }
+
+        val sizeLen = chunkSizeLength(chunkDims)
+        val recordSize = 8 + (if (deflate) sizeLen + 4 else 0) + 8 * dims.size
+        fun Block.record(record : Pair<LongArray, ChunkRef>) {
+            long(record.second.address)
+            if (deflate) { sized(record.second.size.toLong(), sizeLen); int(0) }
+            record.first.forEach { long(it) }
+        }
+
+        // see H5B2__hdr_init
+        val maxNrec = mutableListOf((nodeSize - 10) / recordSize)
+        val cumMaxNrec = mutableListOf(maxNrec[0].toLong())
+        val cumMaxNrecSize = mutableListOf(0)
+        val maxNrecSize = log2(maxNrec[0].toLong()) / 8 + 1
+        while (cumMaxNrec.last() < records.size) {
+            val depth = maxNrec.size
+            val pointerSize = 8 + maxNrecSize + cumMaxNrecSize[depth - 1]
+            maxNrec.add((nodeSize - (10 + pointerSize)) / (recordSize + pointerSize))
+            cumMaxNrec.add((maxNrec[depth] + 1) * cumMaxNrec[depth - 1] + maxNrec[depth])
+            cumMaxNrecSize.add(log2(cumMaxNrec[depth]) / 8 + 1)
+        }
+        val type = if (deflate) 11 else 10
+
+        // write the node with these records, return its address and number of records
+        fun node(recs : List<Pair<LongArray, ChunkRef>>, depth : Int) : Pair<Long, Int> {
+            if (depth == 0) {
+                return Pair(append(block(true, nodeSize) {
+                    string("BTLF"); byte(0); byte(type)
+                    recs.forEach { record(it) }
+                }), recs.size)
+            }
+            // the records are split evenly between the children, with one record between each pair of children
+            val nchildren = ((recs.size + 1 + cumMaxNrec[depth - 1]) / (cumMaxNrec[depth - 1] + 1)).toInt()
+            check(nchildren - 1 <= maxNrec[depth])
+            val perChild = (recs.size - (nchildren - 1)) / nchildren
+            val extra = (recs.size - (nchildren - 1)) % nchildren
+            val children = mutableListOf<Triple<Long, Int, Int>>() // address, number of records in the node, in the subtree
+            val separators = mutableListOf<Pair<LongArray, ChunkRef>>()
+            var start = 0
+            for (c in 0 until nchildren) {
+                val count = perChild + if (c < extra) 1 else 0
+                val (address, nrec) = node(recs.subList(start, start + count), depth - 1)
+                children.add(Triple(address, nrec, count))
+                start += count
+                if (c < nchildren - 1) separators.add(recs[start++])
+            }
+            return Pair(append(block(true, nodeSize) {
+                string("BTIN"); byte(0); byte(type)
+                separators.forEach { record(it) }
+                children.forEach { (address, nrec, total) ->
+                    long(address)
+                    sized(nrec.toLong(), maxNrecSize)
+                    if (depth > 1) sized(total.toLong(), cumMaxNrecSize[depth - 1])
+                }
+            }), separators.size)
+        }
+
+        val depth = maxNrec.size - 1
+        val (root, rootNrec) = node(records, depth)
+        val header = append(block(true) {
+            string("BTHD"); byte(0); byte(type)
+            int(nodeSize); short(recordSize); short(depth)
+            byte(100); byte(40) // split and merge percent
+            long(root); short(rootNrec); long(records.size.toLong())
+        })
+
+        val layout = chunkedLayout(chunkDims, 0, 5) {
+            int(nodeSize); byte(100); byte(40)
+            long(header)
+        }
+        dataset(name, dims, LongArray(dims.size) { -1L }, 2, layout, deflate)
+    }
+
+    /** Write the file, with the root group linking to all the datasets. */
+    fun write(file : File) {
+        val rootGroup = objectHeader(listOf(
+            Pair(2, block { byte(0); byte(0); long(-1L); long(-1L) }), // link info: no fractal heap or name index
+            Pair(10, block { byte(0); byte(0) }), // group info
+        ) + links.map { (name, address) ->
+            Pair(6, block { byte(1); byte(0); byte(name.length); string(name); long(address) }) // hard link
+        })
+        val rootAddress = append(rootGroup)
+        put(0, block(true) {
+            bytes(byteArrayOf(0x89.toByte(), 'H'.code.toByte(), 'D'.code.toByte(), 'F'.code.toByte(), '\r'.code.toByte(),
+                '\n'.code.toByte(), 0x1a, '\n'.code.toByte()))
+            byte(2); byte(8); byte(8); byte(0) // version, size of offsets and lengths, flags
+            long(0); long(-1L); long(eof); long(rootAddress) // base, superblock extension, end of file, root group
+        })
+        file.writeBytes(bb.array().copyOf(eof.toInt()))
+    }
+
+    /////////////////////////////////////////////////////////////////////
+
+    // layoutClass 1 = contiguous, 2 = chunked
+    private fun dataset(name : String, dims : LongArray, maxDims : LongArray?, layoutClass : Int, layout : ByteArray, deflate : Boolean,
+                        datatype : ByteArray = int32, fill : Int? = fillValue) {
+        val messages = mutableListOf(
+            Pair(1, block { // dataspace
+                byte(2); byte(dims.size); byte(if (maxDims != null) 1 else 0); byte(1)
+                dims.forEach { long(it) }
+                maxDims?.forEach { long(it) }
+            }),
+            Pair(3, datatype),
+            Pair(5, block { // fill value: allocation time early or incremental, written if set, maybe defined
+                byte(3); byte((if (layoutClass == 1) 1 else 2) or (2 shl 2) or (if (fill != null) 0x20 else 0))
+                if (fill != null) { int(4); int(fill) }
+            }),
+            Pair(8, layout),
+        )
+        if (deflate) {
+            messages.add(Pair(11, block { byte(2); byte(1); short(1); short(0); short(1); int(6) }))
+        }
+        links.add(Pair(name, append(objectHeader(messages))))
+    }
+
+    // a version 2 object header with these (type, message) pairs
+    private fun objectHeader(messages : List<Pair<Int, ByteArray>>) : ByteArray {
+        val data = block {
+            messages.forEach { (type, message) ->
+                byte(type); short(message.size); byte(if (type == 3) 1 else 0) // the datatype is constant
+                bytes(message)
+            }
+        }
+        return block(true) {
+            string("OHDR"); byte(2); byte(2) // flags: the size of chunk 0 takes 4 bytes
+            int(data.size); bytes(data)
+        }
+    }
+
+    // a version 4 chunked layout message, the index specific fields and the address are added by index
+    private fun chunkedLayout(chunkDims : LongArray, flags : Int, indexType : Int, index : Block.() -> Unit) = block {
+        val dims = chunkDims + 4L // the last dimension is the element size
+        val dimSizeLength = dims.maxOf { log2(it) / 8 + 1 }
+        byte(4); byte(2); byte(flags); byte(dims.size); byte(dimSizeLength)
+        dims.forEach { sized(it, dimSizeLength) }
+        byte(indexType)
+        index()
+    }
+
+    // the chunks in linear index order: row-major over the tiles, null if missing
+    private fun writeChunks(dims : LongArray, chunkDims : LongArray, values : IntArray, tiles : LongArray, deflate : Boolean,
+                            missing : (LongArray) -> Boolean) : List<ChunkRef?> {
+        val ntiles = tiles.fold(1L) { acc, n -> acc * n }
+        return (0 until ntiles).map { idx ->
+            val tile = unravel(idx, tiles)
+            if (missing(tile)) null else writeChunk(dims, chunkDims, values, tile, deflate)
+        }
+    }
+
+    private fun writeChunk(dims : LongArray, chunkDims : LongArray, values : IntArray, tile : LongArray, deflate : Boolean) : ChunkRef {
+        val nelems = chunkDims.fold(1L) { acc, n -> acc * n }
+        val data = ByteBuffer.allocate(4 * nelems.toInt()).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until nelems) {
+            val index = unravel(i, chunkDims)
+            var linear = 0L
+            var inside = true
+            for (d in dims.indices) {
+                val pos = tile[d] * chunkDims[d] + index[d]
+                if (pos >= dims[d]) inside = false
+                linear = linear * dims[d] + pos
+            }
+            data.putInt(if (inside) values[linear.toInt()] else edgeValue)
+        }
+        val bytes = if (deflate) deflate(data.array()) else data.array()
+        return ChunkRef(append(bytes), bytes.size)
+    }
+
+    private fun deflate(bytes : ByteArray) : ByteArray {
+        val deflater = Deflater(6)
+        deflater.setInput(bytes)
+        deflater.finish()
+        val out = ByteArrayOutputStream()
+        val buffer = ByteArray(1000)
+        while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer))
+        deflater.end()
+        return out.toByteArray()
+    }
+
+    // a chunk index element: address, and if filtered, the chunk size and filter mask
+    private fun Block.element(chunk : ChunkRef?, filtered : Boolean, sizeLen : Int) {
+        long(chunk?.address ?: -1L)
+        if (filtered) { sized(chunk?.size?.toLong() ?: 0L, sizeLen); int(0) }
+    }
+
+    // see H5D__farray_idx_create: enough bytes for the size of an unfiltered chunk, and then one more
+    private fun chunkSizeLength(chunkDims : LongArray) = minOf(8, 1 + (log2(4 * chunkDims.fold(1L) { acc, n -> acc * n }) + 8) / 8)
+
+    private fun tileShape(dims : LongArray, chunkDims : LongArray) = LongArray(dims.size) { (dims[it] + chunkDims[it] - 1) / chunkDims[it] }
+
+    private fun unravel(idx : Long, shape : LongArray) : LongArray {
+        val result = LongArray(shape.size)
+        var rest = idx
+        for (d in shape.indices.reversed()) {
+            result[d] = rest % shape[d]
+            rest /= shape[d]
+        }
+        return result
+    }
+
+    private fun setBit(bitmap : ByteArray, bitno : Int) {
+        bitmap[bitno / 8] = (bitmap[bitno / 8].toInt() or (0x80 ushr (bitno % 8))).toByte()
+    }
+
+    private fun isBitSet(bitmap : ByteArray, bitno : Int) = (bitmap[bitno / 8].toInt() and (0x80 ushr (bitno % 8))) != 0
+
+    private fun log2(n : Long) : Int = 63 - java.lang.Long.numberOfLeadingZeros(n)
+
+    // add to the end of the file
+    private fun append(bytes : ByteArray) : Long {
+        val address = eof
+        put(address, bytes)
+        return address
+    }
+
+    private fun reserve(nbytes : Int) : Long = append(ByteArray(nbytes))
+
+    // space for pages that arent initialized, which the reader must not look at
+    private fun unwritten(nbytes : Int) : Long = append(ByteArray(nbytes) { 0x55 })
+
+    private fun put(address : Long, bytes : ByteArray) {
+        val end = address + bytes.size
+        if (end > bb.capacity()) {
+            bb = ByteBuffer.allocate(maxOf(2 * bb.capacity(), end.toInt())).order(ByteOrder.LITTLE_ENDIAN).put(bb.array())
+        }
+        bb.put(address.toInt(), bytes)
+        eof = maxOf(eof, end)
+    }
+
+    /** Little endian fields of a file structure. */
+    class Block {
+        private val out = ByteArrayOutputStream()
+        val size get() = out.size()
+
+        fun byte(v : Int) = out.write(v)
+        fun short(v : Int) = sized(v.toLong(), 2)
+        fun int(v : Int) = sized(v.toLong(), 4)
+        fun long(v : Long) = sized(v, 8)
+        fun string(s : String) = out.write(s.toByteArray())
+        fun bytes(b : ByteArray) = out.write(b)
+        fun sized(v : Long, nbytes : Int) = repeat(nbytes) { out.write((v ushr (8 * it)).toInt() and 0xff) }
+        fun toByteArray() : ByteArray = out.toByteArray()
+    }
+
+    companion object {
+        private const val superblockSize = 48
+        private val int32 = block { byte(0x10); byte(0x08); byte(0); byte(0); int(4); short(0); short(32) } // signed, little endian
+
+        /**
+         * The fields, then if withChecksum, their lookup3 checksum, then zeros up to size.
+         */
+        fun block(withChecksum : Boolean = false, size : Int = 0, fill : Block.() -> Unit) : ByteArray {
+            val block = Block()
+            block.fill()
+            if (withChecksum) {
+                val fields = block.toByteArray()
+                block.int(lookup3(fields, fields.size))
+            }
+            while (block.size < size) block.byte(0)
+            return block.toByteArray()
+        }
+
+        /** Bob Jenkins' lookup3 hashlittle with an initial value of 0, as used for HDF5 metadata checksums. */
+        fun lookup3(key : ByteArray, length : Int) : Int {
+            var a = 0xdeadbeef.toInt() + length
+            var b = a
+            var c = a
+            fun k(i : Int) = key[i].toInt() and 0xff
+            fun word(i : Int, n : Int) : Int {
+                var result = 0
+                for (j in 0 until n) result = result or (k(i + j) shl (8 * j))
+                return result
+            }
+            var pos = 0
+            var left = length
+            while (left > 12) {
+                a += word(pos, 4); b += word(pos + 4, 4); c += word(pos + 8, 4)
+                a -= c; a = a xor Integer.rotateLeft(c, 4); c += b
+                b -= a; b = b xor Integer.rotateLeft(a, 6); a += c
+                c -= b; c = c xor Integer.rotateLeft(b, 8); b += a
+                a -= c; a = a xor Integer.rotateLeft(c, 16); c += b
+                b -= a; b = b xor Integer.rotateLeft(a, 19); a += c
+                c -= b; c = c xor Integer.rotateLeft(b, 4); b += a
+                pos += 12
+                left -= 12
+            }
+            if (left == 0) return c
+            a += word(pos, minOf(left, 4))
+            if (left > 4) b += word(pos + 4, minOf(left - 4, 4))
+            if (left > 8) c += word(pos + 8, left - 8)
+            c = c xor b; c -= Integer.rotateLeft(b, 14)
+            a = a xor c; a -= Integer.rotateLeft(c, 11)
+            b = b xor a; b -= Integer.rotateLeft(a, 25)
+            c = c xor b; c -= Integer.rotateLeft(b, 16)
+            a = a xor c; a -= Integer.rotateLeft(c, 4)
+            b = b xor a; b -= Integer.rotateLeft(a, 14)
+            c = c xor b; c -= Integer.rotateLeft(b, 24)
+            return c
+        }
+    }
+}
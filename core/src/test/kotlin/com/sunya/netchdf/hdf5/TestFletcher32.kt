@@ -0,0 +1,122 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.util.Stats
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import kotlin.random.Random
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+
+class TestFletcher32 {
+
+    companion object {
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            Stats.clear()
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            Stats.show()
+        }
+    }
+
+    @Test
+    fun testAgainstReference() {
+        val random = Random(42)
+        for (len in listOf(0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 719, 720, 721, 10_000, 65_537, 300_001)) {
+            val data = random.nextBytes(len)
+            assertEquals(fletcher32Reference(data, len), Fletcher32.checksum(data, 0, len), "length $len")
+        }
+    }
+
+    @Test
+    fun testEdgeValues() {
+        for (len in listOf(1, 2, 100, 720, 70_000, 1_000_000)) {
+            val zeros = ByteArray(len)
+            assertEquals(fletcher32Reference(zeros, len), Fletcher32.checksum(zeros, 0, len), "zeros $len")
+            val ones = ByteArray(len) { -1 }
+            assertEquals(fletcher32Reference(ones, len), Fletcher32.checksum(ones, 0, len), "ones $len")
+        }
+    }
+
+    @Test
+    fun testOffset() {
+        val data = Random(7).nextBytes(1003)
+        assertEquals(fletcher32Reference(data.copyOfRange(3, 1003), 1000), Fletcher32.checksum(data, 3, 1000))
+    }
+
+    @Test
+    fun testReversed() {
+        assertEquals(0x34127856, Fletcher32.reversed(0x12345678))
+    }
+
+    // Compare the checksum to inflating the same chunk, since they are both done when reading a chunk.
+    @Test
+    fun timeChecksumVsInflate() {
+        val chunkSize = 4 * 1024 * 1024
+        val data = ByteBuffer.allocate(chunkSize)
+        val random = Random(1)
+        while (data.hasRemaining()) data.putFloat(1000f + random.nextFloat())
+
+        val deflater = Deflater()
+        deflater.setInput(data.array())
+        deflater.finish()
+        val compressed = ByteArray(chunkSize)
+        val ncompressed = deflater.deflate(compressed)
+        deflater.end()
+
+        val inflated = ByteArray(chunkSize)
+        val inflater = Inflater()
+        var checksum = 0
+        repeat(20) {
+            val time1 = measureNanoTime {
+                checksum = Fletcher32.checksum(data.array(), 0, chunkSize)
+            }
+            Stats.of("fletcher32", "4Mb chunk", "Mb").accum(time1, chunkSize / 1024 / 1024)
+
+            val time2 = measureNanoTime {
+                inflater.reset()
+                inflater.setInput(compressed, 0, ncompressed)
+                inflater.inflate(inflated)
+            }
+            Stats.of("inflate", "4Mb chunk", "Mb").accum(time2, chunkSize / 1024 / 1024)
+        }
+        inflater.end()
+        assertEquals(fletcher32Reference(data.array(), chunkSize), checksum)
+    }
+
+    // H5_checksum_fletcher32 from H5checksum.c
+    fun fletcher32Reference(data: ByteArray, len: Int): Int {
+        var sum1 = 0L
+        var sum2 = 0L
+        var pos = 0
+        var nwords = len / 2
+        while (nwords > 0) {
+            var tlen = minOf(nwords, 360)
+            nwords -= tlen
+            do {
+                sum1 += ((data[pos].toLong() and 0xff) shl 8) or (data[pos + 1].toLong() and 0xff)
+                pos += 2
+                sum2 += sum1
+            } while (--tlen > 0)
+            sum1 = (sum1 and 0xffff) + (sum1 ushr 16)
+            sum2 = (sum2 and 0xffff) + (sum2 ushr 16)
+        }
+        if (len % 2 == 1) {
+            sum1 += (data[pos].toLong() and 0xff) shl 8
+            sum2 += sum1
+            sum1 = (sum1 and 0xffff) + (sum1 ushr 16)
+            sum2 = (sum2 and 0xffff) + (sum2 ushr 16)
+        }
+        sum1 = (sum1 and 0xffff) + (sum1 ushr 16)
+        sum2 = (sum2 and 0xffff) + (sum2 ushr 16)
+        return ((sum2 shl 16) or sum1).toInt()
+    }
+}
@@ -0,0 +1,154 @@
+package com.sunya.netchdf.hdf5
+
+import com.sunya.cdm.api.Section
+import com.sunya.cdm.api.computeSize
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.Deflater
+import kotlin.system.measureNanoTime
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/** Test [com.sunya.netchdf.hdf5.H5chunkDecoder] */
+class TestH5chunkDecoder {
+    val varShape = longArrayOf(100, 60)
+    val chunkShape = longArrayOf(16, 16)
+    val filters = listOf(
+        Filter(FilterType.shuffle, "shuffle", intArrayOf(4)),
+        Filter(FilterType.deflate, "deflate", intArrayOf(5)),
+    )
+
+    fun value(row : Long, col : Long) = (row * varShape[1] + col).toInt()
+
+    // the chunk starting at offsets, shuffled and deflated, the way the HDF5 library writes it
+    fun rawChunk(offsets : LongArray) : ByteArray {
+        val nelems = chunkShape.computeSize().toInt()
+        val chunk = ByteBuffer.allocate(4 * nelems).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until chunkShape[0]) {
+            for (j in 0 until chunkShape[1]) {
+                chunk.putInt(value(offsets[0] + i, offsets[1] + j)) // edge chunks are full size, with garbage past the edge
+            }
+        }
+        val bytes = chunk.array()
+        val shuffled = ByteArray(bytes.size) { bytes[4 * (it % nelems) + it / nelems] }
+
+        val deflater = Deflater(5)
+        deflater.setInput(shuffled)
+        deflater.finish()
+        val out = ByteArray(bytes.size + 100)
+        val n = deflater.deflate(out)
+        deflater.end()
+        return out.copyOf(n)
+    }
+
+    fun makeChunks() : Map<List<Long>, ByteArray> {
+        val result = mutableMapOf<List<Long>, ByteArray>()
+        for (row in 0 until varShape[0] step chunkShape[0]) {
+            for (col in 0 until varShape[1] step chunkShape[1]) {
+                result[listOf(row, col)] = rawChunk(longArrayOf(row, col))
+            }
+        }
+        return result
+    }
+
+    fun checkSection(bb : ByteBuffer, section : Section, expected : (row : Long, col : Long) -> Int) {
+        var count = 0
+        for (row in section.ranges[0]) {
+            for (col in section.ranges[1]) {
+                assertEquals(expected(row, col), bb.getInt(4 * count), "[$row, $col]")
+                count++
+            }
+        }
+        assertEquals(4 * count, bb.limit())
+    }
+
+    @Test
+    fun testReadChunkedData() {
+        val chunks = makeChunks()
+        val decoder = H5chunkDecoder("test", varShape, chunkShape, 4, filters, ByteOrder.LITTLE_ENDIAN)
+        val fillValue = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(-1).array()
+
+        val sections = listOf(
+            Section(varShape),
+            Section(intArrayOf(10, 5), intArrayOf(30, 40), varShape),
+            Section(listOf(3L..97L step 7, 0L..59L step 3), varShape),
+        )
+        for (nthreads in listOf(1, 4)) {
+            for (section in sections) {
+                val bb = decoder.readChunkedData(section, fillValue, nthreads) { offsets ->
+                    H5chunkDecoder.RawChunk(0, ByteBuffer.wrap(chunks[offsets.toList()]!!))
+                }
+                assertEquals(ByteOrder.LITTLE_ENDIAN, bb.order())
+                checkSection(bb, section) { row, col -> value(row, col) }
+            }
+        }
+    }
+
+    @Test
+    fun testMissingChunks() {
+        val chunks = makeChunks()
+        val decoder = H5chunkDecoder("test", varShape, chunkShape, 4, filters, ByteOrder.LITTLE_ENDIAN)
+        val fillValue = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(-1).array()
+        // the chunks in the second row of chunks are missing
+        fun isMissing(row : Long) = row / chunkShape[0] == 1L
+
+        for (nthreads in listOf(1, 4)) {
+            val section = Section(varShape)
+            val bb = decoder.readChunkedData(section, fillValue, nthreads) { offsets ->
+                if (isMissing(offsets[0])) null else H5chunkDecoder.RawChunk(0, ByteBuffer.wrap(chunks[offsets.toList()]!!))
+            }
+            checkSection(bb, section) { row, col -> if (isMissing(row)) -1 else value(row, col) }
+        }
+    }
+
+    @Test
+    fun testFilterMask() {
+        // the chunk at (0, 0) was written without the deflate filter (bit 1 set)
+        val decoder = H5chunkDecoder("test", varShape, chunkShape, 4, filters, ByteOrder.LITTLE_ENDIAN)
+        val inflated = java.util.zip.Inflater().run {
+            setInput(rawChunk(longArrayOf(0, 0)))
+            val out = ByteArray(4 * chunkShape.computeSize().toInt())
+            inflate(out)
+            end()
+            out
+        }
+        val section = Section(intArrayOf(0, 0), intArrayOf(16, 16), varShape)
+        val bb = decoder.readChunkedData(section, ByteArray(4), 1) { H5chunkDecoder.RawChunk(2, ByteBuffer.wrap(inflated)) }
+        checkSection(bb, section) { row, col -> value(row, col) }
+    }
+
+    @Test
+    fun testCanDecode() {
+        assertTrue(H5chunkDecoder.canDecode(filters))
+        assertTrue(H5chunkDecoder.canDecode(emptyList()))
+        assertFalse(H5chunkDecoder.canDecode(listOf(Filter(FilterType.nbit, "nbit", intArrayOf()))))
+        assertFailsWith<IllegalArgumentException> {
+            H5chunkDecoder("test", varShape, longArrayOf(16), 4, filters, ByteOrder.LITTLE_ENDIAN)
+        }
+    }
+
+    @Test
+    fun timeDecodeThreads() {
+        val bigShape = longArrayOf(2000, 2000)
+        val bigChunk = longArrayOf(100, 100)
+        val decoder = H5chunkDecoder("test", bigShape, bigChunk, 4, listOf(filters[1]), ByteOrder.LITTLE_ENDIAN)
+        val raw = run {
+            val deflater = Deflater(5)
+            deflater.setInput(ByteArray(4 * bigChunk.computeSize().toInt()) { (it % 251).toByte() })
+            deflater.finish()
+            val out = ByteArray(100_000)
+            val n = deflater.deflate(out)
+            deflater.end()
+            out.copyOf(n)
+        }
+        for (nthreads in listOf(1, 4)) {
+            val time = measureNanoTime {
+                decoder.readChunkedData(Section(bigShape), ByteArray(4), nthreads) { H5chunkDecoder.RawChunk(0, ByteBuffer.wrap(raw)) }
+            }
+            println("decode 400 chunks with $nthreads threads: ${time / 1000} usecs")
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.sunya.netchdf.hdf5
+
+import org.junit.jupiter.api.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class TestH5chunkIndex {
+
+    @Test
+    fun testMaxChunkStrides() {
+        // 10 x 6 x 3 chunks at the maximum size
+        val strides = H5chunkLookup.maxChunkStrides(longArrayOf(100, 30, 30), longArrayOf(10, 5, 10, 4))
+        assertContentEquals(longArrayOf(18, 3, 1), strides)
+        assertEquals(18L * 9 + 3 * 5 + 2, H5chunkLookup.linearIndex(longArrayOf(9, 5, 2), strides))
+    }
+
+    @Test
+    fun testMaxChunkStridesUnlimited() {
+        // the unlimited dimension varies slowest, the others keep their order
+        val strides = H5chunkLookup.maxChunkStrides(longArrayOf(100, -1, 30), longArrayOf(10, 5, 10, 4), 1)
+        assertContentEquals(longArrayOf(3, 30, 1), strides)
+
+        val first = H5chunkLookup.maxChunkStrides(longArrayOf(-1, 30), longArrayOf(10, 7, 4), 0)
+        assertContentEquals(longArrayOf(5, 1), first)
+    }
+
+    @Test
+    fun testBitmap() {
+        val bitmap = byteArrayOf(0x80.toByte(), 0x01)
+        assertTrue(H5chunkLookup.isBitSet(bitmap, 0))
+        assertFalse(H5chunkLookup.isBitSet(bitmap, 1))
+        assertFalse(H5chunkLookup.isBitSet(bitmap, 8))
+        assertTrue(H5chunkLookup.isBitSet(bitmap, 15))
+    }
+}
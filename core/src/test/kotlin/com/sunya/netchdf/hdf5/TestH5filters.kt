@@ -0,0 +1,45 @@
+package com.sunya.netchdf.hdf5
+
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.Deflater
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+
+/** Test [com.sunya.netchdf.hdf5.H5filters] */
+class TestH5filters {
+    val deflate = FilterPipelineMessage(listOf(Filter(FilterType.deflate, "deflate", intArrayOf(5))))
+
+    fun deflated(bytes : ByteArray) : ByteArray {
+        val deflater = Deflater(5)
+        deflater.setInput(bytes)
+        deflater.finish()
+        val out = ByteArray(bytes.size + 100)
+        val n = deflater.deflate(out)
+        deflater.end()
+        return out.copyOf(n)
+    }
+
+    fun check(chunkSizeBytes : Int, nbytes : Int) {
+        val expected = ByteArray(nbytes) { (it % 251).toByte() }
+        val filters = H5filters("test", deflate, ByteOrder.LITTLE_ENDIAN, chunkSizeBytes)
+        val chunk = H5DataChunk(longArrayOf(0), 0, 0, 0L)
+        val result = filters.apply(ByteBuffer.wrap(deflated(expected)), chunk)
+        assertEquals(nbytes, result.limit())
+        assertContentEquals(expected, ByteArray(result.limit()).also { result.get(0, it) })
+    }
+
+    @Test
+    fun testInflateExpectedSize() {
+        check(10_000, 10_000)
+    }
+
+    // the output grows when the chunk is bigger than expected, even from an expected size of 0
+    @Test
+    fun testInflateGrows() {
+        check(100, 10_000)
+        check(0, 10_000)
+        check(0, 10)
+    }
+}
@@ -0,0 +1,100 @@
+package com.sunya.netchdf.netcdf3
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayFloat
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+
+/** Test the suspending reads and chunkFlow, on a netcdf-3 file written here. */
+class N3asyncTest {
+
+    companion object {
+        const val nrows = 50
+        const val ncols = 40
+        lateinit var tempFile : File
+
+        // one float variable data(row, col) = row * 1000 + col
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            val header = ByteArrayOutputStream()
+            DataOutputStream(header).use { out ->
+                fun name(s : String) { out.writeInt(s.length); out.writeBytes(s); repeat((4 - s.length % 4) % 4) { out.write(0) } }
+                out.writeBytes("CDF"); out.write(1)
+                out.writeInt(0) // numrecs
+                out.writeInt(10); out.writeInt(2) // dimensions
+                name("row"); out.writeInt(nrows)
+                name("col"); out.writeInt(ncols)
+                out.writeInt(0); out.writeInt(0) // no global attributes
+                out.writeInt(11); out.writeInt(1) // variables
+                name("data"); out.writeInt(2); out.writeInt(0); out.writeInt(1)
+                out.writeInt(0); out.writeInt(0) // no variable attributes
+                out.writeInt(5) // float
+                out.writeInt(4 * nrows * ncols)
+                out.writeInt(out.size() + 4) // begin
+            }
+            tempFile = File.createTempFile("N3asyncTest", ".nc")
+            DataOutputStream(tempFile.outputStream()).use { out ->
+                out.write(header.toByteArray())
+                repeat(nrows) { row -> repeat(ncols) { col -> out.writeFloat(row * 1000f + col) } }
+            }
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    @Test
+    fun testReadArrayDataAsync() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val v = ncfile.rootGroup().variables.find { it.name == "data" }!!
+            val expect = ncfile.readArrayData(v) as ArrayFloat
+            assertEquals(49039f, expect.getFloat(intArrayOf(49, 39)))
+
+            // many reads at once
+            val arrays = runBlocking {
+                (0 until nrows).map { row ->
+                    async { ncfile.readArrayDataAsync(v, SectionPartial.fromSpec("$row, :")) as ArrayFloat }
+                }.awaitAll()
+            }
+            arrays.forEachIndexed { row, array ->
+                assertContentEquals(FloatArray(ncols) { row * 1000f + it }, array.toFloatArray())
+            }
+        }
+    }
+
+    @Test
+    fun testChunkFlow() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val v = ncfile.rootGroup().variables.find { it.name == "data" }!! as Variable<Float>
+            val expect = ncfile.chunkIterator(v, null, 100).asSequence().toList()
+            assertEquals(nrows * ncols / 80, expect.size) // whole rows
+
+            for (nthreads in listOf(1, 4)) {
+                val sections = runBlocking { ncfile.chunkFlow(v, null, 100, nthreads).toList() }
+                assertEquals(expect.map { it.section }, sections.map { it.section })
+                expect.zip(sections).forEach { (e, s) -> assertEquals(e.array, s.array) }
+            }
+
+            // stop collecting early, strided section
+            val first = runBlocking { ncfile.chunkFlow(v, SectionPartial.fromSpec("1:49:2, 0:39:3"), 100, 4).take(2).toList() }
+            assertEquals(2, first.size)
+            assertEquals(1000f, (first[0].array as ArrayFloat).getFloat(0))
+            assertEquals(1003f, (first[0].array as ArrayFloat).getFloat(1))
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.sunya.netchdf.netcdf3
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayFloat
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+
+/** Test that reads of 4000 bytes or more, which go straight into the array's buffer, leave it ready to use. */
+class N3largeReadTest {
+
+    companion object {
+        const val nrows = 5
+        const val ncols = 2000 // 8000 bytes in a row
+        lateinit var tempFile : File
+
+        // one float variable data(row, col) = row * 10000 + col
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            val header = ByteArrayOutputStream()
+            DataOutputStream(header).use { out ->
+                fun name(s : String) { out.writeInt(s.length); out.writeBytes(s); repeat((4 - s.length % 4) % 4) { out.write(0) } }
+                out.writeBytes("CDF"); out.write(1)
+                out.writeInt(0) // numrecs
+                out.writeInt(10); out.writeInt(2) // dimensions
+                name("row"); out.writeInt(nrows)
+                name("col"); out.writeInt(ncols)
+                out.writeInt(0); out.writeInt(0) // no global attributes
+                out.writeInt(11); out.writeInt(1) // variables
+                name("data"); out.writeInt(2); out.writeInt(0); out.writeInt(1)
+                out.writeInt(0); out.writeInt(0) // no variable attributes
+                out.writeInt(5) // float
+                out.writeInt(4 * nrows * ncols)
+                out.writeInt(out.size() + 4) // begin
+            }
+            tempFile = File.createTempFile("N3largeReadTest", ".nc")
+            DataOutputStream(tempFile.outputStream().buffered()).use { out ->
+                out.write(header.toByteArray())
+                repeat(nrows) { row -> repeat(ncols) { col -> out.writeFloat(row * 10000f + col) } }
+            }
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    private fun check(rows : List<Int>, array : ArrayFloat) {
+        assertEquals(0, array.bb.position())
+        assertEquals(array.bb.capacity(), array.bb.limit())
+        assertEquals(rows.size * ncols, array.values.remaining())
+        val expect = FloatArray(rows.size * ncols) { rows[it / ncols] * 10000f + it % ncols }
+        assertContentEquals(expect, array.toFloatArray())
+    }
+
+    @Test
+    fun testReadArrayData() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val v = ncfile.rootGroup().variables.find { it.name == "data" }!!
+            check((0 until nrows).toList(), ncfile.readArrayData(v) as ArrayFloat)
+            check(listOf(3), ncfile.readArrayData(v, SectionPartial.fromSpec("3, :")) as ArrayFloat)
+            check(listOf(0, 2, 4), ncfile.readArrayData(v, SectionPartial.fromSpec("0:4:2, :")) as ArrayFloat)
+        }
+    }
+
+    @Test
+    fun testChunkIterator() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val v = ncfile.rootGroup().variables.find { it.name == "data" }!! as Variable<Float>
+            val pieces = ncfile.chunkIterator(v, null, 2 * ncols).asSequence().toList()
+            assertEquals(listOf(0L, 2L, 4L), pieces.map { it.section.ranges[0].first })
+            pieces.forEach { piece ->
+                val first = piece.section.ranges[0].first.toInt()
+                check((first until first + piece.section.shape[0].toInt()).toList(), piece.array as ArrayFloat)
+            }
+        }
+    }
+}
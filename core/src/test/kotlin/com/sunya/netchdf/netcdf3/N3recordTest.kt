@@ -0,0 +1,141 @@
+package com.sunya.netchdf.netcdf3
+
+import com.sunya.cdm.api.*
+import com.sunya.cdm.array.ArrayDouble
+import com.sunya.cdm.array.ArrayInt
+import com.sunya.cdm.iosp.defaultMaxReadGap
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import kotlin.system.measureNanoTime
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+/** Test Netcdf3File.readRecords and recordIterator, on a netcdf-3 file written here. */
+class N3recordTest {
+
+    companion object {
+        const val nrecs = 20_000
+        lateinit var tempFile : File
+
+        // a non-record variable coord(x), and record variables
+        // time(rec) = rec * 10.0, temp(rec, x) = rec * 100 + x, flag(rec, y) = rec * 2 + y, count(rec) = rec
+        fun header(begins : List<Int>) : ByteArray {
+            val header = ByteArrayOutputStream()
+            DataOutputStream(header).use { out ->
+                fun name(s : String) { out.writeInt(s.length); out.writeBytes(s); repeat((4 - s.length % 4) % 4) { out.write(0) } }
+                fun variable(name : String, dims : List<Int>, type : Int, vsize : Int, begin : Int) {
+                    name(name); out.writeInt(dims.size); dims.forEach { out.writeInt(it) }
+                    out.writeInt(0); out.writeInt(0) // no variable attributes
+                    out.writeInt(type); out.writeInt(vsize); out.writeInt(begin)
+                }
+                out.writeBytes("CDF"); out.write(1)
+                out.writeInt(nrecs) // numrecs
+                out.writeInt(10); out.writeInt(3) // dimensions
+                name("rec"); out.writeInt(0)
+                name("x"); out.writeInt(3)
+                name("y"); out.writeInt(2)
+                out.writeInt(0); out.writeInt(0) // no global attributes
+                out.writeInt(11); out.writeInt(5) // variables
+                variable("coord", listOf(1), 5, 12, begins[0])
+                variable("time", listOf(0), 6, 8, begins[1])
+                variable("temp", listOf(0, 1), 5, 12, begins[2])
+                variable("flag", listOf(0, 2), 3, 4, begins[3])
+                variable("count", listOf(0), 4, 4, begins[4])
+            }
+            return header.toByteArray()
+        }
+
+        @JvmStatic
+        @BeforeAll
+        fun beforeAll() {
+            val size = header(List(5) { 0 }).size
+            tempFile = File.createTempFile("N3recordTest", ".nc")
+            DataOutputStream(tempFile.outputStream().buffered()).use { out ->
+                out.write(header(listOf(size, size + 12, size + 20, size + 32, size + 36)))
+                repeat(3) { out.writeFloat(it.toFloat()) }
+                repeat(nrecs) { rec ->
+                    out.writeDouble(rec * 10.0)
+                    repeat(3) { out.writeFloat(rec * 100f + it) }
+                    repeat(2) { out.writeShort(rec * 2 + it) }
+                    out.writeInt(rec)
+                }
+            }
+        }
+
+        @JvmStatic
+        @AfterAll
+        fun afterAll() {
+            tempFile.delete()
+        }
+    }
+
+    fun Netcdf3File.findVariables(vararg names : String) = names.map { name -> rootGroup().variables.find { it.name == name }!! }
+
+    fun Netcdf3File.readEach(variables : List<Variable<*>>, records : LongProgression? = null) = variables.map { v ->
+        readArrayData(v, if (records == null) null else SectionPartial(listOf(records) + List(v.rank - 1) { null }))
+    }
+
+    @Test
+    fun testReadRecords() {
+        for (maxReadGap in listOf(0, defaultMaxReadGap)) {
+            Netcdf3File(tempFile.path, maxReadGap = maxReadGap).use { ncfile ->
+                for (names in listOf(listOf("time", "temp", "flag", "count"), listOf("count", "temp"), listOf("flag"))) {
+                    val variables = ncfile.findVariables(*names.toTypedArray())
+                    for (records in listOf(null, 100L..199L, 3L..15000L step 7, 19_999L..19_999L)) {
+                        val arrays = ncfile.readRecords(variables, records)
+                        assertEquals(ncfile.readEach(variables, records), arrays, "$names $records")
+                    }
+                    ncfile.readRecords(variables, LongRange.EMPTY).forEach { assertEquals(0, it.nelems) }
+                }
+                val (time, count) = ncfile.readRecords(ncfile.findVariables("time", "count"), 10L..12L)
+                assertContentEquals(doubleArrayOf(100.0, 110.0, 120.0), (time as ArrayDouble).toDoubleArray())
+                assertContentEquals(intArrayOf(10, 11, 12), (count as ArrayInt).toIntArray())
+            }
+        }
+    }
+
+    @Test
+    fun testRecordIterator() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val variables = ncfile.findVariables("temp", "time", "flag")
+            val records = 5L until nrecs step 3
+            val chunks = ncfile.recordIterator(variables, records, 1000).asSequence().toList()
+            assertEquals((records.count() + 999) / 1000, chunks.size)
+            var next = records.first
+            chunks.forEach { chunk ->
+                assertEquals(variables.size, chunk.size)
+                chunk.forEachIndexed { idx, arraySection ->
+                    val wantRecords = arraySection.section.ranges[0]
+                    assertEquals(next, wantRecords.first)
+                    assertEquals(ncfile.readEach(listOf(variables[idx]), wantRecords)[0], arraySection.array)
+                }
+                next = chunk[0].section.ranges[0].last + records.step
+            }
+            assertEquals(records.last + records.step, next)
+        }
+    }
+
+    @Test
+    fun testNotRecordVariable() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            assertFailsWith<IllegalArgumentException> { ncfile.readRecords(ncfile.findVariables("time", "coord")) }
+            assertFailsWith<IllegalArgumentException> { ncfile.readRecords(ncfile.findVariables("time"), 0L..nrecs) }
+            assertFailsWith<IllegalArgumentException> { ncfile.readRecords(listOf()) }
+        }
+    }
+
+    @Test
+    fun timeRecords() {
+        Netcdf3File(tempFile.path).use { ncfile ->
+            val variables = ncfile.findVariables("time", "temp", "flag", "count")
+            val each = measureNanoTime { ncfile.readEach(variables) }
+            val together = measureNanoTime { ncfile.readRecords(variables) }
+            println("read ${variables.size} variables of $nrecs records: each ${each / 1000} usecs, together ${together / 1000} usecs")
+        }
+    }
+}